@@ -0,0 +1,51 @@
+//
+//Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without modification, 
+//are permitted provided that the following conditions are met:
+//
+//* Redistributions of source code must retain the above copyright notice, 
+//this list of conditions and the following disclaimer.
+//* Redistributions in binary form must reproduce the above copyright notice, 
+//this list of conditions and the following disclaimer in the documentation 
+//and/or other materials provided with the distribution.
+//* Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+//nor the names of its contributors may be used to endorse or promote products 
+//derived from this software without specific prior written permission.
+//
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+//WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+//INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, 
+//BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+//OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+//WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+//ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+//POSSIBILITY OF SUCH DAMAGE.
+//
+
+package org.objectledge.cache;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A value factory that is able to produce a number of values at once.
+ * <p>
+ * Used by {@link org.objectledge.cache.spi.FactoryMap#getAll(Collection)} to load all the
+ * values missing from the cache in a single operation.
+ * </p>
+ */
+public interface BulkValueFactory<K, V>
+    extends ValueFactory<K, V>
+{
+    /**
+     * Produces the values that correspond to the given keys.
+     *
+     * @param keys the keys.
+     * @return the values, keyed by key. Keys that have no corresponding values are omitted.
+     */
+    public Map<K, V> getValues(Collection<K> keys);
+}
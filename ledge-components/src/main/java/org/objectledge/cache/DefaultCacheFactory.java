@@ -28,25 +28,36 @@
 
 package org.objectledge.cache;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Modifier;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.jcontainer.dna.Configuration;
 import org.jcontainer.dna.ConfigurationException;
 import org.jcontainer.dna.Logger;
 import org.objectledge.ComponentInitializationError;
+import org.objectledge.cache.impl.AccessTrackingMap;
 import org.objectledge.cache.spi.CacheFactorySPI;
 import org.objectledge.cache.spi.ConfigurableMap;
 import org.objectledge.cache.spi.ConfigurableValueFactory;
@@ -55,9 +66,13 @@ import org.objectledge.cache.spi.FactoryMap;
 import org.objectledge.cache.spi.GuavaCache;
 import org.objectledge.cache.spi.LRUMap;
 import org.objectledge.cache.spi.LayeredMap;
+import org.objectledge.cache.spi.NegativeMap;
+import org.objectledge.cache.spi.OffHeapMap;
 import org.objectledge.cache.spi.SoftMap;
 import org.objectledge.cache.spi.StatisticsMap;
 import org.objectledge.cache.spi.TimeoutMap;
+import org.objectledge.cache.spi.TinyLFUMap;
+import org.objectledge.cache.spi.WeightedMap;
 import org.objectledge.context.Context;
 import org.objectledge.database.persistence.Persistence;
 import org.objectledge.database.persistence.Persistent;
@@ -69,6 +84,7 @@ import org.objectledge.statistics.MuninGraph;
 import org.objectledge.statistics.StatisticsProvider;
 import org.objectledge.threads.Task;
 import org.objectledge.threads.ThreadPool;
+import org.picocontainer.Startable;
 
 /**
  * DefaultCacheFactory component.
@@ -88,7 +104,7 @@ import org.objectledge.threads.ThreadPool;
  * @version $Id: DefaultCacheFactory.java,v 1.12 2008-01-20 15:17:50 rafal Exp $
  */
 public class DefaultCacheFactory
-    implements CacheFactorySPI, CacheFactory, StatisticsProvider
+    implements CacheFactorySPI, CacheFactory, StatisticsProvider, Startable
 {
     // constants ////////////////////////////////////////////////////////////
     /** Type constant for HashMap. */
@@ -100,15 +116,30 @@ public class DefaultCacheFactory
     /** Type constant for LongKeyOpenHashMap. */
     public static final String LONG_KEY_CHAINED_HASH_MAP_TYPE = "LongKeyChainedHashMap";
 
+    /** Type constant for LongKeyConcurrentHashMap. */
+    public static final String LONG_KEY_CONCURRENT_HASH_MAP_TYPE = "LongKeyConcurrentHashMap";
+
     /** Type constant for TimeoutMap. */
     public static final String TIMEOUT_MAP_TYPE = "TimeoutMap";
 
     /** Type constant for LRUMap. */
     public static final String LRU_MAP_TYPE = "LRUMap";
 
+    /** Type constant for TinyLFUMap. */
+    public static final String TINY_LFU_MAP_TYPE = "TinyLFUMap";
+
+    /** Type constant for OffHeapMap. */
+    public static final String OFF_HEAP_MAP_TYPE = "OffHeapMap";
+
+    /** Type constant for WeightedMap. */
+    public static final String WEIGHTED_MAP_TYPE = "WeightedMap";
+
     /** Type constant for SoftMap. */
     public static final String SOFT_MAP_TYPE = "SoftMap";
 
+    /** Type constant for NegativeMap. */
+    public static final String NEGATIVE_MAP_TYPE = "NegativeMap";
+
     /** Type constant for FactoryMap. */
     public static final String FACTORY_MAP_TYPE = "FactoryMap";
 
@@ -135,6 +166,10 @@ public class DefaultCacheFactory
     /** The default LongKeyChainedHashMap implementation */
     public static final String LONG_KEY_CHAINED_HASH_MAP_DEFAULT = 
         "org.objectledge.cache.impl.LongKeyChainedHashMapImpl";
+
+    /** The default LongKeyConcurrentHashMap implementation */
+    public static final String LONG_KEY_CONCURRENT_HASH_MAP_DEFAULT = 
+        "org.objectledge.cache.impl.LongKeyConcurrentHashMapImpl";
     
     /** The default implementation TimeoutMap implementation. */
     public static final String TIMEOUT_MAP_CLASS_DEFALUT =
@@ -144,6 +179,18 @@ public class DefaultCacheFactory
     public static final String LRU_MAP_CLASS_DEFALUT =
         "org.objectledge.cache.impl.LRUMapImpl";
     
+    /** The default implementation TinyLFUMap implementation. */
+    public static final String TINY_LFU_MAP_CLASS_DEFAULT =
+        "org.objectledge.cache.impl.TinyLFUMapImpl";
+
+    /** The default implementation OffHeapMap implementation. */
+    public static final String OFF_HEAP_MAP_CLASS_DEFAULT =
+        "org.objectledge.cache.impl.OffHeapMapImpl";
+
+    /** The default implementation WeightedMap implementation. */
+    public static final String WEIGHTED_MAP_CLASS_DEFAULT =
+        "org.objectledge.cache.impl.WeightedMapImpl";
+
     /** The default implementation SoftMap implementation. */
     public static final String SOFT_MAP_CLASS_DEFALUT =
         "org.objectledge.cache.impl.SoftMapImpl";
@@ -152,6 +199,10 @@ public class DefaultCacheFactory
     public static final String DISTRIBUTED_MAP_CLASS_DEFALUT =
         "org.objectledge.cache.impl.DistributedMapImpl";
 
+    /** The default implementation NegativeMap implementation. */
+    public static final String NEGATIVE_MAP_CLASS_DEFAULT =
+        "org.objectledge.cache.impl.NegativeMapImpl";
+
     /** The default implementation FactoryMap implementation. */
     public static final String FACTORY_MAP_CLASS_DEFALUT =
         "org.objectledge.cache.impl.FactoryMapImpl";
@@ -168,6 +219,30 @@ public class DefaultCacheFactory
     public static final String GUAVA_CACHE_CLASS_DEFAULT = 
          "org.objectledge.cache.impl.GuavaCacheImpl";
     
+    /** Default number of keys saved for cache warm-up. (1000) */
+    public static final int WARMUP_KEYS_DEFAULT = 1000;
+
+    /** Default number of threads loading values during cache warm-up. (2) */
+    public static final int WARMUP_THREADS_DEFAULT = 2;
+
+    /** Default maximum number of values loaded per second during cache warm-up. (100) */
+    public static final int WARMUP_RATE_DEFAULT = 100;
+
+    /** Default directory where warm-up keys are saved. */
+    public static final String WARMUP_DIRECTORY_DEFAULT = "/cache/warmup";
+
+    /** Default maximum number of delayed updates performed together. (100) */
+    public static final int DELAYED_UPDATE_BATCH_SIZE_DEFAULT = 100;
+
+    /** Default maximum number of pending delayed updates. (10000) */
+    public static final int DELAYED_UPDATE_MAX_BACKLOG_DEFAULT = 10000;
+
+    /** Default number of times a failed persistent update is retried. (3) */
+    public static final int DELAYED_UPDATE_RETRIES_DEFAULT = 3;
+
+    /** Default delay before a failed persistent update is retried. (5s) */
+    public static final long DELAYED_UPDATE_RETRY_DELAY_DEFAULT = 5000;
+
     // member objects ////////////////////////////////////////////////////////
     
     /** The registered StatisticsMaps */
@@ -185,11 +260,36 @@ public class DefaultCacheFactory
     /** Configured map instances. */
     private Map<String,Map<?,?>> instances = new HashMap<String,Map<?,?>>();
 
-    /** DelayedUpdate queue (target update time -&gt; object)*/
-    private SortedMap<Long,Set<DelayedUpdate>> queue = new TreeMap<Long,Set<DelayedUpdate>>();
+    /** DelayedUpdate queue, holding a single entry for every registered object. */
+    private final DelayQueue<PendingUpdate> queue = new DelayQueue<PendingUpdate>();
+
+    /** Current queue entries of the registered objects. */
+    private final ConcurrentMap<DelayedUpdate, PendingUpdate> pending =
+        new ConcurrentHashMap<DelayedUpdate, PendingUpdate>();
+
+    /** Maximum number of delayed updates performed together. */
+    private final int batchSize;
+
+    /** Maximum number of pending delayed updates. */
+    private final int maxBacklog;
+
+    /** Number of times a failed persistent update is retried. */
+    private final int retries;
+
+    /** Delay before a failed persistent update is retried. */
+    private final long retryDelay;
 
-    /** DelayedUpdate queue helper map (object -&gt; target update time)*/
-    private Map<DelayedUpdate,Long> queueHelper = new HashMap<DelayedUpdate,Long>();
+    /** The thread performing delayed updates. */
+    private volatile Thread updateThread;
+
+    /** Number of performed delayed update batches. */
+    private final AtomicLong flushCount = new AtomicLong();
+
+    /** Total number of delayed updates performed. */
+    private final AtomicLong flushedCount = new AtomicLong();
+
+    /** Total time spent performing delayed update batches, in milliseconds. */
+    private final AtomicLong flushTime = new AtomicLong();
 
     /** Registered WeakHashMap objects. */
     private List<WeakReference<WeakHashMap<?,?>>> weakHashMaps = new LinkedList<WeakReference<WeakHashMap<?,?>>>();
@@ -205,6 +305,18 @@ public class DefaultCacheFactory
     
     /** Configured Munin graphs */
     private final MuninGraph[] graphs;
+
+    /** The thread pool. */
+    private final ThreadPool threadPool;
+
+    /** The file system. */
+    private final FileSystem fileSystem;
+
+    /** Warm-up configurations of the instances. */
+    private final List<Warmup<Object, Object>> warmups = new ArrayList<Warmup<Object, Object>>();
+
+    /** Set when the component is being stopped. */
+    private volatile boolean stopping;
     
     // initialization ////////////////////////////////////////////////////////
 
@@ -216,7 +328,7 @@ public class DefaultCacheFactory
      * @param threadPool the thread pool.
      * @param notification the notification.
      * @param persistence the persistence.
-     * @param fileSystem TODO
+     * @param fileSystem the file system, used for Munin graph definitions and warm-up keys.
      * @throws ConfigurationException thrown if configuration is invalid.
      * @throws ClassNotFoundException thrown if one of the class not found.
      */
@@ -228,16 +340,32 @@ public class DefaultCacheFactory
         this.logger = logger;
         this.notification = notification;
         this.persistence = persistence;
+        this.threadPool = threadPool;
+        this.fileSystem = fileSystem;
+        Configuration delayedUpdateConfig = config.getChild("delayedUpdate", true);
+        this.batchSize = delayedUpdateConfig.getAttributeAsInteger("batchSize",
+            DELAYED_UPDATE_BATCH_SIZE_DEFAULT);
+        this.maxBacklog = delayedUpdateConfig.getAttributeAsInteger("maxBacklog",
+            DELAYED_UPDATE_MAX_BACKLOG_DEFAULT);
+        this.retries = delayedUpdateConfig.getAttributeAsInteger("retries",
+            DELAYED_UPDATE_RETRIES_DEFAULT);
+        this.retryDelay = delayedUpdateConfig.getAttributeAsLong("retryDelay",
+            DELAYED_UPDATE_RETRY_DELAY_DEFAULT);
         
         Map<String, String> classMap = new HashMap<String, String>();
         classMap.put(HASH_MAP_TYPE, HASH_MAP_CLASS_DEFALUT);
         classMap.put(LONG_KEY_OPEN_HASH_MAP_TYPE, LONG_KEY_OPEN_HASH_MAP_DEFAULT);
         classMap.put(LONG_KEY_CHAINED_HASH_MAP_TYPE, LONG_KEY_CHAINED_HASH_MAP_DEFAULT);
+        classMap.put(LONG_KEY_CONCURRENT_HASH_MAP_TYPE, LONG_KEY_CONCURRENT_HASH_MAP_DEFAULT);
         classMap.put(TIMEOUT_MAP_TYPE, TIMEOUT_MAP_CLASS_DEFALUT);
         classMap.put(LRU_MAP_TYPE, LRU_MAP_CLASS_DEFALUT);
+        classMap.put(TINY_LFU_MAP_TYPE, TINY_LFU_MAP_CLASS_DEFAULT);
+        classMap.put(OFF_HEAP_MAP_TYPE, OFF_HEAP_MAP_CLASS_DEFAULT);
+        classMap.put(WEIGHTED_MAP_TYPE, WEIGHTED_MAP_CLASS_DEFAULT);
         classMap.put(SOFT_MAP_TYPE, SOFT_MAP_CLASS_DEFALUT);
         classMap.put(DISTRIBUTED_MAP_TYPE, DISTRIBUTED_MAP_CLASS_DEFALUT);
         classMap.put(FACTORY_MAP_TYPE, FACTORY_MAP_CLASS_DEFALUT);
+        classMap.put(NEGATIVE_MAP_TYPE, NEGATIVE_MAP_CLASS_DEFAULT);
         classMap.put(STATISTICS_MAP_TYPE, STATISTICS_MAP_CLASS_DEFALUT);
         classMap.put(FORGETFULL_MAP_TYPE, FORGETFULL_MAP_CLASS_DEFALUT);
         classMap.put(GUAVA_CACHE_TYPE, GUAVA_CACHE_CLASS_DEFAULT);
@@ -245,9 +373,13 @@ public class DefaultCacheFactory
         Map<String, Class<?>> ifaceMap = new HashMap<String, Class<?>>();
         ifaceMap.put(TIMEOUT_MAP_TYPE, TimeoutMap.class);
         ifaceMap.put(LRU_MAP_TYPE, LRUMap.class);
+        ifaceMap.put(TINY_LFU_MAP_TYPE, TinyLFUMap.class);
+        ifaceMap.put(OFF_HEAP_MAP_TYPE, OffHeapMap.class);
+        ifaceMap.put(WEIGHTED_MAP_TYPE, WeightedMap.class);
         ifaceMap.put(SOFT_MAP_TYPE, SoftMap.class);
         ifaceMap.put(DISTRIBUTED_MAP_TYPE, DistributedMap.class);
         ifaceMap.put(FACTORY_MAP_TYPE, FactoryMap.class);
+        ifaceMap.put(NEGATIVE_MAP_TYPE, NegativeMap.class);
         ifaceMap.put(STATISTICS_MAP_TYPE, StatisticsMap.class);
         ifaceMap.put(GUAVA_CACHE_TYPE, GuavaCache.class);
         
@@ -306,9 +438,19 @@ public class DefaultCacheFactory
             {
                 if(map instanceof StatisticsMap<?, ?>)
                 {
-                    graphList.add(new CacheSizeGraph(name, (StatisticsMap<?, ?>)map, fileSystem));
-                    graphList.add(new CacheRequestsGraph(name, (StatisticsMap<?, ?>)map, fileSystem));
-                    graphList.add(new CacheEfficiencyGraph(name, (StatisticsMap<?, ?>)map, fileSystem));
+                    StatisticsMap<?, ?> stats = (StatisticsMap<?, ?>)map;
+                    graphList.add(new CacheSizeGraph(name, stats, fileSystem));
+                    graphList.add(new CacheRequestsGraph(name, stats, fileSystem));
+                    graphList.add(new CacheEfficiencyGraph(name, stats, fileSystem));
+                    if(findFactoryMap(map) != null)
+                    {
+                        graphList.add(new CacheLoadsGraph(name, stats, fileSystem));
+                        graphList.add(new CacheLoadWaitGraph(name, stats, fileSystem));
+                    }
+                    if(stats.getWeight() >= 0)
+                    {
+                        graphList.add(new CacheWeightGraph(name, stats, fileSystem));
+                    }
                 }
                 else
                 {
@@ -317,12 +459,56 @@ public class DefaultCacheFactory
                         instanceNodes[i].getLocation());
                 }
             }
+            Configuration warmupConfig = instanceNodes[i].getChild("warmup", false);
+            if(warmupConfig != null)
+            {
+                FactoryMap<Object, Object> factoryMap = findFactoryMap(map);
+                if(factoryMap == null)
+                {
+                    throw new ConfigurationException("warmup requested for instance " + name
+                        + " but it has no FactoryMap layer", warmupConfig.getPath(),
+                        warmupConfig.getLocation());
+                }
+                warmups.add(new Warmup<Object, Object>(name, factoryMap, warmupConfig));
+            }
+        }
+        if(delayedUpdateConfig.getAttributeAsBoolean("graph", false) && fileSystem != null)
+        {
+            graphList.add(new DelayedUpdateQueueGraph(fileSystem));
+            graphList.add(new DelayedUpdateFlushGraph(fileSystem));
+            graphList.add(new DelayedUpdateBatchGraph(fileSystem));
         }
         graphs = graphList.toArray(new MuninGraph[graphList.size()]);
         threadPool.runDaemon(new DelayedUpdateTask());
         threadPool.runDaemon(new WeakHashMapExpungeTask());        
     }      
     
+    // Startable interface ///////////////////////////////////////////////////
+
+    /**
+     * Starts loading the values of the instances configured for warm-up.
+     */
+    public void start()
+    {
+        stopping = false;
+        for(Warmup<Object, Object> warmup : warmups)
+        {
+            warmup.start();
+        }
+    }
+
+    /**
+     * Saves the most frequently accessed keys of the instances configured for warm-up.
+     */
+    public void stop()
+    {
+        stopping = true;
+        for(Warmup<Object, Object> warmup : warmups)
+        {
+            warmup.save();
+        }
+    }
+
     // StatisticsProvider interface /////////////////////////////////////////////
     
     public MuninGraph[] getGraphs()
@@ -538,32 +724,17 @@ public class DefaultCacheFactory
      */
     public void register(DelayedUpdate object)
     {
-        synchronized(queue)
+        if(object instanceof PersistentDelayedUpdate && persistence == null)
         {
-            // queue helper provides a reverse mapping, so we don't need have
-            // to perform liner search
-            Long target = queueHelper.get(object);
-            Set<DelayedUpdate> set;
-            if(target != null)
-            {
-                set = queue.get(target);
-                set.remove(object);
-                if(set.isEmpty())
-                {
-                    queue.remove(target);
-                }
-            }
-            target = Long.valueOf(System.currentTimeMillis()+object.getUpdateLatency());
-            set = queue.get(target);
-            if(set == null)
-            {
-                set = new HashSet<DelayedUpdate>();
-                queue.put(target, set);
-                queueHelper.put(object, target);
-            }
-            set.add(object);
-            queue.notify();
+            throw new IllegalStateException("persistent delayed updates are not available - " +
+                "no Persistence component was provided");
+        }
+        if(!pending.containsKey(object))
+        {
+            awaitBacklog();
         }
+        schedule(new PendingUpdate(object,
+            System.currentTimeMillis() + object.getUpdateLatency(), 0));
     }
     
     public void registerForPeriodicExpunge(WeakHashMap<?, ?> map)
@@ -618,6 +789,181 @@ public class DefaultCacheFactory
     }
     // implementation ////////////////////////////////////////////////////////
 
+    /**
+     * Places an entry in the delayed update queue, or postpones the object's current entry.
+     * 
+     * @param update the queue entry.
+     */
+    private void schedule(PendingUpdate update)
+    {
+        PendingUpdate current = pending.putIfAbsent(update.object, update);
+        if(current == null)
+        {
+            queue.offer(update);
+        }
+        else
+        {
+            // the entry is moved in the queue by the update thread when it becomes due
+            current.target = update.target;
+        }
+    }
+
+    /**
+     * Blocks the calling thread while the delayed update backlog is full.
+     */
+    private void awaitBacklog()
+    {
+        if(Thread.currentThread() == updateThread)
+        {
+            // updates registering new objects must not block the thread that performs them
+            return;
+        }
+        synchronized(pending)
+        {
+            boolean interrupted = false;
+            while(pending.size() >= maxBacklog && updateThread != null)
+            {
+                try
+                {
+                    pending.wait(1000);
+                }
+                catch(InterruptedException e)
+                {
+                    interrupted = true;
+                    break;
+                }
+            }
+            if(interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Performs a batch of due delayed updates.
+     * 
+     * @param batch the updates.
+     */
+    private void performUpdates(List<PendingUpdate> batch)
+    {
+        long start = System.currentTimeMillis();
+        List<PendingUpdate> persistentUpdates = new ArrayList<PendingUpdate>();
+        for(PendingUpdate update : batch)
+        {
+            if(update.object instanceof PersistentDelayedUpdate)
+            {
+                persistentUpdates.add(update);
+            }
+            else
+            {
+                performUpdate(update.object);
+            }
+        }
+        if(!persistentUpdates.isEmpty())
+        {
+            try
+            {
+                savePersistentUpdates(persistentUpdates);
+                for(PendingUpdate update : persistentUpdates)
+                {
+                    performUpdate(update.object);
+                }
+            }
+            catch(SQLException e)
+            {
+                for(PendingUpdate update : persistentUpdates)
+                {
+                    if(update.attempt < retries)
+                    {
+                        PendingUpdate retry = new PendingUpdate(update.object,
+                            System.currentTimeMillis() + retryDelay, update.attempt + 1);
+                        // don't override the object's registration made in the meantime
+                        if(pending.putIfAbsent(update.object, retry) == null)
+                        {
+                            queue.offer(retry);
+                        }
+                    }
+                    else
+                    {
+                        logger.error("giving up on saving " + update.object + " after "
+                            + (retries + 1) + " attempts");
+                    }
+                }
+                logger.warn("failed to save " + persistentUpdates.size()
+                    + " delayed updates, will retry", e);
+            }
+        }
+        flushCount.incrementAndGet();
+        flushedCount.addAndGet(batch.size());
+        flushTime.addAndGet(System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Calls the update method of an object, logging the exceptions thrown.
+     * 
+     * @param object the object.
+     */
+    private void performUpdate(DelayedUpdate object)
+    {
+        try
+        {
+            object.update();
+        }
+        ///CLOVER:OFF
+        catch(VirtualMachineError e)
+        {
+            throw e;
+        }
+        catch(ThreadDeath e)
+        {
+            throw e;
+        }
+        catch(Throwable e)
+        {
+            logger.error("exception in delayed update thread", e);
+        }
+        ///CLOVER:ON
+    }
+
+    /**
+     * Saves the objects of persistent delayed updates in a single transaction, using JDBC batches
+     * for the rows of each table.
+     * 
+     * @param updates the updates.
+     * @throws SQLException if the objects could not be saved.
+     */
+    private void savePersistentUpdates(List<PendingUpdate> updates)
+        throws SQLException
+    {
+        List<Persistent> objects = new ArrayList<Persistent>(updates.size());
+        for(PendingUpdate update : updates)
+        {
+            objects.add(((PersistentDelayedUpdate)update.object).getPersistent());
+        }
+        persistence.saveAll(objects);
+    }
+
+    /**
+     * Finds the factory map among the layers of a cache instance.
+     * 
+     * @param map the outermost map of the instance.
+     * @return the factory map, or <code>null</code> if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, V> FactoryMap<K, V> findFactoryMap(Map<?, ?> map)
+    {
+        while(map instanceof LayeredMap<?, ?>)
+        {
+            if(map instanceof FactoryMap<?, ?>)
+            {
+                return (FactoryMap<K, V>)map;
+            }
+            map = ((LayeredMap<?, ?>)map).getDelegate();
+        }
+        return null;
+    }
+
     /**
      * Initializes an entry in the {@link #implClasses} map.
      *
@@ -707,7 +1053,8 @@ public class DefaultCacheFactory
             {
                 if(mapConfig.length() != 0)
                 {
-                    throw new ComponentInitializationError("configuration was specified " +                        "for the "+num+ " entry in "+name+" configuration, but "+
+                    throw new ComponentInitializationError("configuration was specified " +
+                        "for the "+num+ " entry in "+name+" configuration, but "+
                         type+" implementation does not support ConfigurableMap interface");
                 }
             }
@@ -716,6 +1063,42 @@ public class DefaultCacheFactory
         return current;
     }
 
+    /**
+     * An entry of the delayed update queue.
+     */
+    private static class PendingUpdate
+        implements Delayed
+    {
+        private final DelayedUpdate object;
+
+        /** The time the entry is due, changed only while the entry is out of the queue. */
+        private long due;
+
+        /** The time the update should be performed, postponed by later registrations. */
+        private volatile long target;
+
+        private final int attempt;
+
+        public PendingUpdate(DelayedUpdate object, long target, int attempt)
+        {
+            this.object = object;
+            this.due = target;
+            this.target = target;
+            this.attempt = attempt;
+        }
+
+        public long getDelay(TimeUnit unit)
+        {
+            return unit.convert(due - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        public int compareTo(Delayed o)
+        {
+            long other = ((PendingUpdate)o).due;
+            return due < other ? -1 : (due > other ? 1 : 0);
+        }
+    }
+
     /**
      * The task that performs delayed updates.
      */
@@ -729,74 +1112,54 @@ public class DefaultCacheFactory
         
         public void process(Context context)
         {
-            synchronized(queue)
+            updateThread = Thread.currentThread();
+            try
             {
-                long now;
-                loop: while(!Thread.interrupted())
+                List<PendingUpdate> due = new ArrayList<PendingUpdate>(batchSize);
+                List<PendingUpdate> batch = new ArrayList<PendingUpdate>(batchSize);
+                while(!Thread.interrupted())
                 {
-                    // queue is empty - wait indefinetely
-                    if(queue.size() == 0)
+                    due.add(queue.take());
+                    queue.drainTo(due, batchSize - 1);
+                    long now = System.currentTimeMillis();
+                    for(PendingUpdate update : due)
                     {
-                        try
+                        long target = update.target;
+                        if(target > now)
                         {
-                            queue.wait();
+                            // postponed by later registration
+                            update.due = target;
+                            queue.offer(update);
                         }
-                        catch(InterruptedException e)
+                        else if(pending.remove(update.object, update))
                         {
-                            break loop;
+                            batch.add(update);
                         }
                     }
-                    // there is something in the queue
-                    now = System.currentTimeMillis();
-                    Long first = queue.firstKey();
-                    while(!queue.isEmpty() && first.longValue() <= now)
+                    due.clear();
+                    synchronized(pending)
                     {
-                        // the first element of the que has reached or passed
-                        // it's target time
-                        Set<DelayedUpdate> set = queue.remove(first);
-                        Iterator<DelayedUpdate> i = set.iterator();
-                        while(i.hasNext())
-                        {
-                            DelayedUpdate obj = i.next();
-                            queueHelper.remove(obj);
-                            try
-                            {
-                                obj.update();
-                            }
-                            ///CLOVER:OFF
-                            catch(VirtualMachineError e)
-                            {
-                                throw e;
-                            }
-                            catch(ThreadDeath e)
-                            {
-                                throw e;
-                            }
-                            catch(Throwable e)
-                            {
-                                logger.error("exception in delayed update thread", e);
-                            }
-                            ///CLOVER:ON
-                        }
-                        if(!queue.isEmpty())
-                        {
-                            first = queue.firstKey();
-                        }
+                        pending.notifyAll();
                     }
-                    // wait for the first element's target time
-                    if(!queue.isEmpty())
+                    if(!batch.isEmpty())
                     {
-                        try
-                        {
-                            queue.wait(first.longValue() - now);
-                        }
-                        catch(InterruptedException e)
-                        {
-                            break loop;
-                        }
+                        performUpdates(batch);
+                        batch.clear();
                     }
                 }
             }
+            catch(InterruptedException e)
+            {
+                // terminated
+            }
+            finally
+            {
+                updateThread = null;
+                synchronized(pending)
+                {
+                    pending.notifyAll();
+                }
+            }
         }
         
         public void terminate(Thread t)
@@ -805,6 +1168,164 @@ public class DefaultCacheFactory
         }
     }
     
+    /**
+     * Warm-up of a cache instance.
+     * <p>
+     * The accesses to the instance are tracked by a layer inserted below it's factory map. When
+     * the component is stopped, the most frequently accessed keys are saved to the file system,
+     * and when it is started again, values for these keys are loaded through the factory map by
+     * worker threads, at a limited rate.
+     * </p>
+     */
+    private class Warmup<K, V>
+    {
+        private final String name;
+
+        private final FactoryMap<K, V> factoryMap;
+
+        private final AccessTrackingMap<K, V> tracker;
+
+        private final int keys;
+
+        private final int threads;
+
+        private final int rate;
+
+        private final String path;
+
+        /** Keys waiting to be loaded. */
+        private final ConcurrentLinkedQueue<K> queue = new ConcurrentLinkedQueue<K>();
+
+        /** Earliest time the next value may be loaded, in nanoseconds. */
+        private long nextLoad;
+
+        public Warmup(String name, FactoryMap<K, V> factoryMap, Configuration config)
+        {
+            this.name = name;
+            this.factoryMap = factoryMap;
+            this.keys = config.getAttributeAsInteger("keys", WARMUP_KEYS_DEFAULT);
+            this.threads = config.getAttributeAsInteger("threads", WARMUP_THREADS_DEFAULT);
+            this.rate = config.getAttributeAsInteger("rate", WARMUP_RATE_DEFAULT);
+            this.path = config.getAttribute("path", WARMUP_DIRECTORY_DEFAULT + "/" + name
+                + ".keys");
+            tracker = new AccessTrackingMap<K, V>(factoryMap.getDelegate(), keys * 4);
+            factoryMap.setDelegate(tracker);
+        }
+
+        /**
+         * Loads the saved keys and starts the workers.
+         */
+        @SuppressWarnings("unchecked")
+        public void start()
+        {
+            if(fileSystem == null || !fileSystem.exists(path))
+            {
+                return;
+            }
+            try(InputStream is = fileSystem.getInputStream(path))
+            {
+                ObjectInputStream ois = new ObjectInputStream(is);
+                queue.addAll((List<K>)ois.readObject());
+            }
+            catch(Exception e)
+            {
+                logger.warn("failed to read warm-up keys of " + name + " from " + path, e);
+                return;
+            }
+            logger.info("warming up " + name + " with " + queue.size() + " keys");
+            for(int i = 0; i < threads; i++)
+            {
+                threadPool.runWorker(new WarmupTask());
+            }
+        }
+
+        /**
+         * Saves the most frequently accessed keys.
+         */
+        public void save()
+        {
+            if(fileSystem == null)
+            {
+                return;
+            }
+            queue.clear();
+            List<K> hottest = tracker.getHottestKeys(keys);
+            try
+            {
+                fileSystem.mkdirs(FileSystem.directoryPath(path));
+                try(OutputStream os = fileSystem.getOutputStream(path))
+                {
+                    ObjectOutputStream oos = new ObjectOutputStream(os);
+                    oos.writeObject(new ArrayList<K>(hottest));
+                    oos.flush();
+                }
+            }
+            catch(IOException e)
+            {
+                logger.warn("failed to save warm-up keys of " + name + " to " + path, e);
+            }
+        }
+
+        /**
+         * Waits until the next value may be loaded, according to the rate limit.
+         * 
+         * @throws InterruptedException if the thread is interrupted.
+         */
+        private void acquire()
+            throws InterruptedException
+        {
+            long wait;
+            synchronized(this)
+            {
+                long now = System.nanoTime();
+                wait = nextLoad - now;
+                nextLoad = Math.max(nextLoad, now) + 1000000000L / Math.max(rate, 1);
+            }
+            if(wait > 0)
+            {
+                Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+            }
+        }
+
+        /**
+         * A worker loading values for the saved keys.
+         */
+        private class WarmupTask
+            extends Task
+        {
+            public String getName()
+            {
+                return "Cache " + name + " warm-up";
+            }
+
+            public void process(Context context)
+            {
+                K key;
+                while(!stopping && (key = queue.poll()) != null)
+                {
+                    try
+                    {
+                        acquire();
+                        factoryMap.get(key);
+                    }
+                    catch(InterruptedException e)
+                    {
+                        return;
+                    }
+                    catch(RuntimeException e)
+                    {
+                        logger.warn("failed to load " + key + " into " + name, e);
+                    }
+                }
+            }
+
+            public void terminate(Thread t)
+            {
+                t.interrupt();
+            }
+        }
+    }
+
     private class WeakHashMapExpungeTask extends Task
     {
         public String getName()
@@ -951,5 +1472,181 @@ public class DefaultCacheFactory
         {
             return map.getRequestCount();
         }
-    }       
+    }
+
+    public class CacheLoadsGraph
+        extends AbstractCacheStatisticsGraph
+    {
+        public CacheLoadsGraph(String name, StatisticsMap<?, ?> map, FileSystem fileSystem)
+        {
+            super(name, map, fileSystem);
+        }
+
+        public String getId()
+        {
+            return "cache_" + name + "_loads";
+        }
+
+        public int getLoads()
+        {
+            return map.getLoadCount();
+        }
+
+        public int getCoalesced()
+        {
+            return map.getCoalescedCount();
+        }
+    }
+
+    public class CacheLoadWaitGraph
+        extends AbstractCacheStatisticsGraph
+    {
+        private int lastMisses;
+
+        private long lastWaitTime;
+
+        public CacheLoadWaitGraph(String name, StatisticsMap<?, ?> map, FileSystem fileSystem)
+        {
+            super(name, map, fileSystem);
+        }
+
+        public String getId()
+        {
+            return "cache_" + name + "_load_wait";
+        }
+
+        /**
+         * Returns average load wait time of the misses since the previous poll.
+         * 
+         * @return wait time in milliseconds.
+         */
+        public synchronized double getWait()
+        {
+            int misses = map.getLoadCount() + map.getCoalescedCount();
+            long waitTime = map.getLoadWaitTime();
+            double wait;
+            if(misses > lastMisses)
+            {
+                wait = (double)(waitTime - lastWaitTime) / (misses - lastMisses);
+            }
+            else
+            {
+                wait = 0.0d;
+            }
+            lastMisses = misses;
+            lastWaitTime = waitTime;
+            return wait;
+        }
+    }
+
+    public class CacheWeightGraph
+        extends AbstractCacheStatisticsGraph
+    {
+        public CacheWeightGraph(String name, StatisticsMap<?, ?> map, FileSystem fileSystem)
+        {
+            super(name, map, fileSystem);
+        }
+
+        public String getId()
+        {
+            return "cache_" + name + "_weight";
+        }
+
+        public long getWeight()
+        {
+            return map.getWeight();
+        }
+
+        public long getMax()
+        {
+            return map.getMaxWeight();
+        }
+    }
+
+    public class DelayedUpdateQueueGraph
+        extends AbstractMuninGraph
+    {
+        public DelayedUpdateQueueGraph(FileSystem fileSystem)
+        {
+            super(fileSystem);
+        }
+
+        public String getId()
+        {
+            return "cache_delayed_update_queue";
+        }
+
+        public int getDepth()
+        {
+            return queue.size();
+        }
+    }
+
+    public class DelayedUpdateFlushGraph
+        extends AbstractMuninGraph
+    {
+        private long lastCount;
+
+        private long lastTime;
+
+        public DelayedUpdateFlushGraph(FileSystem fileSystem)
+        {
+            super(fileSystem);
+        }
+
+        public String getId()
+        {
+            return "cache_delayed_update_flush";
+        }
+
+        /**
+         * Returns average duration of the update batches performed since the previous poll.
+         * 
+         * @return duration in milliseconds.
+         */
+        public synchronized double getLatency()
+        {
+            long count = flushCount.get();
+            long time = flushTime.get();
+            double latency = count > lastCount ? (double)(time - lastTime) / (count - lastCount)
+                : 0.0d;
+            lastCount = count;
+            lastTime = time;
+            return latency;
+        }
+    }
+
+    public class DelayedUpdateBatchGraph
+        extends AbstractMuninGraph
+    {
+        private long lastCount;
+
+        private long lastUpdates;
+
+        public DelayedUpdateBatchGraph(FileSystem fileSystem)
+        {
+            super(fileSystem);
+        }
+
+        public String getId()
+        {
+            return "cache_delayed_update_batch";
+        }
+
+        /**
+         * Returns average size of the update batches performed since the previous poll.
+         * 
+         * @return number of updates.
+         */
+        public synchronized double getSize()
+        {
+            long count = flushCount.get();
+            long updates = flushedCount.get();
+            double size = count > lastCount ? (double)(updates - lastUpdates)
+                / (count - lastCount) : 0.0d;
+            lastCount = count;
+            lastUpdates = updates;
+            return size;
+        }
+    }
 }
@@ -28,11 +28,18 @@
 
 package org.objectledge.cache;
 
+import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.jcontainer.dna.Configuration;
 import org.objectledge.cache.spi.CacheFactorySPI;
 import org.objectledge.cache.spi.ConfigurableValueFactory;
+import org.objectledge.database.persistence.LoadedObjects;
 import org.objectledge.database.persistence.Persistence;
 import org.objectledge.database.persistence.Persistent;
 import org.objectledge.database.persistence.PersistentFactory;
@@ -44,7 +51,8 @@ import org.objectledge.database.persistence.PersistentFactory;
  * @version $Id: PersistenceValueFactory.java,v 1.5 2005-02-10 17:49:17 rafal Exp $
  */
 public class PersistenceValueFactory<K extends Number, V extends Persistent>
-    implements ConfigurableValueFactory<K, V>
+    implements ConfigurableValueFactory<K, V>, EnumerableValueFactory<K, V>,
+    BulkValueFactory<K, V>
 {
     /**
      * The persistent factory.
@@ -67,7 +75,8 @@ public class PersistenceValueFactory<K extends Number, V extends Persistent>
         this.persistence = persistence;
         if(!Persistent.class.isAssignableFrom(cl))
         {
-            throw new IllegalArgumentException(cl.getName()+" does not implement " +                                                "Persistent interface");
+            throw new IllegalArgumentException(cl.getName()+" does not implement " +
+                                                "Persistent interface");
         }
         factory = new PersistentFactory<V>()
             {
@@ -100,6 +109,82 @@ public class PersistenceValueFactory<K extends Number, V extends Persistent>
         }
     }
 
+    /**
+     * Produces the values that correspond to the given keys, using a single
+     * {@link Persistence#loadAll(PersistentFactory, long[])} call.
+     *
+     * @param keys the keys.
+     * @return the objects found, keyed by key.
+     */
+    public Map<K, V> getValues(Collection<K> keys)
+    {
+        long[] ids = new long[keys.size()];
+        int i = 0;
+        for(K key : keys)
+        {
+            ids[i++] = key.longValue();
+        }
+        try
+        {
+            LoadedObjects<V> loaded = persistence.loadAll(factory, ids);
+            Map<K, V> values = new LinkedHashMap<K, V>();
+            for(K key : keys)
+            {
+                V value = loaded.get(key.longValue());
+                if(value != null)
+                {
+                    values.put(key, value);
+                }
+            }
+            return values;
+        }
+        catch(SQLException e)
+        {
+            throw new RuntimeException("failed to produce values", e);
+        }
+    }
+
+    /**
+     * Enumerates the ids of the objects stored in the table.
+     * 
+     * <p>The keys are passed as <code>java.lang.Long</code> objects.</p>
+     *
+     * @param visitor the visitor.
+     */
+    @SuppressWarnings("unchecked")
+    public void visitKeys(KeyVisitor<? super K> visitor)
+    {
+        Persistent template;
+        try
+        {
+            template = factory.newInstance();
+        }
+        catch(Exception e)
+        {
+            throw new RuntimeException("failed to instantiate template object", e);
+        }
+        String[] keyColumns = template.getKeyColumns();
+        if(keyColumns.length != 1)
+        {
+            throw new UnsupportedOperationException(template.getTable()
+                + " does not have a single key column");
+        }
+        try(Connection conn = persistence.getDatabase().getConnection();
+            Statement stmt = conn.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT " + keyColumns[0] + " FROM "
+                + template.getTable()))
+        {
+            while(rs.next())
+            {
+                visitor.visit((K)Long.valueOf(rs.getLong(1)));
+            }
+        }
+        catch(SQLException e)
+        {
+            throw new RuntimeException("failed to enumerate keys", e);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,54 @@
+//
+//Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without modification, 
+//are permitted provided that the following conditions are met:
+//
+//* Redistributions of source code must retain the above copyright notice, 
+//this list of conditions and the following disclaimer.
+//* Redistributions in binary form must reproduce the above copyright notice, 
+//this list of conditions and the following disclaimer in the documentation 
+//and/or other materials provided with the distribution.
+//* Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+//nor the names of its contributors may be used to endorse or promote products 
+//derived from this software without specific prior written permission.
+//
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+//WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+//INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, 
+//BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+//OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+//WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+//ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+//POSSIBILITY OF SUCH DAMAGE.
+//
+
+package org.objectledge.cache;
+
+import org.objectledge.database.persistence.Persistent;
+
+/**
+ * A delayed update that writes a persistent object to the database.
+ *
+ * <p>When the update is due, the <code>CacheFactory</code> saves the object returned by
+ * {@link #getPersistent()} instead of letting the update perform the write on it's own. Updates
+ * that are due at the same time are saved together, in a single transaction, and the updates of
+ * the objects stored in the same table are executed as one JDBC batch. Failed writes are
+ * retried a configured number of times.</p>
+ *
+ * <p>{@link #update()} is called after the object was successfully saved, and may be used to
+ * clear the object's modification state.</p>
+ */
+public interface PersistentDelayedUpdate
+    extends DelayedUpdate
+{
+    /**
+     * Returns the object to be saved.
+     *
+     * @return the persistent object.
+     */
+    public Persistent getPersistent();
+}
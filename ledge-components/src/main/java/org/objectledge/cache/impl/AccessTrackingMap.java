@@ -0,0 +1,219 @@
+//
+//Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without modification, 
+//are permitted provided that the following conditions are met:
+//
+//* Redistributions of source code must retain the above copyright notice, 
+//this list of conditions and the following disclaimer.
+//* Redistributions in binary form must reproduce the above copyright notice, 
+//this list of conditions and the following disclaimer in the documentation 
+//and/or other materials provided with the distribution.
+//* Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+//nor the names of its contributors may be used to endorse or promote products 
+//derived from this software without specific prior written permission.
+//
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+//WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+//INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, 
+//BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+//OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+//WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+//ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+//POSSIBILITY OF SUCH DAMAGE.
+//
+
+package org.objectledge.cache.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A map layer that estimates the access frequency of the keys, to find the most frequently
+ * accessed keys.
+ *
+ * <p>Accesses are counted in a {@link FrequencySketch}. Counting is lossy: an access is skipped
+ * when another thread is updating the sketch at the same time, so that the layer never blocks
+ * the readers.</p>
+ *
+ * <p>The layer keeps a bounded set of candidate keys alongside the sketch. When the set is full,
+ * an accessed key replaces the oldest candidate if it's estimated frequency is higher, so that
+ * the hottest keys can be found without iterating the underlying map, which need not be thread
+ * safe.</p>
+ */
+public class AccessTrackingMap<K, V>
+    extends DelegateMap<K, V>
+{
+    // instance variables ////////////////////////////////////////////////////
+
+    /** The frequency sketch. */
+    private final FrequencySketch sketch;
+
+    /** Candidate hottest keys, oldest first. */
+    private final LinkedHashMap<K, Boolean> candidates = new LinkedHashMap<K, Boolean>();
+
+    /** Maximum number of candidate keys. */
+    private final int capacity;
+
+    /** Guards the sketch and the candidate keys. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // initialization ////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new tracking map.
+     * 
+     * @param delegate the underlying map.
+     * @param capacity expected number of distinct keys accessed.
+     */
+    public AccessTrackingMap(Map<K, V> delegate, int capacity)
+    {
+        super(delegate);
+        sketch = new FrequencySketch(capacity);
+        this.capacity = Math.max(capacity, 1);
+    }
+
+    // Map interface /////////////////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public V get(Object key)
+    {
+        if(key != null && lock.tryLock())
+        {
+            try
+            {
+                int hash = FrequencySketch.spread(key);
+                sketch.increment(hash);
+                track((K)key, hash);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+        return delegate.get(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public V remove(Object key)
+    {
+        lock.lock();
+        try
+        {
+            candidates.remove(key);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        return delegate.remove(key);
+    }
+
+    // public interface //////////////////////////////////////////////////////
+
+    /**
+     * Returns the most frequently accessed keys among the candidates.
+     * 
+     * @param count maximum number of keys to return.
+     * @return the keys, most frequently accessed first.
+     */
+    public List<K> getHottestKeys(int count)
+    {
+        PriorityQueue<Candidate<K>> heap = new PriorityQueue<Candidate<K>>(count + 1);
+        lock.lock();
+        try
+        {
+            for(K key : candidates.keySet())
+            {
+                heap.add(new Candidate<K>(key, sketch.frequency(FrequencySketch.spread(key))));
+                if(heap.size() > count)
+                {
+                    heap.poll();
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        List<K> result = new ArrayList<K>(heap.size());
+        while(!heap.isEmpty())
+        {
+            result.add(heap.poll().key);
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    // implementation ////////////////////////////////////////////////////////
+
+    /**
+     * Adds an accessed key to the candidates, when there is room or it is accessed more
+     * frequently than the oldest candidate. Must be called holding the lock.
+     * 
+     * @param key the key.
+     * @param hash the spread hash code of the key.
+     */
+    private void track(K key, int hash)
+    {
+        if(candidates.containsKey(key))
+        {
+            return;
+        }
+        if(candidates.size() < capacity)
+        {
+            candidates.put(key, Boolean.TRUE);
+            return;
+        }
+        Iterator<K> i = candidates.keySet().iterator();
+        K victim = i.next();
+        i.remove();
+        if(sketch.frequency(hash) > sketch.frequency(FrequencySketch.spread(victim)))
+        {
+            candidates.put(key, Boolean.TRUE);
+        }
+        else
+        {
+            // the victim survives, and moves to the end of the line
+            candidates.put(victim, Boolean.TRUE);
+        }
+    }
+
+    // inner classes /////////////////////////////////////////////////////////
+
+    /**
+     * A key with it's estimated frequency, ordered by frequency.
+     */
+    private static class Candidate<K>
+        implements Comparable<Candidate<K>>
+    {
+        private final K key;
+
+        private final int frequency;
+
+        public Candidate(K key, int frequency)
+        {
+            this.key = key;
+            this.frequency = frequency;
+        }
+
+        public int compareTo(Candidate<K> other)
+        {
+            return frequency < other.frequency ? -1 : (frequency > other.frequency ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+//
+//Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without modification, 
+//are permitted provided that the following conditions are met:
+//
+//* Redistributions of source code must retain the above copyright notice, 
+//this list of conditions and the following disclaimer.
+//* Redistributions in binary form must reproduce the above copyright notice, 
+//this list of conditions and the following disclaimer in the documentation 
+//and/or other materials provided with the distribution.
+//* Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+//nor the names of its contributors may be used to endorse or promote products 
+//derived from this software without specific prior written permission.
+//
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+//WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+//INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, 
+//BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+//OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+//WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+//ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+//POSSIBILITY OF SUCH DAMAGE.
+//
+
+package org.objectledge.cache.impl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe Bloom filter of objects, based on their hash codes.
+ * <p>
+ * The filter is sized for a 1% false positive rate at the given capacity.
+ * </p>
+ */
+class BloomFilter
+{
+    /** Number of hash functions, optimal for the 1% false positive rate. */
+    private static final int HASHES = 7;
+
+    /** Bits per element for the 1% false positive rate. */
+    private static final int BITS_PER_ELEMENT = 10;
+
+    private final AtomicLongArray bits;
+
+    private final long size;
+
+    /**
+     * Creates a new filter.
+     * 
+     * @param capacity expected number of elements.
+     */
+    public BloomFilter(int capacity)
+    {
+        long words = (Math.max(capacity, 64) * (long)BITS_PER_ELEMENT + 63) / 64;
+        bits = new AtomicLongArray((int)Math.min(words, Integer.MAX_VALUE));
+        size = bits.length() * 64L;
+    }
+
+    /**
+     * Adds an element.
+     * 
+     * @param element the element.
+     */
+    public void add(Object element)
+    {
+        long hash = hash(element);
+        int h1 = (int)hash;
+        int h2 = (int)(hash >>> 32);
+        for(int i = 0; i < HASHES; i++)
+        {
+            long bit = ((h1 + i * h2) & 0x7fffffffL) % size;
+            int word = (int)(bit >>> 6);
+            long mask = 1L << bit;
+            long current;
+            do
+            {
+                current = bits.get(word);
+                if((current & mask) != 0)
+                {
+                    break;
+                }
+            }
+            while(!bits.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    /**
+     * Checks if the element might have been added.
+     * 
+     * @param element the element.
+     * @return <code>false</code> if the element was certainly not added.
+     */
+    public boolean mightContain(Object element)
+    {
+        long hash = hash(element);
+        int h1 = (int)hash;
+        int h2 = (int)(hash >>> 32);
+        for(int i = 0; i < HASHES; i++)
+        {
+            long bit = ((h1 + i * h2) & 0x7fffffffL) % size;
+            if((bits.get((int)(bit >>> 6)) & (1L << bit)) == 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long hash(Object element)
+    {
+        long h = element.hashCode() * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 31);
+    }
+}
@@ -30,6 +30,8 @@ package org.objectledge.cache.impl;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -46,6 +48,12 @@ import org.objectledge.notification.NotificationReceiver;
 /**
  * An implementation of {@link DistributedMap} using the {@link Notification}.
  *
+ * <p>Notification messages use a compact binary encoding: a single byte holding the
+ * update flag and the key type, followed by the key. <code>Long</code>, <code>Integer</code>
+ * and <code>String</code> keys are written directly, other keys are serialized.</p>
+ *
+ * <p>An empty message, telling that some notifications were lost, clears the whole map.</p>
+ *
  * @author <a href="mailto:rafal@caltha.pl">Rafal Krzewski</a>
  * @version $Id: DistributedMapImpl.java,v 1.3 2004-02-26 11:34:28 fil Exp $
  */
@@ -59,6 +67,21 @@ public class DistributedMapImpl<K extends Serializable, V>
     /** The channel base name. */
     public static final String CHANNEL_NAME = "ledge.cache:1.0";
 
+    /** Message flag bit marking an update (as opposed to removal) of the mapping. */
+    private static final int UPDATE_FLAG = 0x80;
+
+    /** Key type tag for <code>java.lang.Long</code> keys. */
+    private static final int LONG_KEY = 1;
+
+    /** Key type tag for <code>java.lang.Integer</code> keys. */
+    private static final int INTEGER_KEY = 2;
+
+    /** Key type tag for <code>java.lang.String</code> keys. */
+    private static final int STRING_KEY = 3;
+
+    /** Key type tag for keys transmitted in serialized form. */
+    private static final int SERIALIZED_KEY = 4;
+
     // instance variables ////////////////////////////////////////////////////
 
     /** The notification */
@@ -96,8 +119,7 @@ public class DistributedMapImpl<K extends Serializable, V>
     {
         this.notification = notification;
         channel = CHANNEL_NAME+"/"+name;
-        //TODO uncomment it when notification implemented
-        //notification.addReceiver(channel, this);
+        notification.addReceiver(channel, this);
     }   
 
     /**
@@ -136,9 +158,10 @@ public class DistributedMapImpl<K extends Serializable, V>
     /**
      * {@inheritDoc}
      */
-    public V remove(K key)
+    @SuppressWarnings("unchecked")
+    public V remove(Object key)
     {
-        notify(false, key);
+        notify(false, (K)key);
         return delegate.remove(key);
     }
 
@@ -149,14 +172,16 @@ public class DistributedMapImpl<K extends Serializable, V>
      */
     public void receive(String channel, byte[] message)
     {
-        boolean update;
+        if(message.length == 0)
+        {
+            delegate.clear();
+            return;
+        }
+        boolean update = (message[0] & UPDATE_FLAG) != 0;
         Object key;
         try
         {
-            ByteArrayInputStream bais = new ByteArrayInputStream(message);
-            ObjectInputStream is = new ObjectInputStream(bais);
-            update = is.readBoolean();
-            key = is.readObject();
+            key = decodeKey(message);
         }
         catch(Exception e)
         {
@@ -192,12 +217,7 @@ public class DistributedMapImpl<K extends Serializable, V>
         byte[] message;
         try
         {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ObjectOutputStream os = new ObjectOutputStream(baos);
-            os.writeBoolean(update);
-            os.writeObject(key);
-            os.flush();
-            message = baos.toByteArray();
+            message = encode(update, key);
         }
         catch(IOException e)
         {
@@ -205,4 +225,72 @@ public class DistributedMapImpl<K extends Serializable, V>
         }
         notification.sendNotification(channel, message, false);
     }
+
+    /**
+     * Encodes a notification message.
+     *
+     * @param update <code>true</code> for update, <code>false</code> for removal.
+     * @param key the key.
+     * @return encoded message.
+     * @throws IOException if the key cannot be serialized.
+     */
+    static byte[] encode(boolean update, Object key)
+        throws IOException
+    {
+        int flag = update ? UPDATE_FLAG : 0;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(16);
+        DataOutputStream os = new DataOutputStream(baos);
+        if(key instanceof Long)
+        {
+            os.writeByte(flag | LONG_KEY);
+            os.writeLong(((Long)key).longValue());
+        }
+        else if(key instanceof Integer)
+        {
+            os.writeByte(flag | INTEGER_KEY);
+            os.writeInt(((Integer)key).intValue());
+        }
+        else if(key instanceof String)
+        {
+            os.writeByte(flag | STRING_KEY);
+            os.writeUTF((String)key);
+        }
+        else
+        {
+            os.writeByte(flag | SERIALIZED_KEY);
+            ObjectOutputStream oos = new ObjectOutputStream(os);
+            oos.writeObject(key);
+            oos.flush();
+        }
+        os.flush();
+        return baos.toByteArray();
+    }
+
+    /**
+     * Decodes the key from a notification message.
+     *
+     * @param message the message.
+     * @return the key.
+     * @throws IOException if the message is malformed.
+     * @throws ClassNotFoundException if the serialized key class is not available.
+     */
+    static Object decodeKey(byte[] message)
+        throws IOException, ClassNotFoundException
+    {
+        DataInputStream is = new DataInputStream(new ByteArrayInputStream(message));
+        int type = is.readByte() & ~UPDATE_FLAG;
+        switch(type)
+        {
+        case LONG_KEY:
+            return Long.valueOf(is.readLong());
+        case INTEGER_KEY:
+            return Integer.valueOf(is.readInt());
+        case STRING_KEY:
+            return is.readUTF();
+        case SERIALIZED_KEY:
+            return new ObjectInputStream(is).readObject();
+        default:
+            throw new IOException("unknown key type " + type);
+        }
+    }
 }
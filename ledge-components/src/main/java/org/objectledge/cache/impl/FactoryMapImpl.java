@@ -28,8 +28,22 @@
 
 package org.objectledge.cache.impl;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.objectledge.cache.BulkValueFactory;
 import org.objectledge.cache.ValueFactory;
 import org.objectledge.cache.spi.CacheFactorySPI;
 import org.objectledge.cache.spi.ConfigurableMap;
@@ -38,6 +52,11 @@ import org.objectledge.cache.spi.FactoryMap;
 /**
  * An implementation of factory map.
  * 
+ * <p>Concurrent misses on the same key are coalesced: the first thread runs the value factory
+ * and the others wait for it's result. Optionally, values may be refreshed after a configured
+ * interval while the old value is still served to the other threads
+ * (stale-while-revalidate).</p>
+ * 
  * @author <a href="mailto:rafal@caltha.pl">Rafal Krzewski</a>
  * @version $Id: FactoryMapImpl.java,v 1.4 2008-01-02 22:36:37 rafal Exp $
  */
@@ -50,6 +69,28 @@ public class FactoryMapImpl<K, V>
     /** The value factory. */
     private ValueFactory<K, V> factory;
     
+    /** Loads in progress. */
+    private final ConcurrentHashMap<K, FutureTask<V>> loads = 
+        new ConcurrentHashMap<K, FutureTask<V>>();
+
+    /** Load times of the values, maintained in stale-while-revalidate mode only. */
+    private final ConcurrentHashMap<K, Long> loadTimes = new ConcurrentHashMap<K, Long>();
+
+    /** Maximum time to wait for another thread's load, 0 for no limit. */
+    private volatile long loadTimeout;
+
+    /** Refresh interval, 0 if stale-while-revalidate is disabled. */
+    private volatile long refreshInterval;
+
+    /** Number of loads. */
+    private final AtomicInteger loadCount = new AtomicInteger();
+
+    /** Number of coalesced misses. */
+    private final AtomicInteger coalescedCount = new AtomicInteger();
+
+    /** Total wait time. */
+    private final AtomicLong loadWaitTime = new AtomicLong();
+
     // initialization ///////////////////////////////////////////////////////
 
     /**
@@ -76,6 +117,16 @@ public class FactoryMapImpl<K, V>
 
     /**
      * Configures the map according to properties file settings.
+     * <p>
+     * Supported configuration options are
+     * <ul>
+     * <li><i>factory</i></li>
+     * <li><i>factory</i>,<i>loadTimeout</i></li>
+     * <li><i>factory</i>,<i>loadTimeout</i>,<i>refreshInterval</i></li>
+     * </ul>
+     * Where <i>factory</i> is the name of a configured value factory, and the times are
+     * expressed in milliseconds.
+     * </p>
      *
      * @param caching the cache system.
      * @param name the name of the map.
@@ -83,8 +134,25 @@ public class FactoryMapImpl<K, V>
      */
     public void configure(CacheFactorySPI caching, String name, String config)
     {
+        String[] c = config.split(",");
         //TODO config/name -> name/config
-        this.factory = caching.getValueFactory(config, name);
+        this.factory = caching.getValueFactory(c[0].trim(), name);
+        try
+        {
+            if(c.length > 1)
+            {
+                setLoadTimeout(Long.parseLong(c[1].trim()));
+            }
+            if(c.length > 2)
+            {
+                setRefreshInterval(Long.parseLong(c[2].trim()));
+            }
+        }
+        catch(NumberFormatException e)
+        {
+            throw new IllegalArgumentException("invalid spec '" + config + "' for '" + name
+                + "', expected factory[,loadTimeout[,refreshInterval]]");
+        }
     }
 
     // FactoryMap SPI interface //////////////////////////////////////////////
@@ -108,6 +176,107 @@ public class FactoryMapImpl<K, V>
     {
         return factory;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setLoadTimeout(long timeout)
+    {
+        this.loadTimeout = timeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setRefreshInterval(long interval)
+    {
+        this.refreshInterval = interval;
+        if(interval == 0)
+        {
+            loadTimes.clear();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<K, V> getAll(Collection<K> keys)
+    {
+        Map<K, V> found = new LinkedHashMap<K, V>();
+        List<K> missing = new ArrayList<K>();
+        for(K key : keys)
+        {
+            V value = delegate.get(key);
+            if(value != null)
+            {
+                found.put(key, value);
+            }
+            else
+            {
+                missing.add(key);
+            }
+        }
+        if(!missing.isEmpty() && factory != null)
+        {
+            if(factory instanceof BulkValueFactory)
+            {
+                long start = System.currentTimeMillis();
+                loadCount.incrementAndGet();
+                Map<K, V> loaded = ((BulkValueFactory<K, V>)factory).getValues(missing);
+                for(Map.Entry<K, V> entry : loaded.entrySet())
+                {
+                    put(entry.getKey(), entry.getValue());
+                }
+                found.putAll(loaded);
+                loadWaitTime.addAndGet(System.currentTimeMillis() - start);
+            }
+            else
+            {
+                for(K key : missing)
+                {
+                    V value = load(key);
+                    if(value != null)
+                    {
+                        found.put(key, value);
+                    }
+                }
+            }
+        }
+        Map<K, V> result = new LinkedHashMap<K, V>();
+        for(K key : keys)
+        {
+            V value = found.get(key);
+            if(value != null)
+            {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getLoadCount()
+    {
+        return loadCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getCoalescedCount()
+    {
+        return coalescedCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLoadWaitTime()
+    {
+        return loadWaitTime.get();
+    }
     
     // Map interface /////////////////////////////////////////////////////////
 
@@ -121,14 +290,245 @@ public class FactoryMapImpl<K, V>
     public V get(Object key)
     {
         V value = delegate.get(key);
-        if(value == null && factory != null)
+        if(factory != null)
         {
-            value = factory.getValue((K)key);
-            if(value != null)
+            if(value == null)
+            {
+                value = load((K)key);
+            }
+            else if(refreshInterval > 0 && isStale((K)key))
             {
-                delegate.put((K)key, value);
+                value = refresh((K)key, value);
             }
         }
         return value;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public V put(K key, V value)
+    {
+        if(refreshInterval > 0)
+        {
+            loadTimes.put(key, Long.valueOf(System.currentTimeMillis()));
+        }
+        return delegate.put(key, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public V remove(Object key)
+    {
+        loadTimes.remove(key);
+        return delegate.remove(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clear()
+    {
+        loadTimes.clear();
+        delegate.clear();
+    }
+
+    // implementation ////////////////////////////////////////////////////////
+
+    /**
+     * Loads a missing value, or waits for a load of the same key in progress.
+     * 
+     * @param key the key.
+     * @return the value.
+     */
+    private V load(K key)
+    {
+        long start = System.currentTimeMillis();
+        try
+        {
+            FutureTask<V> task = newLoadTask(key, true);
+            FutureTask<V> inProgress = loads.putIfAbsent(key, task);
+            if(inProgress == null)
+            {
+                try
+                {
+                    task.run();
+                }
+                finally
+                {
+                    loads.remove(key, task);
+                }
+                return result(task, 0);
+            }
+            else
+            {
+                coalescedCount.incrementAndGet();
+                try
+                {
+                    return result(inProgress, loadTimeout);
+                }
+                catch(TimeoutException e)
+                {
+                    loadCount.incrementAndGet();
+                    return loadValue(key);
+                }
+            }
+        }
+        catch(TimeoutException e)
+        {
+            throw new IllegalStateException("unexpected timeout", e);
+        }
+        finally
+        {
+            loadWaitTime.addAndGet(System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Reloads a stale value, unless another thread is doing it already.
+     * 
+     * @param key the key.
+     * @param stale the current value.
+     * @return the fresh value when this thread performed the refresh, the stale value otherwise.
+     */
+    private V refresh(K key, V stale)
+    {
+        FutureTask<V> task = newLoadTask(key, false);
+        if(loads.putIfAbsent(key, task) != null)
+        {
+            return stale;
+        }
+        try
+        {
+            task.run();
+        }
+        finally
+        {
+            loads.remove(key, task);
+        }
+        try
+        {
+            return result(task, 0);
+        }
+        catch(TimeoutException e)
+        {
+            throw new IllegalStateException("unexpected timeout", e);
+        }
+    }
+
+    /**
+     * Creates a task that loads the value.
+     * 
+     * @param key the key.
+     * @param recheck <code>true</code> to skip the load when the value was stored by a load
+     *        that completed after the caller's miss.
+     */
+    private FutureTask<V> newLoadTask(final K key, final boolean recheck)
+    {
+        return new FutureTask<V>(new Callable<V>()
+            {
+                public V call()
+                {
+                    if(recheck)
+                    {
+                        V value = delegate.get(key);
+                        if(value != null)
+                        {
+                            return value;
+                        }
+                    }
+                    loadCount.incrementAndGet();
+                    return loadValue(key);
+                }
+            });
+    }
+
+    /**
+     * Produces a value using the factory and stores it in the delegate map.
+     */
+    private V loadValue(K key)
+    {
+        V value = factory.getValue(key);
+        if(value != null)
+        {
+            put(key, value);
+            if(refreshInterval > 0 && loadTimes.size() > 2 * delegate.size() + 16)
+            {
+                expungeLoadTimes();
+            }
+        }
+        else
+        {
+            remove(key);
+        }
+        return value;
+    }
+
+    /**
+     * Checks if the value was loaded earlier than refresh interval ago.
+     */
+    private boolean isStale(K key)
+    {
+        Long time = loadTimes.get(key);
+        return time != null && System.currentTimeMillis() - time.longValue() > refreshInterval;
+    }
+
+    /**
+     * Drops load times of the values that were evicted from the delegate map.
+     */
+    private void expungeLoadTimes()
+    {
+        Iterator<K> i = loadTimes.keySet().iterator();
+        while(i.hasNext())
+        {
+            if(!delegate.containsKey(i.next()))
+            {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Retrieves the result of a load, passing through the exceptions thrown by the factory.
+     */
+    private V result(FutureTask<V> task, long timeout)
+        throws TimeoutException
+    {
+        boolean interrupted = false;
+        try
+        {
+            while(true)
+            {
+                try
+                {
+                    return timeout > 0 ? task.get(timeout, TimeUnit.MILLISECONDS) : task.get();
+                }
+                catch(InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+        }
+        catch(ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            if(cause instanceof Error)
+            {
+                throw (Error)cause;
+            }
+            throw new RuntimeException("value factory failed", cause);
+        }
+        finally
+        {
+            if(interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 }
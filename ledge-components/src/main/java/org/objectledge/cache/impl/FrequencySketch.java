@@ -0,0 +1,183 @@
+//
+//Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without modification, 
+//are permitted provided that the following conditions are met:
+//
+//* Redistributions of source code must retain the above copyright notice, 
+//this list of conditions and the following disclaimer.
+//* Redistributions in binary form must reproduce the above copyright notice, 
+//this list of conditions and the following disclaimer in the documentation 
+//and/or other materials provided with the distribution.
+//* Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+//nor the names of its contributors may be used to endorse or promote products 
+//derived from this software without specific prior written permission.
+//
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+//WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+//INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, 
+//BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+//OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+//WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+//ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+//POSSIBILITY OF SUCH DAMAGE.
+//
+
+package org.objectledge.cache.impl;
+
+/**
+ * A probabilistic estimator of access frequency, used by {@link TinyLFUMapImpl} for admission
+ * decisions and by {@link AccessTrackingMap} for picking the warm-up keys.
+ * <p>
+ * This is a Count-Min sketch with 4-bit counters, packed sixteen to a <code>long</code>. Each
+ * element is mapped to four counters in four different table slots, and its frequency is
+ * estimated as the minimum of them. When the number of recorded accesses reaches ten times the
+ * table size all counters are halved, so that the sketch favours recent history.
+ * </p>
+ * <p>
+ * The sketch is not thread safe, the maps access it while holding a lock.
+ * </p>
+ */
+class FrequencySketch
+{
+    /** Hash seeds, one per counter. */
+    private static final long[] SEED = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+                    0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+    /** Mask that clears the most significant bit of each counter after a shift. */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /** Mask that selects the least significant bit of each counter. */
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private long[] table;
+
+    private int tableMask;
+
+    private int sampleSize;
+
+    private int size;
+
+    /**
+     * Creates a new sketch.
+     * 
+     * @param maximumSize expected maximum number of distinct elements tracked.
+     */
+    public FrequencySketch(int maximumSize)
+    {
+        ensureCapacity(maximumSize);
+    }
+
+    /**
+     * Resizes the sketch to accomodate the specified number of elements. Accumulated frequencies
+     * are discarded when the table size changes.
+     * 
+     * @param maximumSize expected maximum number of distinct elements tracked.
+     */
+    public void ensureCapacity(int maximumSize)
+    {
+        int length = Integer.highestOneBit(Math.max(maximumSize, 16) - 1) << 1;
+        if(table == null || table.length != length)
+        {
+            table = new long[length];
+            tableMask = length - 1;
+            sampleSize = 10 * length;
+            size = 0;
+        }
+    }
+
+    /**
+     * Returns the estimated number of occurrences of an element, up to the maximum of 15.
+     * 
+     * @param hash the element's hash code.
+     * @return estimated frequency.
+     */
+    public int frequency(int hash)
+    {
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for(int i = 0; i < 4; i++)
+        {
+            int index = indexOf(hash, i);
+            int count = (int)((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Records an occurrence of an element.
+     * 
+     * @param hash the element's hash code.
+     */
+    public void increment(int hash)
+    {
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for(int i = 0; i < 4; i++)
+        {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if(added && ++size == sampleSize)
+        {
+            reset();
+        }
+    }
+
+    /**
+     * Discards all recorded frequencies.
+     */
+    public void clear()
+    {
+        for(int i = 0; i < table.length; i++)
+        {
+            table[i] = 0L;
+        }
+        size = 0;
+    }
+
+    private boolean incrementAt(int index, int counter)
+    {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        if((table[index] & mask) != mask)
+        {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    private void reset()
+    {
+        int odd = 0;
+        for(int i = 0; i < table.length; i++)
+        {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size >>> 1) - (odd >>> 2);
+    }
+
+    private int indexOf(int hash, int i)
+    {
+        long h = (hash + SEED[i]) * SEED[i];
+        h += h >>> 32;
+        return ((int)h) & tableMask;
+    }
+
+    /**
+     * Spreads the bits of an object's hash code.
+     * 
+     * @param o the object.
+     * @return spread hash code.
+     */
+    static int spread(Object o)
+    {
+        int h = o.hashCode() * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
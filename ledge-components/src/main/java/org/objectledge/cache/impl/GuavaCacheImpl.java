@@ -57,6 +57,38 @@ public class GuavaCacheImpl<K, V>
         return (int)stats.requestCount();
     }
 
+    @Override
+    public int getLoadCount()
+    {
+        return (int)stats.loadCount();
+    }
+
+    @Override
+    public int getCoalescedCount()
+    {
+        // not tracked by Guava
+        return 0;
+    }
+
+    @Override
+    public long getLoadWaitTime()
+    {
+        return stats.totalLoadTime() / 1000000;
+    }
+
+    @Override
+    public long getWeight()
+    {
+        // weights not exposed by Guava
+        return -1L;
+    }
+
+    @Override
+    public long getMaxWeight()
+    {
+        return -1L;
+    }
+
     @Override
     public void resetCount()
     {
@@ -0,0 +1,746 @@
+//
+//Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without modification, 
+//are permitted provided that the following conditions are met:
+//
+//* Redistributions of source code must retain the above copyright notice, 
+//this list of conditions and the following disclaimer.
+//* Redistributions in binary form must reproduce the above copyright notice, 
+//this list of conditions and the following disclaimer in the documentation 
+//and/or other materials provided with the distribution.
+//* Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+//nor the names of its contributors may be used to endorse or promote products 
+//derived from this software without specific prior written permission.
+//
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+//WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+//INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, 
+//BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+//OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+//WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+//ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+//POSSIBILITY OF SUCH DAMAGE.
+//
+
+package org.objectledge.cache.impl;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.objectledge.cache.spi.CacheFactorySPI;
+import org.objectledge.cache.spi.ConfigurableMap;
+
+/**
+ * A concurrent map with primitive <code>long</code> keys.
+ * <p>
+ * The map is split into segments, each an open addressing hash table with linear probing over a
+ * <code>long[]</code> key array, so that no <code>Long</code> objects nor entry objects are
+ * retained. Updates lock a single segment, lookups take no locks.
+ * </p>
+ * <p>
+ * A slot is used once it's value is set, and it's key never changes after that. Removal leaves
+ * a tombstone in the value slot, which is reused when the same key is put again, and discarded
+ * when the segment is rehashed. A rehashed table is published as a whole, so that readers see
+ * either the old or the new table, never a table being filled.
+ * </p>
+ * <p>
+ * The <code>Long</code> keyed {@link Map} methods are provided so that the map can be used with
+ * the other map layers, primitive <code>long</code> variants are available for the callers
+ * using this class directly.
+ * </p>
+ */
+public class LongKeyConcurrentHashMapImpl<V>
+    extends AbstractMap<Long, V>
+    implements ConcurrentMap<Long, V>, ConfigurableMap<Long, V>
+{
+    // constants /////////////////////////////////////////////////////////////
+
+    /** Default initial capacity. */
+    public static final int CAPACITY_DEFAULT = 64;
+
+    /** Default number of segments. */
+    public static final int CONCURRENCY_DEFAULT = 16;
+
+    /** Default load factor. */
+    public static final float LOAD_FACTOR_DEFAULT = 0.5f;
+
+    /** Value slot marker of a removed entry. */
+    private static final Object REMOVED = new Object();
+
+    /** Value slot marker of a <code>null</code> value. */
+    private static final Object NULL = new Object();
+
+    // instance variables ////////////////////////////////////////////////////
+
+    /** The segments. */
+    private Segment[] segments;
+
+    /** Number of bits selecting the segment. */
+    private int segmentShift;
+
+    /** The load factor. */
+    private float loadFactor;
+
+    // initialization ////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new map with the default parameters.
+     */
+    public LongKeyConcurrentHashMapImpl()
+    {
+        init(CAPACITY_DEFAULT, CONCURRENCY_DEFAULT, LOAD_FACTOR_DEFAULT);
+    }
+
+    /**
+     * Creates a new map.
+     * 
+     * @param capacity expected number of entries.
+     * @param concurrency expected number of concurrently updating threads.
+     * @param loadFactor maximum ratio of used slots to all slots in a segment.
+     */
+    public LongKeyConcurrentHashMapImpl(int capacity, int concurrency, float loadFactor)
+    {
+        init(capacity, concurrency, loadFactor);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void configure(CacheFactorySPI caching, String name, String config)
+    {
+        String[] configTokens = config.split(",");
+        int capacity = CAPACITY_DEFAULT;
+        int concurrency = CONCURRENCY_DEFAULT;
+        float factor = LOAD_FACTOR_DEFAULT;
+        if(configTokens.length >= 1 && configTokens[0].trim().length() > 0)
+        {
+            capacity = Integer.parseInt(configTokens[0].trim());
+        }
+        if(configTokens.length >= 2)
+        {
+            concurrency = Integer.parseInt(configTokens[1].trim());
+        }
+        if(configTokens.length >= 3)
+        {
+            factor = Float.parseFloat(configTokens[2].trim());
+        }
+        init(capacity, concurrency, factor);
+    }
+
+    private void init(int capacity, int concurrency, float loadFactor)
+    {
+        if(capacity < 0 || concurrency <= 0 || loadFactor <= 0f || loadFactor >= 1f)
+        {
+            throw new IllegalArgumentException("invalid map parameters " + capacity + ", "
+                + concurrency + ", " + loadFactor);
+        }
+        this.loadFactor = loadFactor;
+        int bits = 0;
+        while((1 << bits) < concurrency && bits < 16)
+        {
+            bits++;
+        }
+        segmentShift = 64 - bits;
+        segments = new Segment[1 << bits];
+        int segmentCapacity = (int)((capacity / segments.length + 1) / loadFactor) + 1;
+        for(int i = 0; i < segments.length; i++)
+        {
+            segments[i] = new Segment(tableSize(segmentCapacity), loadFactor);
+        }
+    }
+
+    // primitive key access //////////////////////////////////////////////////
+
+    /**
+     * Returns the value mapped to a key.
+     * 
+     * @param key the key.
+     * @return the value, or <code>null</code> if the key is not mapped.
+     */
+    public V get(long key)
+    {
+        long hash = hash(key);
+        return unmask(segment(hash).get(key, hash));
+    }
+
+    /**
+     * Checks if the key is mapped.
+     * 
+     * @param key the key.
+     * @return <code>true</code> if the key is mapped.
+     */
+    public boolean containsKey(long key)
+    {
+        long hash = hash(key);
+        return segment(hash).get(key, hash) != null;
+    }
+
+    /**
+     * Maps a key to a value.
+     * 
+     * @param key the key.
+     * @param value the value.
+     * @return the previous value, or <code>null</code>.
+     */
+    public V put(long key, V value)
+    {
+        long hash = hash(key);
+        return unmask(segment(hash).put(key, hash, mask(value), false));
+    }
+
+    /**
+     * Maps a key to a value, unless it is already mapped.
+     * 
+     * @param key the key.
+     * @param value the value.
+     * @return the present value, or <code>null</code> if the value was mapped.
+     */
+    public V putIfAbsent(long key, V value)
+    {
+        long hash = hash(key);
+        return unmask(segment(hash).put(key, hash, mask(value), true));
+    }
+
+    /**
+     * Removes the mapping of a key.
+     * 
+     * @param key the key.
+     * @return the removed value, or <code>null</code>.
+     */
+    public V remove(long key)
+    {
+        long hash = hash(key);
+        return unmask(segment(hash).replace(key, hash, null, REMOVED));
+    }
+
+    // Map interface /////////////////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public int size()
+    {
+        long size = 0;
+        for(Segment segment : segments)
+        {
+            size += segment.count;
+        }
+        return size > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEmpty()
+    {
+        for(Segment segment : segments)
+        {
+            if(segment.count > 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean containsKey(Object key)
+    {
+        return key instanceof Long && containsKey(((Long)key).longValue());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public V get(Object key)
+    {
+        return key instanceof Long ? get(((Long)key).longValue()) : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public V put(Long key, V value)
+    {
+        return put(key.longValue(), value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public V remove(Object key)
+    {
+        return key instanceof Long ? remove(((Long)key).longValue()) : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clear()
+    {
+        for(Segment segment : segments)
+        {
+            segment.clear();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Map.Entry<Long, V>> entrySet()
+    {
+        return new EntrySet();
+    }
+
+    // ConcurrentMap interface ///////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public V putIfAbsent(Long key, V value)
+    {
+        return putIfAbsent(key.longValue(), value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean remove(Object key, Object value)
+    {
+        if(!(key instanceof Long))
+        {
+            return false;
+        }
+        long k = ((Long)key).longValue();
+        long hash = hash(k);
+        return segment(hash).replace(k, hash, mask(value), REMOVED) != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean replace(Long key, V oldValue, V newValue)
+    {
+        long k = key.longValue();
+        long hash = hash(k);
+        return segment(hash).replace(k, hash, mask(oldValue), mask(newValue)) != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public V replace(Long key, V value)
+    {
+        long k = key.longValue();
+        long hash = hash(k);
+        return unmask(segment(hash).replace(k, hash, null, mask(value)));
+    }
+
+    // implementation ////////////////////////////////////////////////////////
+
+    private static long hash(long key)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private Segment segment(long hash)
+    {
+        return segmentShift == 64 ? segments[0] : segments[(int)(hash >>> segmentShift)];
+    }
+
+    private static int tableSize(int capacity)
+    {
+        int size = 8;
+        while(size < capacity)
+        {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private static Object mask(Object value)
+    {
+        return value == null ? NULL : value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V unmask(Object value)
+    {
+        return value == NULL || value == null ? null : (V)value;
+    }
+
+    // inner classes /////////////////////////////////////////////////////////
+
+    /**
+     * A hash table. The value of a slot is written after it's key, and is read before it, so
+     * that a reader seeing a value also sees it's key.
+     */
+    private static class Table
+    {
+        private final AtomicLongArray keys;
+
+        private final AtomicReferenceArray<Object> values;
+
+        private final int mask;
+
+        public Table(int size)
+        {
+            keys = new AtomicLongArray(size);
+            values = new AtomicReferenceArray<Object>(size);
+            mask = size - 1;
+        }
+    }
+
+    /**
+     * A segment of the map.
+     */
+    private static class Segment
+        extends ReentrantLock
+    {
+        private static final long serialVersionUID = 1L;
+
+        /** Maximum ratio of used slots to all slots. */
+        private final float loadFactor;
+
+        /** The current table. */
+        private volatile Table table;
+
+        /** Number of live entries. */
+        private volatile int count;
+
+        /** Number of used slots, including the tombstones. */
+        private int used;
+
+        /** Number of used slots that trigger rehashing. */
+        private int threshold;
+
+        public Segment(int size, float loadFactor)
+        {
+            this.loadFactor = loadFactor;
+            setTable(new Table(size));
+        }
+
+        private void setTable(Table table)
+        {
+            threshold = (int)((table.mask + 1) * loadFactor);
+            this.table = table;
+        }
+
+        /**
+         * Returns the masked value of a key, or <code>null</code>.
+         */
+        public Object get(long key, long hash)
+        {
+            Table t = table;
+            for(int i = (int)hash & t.mask;; i = (i + 1) & t.mask)
+            {
+                Object value = t.values.get(i);
+                if(value == null)
+                {
+                    return null;
+                }
+                if(t.keys.get(i) == key)
+                {
+                    return value == REMOVED ? null : value;
+                }
+            }
+        }
+
+        /**
+         * Puts a masked value, returns the previous masked value, or <code>null</code>.
+         */
+        public Object put(long key, long hash, Object value, boolean onlyIfAbsent)
+        {
+            lock();
+            try
+            {
+                Table t = table;
+                int i = (int)hash & t.mask;
+                for(;; i = (i + 1) & t.mask)
+                {
+                    Object current = t.values.get(i);
+                    if(current == null)
+                    {
+                        break;
+                    }
+                    if(t.keys.get(i) == key)
+                    {
+                        if(current == REMOVED)
+                        {
+                            t.values.set(i, value);
+                            count++;
+                            return null;
+                        }
+                        if(!onlyIfAbsent)
+                        {
+                            t.values.set(i, value);
+                        }
+                        return current;
+                    }
+                }
+                if(used + 1 > threshold)
+                {
+                    t = rehash(count + 1);
+                    i = (int)hash & t.mask;
+                    while(t.values.get(i) != null)
+                    {
+                        i = (i + 1) & t.mask;
+                    }
+                }
+                t.keys.set(i, key);
+                t.values.set(i, value);
+                used++;
+                count++;
+                return null;
+            }
+            finally
+            {
+                unlock();
+            }
+        }
+
+        /**
+         * Replaces the masked value of a key, if it is equal to <code>expected</code>, or any
+         * value if <code>expected</code> is <code>null</code>. Returns the replaced masked
+         * value, or <code>null</code>.
+         */
+        public Object replace(long key, long hash, Object expected, Object value)
+        {
+            lock();
+            try
+            {
+                Table t = table;
+                for(int i = (int)hash & t.mask;; i = (i + 1) & t.mask)
+                {
+                    Object current = t.values.get(i);
+                    if(current == null)
+                    {
+                        return null;
+                    }
+                    if(t.keys.get(i) == key)
+                    {
+                        if(current == REMOVED
+                            || (expected != null && !expected.equals(current)))
+                        {
+                            return null;
+                        }
+                        t.values.set(i, value);
+                        if(value == REMOVED)
+                        {
+                            count--;
+                        }
+                        return current;
+                    }
+                }
+            }
+            finally
+            {
+                unlock();
+            }
+        }
+
+        public void clear()
+        {
+            lock();
+            try
+            {
+                setTable(new Table(table.mask + 1));
+                used = 0;
+                count = 0;
+            }
+            finally
+            {
+                unlock();
+            }
+        }
+
+        /**
+         * Copies the live entries into a new table, sized for the given number of entries.
+         */
+        private Table rehash(int entries)
+        {
+            Table old = table;
+            int size = old.mask + 1;
+            while(entries > (int)(size * loadFactor) / 2 + 1)
+            {
+                size <<= 1;
+            }
+            Table t = new Table(size);
+            for(int i = 0; i <= old.mask; i++)
+            {
+                Object value = old.values.get(i);
+                if(value != null && value != REMOVED)
+                {
+                    long key = old.keys.get(i);
+                    int j = (int)hash(key) & t.mask;
+                    while(t.values.get(j) != null)
+                    {
+                        j = (j + 1) & t.mask;
+                    }
+                    t.keys.set(j, key);
+                    t.values.set(j, value);
+                }
+            }
+            used = count;
+            setTable(t);
+            return t;
+        }
+    }
+
+    /**
+     * Weakly consistent view of the entries.
+     */
+    private class EntrySet
+        extends AbstractSet<Map.Entry<Long, V>>
+    {
+        public Iterator<Map.Entry<Long, V>> iterator()
+        {
+            return new EntryIterator();
+        }
+
+        public int size()
+        {
+            return LongKeyConcurrentHashMapImpl.this.size();
+        }
+
+        public boolean contains(Object o)
+        {
+            if(!(o instanceof Map.Entry<?, ?>))
+            {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>)o;
+            Object key = e.getKey();
+            if(!(key instanceof Long))
+            {
+                return false;
+            }
+            long k = ((Long)key).longValue();
+            long hash = hash(k);
+            Object value = segment(hash).get(k, hash);
+            return value != null && mask(e.getValue()).equals(value);
+        }
+
+        public boolean remove(Object o)
+        {
+            if(!(o instanceof Map.Entry<?, ?>))
+            {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>)o;
+            return LongKeyConcurrentHashMapImpl.this.remove(e.getKey(), e.getValue());
+        }
+
+        public void clear()
+        {
+            LongKeyConcurrentHashMapImpl.this.clear();
+        }
+    }
+
+    /**
+     * Iterates over the tables of the segments, as they were when the iterator reached them.
+     */
+    private class EntryIterator
+        implements Iterator<Map.Entry<Long, V>>
+    {
+        private int segment = -1;
+
+        private Table table;
+
+        private int slot;
+
+        private Map.Entry<Long, V> next;
+
+        private Map.Entry<Long, V> last;
+
+        public EntryIterator()
+        {
+            advance();
+        }
+
+        private void advance()
+        {
+            next = null;
+            while(next == null)
+            {
+                if(table == null || slot > table.mask)
+                {
+                    if(++segment == segments.length)
+                    {
+                        return;
+                    }
+                    table = segments[segment].table;
+                    slot = 0;
+                    continue;
+                }
+                Object value = table.values.get(slot);
+                if(value != null && value != REMOVED)
+                {
+                    next = new Entry(table.keys.get(slot), unmask(value));
+                }
+                slot++;
+            }
+        }
+
+        public boolean hasNext()
+        {
+            return next != null;
+        }
+
+        public Map.Entry<Long, V> next()
+        {
+            if(next == null)
+            {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            advance();
+            return last;
+        }
+
+        public void remove()
+        {
+            if(last == null)
+            {
+                throw new IllegalStateException();
+            }
+            LongKeyConcurrentHashMapImpl.this.remove(last.getKey());
+            last = null;
+        }
+    }
+
+    /**
+     * An entry returned by the iterator, writing through to the map.
+     */
+    private class Entry
+        extends AbstractMap.SimpleEntry<Long, V>
+    {
+        private static final long serialVersionUID = 1L;
+
+        public Entry(long key, V value)
+        {
+            super(Long.valueOf(key), value);
+        }
+
+        public V setValue(V value)
+        {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
@@ -0,0 +1,487 @@
+//
+//Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without modification, 
+//are permitted provided that the following conditions are met:
+//
+//* Redistributions of source code must retain the above copyright notice, 
+//this list of conditions and the following disclaimer.
+//* Redistributions in binary form must reproduce the above copyright notice, 
+//this list of conditions and the following disclaimer in the documentation 
+//and/or other materials provided with the distribution.
+//* Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+//nor the names of its contributors may be used to endorse or promote products 
+//derived from this software without specific prior written permission.
+//
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+//WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+//INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, 
+//BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+//OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+//WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+//ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+//POSSIBILITY OF SUCH DAMAGE.
+//
+
+package org.objectledge.cache.impl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.objectledge.cache.DelayedUpdate;
+import org.objectledge.cache.EnumerableValueFactory;
+import org.objectledge.cache.ValueFactory;
+import org.objectledge.cache.spi.CacheFactorySPI;
+import org.objectledge.cache.spi.ConfigurableMap;
+import org.objectledge.cache.spi.FactoryMap;
+import org.objectledge.cache.spi.LayeredMap;
+import org.objectledge.cache.spi.NegativeMap;
+
+/**
+ * An implementation of {@link NegativeMap}.
+ * <p>
+ * The layer is meant to be placed directly above a {@link FactoryMap}. The keys the underlying
+ * maps returned <code>null</code> for are remembered in a set bounded by time and size. When
+ * a filter capacity is configured and the factory of the underlying FactoryMap is an
+ * {@link EnumerableValueFactory}, a Bloom filter of the keys is built shortly after the layer
+ * is configured, and rebuilt periodically using the delayed update mechanism.
+ * </p>
+ * <p>
+ * Putting a key into the map, removing it, which happens when a peer node modifies a
+ * distributed map, or calling {@link #updated(Object)} drops the key from the missing set and
+ * adds it to the filter. Values created locally and never put into the cache must be announced
+ * using {@link #updated(Object)}, otherwise they remain invisible until the filter is rebuilt.
+ * </p>
+ * <p>
+ * Every such change also bumps a generation counter of the key's stripe. A lookup reads the
+ * counter before consulting the underlying map, and drops the missing mark it has just recorded
+ * if the counter changed in the meantime, so that a concurrent put is never masked.
+ * </p>
+ */
+public class NegativeMapImpl<K, V>
+    extends DelegateMap<K, V>
+    implements NegativeMap<K, V>, ConfigurableMap<K, V>, DelayedUpdate
+{
+    // constants /////////////////////////////////////////////////////////////
+
+    /** Default missing key time to live. (60s) */
+    public static final long TIMEOUT_DEFAULT = 60000L;
+
+    /** Default filter rebuild interval. (1h) */
+    public static final long REBUILD_INTERVAL_DEFAULT = 3600000L;
+
+    /** Delay before the filter is first built. (1s) */
+    public static final long INITIAL_DELAY = 1000L;
+
+    /** Maximum number of missing keys remembered. */
+    public static final int MAX_MISSING = 10000;
+
+    /** Number of generation counter stripes, a power of two. */
+    private static final int STRIPES = 256;
+
+    // instance variables ////////////////////////////////////////////////////
+
+    /** The caching component. */
+    private CacheFactorySPI caching;
+
+    /** Missing keys, mapped to their expiration time. */
+    private final ConcurrentMap<K, Long> missing = new ConcurrentHashMap<K, Long>();
+
+    /** Generation counters of key stripes, bumped whenever a key might have been created. */
+    private final AtomicLongArray generations = new AtomicLongArray(STRIPES);
+
+    /** Missing key time to live. */
+    private long timeout = TIMEOUT_DEFAULT;
+
+    /** Expected number of keys. */
+    private volatile int filterCapacity;
+
+    /** Filter rebuild interval. */
+    private long rebuildInterval = REBUILD_INTERVAL_DEFAULT;
+
+    /** The current filter, <code>null</code> until built. */
+    private volatile BloomFilter filter;
+
+    /** The filter being built. */
+    private volatile BloomFilter building;
+
+    /** Was the filter build attempted. */
+    private volatile boolean attempted;
+
+    /** Is the map registered for delayed update. */
+    private final AtomicBoolean registered = new AtomicBoolean();
+
+    /** Number of lookups answered by the layer. */
+    private final AtomicLong negativeHits = new AtomicLong();
+
+    // initialization ////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new negative map.
+     */
+    public NegativeMapImpl()
+    {
+        super();
+    }
+
+    // ConfigurableMap interface /////////////////////////////////////////////
+
+    /**
+     * Configures the map.
+     * <p>
+     * Configuration has the form <i>timeout</i>[,<i>filterCapacity</i>[,<i>rebuildInterval</i>]],
+     * times in milliseconds.
+     * </p>
+     * 
+     * @param caching the caching component.
+     * @param name the name of the map.
+     * @param config the configuration.
+     */
+    public void configure(CacheFactorySPI caching, String name, String config)
+    {
+        this.caching = caching;
+        String[] c = config.split(",");
+        try
+        {
+            if(c[0].trim().length() > 0)
+            {
+                setTimeout(Long.parseLong(c[0].trim()));
+            }
+            if(c.length > 1)
+            {
+                setFilterCapacity(Integer.parseInt(c[1].trim()));
+            }
+            if(c.length > 2)
+            {
+                setRebuildInterval(Long.parseLong(c[2].trim()));
+            }
+        }
+        catch(NumberFormatException e)
+        {
+            throw new IllegalArgumentException("invalid spec '" + config + "' for '" + name
+                + "', expected timeout[,filterCapacity[,rebuildInterval]]");
+        }
+    }
+
+    // NegativeMap SPI interface /////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setTimeout(long timeout)
+    {
+        this.timeout = timeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setFilterCapacity(int capacity)
+    {
+        filterCapacity = capacity;
+        if(capacity > 0)
+        {
+            scheduleUpdate();
+        }
+        else
+        {
+            filter = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setRebuildInterval(long interval)
+    {
+        rebuildInterval = interval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void rebuild()
+    {
+        EnumerableValueFactory<K, V> factory = getEnumerableFactory();
+        int capacity = filterCapacity;
+        if(factory == null || capacity <= 0)
+        {
+            filter = null;
+            return;
+        }
+        final BloomFilter next = new BloomFilter(capacity);
+        final AtomicInteger count = new AtomicInteger();
+        building = next;
+        try
+        {
+            factory.visitKeys(new EnumerableValueFactory.KeyVisitor<K>()
+                {
+                    public void visit(K key)
+                    {
+                        next.add(key);
+                        count.incrementAndGet();
+                    }
+                });
+            if(count.get() > capacity)
+            {
+                // too many false positives, size up for the next rebuild
+                filterCapacity = count.get() * 2;
+            }
+            filter = next;
+        }
+        finally
+        {
+            building = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updated(K key)
+    {
+        exists(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getNegativeHitCount()
+    {
+        return negativeHits.get();
+    }
+
+    // DelayedUpdate interface ///////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getUpdateLatency()
+    {
+        return attempted ? rebuildInterval : INITIAL_DELAY;
+    }
+
+    /**
+     * Rebuilds the filter.
+     */
+    public void update()
+    {
+        registered.set(false);
+        attempted = true;
+        try
+        {
+            rebuild();
+        }
+        finally
+        {
+            if(filterCapacity > 0)
+            {
+                scheduleUpdate();
+            }
+        }
+    }
+
+    // Map interface /////////////////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public V get(Object key)
+    {
+        Long expires = missing.get(key);
+        if(expires != null)
+        {
+            if(expires.longValue() > System.currentTimeMillis())
+            {
+                negativeHits.incrementAndGet();
+                return null;
+            }
+            missing.remove(key, expires);
+        }
+        BloomFilter f = filter;
+        if(f != null && key != null && !f.mightContain(key))
+        {
+            negativeHits.incrementAndGet();
+            return null;
+        }
+        long generation = key != null ? generations.get(stripe(key)) : 0L;
+        V value = delegate.get(key);
+        if(value == null && key != null && timeout > 0)
+        {
+            markMissing(key, generation);
+        }
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public V put(K key, V value)
+    {
+        addToFilter(key);
+        V old = delegate.put(key, value);
+        invalidate(key);
+        return old;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void putAll(Map<? extends K, ? extends V> t)
+    {
+        for(K key : t.keySet())
+        {
+            addToFilter(key);
+        }
+        delegate.putAll(t);
+        for(K key : t.keySet())
+        {
+            invalidate(key);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(Object key)
+    {
+        if(key != null)
+        {
+            addToFilter((K)key);
+        }
+        V old = delegate.remove(key);
+        if(key != null)
+        {
+            invalidate((K)key);
+        }
+        return old;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clear()
+    {
+        missing.clear();
+        delegate.clear();
+    }
+
+    // implementation ////////////////////////////////////////////////////////
+
+    private void scheduleUpdate()
+    {
+        if(caching != null && registered.compareAndSet(false, true))
+        {
+            caching.register(this);
+        }
+    }
+
+    /**
+     * Records that the value for the key might exist.
+     */
+    private void exists(K key)
+    {
+        addToFilter(key);
+        invalidate(key);
+    }
+
+    /**
+     * Adds the key to the filters, before the value becomes visible in the underlying map.
+     */
+    private void addToFilter(K key)
+    {
+        BloomFilter f = filter;
+        if(f != null)
+        {
+            f.add(key);
+        }
+        BloomFilter b = building;
+        if(b != null)
+        {
+            b.add(key);
+        }
+        // the filter might have been replaced in the meantime
+        BloomFilter current = filter;
+        if(current != null && current != f)
+        {
+            current.add(key);
+        }
+    }
+
+    /**
+     * Drops the missing mark of the key, after the value became visible in the underlying map.
+     * <p>
+     * The generation is bumped first, so that a lookup that missed the value before it was
+     * stored either notices the change, or has its mark removed here.
+     * </p>
+     */
+    private void invalidate(K key)
+    {
+        generations.incrementAndGet(stripe(key));
+        missing.remove(key);
+    }
+
+    private static int stripe(Object key)
+    {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void markMissing(Object key, long generation)
+    {
+        long now = System.currentTimeMillis();
+        if(missing.size() >= MAX_MISSING)
+        {
+            Iterator<Long> i = missing.values().iterator();
+            while(i.hasNext())
+            {
+                if(i.next().longValue() <= now)
+                {
+                    i.remove();
+                }
+            }
+            if(missing.size() >= MAX_MISSING)
+            {
+                missing.clear();
+            }
+        }
+        Long expires = Long.valueOf(now + timeout);
+        missing.put((K)key, expires);
+        if(generations.get(stripe(key)) != generation)
+        {
+            // the key was created concurrently
+            missing.remove(key, expires);
+        }
+    }
+
+    /**
+     * Returns the factory of the underlying factory map, if it can enumerate the keys.
+     */
+    @SuppressWarnings("unchecked")
+    private EnumerableValueFactory<K, V> getEnumerableFactory()
+    {
+        Map<K, V> map = delegate;
+        while(map instanceof LayeredMap<?, ?>)
+        {
+            if(map instanceof FactoryMap<?, ?>)
+            {
+                ValueFactory<K, V> factory = ((FactoryMap<K, V>)map).getFactory();
+                return factory instanceof EnumerableValueFactory<?, ?>
+                    ? (EnumerableValueFactory<K, V>)factory : null;
+            }
+            map = ((LayeredMap<K, V>)map).getDelegate();
+        }
+        return null;
+    }
+}
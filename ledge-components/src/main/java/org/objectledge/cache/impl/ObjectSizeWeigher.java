@@ -0,0 +1,296 @@
+//
+//Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without modification, 
+//are permitted provided that the following conditions are met:
+//
+//* Redistributions of source code must retain the above copyright notice, 
+//this list of conditions and the following disclaimer.
+//* Redistributions in binary form must reproduce the above copyright notice, 
+//this list of conditions and the following disclaimer in the documentation 
+//and/or other materials provided with the distribution.
+//* Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+//nor the names of its contributors may be used to endorse or promote products 
+//derived from this software without specific prior written permission.
+//
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+//WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+//INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, 
+//BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+//OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+//WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+//ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+//POSSIBILITY OF SUCH DAMAGE.
+//
+
+package org.objectledge.cache.impl;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.objectledge.cache.Weigher;
+
+/**
+ * A weigher estimating the heap size of the entries in bytes.
+ * <p>
+ * The object graph reachable from the key and the value is traversed, and the sizes of the
+ * objects are summed up. The layout of each class, that is it's shallow size and the reference
+ * fields to follow, is computed once using reflection and cached. Shallow sizes assume a 64 bit
+ * VM with compressed references.
+ * </p>
+ * <p>
+ * Fields of classes that cannot be accessed reflectively, like the JDK internals on recent VMs,
+ * are not followed. Collections and maps of such classes are traversed through their public
+ * interface, with an estimated overhead per element. Class objects and enum constants are
+ * shared and not counted. The traversal stops after {@link #MAX_OBJECTS} objects.
+ * </p>
+ */
+public class ObjectSizeWeigher
+    implements Weigher<Object, Object>
+{
+    // constants /////////////////////////////////////////////////////////////
+
+    /** Maximum number of objects visited when weighing an entry. */
+    public static final int MAX_OBJECTS = 100000;
+
+    private static final int OBJECT_HEADER = 12;
+
+    private static final int ARRAY_HEADER = 16;
+
+    private static final int REFERENCE = 4;
+
+    private static final int ALIGNMENT = 8;
+
+    /** Estimated overhead of a collection element: the slot and growth reserve. */
+    private static final int COLLECTION_ELEMENT = 8;
+
+    /** Estimated overhead of a map entry: the entry object and the table slot. */
+    private static final int MAP_ENTRY = 40;
+
+    // instance variables ////////////////////////////////////////////////////
+
+    /** Cached class layouts. */
+    private static final Map<Class<?>, Layout> layouts =
+        new ConcurrentHashMap<Class<?>, Layout>();
+
+    // Weigher interface /////////////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public long weigh(Object key, Object value)
+    {
+        return estimate(key, value);
+    }
+
+    // public interface //////////////////////////////////////////////////////
+
+    /**
+     * Estimates the total heap size of the objects reachable from the roots.
+     * 
+     * @param roots the root objects, <code>null</code>s are ignored.
+     * @return the estimated size in bytes.
+     */
+    public static long estimate(Object... roots)
+    {
+        IdentityHashMap<Object, Object> visited = new IdentityHashMap<Object, Object>();
+        Deque<Object> stack = new ArrayDeque<Object>();
+        for(Object root : roots)
+        {
+            push(root, stack, visited);
+        }
+        long size = 0;
+        while(!stack.isEmpty() && visited.size() <= MAX_OBJECTS)
+        {
+            Object obj = stack.pop();
+            Class<?> cl = obj.getClass();
+            if(cl.isArray())
+            {
+                size += arraySize(obj, cl);
+                if(!cl.getComponentType().isPrimitive())
+                {
+                    for(Object element : (Object[])obj)
+                    {
+                        push(element, stack, visited);
+                    }
+                }
+                continue;
+            }
+            Layout layout = layout(cl);
+            size += layout.size;
+            if(layout.opaque)
+            {
+                size += opaqueSize(obj, stack, visited);
+            }
+            for(Field field : layout.references)
+            {
+                try
+                {
+                    push(field.get(obj), stack, visited);
+                }
+                catch(IllegalAccessException e)
+                {
+                    // made accessible when the layout was computed
+                }
+            }
+        }
+        return size;
+    }
+
+    // implementation ////////////////////////////////////////////////////////
+
+    private static void push(Object obj, Deque<Object> stack,
+        IdentityHashMap<Object, Object> visited)
+    {
+        if(obj == null || obj instanceof Class<?> || obj instanceof Enum<?>)
+        {
+            return;
+        }
+        if(visited.put(obj, obj) == null)
+        {
+            stack.push(obj);
+        }
+    }
+
+    private static long arraySize(Object array, Class<?> cl)
+    {
+        return align(ARRAY_HEADER + (long)Array.getLength(array)
+            * fieldSize(cl.getComponentType()));
+    }
+
+    /**
+     * Estimates the contents of objects whose fields cannot be followed.
+     */
+    private static long opaqueSize(Object obj, Deque<Object> stack,
+        IdentityHashMap<Object, Object> visited)
+    {
+        if(obj instanceof String)
+        {
+            return align(ARRAY_HEADER + 2L * ((String)obj).length());
+        }
+        try
+        {
+            if(obj instanceof Collection<?>)
+            {
+                Collection<?> collection = (Collection<?>)obj;
+                for(Object element : collection)
+                {
+                    push(element, stack, visited);
+                }
+                return (long)collection.size() * COLLECTION_ELEMENT;
+            }
+            if(obj instanceof Map<?, ?>)
+            {
+                Map<?, ?> map = (Map<?, ?>)obj;
+                for(Map.Entry<?, ?> entry : map.entrySet())
+                {
+                    push(entry.getKey(), stack, visited);
+                    push(entry.getValue(), stack, visited);
+                }
+                return (long)map.size() * MAP_ENTRY;
+            }
+        }
+        catch(RuntimeException e)
+        {
+            // modified concurrently, or a view that does not support iteration
+        }
+        return 0;
+    }
+
+    private static Layout layout(Class<?> cl)
+    {
+        Layout layout = layouts.get(cl);
+        if(layout == null)
+        {
+            layout = new Layout(cl);
+            layouts.put(cl, layout);
+        }
+        return layout;
+    }
+
+    private static int fieldSize(Class<?> type)
+    {
+        if(type == long.class || type == double.class)
+        {
+            return 8;
+        }
+        if(type == int.class || type == float.class)
+        {
+            return 4;
+        }
+        if(type == short.class || type == char.class)
+        {
+            return 2;
+        }
+        if(type == byte.class || type == boolean.class)
+        {
+            return 1;
+        }
+        return REFERENCE;
+    }
+
+    private static long align(long size)
+    {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    // inner classes /////////////////////////////////////////////////////////
+
+    /**
+     * Shallow size and reference fields of a class.
+     */
+    private static class Layout
+    {
+        private final long size;
+
+        private final Field[] references;
+
+        /** Set when some of the reference fields cannot be followed. */
+        private final boolean opaque;
+
+        public Layout(Class<?> cl)
+        {
+            long fields = 0;
+            boolean inaccessible = false;
+            List<Field> refs = new ArrayList<Field>();
+            for(Class<?> c = cl; c != null; c = c.getSuperclass())
+            {
+                for(Field field : c.getDeclaredFields())
+                {
+                    if(Modifier.isStatic(field.getModifiers()))
+                    {
+                        continue;
+                    }
+                    fields += fieldSize(field.getType());
+                    if(!field.getType().isPrimitive())
+                    {
+                        try
+                        {
+                            field.setAccessible(true);
+                            refs.add(field);
+                        }
+                        catch(RuntimeException e)
+                        {
+                            inaccessible = true;
+                        }
+                    }
+                }
+            }
+            size = align(OBJECT_HEADER + fields);
+            references = refs.toArray(new Field[refs.size()]);
+            opaque = inaccessible;
+        }
+    }
+}
@@ -0,0 +1,759 @@
+//
+//Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without modification, 
+//are permitted provided that the following conditions are met:
+//
+//* Redistributions of source code must retain the above copyright notice, 
+//this list of conditions and the following disclaimer.
+//* Redistributions in binary form must reproduce the above copyright notice, 
+//this list of conditions and the following disclaimer in the documentation 
+//and/or other materials provided with the distribution.
+//* Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+//nor the names of its contributors may be used to endorse or promote products 
+//derived from this software without specific prior written permission.
+//
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+//WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+//INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, 
+//BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+//OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+//WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+//ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+//POSSIBILITY OF SUCH DAMAGE.
+//
+
+package org.objectledge.cache.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.objectledge.cache.ValueSerializer;
+import org.objectledge.cache.spi.CacheFactorySPI;
+import org.objectledge.cache.spi.ConfigurableMap;
+import org.objectledge.cache.spi.OffHeapMap;
+
+/**
+ * An implementation of off-heap map.
+ *
+ * <p>Serialized values are kept in direct <code>ByteBuffer</code>s, the only on-heap structure
+ * is the index of keys. The memory budget is divided into equally sized segments, that are
+ * filled in round-robin order. When the segment being filled runs out of space, the next one is
+ * recycled: all entries stored in it are evicted at once, which gives FIFO eviction with the
+ * granularity of a segment. Updated and removed entries occupy space until their segment is
+ * recycled. Values larger than a segment are not stored off-heap.</p>
+ *
+ * <p>When the map is used as an upper layer, the delegate map acts as an on-heap front: values
+ * read from off-heap memory are put into the delegate, and looked up there first. The delegate
+ * should be a small bounded map, like <code>LRUMap</code>. Without a delegate every read
+ * deserializes the value.</p>
+ *
+ * <p>{@link #put(Object, Object)} and {@link #remove(Object)} deserialize the previous value
+ * when it is not found in the front, only to return it. {@link #putAll(Map)} and removal
+ * through the key set or the iterators do not, and should be preferred when the previous value
+ * is not needed.</p>
+ *
+ * <p>The off-heap part is safe for concurrent use. The front is accessed without additional
+ * synchronization, so a thread safe delegate must be used when the map is shared.</p>
+ */
+public class OffHeapMapImpl<K, V>
+    extends DelegateMap<K, V>
+    implements OffHeapMap<K, V>, ConfigurableMap<K, V>
+{
+    // constants /////////////////////////////////////////////////////////////
+
+    /** Default memory budget (16MB). */
+    public static final long MAX_BYTES_DEFAULT = 16 * 1024 * 1024;
+
+    /** Default number of segments (16). */
+    public static final int SEGMENTS_DEFAULT = 16;
+
+    // instance variables ////////////////////////////////////////////////////
+
+    /** Key to value location mapping. */
+    private final ConcurrentHashMap<K, Location<K>> index = new ConcurrentHashMap<K, Location<K>>();
+
+    /** Guards appending to and recycling of segments. */
+    private final Object writeLock = new Object();
+
+    /** The segments. */
+    private volatile Segment<K>[] segments;
+
+    /** The segment currently being filled. */
+    private int current;
+
+    /** Memory budget. */
+    private long maxBytes;
+
+    /** The value serializer. */
+    private volatile ValueSerializer<V> serializer = new JavaValueSerializer<V>();
+
+    // initialization ////////////////////////////////////////////////////////
+
+    /**
+     * Creates a map with default budget and segment count.
+     */
+    public OffHeapMapImpl()
+    {
+        super();
+        setCapacity(MAX_BYTES_DEFAULT, SEGMENTS_DEFAULT);
+    }
+
+    // ConfigurableMap interface /////////////////////////////////////////////
+
+    /**
+     * Configures the map.
+     * <p>
+     * Supported configuration options are
+     * <ul>
+     * <li><i>maxBytes</i></li>
+     * <li><i>maxBytes</i>,<i>segments</i></li>
+     * <li><i>maxBytes</i>,<i>segments</i>,<i>serializerClass</i></li>
+     * </ul>
+     * Where <i>maxBytes</i> is a positive number optionally followed by K, M or G suffix,
+     * <i>segments</i> is a positive integer, and <i>serializerClass</i> is the name of a
+     * {@link ValueSerializer} implementation with a public no-arg constructor.
+     * </p>
+     */
+    @SuppressWarnings("unchecked")
+    public void configure(CacheFactorySPI caching, String name, String config)
+    {
+        String[] c = config.split(",");
+        try
+        {
+            long bytes = c[0].trim().length() > 0 ? parseSize(c[0].trim()) : MAX_BYTES_DEFAULT;
+            int count = c.length > 1 ? Integer.parseInt(c[1].trim()) : SEGMENTS_DEFAULT;
+            setCapacity(bytes, count);
+        }
+        catch(NumberFormatException e)
+        {
+            throw new IllegalArgumentException("invalid spec '" + config + "' for '" + name
+                + "', expected maxBytes[,segments[,serializerClass]]");
+        }
+        if(c.length > 2)
+        {
+            String className = c[2].trim();
+            try
+            {
+                setSerializer((ValueSerializer<V>)Class.forName(className).newInstance());
+            }
+            catch(Exception e)
+            {
+                throw new IllegalArgumentException("cannot instantiate serializer " + className
+                    + " for '" + name + "'", e);
+            }
+        }
+    }
+
+    // OffHeapMap SPI interface //////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setSerializer(ValueSerializer<V> serializer)
+    {
+        this.serializer = serializer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public void setCapacity(long maxBytes, int segmentCount)
+    {
+        if(segmentCount < 2)
+        {
+            throw new IllegalArgumentException("at least two segments are required");
+        }
+        long segmentSize = maxBytes / segmentCount;
+        if(segmentSize <= 0 || segmentSize > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("invalid segment size " + segmentSize);
+        }
+        synchronized(writeLock)
+        {
+            if(segments != null)
+            {
+                for(Segment<K> segment : segments)
+                {
+                    recycle(segment);
+                }
+            }
+            Segment<K>[] newSegments = new Segment[segmentCount];
+            for(int i = 0; i < segmentCount; i++)
+            {
+                newSegments[i] = new Segment<K>((int)segmentSize);
+            }
+            segments = newSegments;
+            current = 0;
+            this.maxBytes = segmentSize * segmentCount;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getUsedBytes()
+    {
+        long used = 0;
+        for(Segment<K> segment : segments)
+        {
+            used += segment.position;
+        }
+        return used;
+    }
+
+    // Map interface /////////////////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public V get(Object key)
+    {
+        if(delegate != null)
+        {
+            V value = delegate.get(key);
+            if(value != null)
+            {
+                return value;
+            }
+        }
+        Location<K> location = index.get(key);
+        if(location == null)
+        {
+            return null;
+        }
+        V value = read(location);
+        if(value != null && delegate != null)
+        {
+            delegate.put(location.key, value);
+        }
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public V put(K key, V value)
+    {
+        V old = null;
+        if(delegate != null)
+        {
+            old = delegate.put(key, value);
+        }
+        Location<K> previous = store(key, value);
+        if(old == null && previous != null)
+        {
+            old = read(previous);
+        }
+        return old;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void putAll(Map<? extends K, ? extends V> map)
+    {
+        for(Map.Entry<? extends K, ? extends V> entry : map.entrySet())
+        {
+            if(delegate != null)
+            {
+                delegate.put(entry.getKey(), entry.getValue());
+            }
+            store(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean equals(Object o)
+    {
+        return o == this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode()
+    {
+        return System.identityHashCode(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public V remove(Object key)
+    {
+        V old = null;
+        if(delegate != null)
+        {
+            old = delegate.remove(key);
+        }
+        Location<K> previous = index.remove(key);
+        if(old == null && previous != null)
+        {
+            old = read(previous);
+        }
+        return old;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean containsKey(Object key)
+    {
+        return index.containsKey(key) || (delegate != null && delegate.containsKey(key));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean containsValue(Object value)
+    {
+        for(V v : values())
+        {
+            if(v == null ? value == null : v.equals(value))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int size()
+    {
+        return index.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEmpty()
+    {
+        return index.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clear()
+    {
+        synchronized(writeLock)
+        {
+            for(Segment<K> segment : segments)
+            {
+                recycle(segment);
+            }
+            index.clear();
+            current = 0;
+        }
+        if(delegate != null)
+        {
+            delegate.clear();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<K> keySet()
+    {
+        return new AbstractSet<K>()
+            {
+                public Iterator<K> iterator()
+                {
+                    final Iterator<K> i = index.keySet().iterator();
+                    return new Iterator<K>()
+                        {
+                            private K last;
+
+                            public boolean hasNext()
+                            {
+                                return i.hasNext();
+                            }
+
+                            public K next()
+                            {
+                                last = i.next();
+                                return last;
+                            }
+
+                            public void remove()
+                            {
+                                discard(last);
+                            }
+                        };
+                }
+
+                public boolean contains(Object o)
+                {
+                    return index.containsKey(o);
+                }
+
+                public boolean remove(Object o)
+                {
+                    boolean present = index.containsKey(o);
+                    discard(o);
+                    return present;
+                }
+
+                public int size()
+                {
+                    return index.size();
+                }
+
+                public void clear()
+                {
+                    OffHeapMapImpl.this.clear();
+                }
+            };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Map.Entry<K, V>> entrySet()
+    {
+        return new AbstractSet<Map.Entry<K, V>>()
+            {
+                public Iterator<Map.Entry<K, V>> iterator()
+                {
+                    return new EntryIterator();
+                }
+
+                public int size()
+                {
+                    return index.size();
+                }
+
+                public void clear()
+                {
+                    OffHeapMapImpl.this.clear();
+                }
+            };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<V> values()
+    {
+        return new AbstractCollection<V>()
+            {
+                public Iterator<V> iterator()
+                {
+                    final EntryIterator i = new EntryIterator();
+                    return new Iterator<V>()
+                        {
+                            public boolean hasNext()
+                            {
+                                return i.hasNext();
+                            }
+
+                            public V next()
+                            {
+                                return i.next().getValue();
+                            }
+
+                            public void remove()
+                            {
+                                i.remove();
+                            }
+                        };
+                }
+
+                public int size()
+                {
+                    return index.size();
+                }
+
+                public void clear()
+                {
+                    OffHeapMapImpl.this.clear();
+                }
+            };
+    }
+
+    // implementation ////////////////////////////////////////////////////////
+
+    /**
+     * Stores a value off-heap, without reading the value it replaces.
+     * 
+     * @param key the key.
+     * @param value the value.
+     * @return the location of the replaced value, or <code>null</code>.
+     */
+    private Location<K> store(K key, V value)
+    {
+        byte[] bytes;
+        try
+        {
+            bytes = serializer.serialize(value);
+        }
+        catch(IOException e)
+        {
+            throw new RuntimeException("failed to serialize value for key " + key, e);
+        }
+        synchronized(writeLock)
+        {
+            Location<K> location = append(key, bytes);
+            return location != null ? index.put(key, location) : index.remove(key);
+        }
+    }
+
+    /**
+     * Removes an entry without reading it's value.
+     * 
+     * @param key the key.
+     */
+    private void discard(Object key)
+    {
+        if(delegate != null)
+        {
+            delegate.remove(key);
+        }
+        index.remove(key);
+    }
+
+    /**
+     * Parses a size specification.
+     * 
+     * @param spec a number optionally followed by K, M or G suffix.
+     * @return the size in bytes.
+     */
+    static long parseSize(String spec)
+    {
+        long multiplier = 1;
+        char suffix = Character.toUpperCase(spec.charAt(spec.length() - 1));
+        switch(suffix)
+        {
+        case 'K':
+            multiplier = 1024L;
+            break;
+        case 'M':
+            multiplier = 1024L * 1024;
+            break;
+        case 'G':
+            multiplier = 1024L * 1024 * 1024;
+            break;
+        default:
+            return Long.parseLong(spec);
+        }
+        return Long.parseLong(spec.substring(0, spec.length() - 1).trim()) * multiplier;
+    }
+
+    /**
+     * Stores the value bytes in the current segment, recycling the next segment if necessary.
+     * Must be called with the write lock held.
+     * 
+     * @return the location of the value, or <code>null</code> if the value is too large.
+     */
+    private Location<K> append(K key, byte[] bytes)
+    {
+        Segment<K> segment = segments[current];
+        if(bytes.length > segment.buffer.capacity())
+        {
+            return null;
+        }
+        if(segment.position + bytes.length > segment.buffer.capacity())
+        {
+            current = (current + 1) % segments.length;
+            segment = segments[current];
+            recycle(segment);
+        }
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(segment.position);
+        buffer.put(bytes);
+        Location<K> location = new Location<K>(key, segment, segment.generation,
+            segment.position, bytes.length);
+        segment.position += bytes.length;
+        segment.locations.add(location);
+        return location;
+    }
+
+    /**
+     * Evicts all entries stored in a segment and makes it available for reuse. Must be called
+     * with the write lock held.
+     */
+    private void recycle(Segment<K> segment)
+    {
+        segment.lock.writeLock().lock();
+        try
+        {
+            segment.generation++;
+            segment.position = 0;
+        }
+        finally
+        {
+            segment.lock.writeLock().unlock();
+        }
+        for(Location<K> location : segment.locations)
+        {
+            index.remove(location.key, location);
+        }
+        segment.locations.clear();
+    }
+
+    /**
+     * Reads and deserializes a value.
+     * 
+     * @return the value, or <code>null</code> if the segment was recycled in the meantime.
+     */
+    private V read(Location<K> location)
+    {
+        Segment<K> segment = location.segment;
+        byte[] bytes = new byte[location.length];
+        segment.lock.readLock().lock();
+        try
+        {
+            if(segment.generation != location.generation)
+            {
+                return null;
+            }
+            ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(location.offset);
+            buffer.get(bytes);
+        }
+        finally
+        {
+            segment.lock.readLock().unlock();
+        }
+        try
+        {
+            return serializer.deserialize(bytes);
+        }
+        catch(IOException e)
+        {
+            throw new RuntimeException("failed to deserialize value for key " + location.key, e);
+        }
+    }
+
+    // inner classes /////////////////////////////////////////////////////////
+
+    /**
+     * A region of off-heap memory.
+     */
+    private static final class Segment<K>
+    {
+        private final ByteBuffer buffer;
+
+        /** Guards buffer contents against recycling while they are read. */
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        /** Locations of entries stored in the segment, guarded by the map's write lock. */
+        private final List<Location<K>> locations = new ArrayList<Location<K>>();
+
+        /** Incremented each time the segment is recycled. */
+        private volatile int generation;
+
+        /** Start of free space, guarded by the map's write lock. */
+        private volatile int position;
+
+        public Segment(int size)
+        {
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+    }
+
+    /**
+     * Location of a serialized value.
+     */
+    private static final class Location<K>
+    {
+        private final K key;
+
+        private final Segment<K> segment;
+
+        private final int generation;
+
+        private final int offset;
+
+        private final int length;
+
+        public Location(K key, Segment<K> segment, int generation, int offset, int length)
+        {
+            this.key = key;
+            this.segment = segment;
+            this.generation = generation;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Iterator over the entries, skipping the entries evicted during iteration.
+     */
+    private class EntryIterator
+        implements Iterator<Map.Entry<K, V>>
+    {
+        private final Iterator<Location<K>> i = index.values().iterator();
+
+        private Map.Entry<K, V> next;
+
+        private K last;
+
+        public boolean hasNext()
+        {
+            while(next == null && i.hasNext())
+            {
+                Location<K> location = i.next();
+                V value = read(location);
+                if(value != null)
+                {
+                    next = new AbstractMap.SimpleImmutableEntry<K, V>(location.key, value);
+                }
+            }
+            return next != null;
+        }
+
+        public Map.Entry<K, V> next()
+        {
+            if(!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<K, V> result = next;
+            next = null;
+            last = result.getKey();
+            return result;
+        }
+
+        public void remove()
+        {
+            if(last == null)
+            {
+                throw new IllegalStateException();
+            }
+            discard(last);
+            last = null;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+//
+//Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without modification, 
+//are permitted provided that the following conditions are met:
+//
+//* Redistributions of source code must retain the above copyright notice, 
+//this list of conditions and the following disclaimer.
+//* Redistributions in binary form must reproduce the above copyright notice, 
+//this list of conditions and the following disclaimer in the documentation 
+//and/or other materials provided with the distribution.
+//* Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+//nor the names of its contributors may be used to endorse or promote products 
+//derived from this software without specific prior written permission.
+//
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+//WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+//INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, 
+//BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+//OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+//WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+//ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+//POSSIBILITY OF SUCH DAMAGE.
+//
+
+package org.objectledge.cache.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lossy ring buffer of reads. Producers drop the reads when the buffer is full or
+ * contended instead of waiting. There may be only a single consumer at a time, guarded by the
+ * lock of the owning map.
+ */
+final class ReadBuffer<E>
+{
+    // constants /////////////////////////////////////////////////////////////
+
+    /** Capacity of the buffer (must be a power of two). */
+    private static final int SIZE = 32;
+
+    /** Number of buffered reads that triggers a drain. */
+    private static final int DRAIN_THRESHOLD = 16;
+
+    // instance variables ////////////////////////////////////////////////////
+
+    private final AtomicLong writeCounter = new AtomicLong();
+
+    private final AtomicReferenceArray<E> slots = new AtomicReferenceArray<E>(SIZE);
+
+    /** Written only by the consumer, that holds the lock. */
+    private volatile long readCounter;
+
+    // public interface //////////////////////////////////////////////////////
+
+    /**
+     * Records a read.
+     * 
+     * @param e the accessed element.
+     * @return <code>true</code> if the buffer should be drained.
+     */
+    public boolean offer(E e)
+    {
+        long head = readCounter;
+        long tail = writeCounter.get();
+        long size = tail - head;
+        if(size >= SIZE)
+        {
+            return true;
+        }
+        if(writeCounter.compareAndSet(tail, tail + 1))
+        {
+            slots.lazySet((int)(tail & (SIZE - 1)), e);
+            return size + 1 >= DRAIN_THRESHOLD;
+        }
+        return false;
+    }
+
+    /**
+     * Retrieves the next buffered read. Must be called with the lock held.
+     * 
+     * @return the accessed element, or <code>null</code> if the buffer is empty.
+     */
+    public E poll()
+    {
+        long head = readCounter;
+        if(head == writeCounter.get())
+        {
+            return null;
+        }
+        int index = (int)(head & (SIZE - 1));
+        E e = slots.get(index);
+        if(e == null)
+        {
+            // producer did not publish the element yet
+            return null;
+        }
+        slots.lazySet(index, null);
+        readCounter = head + 1;
+        return e;
+    }
+}
@@ -33,7 +33,10 @@ import java.util.Map;
 
 import org.objectledge.cache.spi.CacheFactorySPI;
 import org.objectledge.cache.spi.ConfigurableMap;
+import org.objectledge.cache.spi.FactoryMap;
+import org.objectledge.cache.spi.LayeredMap;
 import org.objectledge.cache.spi.StatisticsMap;
+import org.objectledge.cache.spi.WeightedMap;
 
 /**
  * An implementation of performance statistics performing cache.
@@ -61,6 +64,15 @@ public class StatisticsMapImpl<K, V>
     
     /** The number of hits (non-null get results). */
     private int hits;
+
+    /** Factory map load count at the last reset. */
+    private int loadsBase;
+
+    /** Factory map coalesced miss count at the last reset. */
+    private int coalescedBase;
+
+    /** Factory map wait time at the last reset. */
+    private long waitTimeBase;
     
     // initialization ////////////////////////////////////////////////////////
 
@@ -117,6 +129,51 @@ public class StatisticsMapImpl<K, V>
         return hits;
     }
     
+    /**
+     * {@inheritDoc}
+     */
+    public int getLoadCount()
+    {
+        FactoryMap<K, V> factoryMap = getFactoryMap();
+        return factoryMap != null ? factoryMap.getLoadCount() - loadsBase : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getCoalescedCount()
+    {
+        FactoryMap<K, V> factoryMap = getFactoryMap();
+        return factoryMap != null ? factoryMap.getCoalescedCount() - coalescedBase : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLoadWaitTime()
+    {
+        FactoryMap<K, V> factoryMap = getFactoryMap();
+        return factoryMap != null ? factoryMap.getLoadWaitTime() - waitTimeBase : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getWeight()
+    {
+        WeightedMap<K, V> weightedMap = getWeightedMap();
+        return weightedMap != null ? weightedMap.getWeight() : -1L;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMaxWeight()
+    {
+        WeightedMap<K, V> weightedMap = getWeightedMap();
+        return weightedMap != null ? weightedMap.getMaxWeight() : -1L;
+    }
+
     /**
      * Resets the counters.
      */
@@ -124,6 +181,13 @@ public class StatisticsMapImpl<K, V>
     {
         requests = 0;
         hits = 0;
+        FactoryMap<K, V> factoryMap = getFactoryMap();
+        if(factoryMap != null)
+        {
+            loadsBase = factoryMap.getLoadCount();
+            coalescedBase = factoryMap.getCoalescedCount();
+            waitTimeBase = factoryMap.getLoadWaitTime();
+        }
     }
 
     /**
@@ -164,6 +228,20 @@ public class StatisticsMapImpl<K, V>
             NumberFormat percent = NumberFormat.getPercentInstance();
             buff.append(percent.format(((float)hits)/requests)).append(" hit ratio");
         }
+        int loads = getLoadCount();
+        if(loads != 0)
+        {
+            buff.append(", ").append(loads).append(" loads, ");
+            buff.append(getCoalescedCount()).append(" coalesced misses, ");
+            int misses = loads + getCoalescedCount();
+            buff.append(getLoadWaitTime() / misses).append("ms average load wait");
+        }
+        long weight = getWeight();
+        if(weight >= 0)
+        {
+            buff.append(", ").append(weight).append(" of ").append(getMaxWeight());
+            buff.append(" weight");
+        }
         buff.append("\n");
         return buff.toString();
     }
@@ -186,5 +264,44 @@ public class StatisticsMapImpl<K, V>
         }
         return result;
     }
-}
 
+    // implementation ////////////////////////////////////////////////////////
+
+    /**
+     * Returns the factory map beneath this map.
+     * 
+     * @return the factory map, or <code>null</code> if there is none.
+     */
+    private FactoryMap<K, V> getFactoryMap()
+    {
+        Map<K, V> map = delegate;
+        while(map instanceof LayeredMap<?, ?>)
+        {
+            if(map instanceof FactoryMap<?, ?>)
+            {
+                return (FactoryMap<K, V>)map;
+            }
+            map = ((LayeredMap<K, V>)map).getDelegate();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the weighted map beneath this map.
+     * 
+     * @return the weighted map, or <code>null</code> if there is none.
+     */
+    private WeightedMap<K, V> getWeightedMap()
+    {
+        Map<K, V> map = delegate;
+        while(map instanceof LayeredMap<?, ?>)
+        {
+            if(map instanceof WeightedMap<?, ?>)
+            {
+                return (WeightedMap<K, V>)map;
+            }
+            map = ((LayeredMap<K, V>)map).getDelegate();
+        }
+        return null;
+    }
+}
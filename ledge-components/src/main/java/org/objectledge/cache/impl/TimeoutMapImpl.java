@@ -28,10 +28,13 @@
 
 package org.objectledge.cache.impl;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.objectledge.cache.DelayedUpdate;
 import org.objectledge.cache.spi.CacheFactorySPI;
 import org.objectledge.cache.spi.ConfigurableMap;
@@ -40,9 +43,16 @@ import org.objectledge.cache.spi.TimeoutMap;
 /**
  * An implementation of timeout cache.
  *
- * <p>Expired items are removed as part of get()/put() method calls to take
- * advantage of sychronization performed by the client code. Cleanups occur no
- * more frequently than {@link #ttl} milliseconds.</p>
+ * <p>Entries expire after {@link #ttl} milliseconds pass since they were last accessed.
+ * Expired entries are never returned by <code>get()</code>, but they are removed from the
+ * underlying storage in the background.</p>
+ * 
+ * <p>Entries are indexed by expiry time in a timing wheel: a ring of buckets, each covering a
+ * fixed time slice. Each map operation expires at most a few buckets whose time has passed, and
+ * the remaining ones are handled by the periodic {@link #update()}, so that the cost of expiry
+ * is spread across operations, and never blocks the readers. Accessing an entry only updates
+ * it's timestamp, the entry is moved to the appropriate bucket when the one it was placed in
+ * is being expired.</p>
  *
  * @author <a href="mailto:rafal@caltha.pl">Rafal Krzewski</a>
  * @version $Id: TimeoutMapImpl.java,v 1.2 2004-02-26 11:34:28 fil Exp $
@@ -57,16 +67,37 @@ public class TimeoutMapImpl<K, V>
     /** The default value of item time to live. (10s)*/
     public static final long TTL_DEFAULT = 10000;
 
+    /** Number of buckets in the timing wheel, a power of 2. */
+    private static final int WHEEL_SIZE = 64;
+
+    /** Maximum number of buckets expired by a single map operation. */
+    private static final int BUCKETS_PER_OPERATION = 2;
+
     // instance variables ////////////////////////////////////////////////////
 
     /** The entry TTL. */
-    private long ttl = TTL_DEFAULT;
+    private volatile long ttl = TTL_DEFAULT;
+
+    /** Time slice covered by a single bucket. */
+    private volatile long tick;
 
     /** The DefaultCacheFactory. */
     private CacheFactorySPI caching;
     
-    /** Time when last update (cache cleanup occured). */
-    private long lastUpdate;    
+    /** The storage. */
+    private final ConcurrentMap<K, WrappingEntry<V>> entries;
+
+    /** The timing wheel. */
+    private final Queue<Entry>[] wheel;
+
+    /** Guards expiry. */
+    private final ReentrantLock expiryLock = new ReentrantLock();
+
+    /** The last time slot that was expired, guarded by expiryLock. */
+    private long expiredSlot;
+
+    /** Is the map registered for delayed update. */
+    private final AtomicBoolean registered = new AtomicBoolean();
 
     // initailization ////////////////////////////////////////////////////////
 
@@ -75,8 +106,20 @@ public class TimeoutMapImpl<K, V>
      */
     public TimeoutMapImpl()
     {
-        super(Collections.synchronizedMap(new HashMap<K, WrappingEntry<V>>()));
-        lastUpdate = -1;
+        this(new ConcurrentHashMap<K, WrappingEntry<V>>());
+    }
+
+    @SuppressWarnings("unchecked")
+    private TimeoutMapImpl(ConcurrentMap<K, WrappingEntry<V>> entries)
+    {
+        super(entries);
+        this.entries = entries;
+        wheel = new Queue[WHEEL_SIZE];
+        for(int i = 0; i < WHEEL_SIZE; i++)
+        {
+            wheel[i] = new ConcurrentLinkedQueue<Entry>();
+        }
+        setTick(TTL_DEFAULT);
     }
  
     // ConfigurableMap interface /////////////////////////////////////////////
@@ -101,13 +144,18 @@ public class TimeoutMapImpl<K, V>
 
     /**
      * Sets the item time to live.
+     * <p>
+     * The new value applies to the entries already present in the map.
+     * </p>
      *
      * @param timeoutMillis item time to live in milliseconds.
      */
     public void setTimeout(long timeoutMillis)
     {
+        boolean shorter = timeoutMillis < ttl;
         ttl = timeoutMillis;
-        if(timeoutMillis < ttl)
+        setTick(timeoutMillis);
+        if(shorter)
         {
             scheduleUpdate();
         }
@@ -130,19 +178,10 @@ public class TimeoutMapImpl<K, V>
      */
     public void scheduleUpdate()
     {
-        long now = System.currentTimeMillis();
-        if(lastUpdate > 0 && now - lastUpdate > ttl)
-        {
-            update();
-        }
-        else
+        if(caching != null && registered.compareAndSet(false, true))
         {
             caching.register(this);
         }
-        if(lastUpdate < 0)
-        {
-            lastUpdate = now;
-        }
     }
 
     /**
@@ -150,22 +189,12 @@ public class TimeoutMapImpl<K, V>
      */
     public void update()
     {
-        long now = System.currentTimeMillis();
-        long limit = now - ttl;
-        synchronized(delegate)
+        registered.set(false);
+        expire(System.currentTimeMillis(), true);
+        if(!entries.isEmpty())
         {
-            Iterator<Map.Entry<K, WrappingEntry<V>>> i = delegate.entrySet().iterator();
-            while(i.hasNext())
-            {
-                Map.Entry<K, WrappingEntry<V>> mapEntry = i.next();
-                Entry<V> entry = (Entry<V>)mapEntry.getValue();
-                if(entry.expired(limit))
-                {
-                    i.remove();
-                }
-            }              
+            scheduleUpdate();
         }
-        lastUpdate = System.currentTimeMillis();
     }
     
     /**
@@ -173,7 +202,7 @@ public class TimeoutMapImpl<K, V>
      */
     public long getUpdateLatency()
     {
-        return ttl;
+        return tick * (WHEEL_SIZE / 4);
     }
 
     // Entry ////////////////////////////////////////////////////////////////
@@ -183,50 +212,213 @@ public class TimeoutMapImpl<K, V>
      */    
     protected WrappingEntry<V> newWrappingEntry(V value)
     {
-        return new Entry<V>(value);
+        throw new UnsupportedOperationException("entries are created by put(K, V)");
     }
 
     /**
      * {@inheritDoc}
      */    
-    private class Entry<T>
-        extends WrappingEntry<T>
+    private class Entry
+        extends WrappingEntry<V>
     {
-        private long last;
+        private final K key;
+
+        private volatile long last;
 
-        public Entry(T value)
+        public Entry(K key, V value, long now)
         {
             super(value);
-            last = System.currentTimeMillis();
+            this.key = key;
+            last = now;
         }
                 
-        public T getValue()
+        public boolean expired(long now)
         {
-            last = System.currentTimeMillis();
-            return super.getValue();
-        }
-        
-        public boolean expired(long limit)
-        {
-            return last <= limit;
+            return last + ttl <= now;
         }
         
         public void touch()
         {
             last = System.currentTimeMillis();
-            scheduleUpdate();
         }
     }
     
     // Map interface ////////////////////////////////////////////////////////
     
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public V get(Object key)
+    {
+        long now = System.currentTimeMillis();
+        V value = null;
+        Entry entry = (Entry)entries.get(key);
+        if(entry != null)
+        {
+            if(entry.expired(now))
+            {
+                entries.remove(key, entry);
+            }
+            else
+            {
+                entry.last = now;
+                value = entry.getValue();
+            }
+        }
+        expire(now, false);
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public boolean containsKey(Object key)
+    {
+        long now = System.currentTimeMillis();
+        Entry entry = (Entry)entries.get(key);
+        if(entry != null)
+        {
+            if(entry.expired(now))
+            {
+                entries.remove(key, entry);
+                return false;
+            }
+            entry.last = now;
+            return true;
+        }
+        return false;
+    }
+
     /**
      * {@inheritDoc}
      */
     public V put(K key, V value)
     {
-        V old = super.put(key, value);
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(key, value, now);
+        WrappingEntry<V> old = entries.put(key, entry);
+        schedule(entry);
+        expire(now, false);
         scheduleUpdate();
-        return old;
+        return old != null ? old.getValue() : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clear()
+    {
+        expiryLock.lock();
+        try
+        {
+            entries.clear();
+            for(Queue<Entry> bucket : wheel)
+            {
+                bucket.clear();
+            }
+        }
+        finally
+        {
+            expiryLock.unlock();
+        }
+    }
+
+    // implementation ////////////////////////////////////////////////////////
+
+    /**
+     * Adjusts the bucket time slice to the entry TTL.
+     */
+    private void setTick(long timeoutMillis)
+    {
+        expiryLock.lock();
+        try
+        {
+            // entries expire at most half way around the wheel from now
+            tick = Math.max(1, timeoutMillis / (WHEEL_SIZE / 2));
+            expiredSlot = System.currentTimeMillis() / tick - 1;
+        }
+        finally
+        {
+            expiryLock.unlock();
+        }
+    }
+
+    /**
+     * Places an entry in the bucket corresponding to it's expiry time.
+     */
+    private void schedule(Entry entry)
+    {
+        long slot = (entry.last + ttl) / tick;
+        wheel[(int)(slot & (WHEEL_SIZE - 1))].add(entry);
+    }
+
+    /**
+     * Expires the buckets whose time slices have passed.
+     * 
+     * @param now current time.
+     * @param all <code>true</code> to expire all buckets that are due, <code>false</code> to
+     *        expire at most {@link #BUCKETS_PER_OPERATION}, and skip expiry when another thread
+     *        is performing it.
+     */
+    private void expire(long now, boolean all)
+    {
+        if(all)
+        {
+            expiryLock.lock();
+        }
+        else if(!expiryLock.tryLock())
+        {
+            return;
+        }
+        try
+        {
+            long current = now / tick;
+            // after a full turn of the wheel all entries have been visited
+            if(current - expiredSlot > WHEEL_SIZE)
+            {
+                expiredSlot = current - WHEEL_SIZE - 1;
+            }
+            int count = 0;
+            while(expiredSlot + 1 < current && (all || count < BUCKETS_PER_OPERATION))
+            {
+                expiredSlot++;
+                expireBucket(wheel[(int)(expiredSlot & (WHEEL_SIZE - 1))], now);
+                count++;
+            }
+        }
+        finally
+        {
+            expiryLock.unlock();
+        }
+    }
+
+    /**
+     * Removes expired entries in a bucket, and reschedules the entries that were accessed since
+     * they were placed in it.
+     */
+    private void expireBucket(Queue<Entry> bucket, long now)
+    {
+        // entries rescheduled into the same bucket are left for the next turn of the wheel
+        Entry marker = new Entry(null, null, 0);
+        bucket.add(marker);
+        Entry entry;
+        while((entry = bucket.poll()) != null && entry != marker)
+        {
+            if(entries.get(entry.key) != entry)
+            {
+                // removed or replaced
+                continue;
+            }
+            if(entry.expired(now))
+            {
+                entries.remove(entry.key, entry);
+            }
+            else
+            {
+                schedule(entry);
+            }
+        }
     }
 }
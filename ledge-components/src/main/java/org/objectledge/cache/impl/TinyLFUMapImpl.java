@@ -0,0 +1,810 @@
+//
+//Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without modification, 
+//are permitted provided that the following conditions are met:
+//
+//* Redistributions of source code must retain the above copyright notice, 
+//this list of conditions and the following disclaimer.
+//* Redistributions in binary form must reproduce the above copyright notice, 
+//this list of conditions and the following disclaimer in the documentation 
+//and/or other materials provided with the distribution.
+//* Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+//nor the names of its contributors may be used to endorse or promote products 
+//derived from this software without specific prior written permission.
+//
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+//WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+//INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, 
+//BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+//OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+//WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+//ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+//POSSIBILITY OF SUCH DAMAGE.
+//
+
+package org.objectledge.cache.impl;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.objectledge.cache.spi.CacheFactorySPI;
+import org.objectledge.cache.spi.ConfigurableMap;
+import org.objectledge.cache.spi.TinyLFUMap;
+
+/**
+ * A concurrent bounded map using the W-TinyLFU eviction policy.
+ *
+ * <p>Entries are kept in a <code>ConcurrentHashMap</code>. New entries enter a small LRU
+ * admission window (1% of capacity). Entries evicted from the window become candidates for the
+ * main space, which is a segmented LRU (probation and protected segments). A candidate replaces
+ * the main space victim only if it was accessed more often, as estimated by a
+ * {@link FrequencySketch}. This keeps one-off scans from flushing the frequently used entries.</p>
+ *
+ * <p>Reads do not modify the map structure. Each read is recorded in a striped, lossy buffer and
+ * the buffered reads are applied to the eviction policy in batches by whichever thread manages
+ * to acquire the eviction lock, so readers never block. Writes are buffered in an unbounded queue
+ * and applied immediately, so the map does not grow past its capacity.</p>
+ */
+public class TinyLFUMapImpl<K, V>
+    implements TinyLFUMap<K, V>, ConfigurableMap<K, V>
+{
+    // constants /////////////////////////////////////////////////////////////
+
+    /** Default capacity of the map (1000). */
+    public static final int CAPACITY_DEFAULT = 1000;
+
+    /** Number of read buffer stripes (must be a power of two). */
+    private static final int READ_BUFFER_STRIPES = 16;
+
+    /** Percentage of capacity used for the admission window. */
+    private static final int WINDOW_PERCENT = 1;
+
+    /** Percentage of the main space used for the protected segment. */
+    private static final int PROTECTED_PERCENT = 80;
+
+    /** Node is not yet (or no longer) linked into any queue. */
+    private static final int NONE = 0;
+
+    /** Node is in the admission window. */
+    private static final int WINDOW = 1;
+
+    /** Node is in the probation segment of the main space. */
+    private static final int PROBATION = 2;
+
+    /** Node is in the protected segment of the main space. */
+    private static final int PROTECTED = 3;
+
+    // instance variables ////////////////////////////////////////////////////
+
+    /** The entries. */
+    private final ConcurrentHashMap<K, Node> data = new ConcurrentHashMap<K, Node>();
+
+    /** Buffered reads. */
+    private final ReadBuffer<Node>[] readBuffers;
+
+    /** Buffered writes (additions and removals). */
+    private final ConcurrentLinkedQueue<Node> writeBuffer = new ConcurrentLinkedQueue<Node>();
+
+    /** Guards the eviction policy state. */
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    /** Admission window, in LRU order. */
+    private final AccessQueue window = new AccessQueue(WINDOW);
+
+    /** Probation segment of the main space, in LRU order. */
+    private final AccessQueue probation = new AccessQueue(PROBATION);
+
+    /** Protected segment of the main space, in LRU order. */
+    private final AccessQueue protectedQueue = new AccessQueue(PROTECTED);
+
+    /** Access frequency estimator. */
+    private final FrequencySketch sketch;
+
+    /** Map capacity. */
+    private volatile int capacity;
+
+    /** Maximum size of the admission window. */
+    private int windowMax;
+
+    /** Maximum size of the protected segment. */
+    private int protectedMax;
+
+    // initialization ////////////////////////////////////////////////////////
+
+    /**
+     * Creates an instance of the map with the default capacity.
+     */
+    @SuppressWarnings("unchecked")
+    public TinyLFUMapImpl()
+    {
+        readBuffers = new ReadBuffer[READ_BUFFER_STRIPES];
+        for(int i = 0; i < readBuffers.length; i++)
+        {
+            readBuffers[i] = new ReadBuffer<Node>();
+        }
+        sketch = new FrequencySketch(CAPACITY_DEFAULT);
+        setCapacity(CAPACITY_DEFAULT);
+    }
+
+    // ConfigurableMap interface /////////////////////////////////////////////
+
+    /**
+     * Configures the map.
+     * <p>
+     * The configuration string is the capacity of the map, a positive integer.
+     * </p>
+     */
+    public void configure(CacheFactorySPI caching, String name, String config)
+    {
+        try
+        {
+            setCapacity(Integer.parseInt(config.trim()));
+        }
+        catch(NumberFormatException e)
+        {
+            throw new IllegalArgumentException("invalid capacity spec '" + config + "' for '"
+                + name + "'");
+        }
+    }
+
+    // TinyLFUMap SPI interface //////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setCapacity(int capacity)
+    {
+        if(capacity <= 0)
+        {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        evictionLock.lock();
+        try
+        {
+            this.capacity = capacity;
+            windowMax = Math.max(1, capacity * WINDOW_PERCENT / 100);
+            protectedMax = (capacity - windowMax) * PROTECTED_PERCENT / 100;
+            sketch.ensureCapacity(capacity);
+            maintenance();
+        }
+        finally
+        {
+            evictionLock.unlock();
+        }
+    }
+
+    // Map interface /////////////////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public V get(Object key)
+    {
+        Node node = data.get(key);
+        if(node == null)
+        {
+            return null;
+        }
+        V value = node.value;
+        afterRead(node);
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public V put(K key, V value)
+    {
+        Node node = new Node(key, value);
+        while(true)
+        {
+            Node prior = data.putIfAbsent(key, node);
+            if(prior == null)
+            {
+                afterWrite(node);
+                return null;
+            }
+            boolean updated = false;
+            V old = null;
+            synchronized(prior)
+            {
+                if(!prior.retired)
+                {
+                    old = prior.value;
+                    prior.value = value;
+                    updated = true;
+                }
+            }
+            if(updated)
+            {
+                afterRead(prior);
+                return old;
+            }
+            // prior is being removed concurrently, help and retry
+            data.remove(key, prior);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public V remove(Object key)
+    {
+        while(true)
+        {
+            Node node = data.get(key);
+            if(node == null)
+            {
+                return null;
+            }
+            boolean removed = false;
+            synchronized(node)
+            {
+                if(!node.retired)
+                {
+                    node.retired = true;
+                    removed = true;
+                }
+            }
+            data.remove(key, node);
+            if(removed)
+            {
+                afterWrite(node);
+                return node.value;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void putAll(Map<? extends K, ? extends V> map)
+    {
+        for(Map.Entry<? extends K, ? extends V> entry : map.entrySet())
+        {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean containsKey(Object key)
+    {
+        return data.containsKey(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean containsValue(Object value)
+    {
+        for(Node node : data.values())
+        {
+            if(value == null ? node.value == null : value.equals(node.value))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int size()
+    {
+        return data.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEmpty()
+    {
+        return data.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clear()
+    {
+        evictionLock.lock();
+        try
+        {
+            for(K key : data.keySet())
+            {
+                remove(key);
+            }
+            maintenance();
+        }
+        finally
+        {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<K> keySet()
+    {
+        return new AbstractSet<K>()
+            {
+                public Iterator<K> iterator()
+                {
+                    final Iterator<K> i = data.keySet().iterator();
+                    return new Iterator<K>()
+                        {
+                            private K last;
+
+                            public boolean hasNext()
+                            {
+                                return i.hasNext();
+                            }
+
+                            public K next()
+                            {
+                                last = i.next();
+                                return last;
+                            }
+
+                            public void remove()
+                            {
+                                TinyLFUMapImpl.this.remove(last);
+                            }
+                        };
+                }
+
+                public boolean contains(Object o)
+                {
+                    return data.containsKey(o);
+                }
+
+                public boolean remove(Object o)
+                {
+                    return TinyLFUMapImpl.this.remove(o) != null;
+                }
+
+                public int size()
+                {
+                    return data.size();
+                }
+
+                public void clear()
+                {
+                    TinyLFUMapImpl.this.clear();
+                }
+            };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Map.Entry<K, V>> entrySet()
+    {
+        return new AbstractSet<Map.Entry<K, V>>()
+            {
+                public Iterator<Map.Entry<K, V>> iterator()
+                {
+                    return new NodeIterator<Map.Entry<K, V>>()
+                        {
+                            public Map.Entry<K, V> next()
+                            {
+                                return nextNode();
+                            }
+                        };
+                }
+
+                public boolean contains(Object o)
+                {
+                    if(!(o instanceof Map.Entry<?, ?>))
+                    {
+                        return false;
+                    }
+                    Map.Entry<?, ?> e = (Map.Entry<?, ?>)o;
+                    Node node = data.get(e.getKey());
+                    return node != null && node.equals(e);
+                }
+
+                public boolean remove(Object o)
+                {
+                    return contains(o)
+                        && TinyLFUMapImpl.this.remove(((Map.Entry<?, ?>)o).getKey()) != null;
+                }
+
+                public int size()
+                {
+                    return data.size();
+                }
+
+                public void clear()
+                {
+                    TinyLFUMapImpl.this.clear();
+                }
+            };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<V> values()
+    {
+        return new AbstractCollection<V>()
+            {
+                public Iterator<V> iterator()
+                {
+                    return new NodeIterator<V>()
+                        {
+                            public V next()
+                            {
+                                return nextNode().value;
+                            }
+                        };
+                }
+
+                public boolean contains(Object value)
+                {
+                    return containsValue(value);
+                }
+
+                public int size()
+                {
+                    return data.size();
+                }
+
+                public void clear()
+                {
+                    TinyLFUMapImpl.this.clear();
+                }
+            };
+    }
+
+    // implementation ////////////////////////////////////////////////////////
+
+    /**
+     * Records a read, and applies buffered reads if enough of them were accumulated and the
+     * eviction lock is not contended.
+     */
+    private void afterRead(Node node)
+    {
+        int stripe = (int)Thread.currentThread().getId() & (READ_BUFFER_STRIPES - 1);
+        if(readBuffers[stripe].offer(node) && evictionLock.tryLock())
+        {
+            try
+            {
+                maintenance();
+            }
+            finally
+            {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Records a write and applies all buffered operations.
+     */
+    private void afterWrite(Node node)
+    {
+        writeBuffer.add(node);
+        evictionLock.lock();
+        try
+        {
+            maintenance();
+        }
+        finally
+        {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Applies buffered operations to the eviction policy and evicts entries if the map is over
+     * capacity. Must be called with the eviction lock held.
+     */
+    private void maintenance()
+    {
+        Node node;
+        for(ReadBuffer<Node> buffer : readBuffers)
+        {
+            while((node = buffer.poll()) != null)
+            {
+                onAccess(node);
+            }
+        }
+        while((node = writeBuffer.poll()) != null)
+        {
+            if(node.retired)
+            {
+                if(node.queue != NONE)
+                {
+                    queueOf(node).remove(node);
+                }
+            }
+            else if(node.queue == NONE)
+            {
+                window.addLast(node);
+                sketch.increment(node.hash);
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Called for each buffered read of a node.
+     */
+    private void onAccess(Node node)
+    {
+        sketch.increment(node.hash);
+        if(node.retired)
+        {
+            return;
+        }
+        switch(node.queue)
+        {
+        case WINDOW:
+            window.moveToLast(node);
+            break;
+        case PROBATION:
+            probation.remove(node);
+            protectedQueue.addLast(node);
+            if(protectedQueue.size > protectedMax)
+            {
+                Node demoted = protectedQueue.head;
+                protectedQueue.remove(demoted);
+                probation.addLast(demoted);
+            }
+            break;
+        case PROTECTED:
+            protectedQueue.moveToLast(node);
+            break;
+        default:
+            // addition not processed yet
+        }
+    }
+
+    /**
+     * Moves entries from window to main space and evicts entries over capacity.
+     */
+    private void evict()
+    {
+        while(window.size > windowMax)
+        {
+            Node node = window.head;
+            window.remove(node);
+            probation.addLast(node);
+        }
+        while(window.size + probation.size + protectedQueue.size > capacity)
+        {
+            Node victim;
+            if(probation.size > 1)
+            {
+                // the most recent arrival from the window competes with the probation LRU
+                Node candidate = probation.tail;
+                Node lru = probation.head;
+                victim = sketch.frequency(candidate.hash) > sketch.frequency(lru.hash) ? lru
+                    : candidate;
+            }
+            else if(probation.size == 1)
+            {
+                victim = probation.head;
+            }
+            else if(protectedQueue.size > 0)
+            {
+                victim = protectedQueue.head;
+            }
+            else
+            {
+                victim = window.head;
+            }
+            queueOf(victim).remove(victim);
+            synchronized(victim)
+            {
+                victim.retired = true;
+            }
+            data.remove(victim.key, victim);
+        }
+    }
+
+    private AccessQueue queueOf(Node node)
+    {
+        switch(node.queue)
+        {
+        case WINDOW:
+            return window;
+        case PROBATION:
+            return probation;
+        case PROTECTED:
+            return protectedQueue;
+        default:
+            throw new IllegalStateException("node is not queued");
+        }
+    }
+
+    // inner classes /////////////////////////////////////////////////////////
+
+    /**
+     * A map entry, linked into one of the access queues.
+     */
+    private final class Node
+        implements Map.Entry<K, V>
+    {
+        private final K key;
+
+        private final int hash;
+
+        private volatile V value;
+
+        /** Set when the node is removed from the map. Guarded by the node's monitor. */
+        private volatile boolean retired;
+
+        /** Access queue membership, guarded by eviction lock. */
+        private int queue = NONE;
+
+        private Node prev;
+
+        private Node next;
+
+        public Node(K key, V value)
+        {
+            this.key = key;
+            this.value = value;
+            this.hash = FrequencySketch.spread(key);
+        }
+
+        public K getKey()
+        {
+            return key;
+        }
+
+        public V getValue()
+        {
+            return value;
+        }
+
+        public V setValue(V value)
+        {
+            return put(key, value);
+        }
+
+        public boolean equals(Object o)
+        {
+            if(!(o instanceof Map.Entry<?, ?>))
+            {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>)o;
+            Object v = value;
+            return key.equals(e.getKey())
+                && (v == null ? e.getValue() == null : v.equals(e.getValue()));
+        }
+
+        public int hashCode()
+        {
+            Object v = value;
+            return key.hashCode() ^ (v == null ? 0 : v.hashCode());
+        }
+    }
+
+    /**
+     * A doubly linked list of nodes in LRU order, guarded by the eviction lock.
+     */
+    private final class AccessQueue
+    {
+        private final int id;
+
+        private Node head;
+
+        private Node tail;
+
+        private int size;
+
+        public AccessQueue(int id)
+        {
+            this.id = id;
+        }
+
+        public void addLast(Node node)
+        {
+            node.queue = id;
+            node.prev = tail;
+            node.next = null;
+            if(tail == null)
+            {
+                head = node;
+            }
+            else
+            {
+                tail.next = node;
+            }
+            tail = node;
+            size++;
+        }
+
+        public void remove(Node node)
+        {
+            if(node.prev == null)
+            {
+                head = node.next;
+            }
+            else
+            {
+                node.prev.next = node.next;
+            }
+            if(node.next == null)
+            {
+                tail = node.prev;
+            }
+            else
+            {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            node.queue = NONE;
+            size--;
+        }
+
+        public void moveToLast(Node node)
+        {
+            if(node != tail)
+            {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+
+    /**
+     * Iterator over the nodes that supports removal.
+     */
+    private abstract class NodeIterator<T>
+        implements Iterator<T>
+    {
+        private final Iterator<Node> i = data.values().iterator();
+
+        private Node last;
+
+        public boolean hasNext()
+        {
+            return i.hasNext();
+        }
+
+        protected Node nextNode()
+        {
+            last = i.next();
+            return last;
+        }
+
+        public void remove()
+        {
+            if(last == null)
+            {
+                throw new IllegalStateException();
+            }
+            TinyLFUMapImpl.this.remove(last.key);
+            last = null;
+        }
+    }
+}
@@ -0,0 +1,443 @@
+//
+//Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without modification, 
+//are permitted provided that the following conditions are met:
+//
+//* Redistributions of source code must retain the above copyright notice, 
+//this list of conditions and the following disclaimer.
+//* Redistributions in binary form must reproduce the above copyright notice, 
+//this list of conditions and the following disclaimer in the documentation 
+//and/or other materials provided with the distribution.
+//* Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+//nor the names of its contributors may be used to endorse or promote products 
+//derived from this software without specific prior written permission.
+//
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+//WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+//INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, 
+//BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+//OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+//WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+//ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+//POSSIBILITY OF SUCH DAMAGE.
+//
+
+package org.objectledge.cache.impl;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectledge.cache.Weigher;
+import org.objectledge.cache.spi.CacheFactorySPI;
+import org.objectledge.cache.spi.ConfigurableMap;
+import org.objectledge.cache.spi.WeightedMap;
+
+/**
+ * A map layer that bounds the total weight of the entries of the underlying map.
+ * <p>
+ * The weight of each entry is computed by a {@link Weigher} when it is put into the map,
+ * {@link ObjectSizeWeigher} estimating heap usage in bytes is used by default. When the total
+ * weight exceeds the limit, least recently used entries are removed from the underlying map
+ * until it fits again. An entry heavier than the limit is not retained at all, and the previous
+ * value of it's key is removed.
+ * </p>
+ * <p>
+ * Entries removed from the underlying map behind the back of this layer, for example collected
+ * by a SoftMap, keep counting towards the total weight until eviction reaches them.
+ * </p>
+ * <p>
+ * Reads do not take the lock of the map. The keys read are recorded in striped, lossy
+ * {@link ReadBuffer}s and applied to the recency order by the next write, so the order seen by
+ * eviction lags behind concurrent reads and may miss some of them when the buffers are full.
+ * Weights are computed before the lock is taken.
+ * </p>
+ */
+public class WeightedMapImpl<K, V>
+    extends DelegateMap<K, V>
+    implements WeightedMap<K, V>, ConfigurableMap<K, V>
+{
+    // constants /////////////////////////////////////////////////////////////
+
+    /** Default maximum weight. (16M) */
+    public static final long MAX_WEIGHT_DEFAULT = 16L * 1024 * 1024;
+
+    /** Number of read buffer stripes (must be a power of two). */
+    private static final int READ_BUFFER_STRIPES = 16;
+
+    // instance variables ////////////////////////////////////////////////////
+
+    /** The weigher. */
+    private volatile Weigher<? super K, ? super V> weigher = new ObjectSizeWeigher();
+
+    /** Maximum total weight. */
+    private long maxWeight = MAX_WEIGHT_DEFAULT;
+
+    /** Current total weight. */
+    private volatile long weight;
+
+    /** Weights of the entries, in access order. */
+    private final LinkedHashMap<K, Long> weights = new LinkedHashMap<K, Long>(16, 0.75f, true);
+
+    /** Keys read since the last write. */
+    private final ReadBuffer<Object>[] readBuffers = newReadBuffers();
+
+    // initialization ////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new weighted map.
+     */
+    public WeightedMapImpl()
+    {
+        super();
+    }
+
+    /**
+     * Creates a new weighted map.
+     * 
+     * @param delegate the underlying map.
+     * @param maxWeight maximum total weight.
+     */
+    public WeightedMapImpl(Map<K, V> delegate, long maxWeight)
+    {
+        super(delegate);
+        this.maxWeight = maxWeight;
+    }
+
+    // ConfigurableMap interface /////////////////////////////////////////////
+
+    /**
+     * Configures the map.
+     * <p>
+     * Configuration has the form <i>maxWeight</i>[,<i>weigherClass</i>], where the weight may
+     * have a K, M or G suffix. The weigher class must have a public no-argument constructor.
+     * </p>
+     * 
+     * @param caching the caching component.
+     * @param name the name of the map.
+     * @param config the configuration.
+     */
+    @SuppressWarnings("unchecked")
+    public void configure(CacheFactorySPI caching, String name, String config)
+    {
+        String[] c = config.split(",");
+        try
+        {
+            if(c[0].trim().length() > 0)
+            {
+                setMaxWeight(OffHeapMapImpl.parseSize(c[0].trim()));
+            }
+        }
+        catch(NumberFormatException e)
+        {
+            throw new IllegalArgumentException("invalid spec '" + config + "' for '" + name
+                + "', expected maxWeight[,weigherClass]");
+        }
+        if(c.length > 1)
+        {
+            String className = c[1].trim();
+            try
+            {
+                setWeigher((Weigher<? super K, ? super V>)Class.forName(className).newInstance());
+            }
+            catch(Exception e)
+            {
+                throw new IllegalArgumentException("cannot instantiate weigher " + className
+                    + " for '" + name + "'", e);
+            }
+        }
+    }
+
+    // WeightedMap SPI interface /////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setWeigher(Weigher<? super K, ? super V> weigher)
+    {
+        this.weigher = weigher;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void setMaxWeight(long maxWeight)
+    {
+        this.maxWeight = maxWeight;
+        evict();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMaxWeight()
+    {
+        return maxWeight;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getWeight()
+    {
+        return weight;
+    }
+
+    // Map interface /////////////////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public V get(Object key)
+    {
+        V value = delegate.get(key);
+        if(value != null)
+        {
+            int stripe = (int)Thread.currentThread().getId() & (READ_BUFFER_STRIPES - 1);
+            readBuffers[stripe].offer(key);
+        }
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public V put(K key, V value)
+    {
+        long w = weigher.weigh(key, value);
+        synchronized(this)
+        {
+            if(w > maxWeight)
+            {
+                // would flush the whole map, and be evicted itself
+                discount(key);
+                return delegate.remove(key);
+            }
+            V old = delegate.put(key, value);
+            Long previous = weights.put(key, Long.valueOf(w));
+            weight += w - (previous != null ? previous.longValue() : 0L);
+            evict();
+            return old;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void putAll(Map<? extends K, ? extends V> t)
+    {
+        for(Map.Entry<? extends K, ? extends V> entry : t.entrySet())
+        {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized V remove(Object key)
+    {
+        discount(key);
+        return delegate.remove(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void clear()
+    {
+        delegate.clear();
+        weights.clear();
+        weight = 0L;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<K> keySet()
+    {
+        return new AbstractSet<K>()
+            {
+                public Iterator<K> iterator()
+                {
+                    return new TrackingIterator<K>()
+                        {
+                            protected K value(Map.Entry<K, V> entry)
+                            {
+                                return entry.getKey();
+                            }
+                        };
+                }
+
+                public int size()
+                {
+                    return delegate.size();
+                }
+
+                public boolean contains(Object o)
+                {
+                    return delegate.containsKey(o);
+                }
+
+                public boolean remove(Object o)
+                {
+                    synchronized(WeightedMapImpl.this)
+                    {
+                        boolean present = delegate.containsKey(o);
+                        WeightedMapImpl.this.remove(o);
+                        return present;
+                    }
+                }
+            };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<V> values()
+    {
+        return new AbstractCollection<V>()
+            {
+                public Iterator<V> iterator()
+                {
+                    return new TrackingIterator<V>()
+                        {
+                            protected V value(Map.Entry<K, V> entry)
+                            {
+                                return entry.getValue();
+                            }
+                        };
+                }
+
+                public int size()
+                {
+                    return delegate.size();
+                }
+            };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Map.Entry<K, V>> entrySet()
+    {
+        return new AbstractSet<Map.Entry<K, V>>()
+            {
+                public Iterator<Map.Entry<K, V>> iterator()
+                {
+                    return new TrackingIterator<Map.Entry<K, V>>()
+                        {
+                            protected Map.Entry<K, V> value(Map.Entry<K, V> entry)
+                            {
+                                return entry;
+                            }
+                        };
+                }
+
+                public int size()
+                {
+                    return delegate.size();
+                }
+            };
+    }
+
+    // implementation ////////////////////////////////////////////////////////
+
+    @SuppressWarnings("unchecked")
+    private static ReadBuffer<Object>[] newReadBuffers()
+    {
+        ReadBuffer<Object>[] buffers = new ReadBuffer[READ_BUFFER_STRIPES];
+        for(int i = 0; i < buffers.length; i++)
+        {
+            buffers[i] = new ReadBuffer<Object>();
+        }
+        return buffers;
+    }
+
+    /**
+     * Applies the buffered reads to the recency order. Must be called with the lock held.
+     */
+    private void drainReads()
+    {
+        Object key;
+        for(ReadBuffer<Object> buffer : readBuffers)
+        {
+            while((key = buffer.poll()) != null)
+            {
+                weights.get(key);
+            }
+        }
+    }
+
+    /**
+     * Removes the weight of an entry from the total.
+     */
+    private void discount(Object key)
+    {
+        Long w = weights.remove(key);
+        if(w != null)
+        {
+            weight -= w.longValue();
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the total weight is within the limit.
+     */
+    private void evict()
+    {
+        drainReads();
+        Iterator<Map.Entry<K, Long>> i = weights.entrySet().iterator();
+        while(weight > maxWeight && i.hasNext())
+        {
+            Map.Entry<K, Long> eldest = i.next();
+            weight -= eldest.getValue().longValue();
+            i.remove();
+            delegate.remove(eldest.getKey());
+        }
+    }
+
+    // inner classes /////////////////////////////////////////////////////////
+
+    /**
+     * Iterates over the underlying map, keeping the weights up to date on removal.
+     */
+    private abstract class TrackingIterator<T>
+        implements Iterator<T>
+    {
+        private final Iterator<Map.Entry<K, V>> iterator = delegate.entrySet().iterator();
+
+        private K last;
+
+        public boolean hasNext()
+        {
+            return iterator.hasNext();
+        }
+
+        public T next()
+        {
+            Map.Entry<K, V> entry = iterator.next();
+            last = entry.getKey();
+            return value(entry);
+        }
+
+        public void remove()
+        {
+            synchronized(WeightedMapImpl.this)
+            {
+                iterator.remove();
+                discount(last);
+            }
+        }
+
+        protected abstract T value(Map.Entry<K, V> entry);
+    }
+}
@@ -196,7 +196,8 @@ public abstract class WrappingMap<K, V>
     @Override
     public V remove(Object key)
     {
-        return delegate.remove(key).getValue();
+        WrappingEntry<V> entry = delegate.remove(key);
+        return entry != null ? entry.getValue() : null;
     }
 
     /**
@@ -28,6 +28,7 @@
 
 package org.objectledge.cache.spi;
 
+import java.util.Collection;
 import java.util.Map;
 
 import org.objectledge.cache.ValueFactory;
@@ -55,4 +56,60 @@ public interface FactoryMap<K, V>
      * @return the factory.
      */
     public ValueFactory<K, V> getFactory();
+
+    /**
+     * Sets the maximum time a thread waits for a value being loaded by another thread.
+     * <p>
+     * When the timeout elapses, the waiting thread loads the value on it's own.
+     * </p>
+     * 
+     * @param timeout the timeout in milliseconds, 0 to wait indefinitely.
+     */
+    public void setLoadTimeout(long timeout);
+
+    /**
+     * Sets the refresh interval for stale-while-revalidate mode.
+     * <p>
+     * Values loaded earlier than the given interval ago are reloaded by the first thread that
+     * requests them, while other threads are served the old value in the meantime.
+     * </p>
+     * 
+     * @param interval the refresh interval in milliseconds, 0 to disable refreshing.
+     */
+    public void setRefreshInterval(long interval);
+
+    /**
+     * Returns the values corresponding to a number of keys.
+     * <p>
+     * Values present in the map are returned directly. The missing values are produced with a
+     * single call when the factory is a {@link org.objectledge.cache.BulkValueFactory}, or one
+     * by one otherwise, and stored in the map.
+     * </p>
+     * 
+     * @param keys the keys.
+     * @return the values, in the order of keys. Keys that have no corresponding values are
+     *         omitted.
+     */
+    public Map<K, V> getAll(Collection<K> keys);
+
+    /**
+     * Returns the number of loads performed using the factory.
+     * 
+     * @return the number of loads.
+     */
+    public int getLoadCount();
+
+    /**
+     * Returns the number of misses that were coalesced with a load already in progress.
+     * 
+     * @return the number of coalesced misses.
+     */
+    public int getCoalescedCount();
+
+    /**
+     * Returns the total time threads spent waiting for values to be loaded.
+     * 
+     * @return the total wait time in milliseconds.
+     */
+    public long getLoadWaitTime();
 }
@@ -0,0 +1,84 @@
+//
+//Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without modification, 
+//are permitted provided that the following conditions are met:
+//
+//* Redistributions of source code must retain the above copyright notice, 
+//this list of conditions and the following disclaimer.
+//* Redistributions in binary form must reproduce the above copyright notice, 
+//this list of conditions and the following disclaimer in the documentation 
+//and/or other materials provided with the distribution.
+//* Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+//nor the names of its contributors may be used to endorse or promote products 
+//derived from this software without specific prior written permission.
+//
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+//WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+//INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, 
+//BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+//OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+//WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+//ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+//POSSIBILITY OF SUCH DAMAGE.
+//
+
+package org.objectledge.cache.spi;
+
+/**
+ * Specifies Service Provider Interface for <code>NegativeMap</code> implementations.
+ * <p>
+ * A negative map remembers the keys that the underlying maps were unable to produce a value
+ * for, and answers repeated lookups of these keys with <code>null</code> without consulting
+ * the underlying maps. Optionally, a Bloom filter of the keys known to the value factory of
+ * the underlying {@link FactoryMap} is used to reject lookups of keys that certainly do not
+ * exist.
+ * </p>
+ */
+public interface NegativeMap<K, V>
+    extends LayeredMap<K, V>
+{
+    /**
+     * Sets the time a missing key is remembered for.
+     * 
+     * @param timeout the timeout in milliseconds.
+     */
+    public void setTimeout(long timeout);
+
+    /**
+     * Sets the expected number of existing keys, used to size the Bloom filter.
+     * 
+     * @param capacity the number of keys, 0 to disable the filter.
+     */
+    public void setFilterCapacity(int capacity);
+
+    /**
+     * Sets the interval between the rebuilds of the Bloom filter.
+     * 
+     * @param interval the interval in milliseconds.
+     */
+    public void setRebuildInterval(long interval);
+
+    /**
+     * Rebuilds the Bloom filter from the keys enumerated by the value factory.
+     */
+    public void rebuild();
+
+    /**
+     * Notifies the map that a value for the key might have come into existence, without being
+     * put into the map.
+     * 
+     * @param key the key.
+     */
+    public void updated(K key);
+
+    /**
+     * Returns the number of lookups answered without consulting the underlying maps.
+     * 
+     * @return the number of lookups.
+     */
+    public long getNegativeHitCount();
+}
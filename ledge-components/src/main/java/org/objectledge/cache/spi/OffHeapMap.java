@@ -0,0 +1,73 @@
+//
+//Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without modification, 
+//are permitted provided that the following conditions are met:
+//
+//* Redistributions of source code must retain the above copyright notice, 
+//this list of conditions and the following disclaimer.
+//* Redistributions in binary form must reproduce the above copyright notice, 
+//this list of conditions and the following disclaimer in the documentation 
+//and/or other materials provided with the distribution.
+//* Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+//nor the names of its contributors may be used to endorse or promote products 
+//derived from this software without specific prior written permission.
+//
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+//WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+//INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, 
+//BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+//OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+//WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+//ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+//POSSIBILITY OF SUCH DAMAGE.
+//
+
+package org.objectledge.cache.spi;
+
+import org.objectledge.cache.ValueSerializer;
+
+/**
+ * Specifies Service Provider Interface for <code>OffHeapMap</code>
+ * implementations.
+ *
+ * <p>OffHeapMap keeps serialized values outside of the Java heap, within a fixed byte budget.
+ * When used as an upper layer, the delegate map serves as an on-heap front for the most recently
+ * read values.</p>
+ */
+public interface OffHeapMap<K, V>
+    extends LayeredMap<K, V>
+{
+    /**
+     * Sets the serializer used to store the values.
+     *
+     * @param serializer the serializer.
+     */
+    public void setSerializer(ValueSerializer<V> serializer);
+
+    /**
+     * Sets the off-heap memory budget. Existing entries are discarded.
+     *
+     * @param maxBytes the budget in bytes.
+     * @param segments number of segments the budget is divided into.
+     */
+    public void setCapacity(long maxBytes, int segments);
+
+    /**
+     * Returns the off-heap memory budget.
+     *
+     * @return the budget in bytes.
+     */
+    public long getMaxBytes();
+
+    /**
+     * Returns the amount of off-heap memory currently filled with entries, including stale
+     * copies of updated and removed entries that were not reclaimed yet.
+     *
+     * @return used memory in bytes.
+     */
+    public long getUsedBytes();
+}
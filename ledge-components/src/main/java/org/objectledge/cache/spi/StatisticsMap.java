@@ -59,6 +59,43 @@ public interface StatisticsMap<K, V>
      * @return the numer of hists.
      */
     public int getHitCount();
+
+    /**
+     * Returns the number of values loaded by the underlying factory map.
+     *
+     * @return the number of loads, or 0 if there is no factory map beneath.
+     */
+    public int getLoadCount();
+
+    /**
+     * Returns the number of misses coalesced with a load in progress by the underlying factory
+     * map.
+     *
+     * @return the number of coalesced misses, or 0 if there is no factory map beneath.
+     */
+    public int getCoalescedCount();
+
+    /**
+     * Returns the total time threads spent waiting for values loaded by the underlying factory
+     * map.
+     *
+     * @return the wait time in milliseconds, or 0 if there is no factory map beneath.
+     */
+    public long getLoadWaitTime();
+
+    /**
+     * Returns the total weight of the entries of the underlying weighted map.
+     *
+     * @return the weight, or -1 if there is no weighted map beneath.
+     */
+    public long getWeight();
+
+    /**
+     * Returns the maximum total weight of the entries of the underlying weighted map.
+     *
+     * @return the maximum weight, or -1 if there is no weighted map beneath.
+     */
+    public long getMaxWeight();
     
     /**
      * Resets the counters.
@@ -0,0 +1,443 @@
+// 
+// Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+// All rights reserved. 
+// 
+// Redistribution and use in source and binary forms, with or without modification,  
+// are permitted provided that the following conditions are met: 
+//  
+// * Redistributions of source code must retain the above copyright notice,  
+//	 this list of conditions and the following disclaimer. 
+// * Redistributions in binary form must reproduce the above copyright notice,  
+//	 this list of conditions and the following disclaimer in the documentation  
+//	 and/or other materials provided with the distribution. 
+// * Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//	 nor the names of its contributors may be used to endorse or promote products  
+//	 derived from this software without specific prior written permission. 
+// 
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+// IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+// WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+// POSSIBILITY OF SUCH DAMAGE. 
+// 
+package org.objectledge.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.jcontainer.dna.Configuration;
+import org.jcontainer.dna.Logger;
+import org.objectledge.context.Context;
+import org.picocontainer.Startable;
+
+/**
+ * Executes independent queries in parallel, on a bounded set of worker threads.
+ * <p>
+ * Every query runs on a connection of its own, obtained from the DataSource given to the
+ * component, which should not be a {@link ThreadDataSource}, as the connections of that data
+ * source are bound to the requesting thread. Queries executed this way do not take part in the
+ * transaction of the requesting thread.
+ * </p>
+ * <p>
+ * The configured {@link Context} attributes of the submitting thread, like the description of the
+ * request or the read only flag used by {@link RoutingDataSource}, are visible to the query while
+ * it is running. The number of queries of a single request running at the same time is limited;
+ * queries submitted above the limit wait in a per-request queue, so that a single request cannot
+ * occupy all the workers.
+ * </p>
+ */
+public class AsyncQueryExecutor
+    implements Startable
+{
+    /** {@link Context} key of the per-request state. */
+    private static final String REQUEST_STATE = AsyncQueryExecutor.class.getName()
+        + ".requestState";
+
+    private final DataSource dataSource;
+
+    private final Config config;
+
+    private final Context context;
+
+    private final Logger log;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Creates an AsyncQueryExecutor instance.
+     * 
+     * @param dataSource the DataSource providing connections for the queries.
+     * @param config component's configuration.
+     * @param context the thread processing context.
+     * @param log the logger.
+     */
+    public AsyncQueryExecutor(DataSource dataSource, Config config, Context context, Logger log)
+    {
+        this.dataSource = dataSource;
+        this.config = config;
+        this.context = context;
+        this.log = log;
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(config.getThreads(), config.getThreads(), 60L,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(config.getQueueSize()),
+            new ThreadFactory()
+                {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread thread = new Thread(r, "async query "
+                            + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Creates an AsyncQueryExecutor instance.
+     * 
+     * @param dataSource the DataSource providing connections for the queries.
+     * @param config component's configuration.
+     * @param context the thread processing context.
+     * @param log the logger.
+     */
+    public AsyncQueryExecutor(DataSource dataSource, Configuration config, Context context,
+        Logger log)
+    {
+        this(dataSource, new Config(config), context, log);
+    }
+
+    // Startable interface //////////////////////////////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public void start()
+    {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void stop()
+    {
+        executor.shutdownNow();
+    }
+
+    // public API ///////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * A query executed asynchronously.
+     * 
+     * @param <T> type of the query result.
+     */
+    public interface Query<T>
+    {
+        /**
+         * Executes the query.
+         * 
+         * @param conn the connection, closed by the executor after the query returns.
+         * @return the result of the query.
+         * @throws SQLException if the query fails.
+         */
+        public T execute(Connection conn)
+            throws SQLException;
+    }
+
+    /**
+     * Submits a query for execution.
+     * 
+     * @param query the query.
+     * @return the future result of the query. When the query fails, {@link Future#get()} throws
+     *         an <code>ExecutionException</code> caused by the <code>SQLException</code>.
+     * @throws SQLException if the executor is shut down or overloaded.
+     */
+    public <T> Future<T> submit(Query<T> query)
+        throws SQLException
+    {
+        RequestState state = (RequestState)context.getAttribute(REQUEST_STATE);
+        if(state == null)
+        {
+            state = new RequestState();
+            context.setAttribute(REQUEST_STATE, state);
+        }
+        Map<String, Object> values = new HashMap<String, Object>();
+        for(String name : config.getPropagated())
+        {
+            Object value = context.getAttribute(name);
+            if(value != null)
+            {
+                values.put(name, value);
+            }
+        }
+        QueryTask<T> task = new QueryTask<T>(new QueryCall<T>(query, values), state);
+        boolean dispatch;
+        synchronized(state)
+        {
+            dispatch = state.running < config.getMaxPerRequest();
+            if(dispatch)
+            {
+                state.running++;
+            }
+            else
+            {
+                state.pending.add(task);
+            }
+        }
+        if(dispatch)
+        {
+            try
+            {
+                executor.execute(task);
+            }
+            catch(RejectedExecutionException e)
+            {
+                synchronized(state)
+                {
+                    state.running--;
+                }
+                throw new SQLException("async query rejected, "
+                    + executor.getQueue().size() + " queries queued", e);
+            }
+        }
+        return task;
+    }
+
+    /**
+     * Returns the number of queries being executed.
+     * 
+     * @return the number of active queries.
+     */
+    public int getActiveCount()
+    {
+        return executor.getActiveCount();
+    }
+
+    // implementation ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Releases the slot of a finished query, and dispatches the next pending query of the same
+     * request.
+     */
+    private void release(RequestState state)
+    {
+        while(true)
+        {
+            QueryTask<?> next;
+            synchronized(state)
+            {
+                do
+                {
+                    next = state.pending.poll();
+                }
+                while(next != null && next.isDone());
+                if(next == null)
+                {
+                    state.running--;
+                    return;
+                }
+            }
+            try
+            {
+                executor.execute(next);
+                return;
+            }
+            catch(RejectedExecutionException e)
+            {
+                next.fail(new SQLException("async query rejected", e));
+            }
+        }
+    }
+
+    /**
+     * Queries of a single request.
+     */
+    private static class RequestState
+    {
+        private int running;
+
+        private final Queue<QueryTask<?>> pending = new ArrayDeque<QueryTask<?>>();
+    }
+
+    /**
+     * Runs a query on a new connection, with the context values of the submitting thread.
+     */
+    private class QueryCall<T>
+        implements Callable<T>
+    {
+        private final Query<T> query;
+
+        private final Map<String, Object> values;
+
+        public QueryCall(Query<T> query, Map<String, Object> values)
+        {
+            this.query = query;
+            this.values = values;
+        }
+
+        public T call()
+            throws SQLException
+        {
+            for(Map.Entry<String, Object> entry : values.entrySet())
+            {
+                context.setAttribute(entry.getKey(), entry.getValue());
+            }
+            try(Connection conn = dataSource.getConnection())
+            {
+                return query.execute(conn);
+            }
+            finally
+            {
+                context.clearAttributes();
+            }
+        }
+    }
+
+    private class QueryTask<T>
+        extends FutureTask<T>
+    {
+        private final RequestState state;
+
+        public QueryTask(Callable<T> callable, RequestState state)
+        {
+            super(callable);
+            this.state = state;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                super.run();
+            }
+            finally
+            {
+                try
+                {
+                    release(state);
+                }
+                catch(RuntimeException e)
+                {
+                    log.error("failed to dispatch pending query", e);
+                }
+            }
+        }
+
+        void fail(Throwable t)
+        {
+            setException(t);
+        }
+    }
+
+    /**
+     * AsyncQueryExecutor component configuration.
+     */
+    public static class Config
+    {
+        /** number of worker threads. */
+        private int threads = 8;
+
+        /** maximum number of queries waiting for a worker thread. */
+        private int queueSize = 100;
+
+        /** maximum number of queries of a single request running at the same time. */
+        private int maxPerRequest = 4;
+
+        /** names of context attributes propagated to the worker threads. */
+        private String[] propagated = new String[] { TransactionMonitor.REQUEST,
+                        RoutingDataSource.READ_ONLY, RoutingDataSource.SESSION };
+
+        /**
+         * Create default configuration instance.
+         */
+        public Config()
+        {
+        }
+
+        /**
+         * Create configuration instance based on DNA Configuration.
+         * 
+         * @param config
+         */
+        public Config(Configuration config)
+        {
+            threads = config.getChild("threads").getValueAsInteger(threads);
+            queueSize = config.getChild("queueSize").getValueAsInteger(queueSize);
+            maxPerRequest = config.getChild("maxPerRequest").getValueAsInteger(maxPerRequest);
+            Configuration[] nodes = config.getChild("propagate").getChildren("attribute");
+            if(nodes.length > 0)
+            {
+                propagated = new String[nodes.length];
+                for(int i = 0; i < nodes.length; i++)
+                {
+                    propagated[i] = nodes[i].getValue("");
+                }
+            }
+        }
+
+        public int getThreads()
+        {
+            return threads;
+        }
+
+        public int getQueueSize()
+        {
+            return queueSize;
+        }
+
+        public int getMaxPerRequest()
+        {
+            return maxPerRequest;
+        }
+
+        public String[] getPropagated()
+        {
+            return propagated;
+        }
+
+        public Config withThreads(int threads)
+        {
+            this.threads = threads;
+            return this;
+        }
+
+        public Config withQueueSize(int queueSize)
+        {
+            this.queueSize = queueSize;
+            return this;
+        }
+
+        public Config withMaxPerRequest(int maxPerRequest)
+        {
+            this.maxPerRequest = maxPerRequest;
+            return this;
+        }
+
+        public Config withPropagated(String... propagated)
+        {
+            this.propagated = propagated;
+            return this;
+        }
+    }
+}
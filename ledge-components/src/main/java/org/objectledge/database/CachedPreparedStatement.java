@@ -0,0 +1,189 @@
+// 
+// Copyright (c) 2003-2005, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+// All rights reserved. 
+//   
+// Redistribution and use in source and binary forms, with or without modification,  
+// are permitted provided that the following conditions are met: 
+//   
+// * Redistributions of source code must retain the above copyright notice,  
+// this list of conditions and the following disclaimer. 
+// * Redistributions in binary form must reproduce the above copyright notice,  
+// this list of conditions and the following disclaimer in the documentation  
+// and/or other materials provided with the distribution. 
+// * Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+// nor the names of its contributors may be used to endorse or promote products  
+// derived from this software without specific prior written permission. 
+// 
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+// IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+// WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+// POSSIBILITY OF SUCH DAMAGE. 
+//
+
+package org.objectledge.database;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.objectledge.database.ThreadDataSource.ThreadConnection;
+
+/**
+ * PreparedStatement wrapper that returns the statement to the connection's statement cache
+ * instead of closing it.
+ */
+public class CachedPreparedStatement
+    extends MonitoringPreparedStatement
+{
+    private final Entry entry;
+
+    private final String key;
+
+    private final ThreadConnection threadConn;
+
+    private boolean closed = false;
+
+    /** The most recent result set returned to the application. */
+    private ResultSet resultSet;
+
+    /**
+     * Creates a new CachedPreparedStatement instance.
+     *
+     * @param entry the cache entry of the delegate prepared statement.
+     * @param sql statement body.
+     * @param key statement cache key.
+     * @param threadConn the associated ThreadConnection.
+     */
+    public CachedPreparedStatement(Entry entry, String sql, String key,
+        ThreadConnection threadConn)
+    {
+        super(entry.getStatement(), sql, threadConn);
+        this.entry = entry;
+        this.key = key;
+        this.threadConn = threadConn;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close()
+        throws SQLException
+    {
+        if(!closed)
+        {
+            closed = true;
+            if(resultSet != null)
+            {
+                // closing the wrapper records the fetched rows
+                resultSet.close();
+                resultSet = null;
+            }
+            threadConn.releaseStatement(key, entry);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ResultSet executeQuery()
+        throws SQLException
+    {
+        resultSet = super.executeQuery();
+        return resultSet;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isClosed()
+        throws SQLException
+    {
+        return closed || super.isClosed();
+    }
+
+    /**
+     * A physical statement kept in the cache, with the settings it had when it was prepared.
+     */
+    public static class Entry
+    {
+        private final PreparedStatement statement;
+
+        private final int maxRows;
+
+        private final int fetchSize;
+
+        private final int fetchDirection;
+
+        private final int queryTimeout;
+
+        /**
+         * Creates a new cache entry, recording the initial settings of the statement.
+         * 
+         * @param statement a newly prepared statement.
+         * @throws SQLException if the settings could not be retrieved.
+         */
+        public Entry(PreparedStatement statement)
+            throws SQLException
+        {
+            this.statement = statement;
+            maxRows = statement.getMaxRows();
+            fetchSize = statement.getFetchSize();
+            fetchDirection = statement.getFetchDirection();
+            queryTimeout = statement.getQueryTimeout();
+        }
+
+        /**
+         * Returns the physical statement.
+         * 
+         * @return the physical statement.
+         */
+        public PreparedStatement getStatement()
+        {
+            return statement;
+        }
+
+        /**
+         * Closes the current result set, clears the parameters and restores the initial settings
+         * of the statement, so that it can be reused by an unrelated caller.
+         * 
+         * @throws SQLException if the statement could not be reset.
+         */
+        public void reset()
+            throws SQLException
+        {
+            ResultSet rs = statement.getResultSet();
+            if(rs != null)
+            {
+                rs.close();
+            }
+            statement.clearParameters();
+            statement.clearBatch();
+            statement.clearWarnings();
+            if(statement.getMaxRows() != maxRows)
+            {
+                statement.setMaxRows(maxRows);
+            }
+            if(statement.getFetchSize() != fetchSize)
+            {
+                statement.setFetchSize(fetchSize);
+            }
+            if(statement.getFetchDirection() != fetchDirection)
+            {
+                statement.setFetchDirection(fetchDirection);
+            }
+            if(statement.getQueryTimeout() != queryTimeout)
+            {
+                statement.setQueryTimeout(queryTimeout);
+            }
+        }
+    }
+}
@@ -69,6 +69,16 @@ public interface Database
      */
     public abstract long getNextId(String table) throws SQLException;
 
+    /**
+     * Get a number of row identifiers for the table at once.
+     * 
+     * @param table the table name.
+     * @param count the number of identifiers.
+     * @return the identifiers.
+     * @throws SQLException if the ids could not be generated.
+     */
+    public abstract long[] getNextIds(String table, int count) throws SQLException;
+
     /**
      * Sets the transaction timeout for the current transaction.
      * 
@@ -46,6 +46,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -56,6 +57,7 @@ import javax.sql.DataSource;
 
 import org.jcontainer.dna.Logger;
 import org.jcontainer.dna.impl.Log4JLogger;
+import org.objectledge.longops.LongRunningOperationRegistry;
 
 /**
  * A set of utility functions for working with JDBC databases.
@@ -468,11 +470,70 @@ public class DatabaseUtils
         boolean batchCommit)
         throws SQLException
     {
-        // discover columns
+        List<String> columns = getColumns(inputConn, catalog, schema, tableName);
+        final String inputQuery = selectQuery(tableName, columns, sourceWhereClause);
+        final String outputStatement = insertStatement(tableName, columns);
+    
+        // truncate output table
+        if(truncate)
+        {
+            Statement truncStmt = outputConn.createStatement();
+            try
+            {
+                truncStmt.execute("TRUNCATE TABLE " + tableName);
+            }
+            finally
+            {
+                truncStmt.close();
+            }
+        }
+    
+        // transfer data
+        return transfer(inputConn, outputConn, inputQuery, outputStatement,
+            batchSize, batchCommit);
+    }
+
+    /**
+     * Transfer tables from one database to another, using multiple threads.
+     * <p>
+     * See {@link ParallelTransfer} for details.
+     * </p>
+     * 
+     * @param input input database.
+     * @param output output database.
+     * @param tables tables to be moved.
+     * @param workers number of concurrent worker threads.
+     * @param batchSize batch size to use, negative to disable batching.
+     * @param registry registry for reporting transfer progress, may be {@code null}.
+     * @return numbers of copied rows, by table.
+     * @throws SQLException
+     */
+    public static Map<String, Long> transferTables(DataSource input, DataSource output,
+        Collection<String> tables, int workers, int batchSize,
+        LongRunningOperationRegistry registry)
+        throws SQLException
+    {
+        return new ParallelTransfer(input, output, new ParallelTransfer.Config().withWorkers(
+            workers).withBatchSize(batchSize), registry).transfer(tables);
+    }
+
+    /**
+     * Returns the names of table's columns.
+     * 
+     * @param conn database connection.
+     * @param catalog database catalog.
+     * @param schema database schema.
+     * @param tableName table name.
+     * @return column names.
+     * @throws SQLException
+     */
+    static List<String> getColumns(Connection conn, String catalog, String schema,
+        String tableName)
+        throws SQLException
+    {
         List<String> columns = new ArrayList<String>();
-        ResultSet colRs = inputConn.getMetaData().getColumns(
-            adjustIdentifierCase(catalog, inputConn), adjustIdentifierCase(schema, inputConn),
-            adjustIdentifierCase(tableName, inputConn), "%");
+        ResultSet colRs = conn.getMetaData().getColumns(adjustIdentifierCase(catalog, conn),
+            adjustIdentifierCase(schema, conn), adjustIdentifierCase(tableName, conn), "%");
         try
         {
             while(colRs.next())
@@ -484,8 +545,19 @@ public class DatabaseUtils
         {
             colRs.close();
         }
-    
-        // build input query
+        return columns;
+    }
+
+    /**
+     * Builds a query selecting the specified columns of a table.
+     * 
+     * @param tableName table name.
+     * @param columns column names.
+     * @param whereClause optional {@code WHERE} clause, may be {@code null}.
+     * @return the query.
+     */
+    static String selectQuery(String tableName, List<String> columns, String whereClause)
+    {
         StringBuilder buff = new StringBuilder();
         buff.append("SELECT ");
         for(int i = 0; i < columns.size(); i++)
@@ -497,14 +569,23 @@ public class DatabaseUtils
             }
         }
         buff.append(" FROM ").append(tableName);
-        if(sourceWhereClause != null)
+        if(whereClause != null)
         {
-            buff.append(" WHERE ").append(sourceWhereClause);
+            buff.append(" WHERE ").append(whereClause);
         }
-        final String inputQuery = buff.toString();
-    
-        // build output statement
-        buff.setLength(0);
+        return buff.toString();
+    }
+
+    /**
+     * Builds a statement inserting values of the specified columns of a table.
+     * 
+     * @param tableName table name.
+     * @param columns column names.
+     * @return the statement.
+     */
+    static String insertStatement(String tableName, List<String> columns)
+    {
+        StringBuilder buff = new StringBuilder();
         buff.append("INSERT INTO ");
         buff.append(tableName).append(" (");
         for(int i = 0; i < columns.size(); i++)
@@ -525,25 +606,7 @@ public class DatabaseUtils
             }
         }
         buff.append(")");
-        final String outputStatement = buff.toString();
-    
-        // truncate output table
-        if(truncate)
-        {
-            Statement truncStmt = outputConn.createStatement();
-            try
-            {
-                truncStmt.execute("TRUNCATE TABLE " + tableName);
-            }
-            finally
-            {
-                truncStmt.close();
-            }
-        }
-    
-        // transfer data
-        return transfer(inputConn, outputConn, inputQuery, outputStatement,
-            batchSize, batchCommit);
+        return buff.toString();
     }
 
     /**
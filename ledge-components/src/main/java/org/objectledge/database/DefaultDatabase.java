@@ -89,6 +89,15 @@ public class DefaultDatabase implements Database
     {
         return idGenerator.getNextId(table);
     }
+
+    /**
+     * {@inheritDoc}
+     */ 
+    public long[] getNextIds(String table, int count)
+        throws SQLException
+    {
+        return idGenerator.getNextIds(table, count);
+    }
     
     /**
      * {@inheritDoc}
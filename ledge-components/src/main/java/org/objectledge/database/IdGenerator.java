@@ -13,4 +13,15 @@ public interface IdGenerator
      */
     long getNextId(String table)
         throws SQLException;
+
+    /**
+     * Get a number of row identifiers for the table at once.
+     * 
+     * @param table the table name.
+     * @param count the number of identifiers.
+     * @return the identifiers.
+     * @throws SQLException if the ids could not be generated.
+     */
+    long[] getNextIds(String table, int count)
+        throws SQLException;
 }
@@ -74,7 +74,7 @@ public class MonitoringPreparedStatement
         }
         finally
         {
-            threadConn.finishStatement(getBody());
+            threadConn.finishStatement(getSQL(), 0);
         }
     }    
 
@@ -85,15 +85,17 @@ public class MonitoringPreparedStatement
     public ResultSet executeQuery()
         throws SQLException
     {
+        ResultSet rs;
         threadConn.startStatement(getBody());
         try
         {
-            return super.executeQuery();
+            rs = super.executeQuery();
         }
         finally
         {
-            threadConn.finishStatement(getBody());
+            threadConn.finishStatement(getSQL(), 0);
         }
+        return threadConn.countRows(getSQL(), rs);
     }    
 
     /**
@@ -103,14 +105,16 @@ public class MonitoringPreparedStatement
     public int executeUpdate()
         throws SQLException
     {
+        int rows = 0;
         threadConn.startStatement(getBody());
         try
         {
-            return super.executeUpdate();
+            rows = super.executeUpdate();
+            return rows;
         }
         finally
         {
-            threadConn.finishStatement(getBody());
+            threadConn.finishStatement(getSQL(), rows);
         }
     }    
     
@@ -121,14 +125,16 @@ public class MonitoringPreparedStatement
     public int[] executeBatch()
         throws SQLException
     {
+        int[] counts = null;
         threadConn.startStatement(getBatchBuffer());
         try
         {
-            return super.executeBatch();
+            counts = super.executeBatch();
+            return counts;
         }
         finally
         {
-            threadConn.finishStatement(getBatchBuffer());
+            threadConn.finishStatement(getSQL(), counts);
         }
     }    
 }
@@ -3,6 +3,8 @@ package org.objectledge.database;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.objectledge.database.ThreadDataSource.ThreadConnection;
 import org.objectledge.database.impl.DelegatingStatement;
@@ -18,6 +20,8 @@ public class MonitoringStatement
 {
     private final ThreadConnection threadConn;
 
+    private final List<String> batch = new ArrayList<String>();
+
     /**
      * Creates a new MonitoringStatement instance.
      *
@@ -44,7 +48,7 @@ public class MonitoringStatement
         }
         finally
         {
-            threadConn.finishStatement(sql);
+            threadConn.finishStatement(sql, 0);
         }
     }
 
@@ -62,7 +66,7 @@ public class MonitoringStatement
         }
         finally
         {
-            threadConn.finishStatement(sql);
+            threadConn.finishStatement(sql, 0);
         }
     }
 
@@ -80,7 +84,7 @@ public class MonitoringStatement
         }
         finally
         {
-            threadConn.finishStatement(sql);
+            threadConn.finishStatement(sql, 0);
         }
     }
 
@@ -98,7 +102,7 @@ public class MonitoringStatement
         }
         finally
         {
-            threadConn.finishStatement(sql);
+            threadConn.finishStatement(sql, 0);
         }
     }
 
@@ -109,15 +113,17 @@ public class MonitoringStatement
     public ResultSet executeQuery(String sql)
         throws SQLException
     {
+        ResultSet rs;
         threadConn.startStatement(sql);
         try
         {
-            return super.executeQuery(sql);
+            rs = super.executeQuery(sql);
         }
         finally
         {
-            threadConn.finishStatement(sql);
+            threadConn.finishStatement(sql, 0);
         }
+        return threadConn.countRows(sql, rs);
     }
 
     /**
@@ -127,14 +133,16 @@ public class MonitoringStatement
     public int executeUpdate(String sql, int autoGeneratedKeys)
         throws SQLException
     {
+        int rows = 0;
         threadConn.startStatement(sql);
         try
         {
-            return super.executeUpdate(sql, autoGeneratedKeys);
+            rows = super.executeUpdate(sql, autoGeneratedKeys);
+            return rows;
         }
         finally
         {
-            threadConn.finishStatement(sql);
+            threadConn.finishStatement(sql, rows);
         }
     }
 
@@ -145,14 +153,16 @@ public class MonitoringStatement
     public int executeUpdate(String sql, int[] columnIndexes)
         throws SQLException
     {
+        int rows = 0;
         threadConn.startStatement(sql);
         try
         {
-            return super.executeUpdate(sql, columnIndexes);
+            rows = super.executeUpdate(sql, columnIndexes);
+            return rows;
         }
         finally
         {
-            threadConn.finishStatement(sql);
+            threadConn.finishStatement(sql, rows);
         }
     }
 
@@ -163,14 +173,16 @@ public class MonitoringStatement
     public int executeUpdate(String sql, String[] columnNames)
         throws SQLException
     {
+        int rows = 0;
         threadConn.startStatement(sql);
         try
         {
-            return super.executeUpdate(sql, columnNames);
+            rows = super.executeUpdate(sql, columnNames);
+            return rows;
         }
         finally
         {
-            threadConn.finishStatement(sql);
+            threadConn.finishStatement(sql, rows);
         }
     }
 
@@ -181,18 +193,42 @@ public class MonitoringStatement
     public int executeUpdate(String sql)
         throws SQLException
     {
+        int rows = 0;
         threadConn.startStatement(sql);
         try
         {
-            return super.executeUpdate(sql);
+            rows = super.executeUpdate(sql);
+            return rows;
         }
         finally
         {
-            threadConn.finishStatement(sql);
+            threadConn.finishStatement(sql, rows);
         }
     }
     
     
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addBatch(String sql)
+        throws SQLException
+    {
+        super.addBatch(sql);
+        batch.add(sql);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clearBatch()
+        throws SQLException
+    {
+        super.clearBatch();
+        batch.clear();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -200,14 +236,18 @@ public class MonitoringStatement
     public int[] executeBatch()
         throws SQLException
     {
+        List<String> statements = new ArrayList<String>(batch);
+        batch.clear();
+        int[] counts = null;
         threadConn.startStatement(getBatchBuffer());
         try
         {
-            return super.executeBatch();
+            counts = super.executeBatch();
+            return counts;
         }
         finally
         {
-            threadConn.finishStatement(getBatchBuffer());
+            threadConn.finishStatements(statements, counts);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,553 @@
+// 
+// Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+// All rights reserved. 
+// 
+// Redistribution and use in source and binary forms, with or without modification,  
+// are permitted provided that the following conditions are met: 
+//  
+// * Redistributions of source code must retain the above copyright notice,  
+//	 this list of conditions and the following disclaimer. 
+// * Redistributions in binary form must reproduce the above copyright notice,  
+//	 this list of conditions and the following disclaimer in the documentation  
+//	 and/or other materials provided with the distribution. 
+// * Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//	 nor the names of its contributors may be used to endorse or promote products  
+//	 derived from this software without specific prior written permission. 
+// 
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+// IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+// WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+// POSSIBILITY OF SUCH DAMAGE. 
+// 
+
+package org.objectledge.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.objectledge.longops.LongRunningOperation;
+import org.objectledge.longops.LongRunningOperationRegistry;
+import org.objectledge.longops.OperationCancelledException;
+
+/**
+ * Transfers tables from one database to another using multiple threads.
+ * <p>
+ * Tables are copied concurrently. Tables with a single column integer primary key are split into
+ * key ranges of configurable width, and each range is read and written by a separate worker, on
+ * its own pair of connections. Other tables are copied as a whole by a single worker.
+ * </p>
+ * <p>
+ * Only the ranges that contain rows are transferred. They are found by walking the key index,
+ * one query for each range, so a sparse key space does not produce empty ranges.
+ * </p>
+ * <p>
+ * Each completed range is recorded in the {@value #CHECKPOINT_TABLE} table of the output
+ * database, which is created when missing. When a transfer is interrupted, running it again for
+ * the same tables skips the recorded ranges, and replaces the output rows of the remaining ones.
+ * A table that is transferred from scratch is truncated first. The checkpoints of a table are
+ * removed once all of its ranges are copied.
+ * </p>
+ * <p>
+ * When a {@link LongRunningOperationRegistry} is provided, the progress of each table is reported
+ * as an operation with code {@value #OPERATION_CODE}, counting copied ranges as the units of work.
+ * Cancelling any of the operations aborts the whole transfer.
+ * </p>
+ */
+public class ParallelTransfer
+{
+    /** Name of the table that holds the checkpoints in the output database. */
+    public static final String CHECKPOINT_TABLE = "ledge_transfer_checkpoint";
+
+    /** Code of the operations reported to the LongRunningOperationRegistry. */
+    public static final String OPERATION_CODE = "database.transfer";
+
+    private final DataSource input;
+
+    private final DataSource output;
+
+    private final Config config;
+
+    private final LongRunningOperationRegistry registry;
+
+    /**
+     * Creates a new ParallelTransfer instance.
+     * 
+     * @param input input database.
+     * @param output output database.
+     * @param config transfer configuration.
+     * @param registry registry for reporting transfer progress, may be {@code null}.
+     */
+    public ParallelTransfer(DataSource input, DataSource output, Config config,
+        LongRunningOperationRegistry registry)
+    {
+        this.input = input;
+        this.output = output;
+        this.config = config;
+        this.registry = registry;
+    }
+
+    /**
+     * Transfers the tables.
+     * <p>
+     * Target tables must exist and must agree in number and type of columns with the source
+     * tables.
+     * </p>
+     * 
+     * @param tables tables to be moved.
+     * @return numbers of rows copied during this invocation, by table.
+     * @throws SQLException if the transfer failed or was cancelled.
+     */
+    public Map<String, Long> transfer(Collection<String> tables)
+        throws SQLException
+    {
+        List<TableTransfer> transfers = new ArrayList<TableTransfer>();
+        try
+        {
+            try(Connection inputConn = input.getConnection();
+                            Connection outputConn = output.getConnection())
+            {
+                if(!DatabaseUtils.hasTable(outputConn, CHECKPOINT_TABLE))
+                {
+                    try(Statement stmt = outputConn.createStatement())
+                    {
+                        stmt.execute("CREATE TABLE " + CHECKPOINT_TABLE
+                            + " (table_name VARCHAR(255) NOT NULL, range_start BIGINT NOT NULL,"
+                            + " range_end BIGINT NOT NULL)");
+                    }
+                }
+                for(String table : tables)
+                {
+                    transfers.add(new TableTransfer(table, inputConn, outputConn));
+                }
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(config.getWorkers());
+            try
+            {
+                List<Future<?>> futures = new ArrayList<Future<?>>();
+                for(TableTransfer transfer : transfers)
+                {
+                    for(Range range : transfer.pending)
+                    {
+                        futures.add(executor.submit(new RangeTransfer(transfer, range)));
+                    }
+                }
+                for(Future<?> future : futures)
+                {
+                    future.get();
+                }
+            }
+            catch(InterruptedException e)
+            {
+                throw new SQLException("transfer interrupted", e);
+            }
+            catch(ExecutionException e)
+            {
+                if(e.getCause() instanceof SQLException)
+                {
+                    throw (SQLException)e.getCause();
+                }
+                throw new SQLException("transfer failed", e.getCause());
+            }
+            finally
+            {
+                executor.shutdownNow();
+            }
+        }
+        finally
+        {
+            for(TableTransfer transfer : transfers)
+            {
+                if(transfer.operation != null)
+                {
+                    registry.unregister(transfer.operation);
+                }
+            }
+        }
+        Map<String, Long> rows = new LinkedHashMap<String, Long>();
+        for(TableTransfer transfer : transfers)
+        {
+            rows.put(transfer.table, transfer.rows.get());
+        }
+        return rows;
+    }
+
+    /**
+     * A key range of a table, [start, end).
+     */
+    private static class Range
+    {
+        private final long start;
+
+        private final long end;
+
+        public Range(long start, long end)
+        {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Transfer state of a single table.
+     */
+    private class TableTransfer
+    {
+        private final String table;
+
+        private final String key;
+
+        private final List<String> columns;
+
+        private final List<Range> pending = new ArrayList<Range>();
+
+        private final boolean resumed;
+
+        private final AtomicInteger remaining;
+
+        private final AtomicInteger completed;
+
+        private final AtomicLong rows = new AtomicLong();
+
+        private final LongRunningOperation operation;
+
+        public TableTransfer(String table, Connection inputConn, Connection outputConn)
+            throws SQLException
+        {
+            this.table = table;
+            columns = DatabaseUtils.getColumns(inputConn, config.getCatalog(), config.getSchema(),
+                table);
+            key = getPartitionKey(inputConn);
+            List<Range> ranges = getRanges(inputConn);
+            Set<String> done = getCheckpoints(outputConn);
+            for(Range range : ranges)
+            {
+                if(!done.contains(range.start + ":" + range.end))
+                {
+                    pending.add(range);
+                }
+            }
+            resumed = !done.isEmpty();
+            if(!resumed)
+            {
+                try(Statement stmt = outputConn.createStatement())
+                {
+                    stmt.execute("TRUNCATE TABLE " + table);
+                }
+            }
+            if(resumed && pending.isEmpty())
+            {
+                // previous transfer was interrupted right before cleaning up
+                removeCheckpoints(outputConn);
+            }
+            remaining = new AtomicInteger(pending.size());
+            completed = new AtomicInteger(ranges.size() - pending.size());
+            if(registry != null)
+            {
+                operation = registry.register(OPERATION_CODE, "transfer of table " + table, null,
+                    ranges.size());
+            }
+            else
+            {
+                operation = null;
+            }
+        }
+
+        /**
+         * @return the single integer primary key column, or {@code null} if there is none.
+         */
+        private String getPartitionKey(Connection conn)
+            throws SQLException
+        {
+            List<String> keys = new ArrayList<String>();
+            try(ResultSet rs = conn.getMetaData().getPrimaryKeys(
+                DatabaseUtils.adjustIdentifierCase(config.getCatalog(), conn),
+                DatabaseUtils.adjustIdentifierCase(config.getSchema(), conn),
+                DatabaseUtils.adjustIdentifierCase(table, conn)))
+            {
+                while(rs.next())
+                {
+                    keys.add(rs.getString("COLUMN_NAME"));
+                }
+            }
+            if(keys.size() != 1)
+            {
+                return null;
+            }
+            try(ResultSet rs = conn.getMetaData().getColumns(
+                DatabaseUtils.adjustIdentifierCase(config.getCatalog(), conn),
+                DatabaseUtils.adjustIdentifierCase(config.getSchema(), conn),
+                DatabaseUtils.adjustIdentifierCase(table, conn), keys.get(0)))
+            {
+                if(rs.next())
+                {
+                    switch(rs.getInt("DATA_TYPE"))
+                    {
+                    case Types.BIGINT:
+                    case Types.INTEGER:
+                    case Types.SMALLINT:
+                    case Types.TINYINT:
+                        return keys.get(0);
+                    default:
+                        return null;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Splits the key space of the table into ranges aligned to multiples of the partition
+         * size, so that the same ranges are computed when the transfer is resumed. Each range
+         * starts at the partition holding the lowest key after the previous range, so empty
+         * partitions are skipped.
+         */
+        private List<Range> getRanges(Connection conn)
+            throws SQLException
+        {
+            List<Range> ranges = new ArrayList<Range>();
+            if(key == null)
+            {
+                ranges.add(new Range(Long.MIN_VALUE, Long.MAX_VALUE));
+                return ranges;
+            }
+            long size = config.getPartitionSize();
+            try(PreparedStatement stmt = conn.prepareStatement("SELECT MIN(" + key + ") FROM "
+                + table + " WHERE " + key + " >= ?"))
+            {
+                long from = Long.MIN_VALUE;
+                while(true)
+                {
+                    long min;
+                    stmt.setLong(1, from);
+                    try(ResultSet rs = stmt.executeQuery())
+                    {
+                        rs.next();
+                        min = rs.getLong(1);
+                        if(rs.wasNull())
+                        {
+                            return ranges;
+                        }
+                    }
+                    long start = min / size * size;
+                    if(start > min)
+                    {
+                        start -= size;
+                    }
+                    if(start > Long.MAX_VALUE - size)
+                    {
+                        ranges.add(new Range(start, Long.MAX_VALUE));
+                        return ranges;
+                    }
+                    ranges.add(new Range(start, start + size));
+                    from = start + size;
+                }
+            }
+        }
+
+        /**
+         * @return completed ranges of the table, as start:end strings.
+         */
+        private Set<String> getCheckpoints(Connection conn)
+            throws SQLException
+        {
+            Set<String> done = new HashSet<String>();
+            try(PreparedStatement stmt = conn.prepareStatement("SELECT range_start, range_end FROM "
+                + CHECKPOINT_TABLE + " WHERE table_name = ?"))
+            {
+                stmt.setString(1, table);
+                try(ResultSet rs = stmt.executeQuery())
+                {
+                    while(rs.next())
+                    {
+                        done.add(rs.getLong(1) + ":" + rs.getLong(2));
+                    }
+                }
+            }
+            return done;
+        }
+
+        private void removeCheckpoints(Connection conn)
+            throws SQLException
+        {
+            try(PreparedStatement stmt = conn.prepareStatement("DELETE FROM " + CHECKPOINT_TABLE
+                + " WHERE table_name = ?"))
+            {
+                stmt.setString(1, table);
+                stmt.execute();
+            }
+        }
+
+        /**
+         * @return the condition selecting the rows of a range, or {@code null} for whole table.
+         */
+        private String getCondition(Range range)
+        {
+            if(key == null)
+            {
+                return null;
+            }
+            return key + " >= " + range.start + " AND " + key + " < " + range.end;
+        }
+    }
+
+    /**
+     * Copies a single range of a table.
+     */
+    private class RangeTransfer
+        implements Callable<Void>
+    {
+        private final TableTransfer transfer;
+
+        private final Range range;
+
+        public RangeTransfer(TableTransfer transfer, Range range)
+        {
+            this.transfer = transfer;
+            this.range = range;
+        }
+
+        @Override
+        public Void call()
+            throws SQLException, OperationCancelledException
+        {
+            String condition = transfer.getCondition(range);
+            try(Connection inputConn = input.getConnection();
+                            Connection outputConn = output.getConnection())
+            {
+                if(transfer.resumed)
+                {
+                    // rows of an interrupted attempt may have been committed
+                    try(Statement stmt = outputConn.createStatement())
+                    {
+                        stmt.execute("DELETE FROM " + transfer.table
+                            + (condition != null ? " WHERE " + condition : ""));
+                    }
+                }
+                transfer.rows.addAndGet(DatabaseUtils.transfer(inputConn, outputConn,
+                    DatabaseUtils.selectQuery(transfer.table, transfer.columns, condition),
+                    DatabaseUtils.insertStatement(transfer.table, transfer.columns),
+                    config.getBatchSize(), false));
+                try(PreparedStatement stmt = outputConn.prepareStatement("INSERT INTO "
+                    + CHECKPOINT_TABLE + " (table_name, range_start, range_end) VALUES (?, ?, ?)"))
+                {
+                    stmt.setString(1, transfer.table);
+                    stmt.setLong(2, range.start);
+                    stmt.setLong(3, range.end);
+                    stmt.execute();
+                }
+                if(transfer.remaining.decrementAndGet() == 0)
+                {
+                    transfer.removeCheckpoints(outputConn);
+                }
+            }
+            int completed = transfer.completed.incrementAndGet();
+            if(transfer.operation != null)
+            {
+                registry.update(transfer.operation, completed);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * ParallelTransfer configuration.
+     */
+    public static class Config
+    {
+        /** number of concurrent worker threads. */
+        private int workers = 4;
+
+        /** batch size, negative to disable batching. */
+        private int batchSize = 1000;
+
+        /** width of the key ranges large tables are split into. */
+        private long partitionSize = 100000;
+
+        /** input database catalog, {@code null} for wildcard. */
+        private String catalog = null;
+
+        /** input database schema, {@code null} for wildcard. */
+        private String schema = null;
+
+        public int getWorkers()
+        {
+            return workers;
+        }
+
+        public int getBatchSize()
+        {
+            return batchSize;
+        }
+
+        public long getPartitionSize()
+        {
+            return partitionSize;
+        }
+
+        public String getCatalog()
+        {
+            return catalog;
+        }
+
+        public String getSchema()
+        {
+            return schema;
+        }
+
+        public Config withWorkers(int workers)
+        {
+            this.workers = workers;
+            return this;
+        }
+
+        public Config withBatchSize(int batchSize)
+        {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Config withPartitionSize(long partitionSize)
+        {
+            this.partitionSize = partitionSize;
+            return this;
+        }
+
+        public Config withCatalog(String catalog)
+        {
+            this.catalog = catalog;
+            return this;
+        }
+
+        public Config withSchema(String schema)
+        {
+            this.schema = schema;
+            return this;
+        }
+    }
+}
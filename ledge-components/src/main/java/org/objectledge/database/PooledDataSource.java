@@ -0,0 +1,1030 @@
+// 
+// Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+// All rights reserved. 
+// 
+// Redistribution and use in source and binary forms, with or without modification,  
+// are permitted provided that the following conditions are met: 
+//  
+// * Redistributions of source code must retain the above copyright notice,  
+//	 this list of conditions and the following disclaimer. 
+// * Redistributions in binary form must reproduce the above copyright notice,  
+//	 this list of conditions and the following disclaimer in the documentation  
+//	 and/or other materials provided with the distribution. 
+// * Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//	 nor the names of its contributors may be used to endorse or promote products  
+//	 derived from this software without specific prior written permission. 
+// 
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+// IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+// WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+// POSSIBILITY OF SUCH DAMAGE. 
+// 
+package org.objectledge.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.jcontainer.dna.Configuration;
+import org.jcontainer.dna.Logger;
+import org.objectledge.context.Context;
+import org.objectledge.database.impl.DelegatingConnection;
+import org.objectledge.database.impl.DelegatingDataSource;
+import org.objectledge.filesystem.FileSystem;
+import org.objectledge.pipeline.ProcessingException;
+import org.objectledge.statistics.AbstractMuninGraph;
+import org.objectledge.statistics.MuninGraph;
+import org.objectledge.statistics.StatisticsProvider;
+import org.objectledge.threads.Task;
+import org.objectledge.threads.ThreadPool;
+import org.picocontainer.Startable;
+
+/**
+ * A pooling DataSource.
+ * <p>
+ * Physical connections are obtained from the delegate DataSource, and kept in a lock-free bag.
+ * A borrowing thread first tries the connections it has used recently, then scans the whole bag,
+ * then opens a new connection if the pool is not full, and finally waits for a connection to be
+ * handed off by a returning thread.
+ * </p>
+ * <p>
+ * Connections are validated only when they were idle longer than the configured period, and are
+ * closed once they reach their maximum lifetime. A housekeeping task, run on the ThreadPool,
+ * closes excess idle connections, keeps the minimum number of idle connections open and reports
+ * connections that were not returned within the leak detection threshold, together with the
+ * stack trace of the code that borrowed them.
+ * </p>
+ * <p>
+ * Connections requested with an explicit user name and password are not pooled.
+ * </p>
+ */
+public class PooledDataSource
+    extends DelegatingDataSource
+    implements StatisticsProvider, Startable
+{
+    private static final int IDLE = 0;
+
+    private static final int IN_USE = 1;
+
+    private static final int REMOVED = -1;
+
+    /** Maximum number of connections remembered per thread. */
+    private static final int MAX_HINTS = 4;
+
+    /** How long a waiting thread blocks before scanning the pool again, in milliseconds. */
+    private static final long HANDOFF_SLICE = 10L;
+
+    private final Config config;
+
+    private final Logger log;
+
+    private final MuninGraph[] graphs;
+
+    private final CopyOnWriteArrayList<Entry> entries = new CopyOnWriteArrayList<Entry>();
+
+    private final ThreadLocal<List<Entry>> hints = new ThreadLocal<List<Entry>>()
+        {
+            @Override
+            protected List<Entry> initialValue()
+            {
+                return new ArrayList<Entry>(MAX_HINTS);
+            }
+        };
+
+    private final SynchronousQueue<Entry> handoff = new SynchronousQueue<Entry>(true);
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    private final AtomicLong created = new AtomicLong();
+
+    private final AtomicLong closed = new AtomicLong();
+
+    private final AtomicLong timeouts = new AtomicLong();
+
+    private final AtomicLong leaks = new AtomicLong();
+
+    private final StatementStatistics.Histogram borrowWait = new StatementStatistics.Histogram();
+
+    private volatile boolean shutdown = false;
+
+    /**
+     * Creates a PooledDataSource instance.
+     * 
+     * @param dataSource the DataSource providing physical connections.
+     * @param config component's configuration.
+     * @param threadPool the ThreadPool for running housekeeping task (may be null).
+     * @param fs the FileSystem, for loading Munin graph configuration.
+     * @param log the logger.
+     */
+    public PooledDataSource(DataSource dataSource, Config config, ThreadPool threadPool,
+        FileSystem fs, Logger log)
+    {
+        super(dataSource);
+        this.config = config;
+        this.log = log;
+        graphs = new MuninGraph[] { new Connections(fs), new BorrowWait(fs),
+                        new ConnectionEvents(fs) };
+        if(threadPool != null && config.getHousekeepingInterval() > 0)
+        {
+            threadPool.runDaemon(new HousekeepingTask());
+        }
+    }
+
+    /**
+     * Creates a PooledDataSource instance.
+     * 
+     * @param dataSource the DataSource providing physical connections.
+     * @param config component's configuration.
+     * @param threadPool the ThreadPool for running housekeeping task.
+     * @param fs the FileSystem, for loading Munin graph configuration.
+     * @param log the logger.
+     */
+    public PooledDataSource(DataSource dataSource, Configuration config, ThreadPool threadPool,
+        FileSystem fs, Logger log)
+    {
+        this(dataSource, new Config(config), threadPool, fs, log);
+    }
+
+    // DataSource interface /////////////////////////////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public Connection getConnection()
+        throws SQLException
+    {
+        if(shutdown)
+        {
+            throw new SQLException("pool is shut down");
+        }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(config.getBorrowTimeout());
+        while(true)
+        {
+            Entry entry = take();
+            if(entry == null)
+            {
+                entry = create();
+            }
+            if(entry == null)
+            {
+                entry = await(deadline);
+            }
+            if(entry == null)
+            {
+                continue;
+            }
+            if(!prepare(entry))
+            {
+                discard(entry);
+                continue;
+            }
+            active.incrementAndGet();
+            borrowWait.record((System.nanoTime() - start) / 1000);
+            entry.borrowed = System.currentTimeMillis();
+            entry.leakReported = false;
+            if(config.getLeakDetectionThreshold() > 0)
+            {
+                entry.borrowStack = new Exception("connection borrowed by thread "
+                    + Thread.currentThread().getName());
+            }
+            hint(entry);
+            return new PooledConnection(entry);
+        }
+    }
+
+    // Startable interface //////////////////////////////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public void start()
+    {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void stop()
+    {
+        shutdown = true;
+        for(Entry entry : entries)
+        {
+            if(entry.state.compareAndSet(IDLE, REMOVED))
+            {
+                close(entry);
+            }
+        }
+    }
+
+    // statistics ///////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public MuninGraph[] getGraphs()
+    {
+        return graphs;
+    }
+
+    /**
+     * Returns the number of connections in use.
+     * 
+     * @return the number of connections in use.
+     */
+    public int getActiveCount()
+    {
+        return active.get();
+    }
+
+    /**
+     * Returns the number of idle connections.
+     * 
+     * @return the number of idle connections.
+     */
+    public int getIdleCount()
+    {
+        int count = 0;
+        for(Entry entry : entries)
+        {
+            if(entry.state.get() == IDLE)
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of threads waiting for a connection.
+     * 
+     * @return the number of waiting threads.
+     */
+    public int getWaitingCount()
+    {
+        return waiters.get();
+    }
+
+    /**
+     * Returns the histogram of connection borrow wait times.
+     * 
+     * @return the borrow wait histogram, in microseconds.
+     */
+    public StatementStatistics.Histogram getBorrowWait()
+    {
+        return borrowWait;
+    }
+
+    public class Connections
+        extends AbstractMuninGraph
+    {
+        public Connections(FileSystem fs)
+        {
+            super(fs);
+        }
+
+        public String getId()
+        {
+            return "dbPoolConnections";
+        }
+
+        /**
+         * Returns the number of connections in use.
+         * 
+         * @return the number of connections in use.
+         */
+        public int getActive()
+        {
+            return getActiveCount();
+        }
+
+        /**
+         * Returns the number of idle connections.
+         * 
+         * @return the number of idle connections.
+         */
+        public int getIdle()
+        {
+            return getIdleCount();
+        }
+
+        /**
+         * Returns the number of threads waiting for a connection.
+         * 
+         * @return the number of waiting threads.
+         */
+        public int getWaiting()
+        {
+            return getWaitingCount();
+        }
+    }
+
+    public class BorrowWait
+        extends AbstractMuninGraph
+    {
+        public BorrowWait(FileSystem fs)
+        {
+            super(fs);
+        }
+
+        public String getId()
+        {
+            return "dbPoolBorrowWait";
+        }
+
+        /**
+         * Returns median borrow wait time in microseconds.
+         * 
+         * @return median borrow wait time.
+         */
+        public long getP50()
+        {
+            return borrowWait.getPercentile(50);
+        }
+
+        /**
+         * Returns 99th percentile of borrow wait time in microseconds.
+         * 
+         * @return 99th percentile of borrow wait time.
+         */
+        public long getP99()
+        {
+            return borrowWait.getPercentile(99);
+        }
+
+        /**
+         * Returns maximum borrow wait time in microseconds.
+         * 
+         * @return maximum borrow wait time.
+         */
+        public long getMax()
+        {
+            return borrowWait.getMax();
+        }
+    }
+
+    public class ConnectionEvents
+        extends AbstractMuninGraph
+    {
+        public ConnectionEvents(FileSystem fs)
+        {
+            super(fs);
+        }
+
+        public String getId()
+        {
+            return "dbPoolConnectionEvents";
+        }
+
+        /**
+         * Returns the number of opened physical connections.
+         * 
+         * @return the number of opened connections.
+         */
+        public long getCreated()
+        {
+            return created.get();
+        }
+
+        /**
+         * Returns the number of closed physical connections.
+         * 
+         * @return the number of closed connections.
+         */
+        public long getClosed()
+        {
+            return closed.get();
+        }
+
+        /**
+         * Returns the number of borrow attempts that timed out.
+         * 
+         * @return the number of timeouts.
+         */
+        public long getTimeouts()
+        {
+            return timeouts.get();
+        }
+
+        /**
+         * Returns the number of detected connection leaks.
+         * 
+         * @return the number of leaks.
+         */
+        public long getLeaks()
+        {
+            return leaks.get();
+        }
+    }
+
+    // implementation ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Takes an idle connection, trying the ones recently used by the calling thread first.
+     */
+    private Entry take()
+    {
+        List<Entry> list = hints.get();
+        for(int i = list.size() - 1; i >= 0; i--)
+        {
+            Entry entry = list.get(i);
+            if(entry.state.compareAndSet(IDLE, IN_USE))
+            {
+                return entry;
+            }
+            if(entry.state.get() == REMOVED)
+            {
+                list.remove(i);
+            }
+        }
+        for(Entry entry : entries)
+        {
+            if(entry.state.compareAndSet(IDLE, IN_USE))
+            {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private void hint(Entry entry)
+    {
+        List<Entry> list = hints.get();
+        list.remove(entry);
+        if(list.size() == MAX_HINTS)
+        {
+            list.remove(0);
+        }
+        list.add(entry);
+    }
+
+    /**
+     * Opens a new connection, if the pool is not full.
+     */
+    private Entry create()
+        throws SQLException
+    {
+        int current;
+        do
+        {
+            current = size.get();
+            if(current >= config.getMaxSize())
+            {
+                return null;
+            }
+        }
+        while(!size.compareAndSet(current, current + 1));
+        try
+        {
+            Entry entry = new Entry(getDelegate().getConnection());
+            entries.add(entry);
+            created.incrementAndGet();
+            return entry;
+        }
+        catch(SQLException | RuntimeException e)
+        {
+            size.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for a connection to be returned to the pool.
+     */
+    private Entry await(long deadline)
+        throws SQLException
+    {
+        waiters.incrementAndGet();
+        try
+        {
+            Entry entry = take();
+            if(entry != null)
+            {
+                return entry;
+            }
+            long remaining = deadline - System.nanoTime();
+            if(remaining <= 0)
+            {
+                timeouts.incrementAndGet();
+                throw new SQLTimeoutException("no connection available within "
+                    + config.getBorrowTimeout() + "ms, " + active.get() + " connections in use");
+            }
+            entry = handoff.poll(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(HANDOFF_SLICE)),
+                TimeUnit.NANOSECONDS);
+            if(entry != null && entry.state.compareAndSet(IDLE, IN_USE))
+            {
+                return entry;
+            }
+            return null;
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for a connection", e);
+        }
+        finally
+        {
+            waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Checks a connection that is about to be borrowed.
+     */
+    private boolean prepare(Entry entry)
+    {
+        long now = System.currentTimeMillis();
+        if(expired(entry, now))
+        {
+            return false;
+        }
+        if(now - entry.returned >= config.getValidationIdleTime())
+        {
+            try
+            {
+                if(config.getValidationQuery() != null)
+                {
+                    try(Statement stmt = entry.connection.createStatement())
+                    {
+                        stmt.setQueryTimeout(config.getValidationTimeout());
+                        stmt.executeQuery(config.getValidationQuery()).close();
+                    }
+                }
+                else if(!entry.connection.isValid(config.getValidationTimeout()))
+                {
+                    return false;
+                }
+            }
+            catch(SQLException e)
+            {
+                log.debug("connection validation failed", e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean expired(Entry entry, long now)
+    {
+        return config.getMaxLifetime() > 0 && now - entry.created >= config.getMaxLifetime();
+    }
+
+    /**
+     * Returns a borrowed connection to the pool.
+     */
+    private void release(Entry entry)
+    {
+        active.decrementAndGet();
+        entry.borrowStack = null;
+        boolean reusable = !shutdown && !expired(entry, System.currentTimeMillis());
+        if(reusable)
+        {
+            try
+            {
+                if(!entry.connection.getAutoCommit())
+                {
+                    entry.connection.rollback();
+                    entry.connection.setAutoCommit(true);
+                }
+                if(entry.changed)
+                {
+                    entry.connection.setReadOnly(entry.readOnly);
+                    entry.connection.setTransactionIsolation(entry.isolation);
+                    entry.changed = false;
+                }
+                entry.connection.clearWarnings();
+            }
+            catch(SQLException e)
+            {
+                log.warn("failed to reset returned connection", e);
+                reusable = false;
+            }
+        }
+        if(!reusable)
+        {
+            discard(entry);
+            return;
+        }
+        entry.returned = System.currentTimeMillis();
+        entry.state.set(IDLE);
+        if(waiters.get() > 0)
+        {
+            handoff.offer(entry);
+        }
+    }
+
+    /**
+     * Removes a borrowed connection from the pool.
+     */
+    private void discard(Entry entry)
+    {
+        entry.state.set(REMOVED);
+        close(entry);
+    }
+
+    private void close(Entry entry)
+    {
+        entries.remove(entry);
+        size.decrementAndGet();
+        closed.incrementAndGet();
+        try
+        {
+            entry.connection.close();
+        }
+        catch(SQLException e)
+        {
+            log.warn("failed to close connection", e);
+        }
+    }
+
+    /**
+     * Closes expired and excess idle connections, opens connections up to the minimum idle count
+     * and reports leaked connections.
+     */
+    void housekeeping()
+    {
+        long now = System.currentTimeMillis();
+        int idle = getIdleCount();
+        Iterator<Entry> i = entries.iterator();
+        while(i.hasNext())
+        {
+            Entry entry = i.next();
+            int state = entry.state.get();
+            if(state == IDLE)
+            {
+                boolean excess = idle > config.getMinIdle() && config.getIdleTimeout() > 0
+                    && now - entry.returned >= config.getIdleTimeout();
+                if((excess || expired(entry, now)) && entry.state.compareAndSet(IDLE, REMOVED))
+                {
+                    close(entry);
+                    idle--;
+                }
+            }
+            else if(state == IN_USE && config.getLeakDetectionThreshold() > 0
+                && !entry.leakReported
+                && now - entry.borrowed >= config.getLeakDetectionThreshold())
+            {
+                Exception stack = entry.borrowStack;
+                if(stack != null)
+                {
+                    entry.leakReported = true;
+                    leaks.incrementAndGet();
+                    log.warn("connection not returned to the pool after " + (now - entry.borrowed)
+                        + "ms, possible leak", stack);
+                }
+            }
+        }
+        while(!shutdown && getIdleCount() < config.getMinIdle())
+        {
+            try
+            {
+                Entry entry = create();
+                if(entry == null)
+                {
+                    break;
+                }
+                entry.returned = System.currentTimeMillis();
+                entry.state.set(IDLE);
+            }
+            catch(SQLException e)
+            {
+                log.error("failed to open connection", e);
+                break;
+            }
+        }
+    }
+
+    /**
+     * A pooled physical connection.
+     */
+    private static class Entry
+    {
+        private final Connection connection;
+
+        private final AtomicInteger state = new AtomicInteger(IN_USE);
+
+        private final long created = System.currentTimeMillis();
+
+        private volatile long returned = created;
+
+        private volatile long borrowed;
+
+        private volatile Exception borrowStack;
+
+        private volatile boolean leakReported;
+
+        /** whether read-only flag or isolation level were changed by the borrower. */
+        private volatile boolean changed;
+
+        private volatile boolean readOnly;
+
+        private volatile int isolation;
+
+        Entry(Connection connection)
+        {
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * Connection wrapper returning the physical connection to the pool when closed.
+     */
+    private class PooledConnection
+        extends DelegatingConnection
+    {
+        private final Entry entry;
+
+        private boolean closed = false;
+
+        PooledConnection(Entry entry)
+        {
+            super(entry.connection);
+            this.entry = entry;
+        }
+
+        @Override
+        public void close()
+            throws SQLException
+        {
+            if(!closed)
+            {
+                closed = true;
+                release(entry);
+            }
+        }
+
+        @Override
+        public boolean isClosed()
+            throws SQLException
+        {
+            return closed || super.isClosed();
+        }
+
+        @Override
+        public void setReadOnly(boolean readOnly)
+            throws SQLException
+        {
+            saveSettings();
+            super.setReadOnly(readOnly);
+        }
+
+        @Override
+        public void setTransactionIsolation(int level)
+            throws SQLException
+        {
+            saveSettings();
+            super.setTransactionIsolation(level);
+        }
+
+        /**
+         * Remembers the original settings of the connection before they are first changed, so
+         * that they can be restored when the connection is returned to the pool.
+         */
+        private void saveSettings()
+            throws SQLException
+        {
+            if(!entry.changed)
+            {
+                entry.readOnly = entry.connection.isReadOnly();
+                entry.isolation = entry.connection.getTransactionIsolation();
+                entry.changed = true;
+            }
+        }
+    }
+
+    private class HousekeepingTask
+        extends Task
+    {
+        /**
+         * {@inheritDoc}
+         */
+        public String getName()
+        {
+            return "Connection pool housekeeping";
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void process(Context context)
+            throws ProcessingException
+        {
+            while(!Thread.interrupted() && !shutdown)
+            {
+                try
+                {
+                    housekeeping();
+                }
+                catch(RuntimeException e)
+                {
+                    log.error("connection pool housekeeping failed", e);
+                }
+                try
+                {
+                    Thread.sleep(config.getHousekeepingInterval());
+                }
+                catch(InterruptedException e)
+                {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * PooledDataSource component configuration.
+     */
+    public static class Config
+    {
+        /** maximum number of open connections. */
+        private int maxSize = 10;
+
+        /** minimum number of idle connections kept open. */
+        private int minIdle = 0;
+
+        /** how long a thread waits for a connection, in milliseconds. */
+        private long borrowTimeout = 30000L;
+
+        /** idle time after which a connection is validated before use, in milliseconds. */
+        private long validationIdleTime = 5000L;
+
+        /** query used for connection validation, {@code null} to use Connection.isValid(). */
+        private String validationQuery = null;
+
+        /** Connection.isValid() timeout, in seconds. */
+        private int validationTimeout = 5;
+
+        /** maximum lifetime of a connection, in milliseconds (0 if unlimited). */
+        private long maxLifetime = 1800000L;
+
+        /** idle time after which excess connections are closed, in milliseconds (0 if disabled). */
+        private long idleTimeout = 600000L;
+
+        /** time after which a borrowed connection is reported as leaked (0 if disabled). */
+        private long leakDetectionThreshold = 0L;
+
+        /** interval between housekeeping runs, in milliseconds (0 if disabled). */
+        private long housekeepingInterval = 30000L;
+
+        /**
+         * Create default configuration instance.
+         */
+        public Config()
+        {
+        }
+
+        /**
+         * Create configuration instance based on DNA Configuration.
+         * 
+         * @param config
+         */
+        public Config(Configuration config)
+        {
+            maxSize = config.getChild("maxSize").getValueAsInteger(maxSize);
+            minIdle = config.getChild("minIdle").getValueAsInteger(minIdle);
+            borrowTimeout = config.getChild("borrowTimeout").getValueAsLong(borrowTimeout);
+            validationIdleTime = config.getChild("validationIdleTime").getValueAsLong(
+                validationIdleTime);
+            validationQuery = config.getChild("validationQuery").getValue(validationQuery);
+            validationTimeout = config.getChild("validationTimeout").getValueAsInteger(
+                validationTimeout);
+            maxLifetime = config.getChild("maxLifetime").getValueAsLong(maxLifetime);
+            idleTimeout = config.getChild("idleTimeout").getValueAsLong(idleTimeout);
+            leakDetectionThreshold = config.getChild("leakDetectionThreshold").getValueAsLong(
+                leakDetectionThreshold);
+            housekeepingInterval = config.getChild("housekeepingInterval").getValueAsLong(
+                housekeepingInterval);
+        }
+
+        public int getMaxSize()
+        {
+            return maxSize;
+        }
+
+        public int getMinIdle()
+        {
+            return minIdle;
+        }
+
+        public long getBorrowTimeout()
+        {
+            return borrowTimeout;
+        }
+
+        public long getValidationIdleTime()
+        {
+            return validationIdleTime;
+        }
+
+        public String getValidationQuery()
+        {
+            return validationQuery;
+        }
+
+        public int getValidationTimeout()
+        {
+            return validationTimeout;
+        }
+
+        public long getMaxLifetime()
+        {
+            return maxLifetime;
+        }
+
+        public long getIdleTimeout()
+        {
+            return idleTimeout;
+        }
+
+        public long getLeakDetectionThreshold()
+        {
+            return leakDetectionThreshold;
+        }
+
+        public long getHousekeepingInterval()
+        {
+            return housekeepingInterval;
+        }
+
+        public Config withMaxSize(int maxSize)
+        {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        public Config withMinIdle(int minIdle)
+        {
+            this.minIdle = minIdle;
+            return this;
+        }
+
+        public Config withBorrowTimeout(long borrowTimeout)
+        {
+            this.borrowTimeout = borrowTimeout;
+            return this;
+        }
+
+        public Config withValidationIdleTime(long validationIdleTime)
+        {
+            this.validationIdleTime = validationIdleTime;
+            return this;
+        }
+
+        public Config withValidationQuery(String validationQuery)
+        {
+            this.validationQuery = validationQuery;
+            return this;
+        }
+
+        public Config withValidationTimeout(int validationTimeout)
+        {
+            this.validationTimeout = validationTimeout;
+            return this;
+        }
+
+        public Config withMaxLifetime(long maxLifetime)
+        {
+            this.maxLifetime = maxLifetime;
+            return this;
+        }
+
+        public Config withIdleTimeout(long idleTimeout)
+        {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        public Config withLeakDetectionThreshold(long leakDetectionThreshold)
+        {
+            this.leakDetectionThreshold = leakDetectionThreshold;
+            return this;
+        }
+
+        public Config withHousekeepingInterval(long housekeepingInterval)
+        {
+            this.housekeepingInterval = housekeepingInterval;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,751 @@
+// 
+// Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+// All rights reserved. 
+// 
+// Redistribution and use in source and binary forms, with or without modification,  
+// are permitted provided that the following conditions are met: 
+//  
+// * Redistributions of source code must retain the above copyright notice,  
+//	 this list of conditions and the following disclaimer. 
+// * Redistributions in binary form must reproduce the above copyright notice,  
+//	 this list of conditions and the following disclaimer in the documentation  
+//	 and/or other materials provided with the distribution. 
+// * Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//	 nor the names of its contributors may be used to endorse or promote products  
+//	 derived from this software without specific prior written permission. 
+// 
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+// IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+// WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+// POSSIBILITY OF SUCH DAMAGE. 
+// 
+package org.objectledge.database;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.jcontainer.dna.Configuration;
+import org.jcontainer.dna.Logger;
+import org.objectledge.context.Context;
+import org.objectledge.database.impl.DelegatingConnection;
+import org.objectledge.database.impl.DelegatingDataSource;
+import org.objectledge.database.impl.DelegatingStatement;
+import org.objectledge.pipeline.ProcessingException;
+import org.objectledge.pipeline.Valve;
+import org.objectledge.threads.Task;
+import org.objectledge.threads.ThreadPool;
+
+/**
+ * A DataSource that routes connections of read-only requests to read replicas.
+ * <p>
+ * Requests are marked read-only with {@link #setReadOnly(Context, boolean)}, or with
+ * {@link ReadOnlyValve} placed in the pipeline. Connections for read-only requests are taken from
+ * one of the replicas, chosen round robin and kept for the rest of the request. All other
+ * connections are taken from the primary DataSource.
+ * </p>
+ * <p>
+ * When a statement other than a query is prepared on a primary connection, the request, and the
+ * session set with {@link #setSession(Context, Object)}, stay on the primary for the configured
+ * stickiness period so that they can read their own writes. Replicas that fail to provide a
+ * connection, or whose lag reported by the {@link ReplicaLagProbe} exceeds the limit, are skipped
+ * until they recover, and when no replica is available the primary is used. The replicas are
+ * probed by a daemon task run on the ThreadPool, so that requests never wait for the probe. When
+ * no ThreadPool is given, the probe is run by the first request after the probe interval passes.
+ * </p>
+ * <p>
+ * The component should be placed below {@link ThreadDataSource}, so that the routing decision is
+ * made when the thread's connection is acquired.
+ * </p>
+ */
+public class RoutingDataSource
+    extends DelegatingDataSource
+{
+    /** {@link Context} key of the read-only request flag. */
+    public static final String READ_ONLY = "org.objectledge.database.RoutingDataSource.readOnly";
+
+    /** {@link Context} key of the session identifier used for read-your-writes stickiness. */
+    public static final String SESSION = "org.objectledge.database.RoutingDataSource.session";
+
+    /** {@link Context} key of the replica chosen for the current request. */
+    private static final String REPLICA = "org.objectledge.database.RoutingDataSource.replica";
+
+    /** {@link Context} key of the flag set after a write in the current request. */
+    private static final String WRITTEN = "org.objectledge.database.RoutingDataSource.written";
+
+    /** Number of tracked sessions above which expired entries are purged. */
+    private static final int MAX_SESSIONS = 10000;
+
+    /** Shortest pause between the rounds of the lag probe task, in milliseconds. */
+    private static final long MIN_PROBE_INTERVAL = 10L;
+
+    private final Replica[] replicas;
+
+    private final Context context;
+
+    private final Config config;
+
+    private final ReplicaLagProbe lagProbe;
+
+    private final Logger log;
+
+    private final boolean probeTask;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final ConcurrentMap<Object, Long> lastWrite = new ConcurrentHashMap<Object, Long>();
+
+    /**
+     * Creates a RoutingDataSource instance.
+     * 
+     * @param primary the primary DataSource.
+     * @param replicas the replica DataSources.
+     * @param config component's configuration.
+     * @param context thread's processing context.
+     * @param lagProbe replication lag probe (may be null, to use the configured lag query).
+     * @param threadPool the ThreadPool for running lag probe task (may be null).
+     * @param log the logger.
+     */
+    public RoutingDataSource(DataSource primary, DataSource[] replicas, Config config,
+        Context context, ReplicaLagProbe lagProbe, ThreadPool threadPool, Logger log)
+    {
+        super(primary);
+        this.replicas = new Replica[replicas.length];
+        for(int i = 0; i < replicas.length; i++)
+        {
+            this.replicas[i] = new Replica(replicas[i], i);
+        }
+        this.config = config;
+        this.context = context;
+        if(lagProbe == null && config.getLagQuery() != null)
+        {
+            lagProbe = new QueryLagProbe(config.getLagQuery(), config.getProbeTimeout());
+        }
+        this.lagProbe = lagProbe;
+        this.log = log;
+        this.probeTask = lagProbe != null && threadPool != null;
+        if(probeTask)
+        {
+            threadPool.runDaemon(new LagProbeTask());
+        }
+    }
+
+    /**
+     * Creates a RoutingDataSource instance.
+     * 
+     * @param primary the primary DataSource.
+     * @param replicas the replica DataSources.
+     * @param config component's configuration.
+     * @param context thread's processing context.
+     * @param threadPool the ThreadPool for running lag probe task.
+     * @param log the logger.
+     */
+    public RoutingDataSource(DataSource primary, DataSource[] replicas, Configuration config,
+        Context context, ThreadPool threadPool, Logger log)
+    {
+        this(primary, replicas, new Config(config), context, null, threadPool, log);
+    }
+
+    // DataSource interface /////////////////////////////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public Connection getConnection()
+        throws SQLException
+    {
+        Replica replica = route();
+        if(replica != null)
+        {
+            try
+            {
+                return replica.dataSource.getConnection();
+            }
+            catch(SQLException e)
+            {
+                failed(replica, e);
+            }
+        }
+        return new PrimaryConnection(getDelegate().getConnection());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Connection getConnection(String user, String password)
+        throws SQLException
+    {
+        Replica replica = route();
+        if(replica != null)
+        {
+            try
+            {
+                return replica.dataSource.getConnection(user, password);
+            }
+            catch(SQLException e)
+            {
+                failed(replica, e);
+            }
+        }
+        return new PrimaryConnection(getDelegate().getConnection(user, password));
+    }
+
+    // request state ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Marks the current request as read-only.
+     * 
+     * @param context thread's processing context.
+     * @param readOnly <code>true</code> to route the request's connections to replicas.
+     */
+    public static void setReadOnly(Context context, boolean readOnly)
+    {
+        context.setAttribute(READ_ONLY, Boolean.valueOf(readOnly));
+    }
+
+    /**
+     * Checks if the current request is marked read-only.
+     * 
+     * @param context thread's processing context.
+     * @return <code>true</code> if the request is marked read-only.
+     */
+    public static boolean isReadOnly(Context context)
+    {
+        return Boolean.TRUE.equals(context.getAttribute(READ_ONLY));
+    }
+
+    /**
+     * Associates the current request with a session, for read-your-writes stickiness across
+     * requests.
+     * 
+     * @param context thread's processing context.
+     * @param session session identifier.
+     */
+    public static void setSession(Context context, Object session)
+    {
+        context.setAttribute(SESSION, session);
+    }
+
+    /**
+     * Returns the index of the replica serving the current request.
+     * 
+     * @return replica index, or -1 if the request uses the primary DataSource.
+     */
+    public int getCurrentReplica()
+    {
+        Replica replica = (Replica)context.getAttribute(REPLICA);
+        return replica != null ? replica.index : -1;
+    }
+
+    /**
+     * Pipeline valve that marks the request as read-only.
+     */
+    public static class ReadOnlyValve
+        implements Valve
+    {
+        /**
+         * {@inheritDoc}
+         */
+        public void process(Context context)
+            throws ProcessingException
+        {
+            setReadOnly(context, true);
+        }
+    }
+
+    // implementation ///////////////////////////////////////////////////////////////////////////
+
+    private Replica route()
+    {
+        if(replicas.length == 0 || !isReadOnly(context) || isSticky())
+        {
+            return null;
+        }
+        Replica replica = (Replica)context.getAttribute(REPLICA);
+        if(replica != null && replica.isAvailable())
+        {
+            return replica;
+        }
+        int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        for(int i = 0; i < replicas.length; i++)
+        {
+            replica = replicas[(start + i) % replicas.length];
+            if(replica.isAvailable())
+            {
+                context.setAttribute(REPLICA, replica);
+                return replica;
+            }
+        }
+        context.removeAttribute(REPLICA);
+        return null;
+    }
+
+    private boolean isSticky()
+    {
+        if(context.getAttribute(WRITTEN) != null)
+        {
+            return true;
+        }
+        Object session = context.getAttribute(SESSION);
+        if(session != null)
+        {
+            Long time = lastWrite.get(session);
+            return time != null
+                && System.currentTimeMillis() - time.longValue() < config.getStickiness();
+        }
+        return false;
+    }
+
+    private void written()
+    {
+        context.setAttribute(WRITTEN, Boolean.TRUE);
+        context.removeAttribute(REPLICA);
+        Object session = context.getAttribute(SESSION);
+        if(session != null && config.getStickiness() > 0)
+        {
+            long now = System.currentTimeMillis();
+            lastWrite.put(session, Long.valueOf(now));
+            if(lastWrite.size() > MAX_SESSIONS)
+            {
+                Iterator<Map.Entry<Object, Long>> i = lastWrite.entrySet().iterator();
+                while(i.hasNext())
+                {
+                    if(now - i.next().getValue().longValue() >= config.getStickiness())
+                    {
+                        i.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    private void failed(Replica replica, SQLException e)
+    {
+        replica.failed(e);
+        context.removeAttribute(REPLICA);
+    }
+
+    /**
+     * A replica DataSource and its health state.
+     */
+    private class Replica
+    {
+        private final DataSource dataSource;
+
+        private final int index;
+
+        private final AtomicLong lastProbe = new AtomicLong();
+
+        private volatile boolean lagging = false;
+
+        private volatile long failedUntil = 0L;
+
+        Replica(DataSource dataSource, int index)
+        {
+            this.dataSource = dataSource;
+            this.index = index;
+        }
+
+        boolean isAvailable()
+        {
+            long now = System.currentTimeMillis();
+            if(now < failedUntil)
+            {
+                return false;
+            }
+            long last = lastProbe.get();
+            if(lagProbe != null && !probeTask && now - last >= config.getProbeInterval()
+                && lastProbe.compareAndSet(last, now))
+            {
+                if(!probe())
+                {
+                    context.removeAttribute(REPLICA);
+                    return false;
+                }
+            }
+            return !lagging;
+        }
+
+        /**
+         * Probes the replication lag of the replica.
+         * 
+         * @return <code>false</code> if the probe failed.
+         */
+        boolean probe()
+        {
+            try
+            {
+                long lag = lagProbe.getLag(dataSource);
+                lagging = lag > config.getMaxLag();
+                if(lagging)
+                {
+                    log.warn("replica " + index + " is lagging " + lag + "ms behind primary");
+                }
+                return true;
+            }
+            catch(SQLException e)
+            {
+                lagging = false;
+                failed(e);
+                return false;
+            }
+        }
+
+        void failed(SQLException e)
+        {
+            log.warn("replica " + index + " failed, falling back to primary", e);
+            failedUntil = System.currentTimeMillis() + config.getFailureBackoff();
+        }
+    }
+
+    /**
+     * Daemon task that probes the replication lag of the replicas periodically.
+     */
+    private class LagProbeTask
+        extends Task
+    {
+        /**
+         * {@inheritDoc}
+         */
+        public String getName()
+        {
+            return "Replica lag probe";
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void process(Context context)
+            throws ProcessingException
+        {
+            while(!Thread.interrupted())
+            {
+                for(Replica replica : replicas)
+                {
+                    if(System.currentTimeMillis() >= replica.failedUntil)
+                    {
+                        replica.probe();
+                    }
+                }
+                try
+                {
+                    Thread.sleep(Math.max(config.getProbeInterval(), MIN_PROBE_INTERVAL));
+                }
+                catch(InterruptedException e)
+                {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Primary connection wrapper that detects writes by the statements that are prepared or
+     * executed.
+     */
+    private class PrimaryConnection
+        extends DelegatingConnection
+    {
+        PrimaryConnection(Connection conn)
+        {
+            super(conn);
+        }
+
+        @Override
+        protected Statement wrapStatement(Statement orig)
+        {
+            return new PrimaryStatement(orig);
+        }
+
+        @Override
+        protected PreparedStatement wrapPreparedStatement(PreparedStatement orig, String sql)
+        {
+            if(!StatementFingerprint.of(sql).isRead())
+            {
+                written();
+            }
+            return orig;
+        }
+
+        @Override
+        protected CallableStatement wrapCallableStatement(CallableStatement orig, String sql)
+        {
+            written();
+            return orig;
+        }
+    }
+
+    /**
+     * Primary statement wrapper that detects writes by the statements that are executed.
+     */
+    private class PrimaryStatement
+        extends DelegatingStatement
+    {
+        PrimaryStatement(Statement statement)
+        {
+            super(statement);
+        }
+
+        private void check(String sql)
+        {
+            if(!StatementFingerprint.of(sql).isRead())
+            {
+                written();
+            }
+        }
+
+        @Override
+        public void addBatch(String sql)
+            throws SQLException
+        {
+            check(sql);
+            super.addBatch(sql);
+        }
+
+        @Override
+        public ResultSet executeQuery(String sql)
+            throws SQLException
+        {
+            check(sql);
+            return super.executeQuery(sql);
+        }
+
+        @Override
+        public int executeUpdate(String sql)
+            throws SQLException
+        {
+            check(sql);
+            return super.executeUpdate(sql);
+        }
+
+        @Override
+        public int executeUpdate(String sql, int autoGeneratedKeys)
+            throws SQLException
+        {
+            check(sql);
+            return super.executeUpdate(sql, autoGeneratedKeys);
+        }
+
+        @Override
+        public int executeUpdate(String sql, int[] columnIndexes)
+            throws SQLException
+        {
+            check(sql);
+            return super.executeUpdate(sql, columnIndexes);
+        }
+
+        @Override
+        public int executeUpdate(String sql, String[] columnNames)
+            throws SQLException
+        {
+            check(sql);
+            return super.executeUpdate(sql, columnNames);
+        }
+
+        @Override
+        public boolean execute(String sql)
+            throws SQLException
+        {
+            check(sql);
+            return super.execute(sql);
+        }
+
+        @Override
+        public boolean execute(String sql, int autoGeneratedKeys)
+            throws SQLException
+        {
+            check(sql);
+            return super.execute(sql, autoGeneratedKeys);
+        }
+
+        @Override
+        public boolean execute(String sql, int[] columnIndexes)
+            throws SQLException
+        {
+            check(sql);
+            return super.execute(sql, columnIndexes);
+        }
+
+        @Override
+        public boolean execute(String sql, String[] columnNames)
+            throws SQLException
+        {
+            check(sql);
+            return super.execute(sql, columnNames);
+        }
+    }
+
+    /**
+     * A lag probe that runs a query on the replica, returning the lag in milliseconds in the first
+     * column of the first row.
+     */
+    public static class QueryLagProbe
+        implements ReplicaLagProbe
+    {
+        private final String query;
+
+        private final int timeout;
+
+        /**
+         * Creates a QueryLagProbe instance.
+         * 
+         * @param query the lag query.
+         * @param timeout query timeout in seconds, 0 for no limit.
+         */
+        public QueryLagProbe(String query, int timeout)
+        {
+            this.query = query;
+            this.timeout = timeout;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public long getLag(DataSource replica)
+            throws SQLException
+        {
+            try(Connection conn = replica.getConnection();
+                Statement stmt = conn.createStatement())
+            {
+                stmt.setQueryTimeout(timeout);
+                try(ResultSet rs = stmt.executeQuery(query))
+                {
+                    if(!rs.next())
+                    {
+                        throw new SQLException("lag query returned no rows");
+                    }
+                    return rs.getLong(1);
+                }
+            }
+        }
+    }
+
+    /**
+     * RoutingDataSource component configuration.
+     */
+    public static class Config
+    {
+        /** how long a session stays on the primary after a write, in milliseconds. */
+        private long stickiness = 10000L;
+
+        /** maximum acceptable replication lag, in milliseconds. */
+        private long maxLag = 5000L;
+
+        /** minimum interval between lag probes of a replica, in milliseconds. */
+        private long probeInterval = 1000L;
+
+        /** how long a failed replica is skipped, in milliseconds. */
+        private long failureBackoff = 30000L;
+
+        /** query returning replication lag in milliseconds, {@code null} if disabled. */
+        private String lagQuery = null;
+
+        /** lag query timeout, in seconds. */
+        private int probeTimeout = 5;
+
+        /**
+         * Create default configuration instance.
+         */
+        public Config()
+        {
+        }
+
+        /**
+         * Create configuration instance based on DNA Configuration.
+         * 
+         * @param config
+         */
+        public Config(Configuration config)
+        {
+            stickiness = config.getChild("stickiness").getValueAsLong(stickiness);
+            maxLag = config.getChild("maxLag").getValueAsLong(maxLag);
+            probeInterval = config.getChild("probeInterval").getValueAsLong(probeInterval);
+            failureBackoff = config.getChild("failureBackoff").getValueAsLong(failureBackoff);
+            lagQuery = config.getChild("lagQuery").getValue(lagQuery);
+            probeTimeout = config.getChild("probeTimeout").getValueAsInteger(probeTimeout);
+        }
+
+        public long getStickiness()
+        {
+            return stickiness;
+        }
+
+        public long getMaxLag()
+        {
+            return maxLag;
+        }
+
+        public long getProbeInterval()
+        {
+            return probeInterval;
+        }
+
+        public long getFailureBackoff()
+        {
+            return failureBackoff;
+        }
+
+        public String getLagQuery()
+        {
+            return lagQuery;
+        }
+
+        public int getProbeTimeout()
+        {
+            return probeTimeout;
+        }
+
+        public Config withStickiness(long stickiness)
+        {
+            this.stickiness = stickiness;
+            return this;
+        }
+
+        public Config withMaxLag(long maxLag)
+        {
+            this.maxLag = maxLag;
+            return this;
+        }
+
+        public Config withProbeInterval(long probeInterval)
+        {
+            this.probeInterval = probeInterval;
+            return this;
+        }
+
+        public Config withFailureBackoff(long failureBackoff)
+        {
+            this.failureBackoff = failureBackoff;
+            return this;
+        }
+
+        public Config withLagQuery(String lagQuery)
+        {
+            this.lagQuery = lagQuery;
+            return this;
+        }
+
+        public Config withProbeTimeout(int probeTimeout)
+        {
+            this.probeTimeout = probeTimeout;
+            return this;
+        }
+    }
+}
@@ -1,43 +1,195 @@
 package org.objectledge.database;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.sql.DataSource;
 
+import org.jcontainer.dna.Configuration;
+import org.jcontainer.dna.ConfigurationException;
+
+/**
+ * An IdGenerator using database sequences named after the tables, with a <code>_seq</code>
+ * suffix.
+ * <p>
+ * In block allocation mode, a block of sequence values is fetched in a single round trip, and
+ * handed out to the callers without further database access. Block size is adapted to the
+ * observed allocation rate of each table, so that a block lasts roughly the configured refill
+ * interval, within the configured minimum and maximum size. Sequences keep their increment of
+ * 1 and may still be used by other clients. The values remaining in the blocks are lost when
+ * the application is stopped, leaving gaps in the id space.
+ * </p>
+ */
 public class SequenceIdGenerator
     implements IdGenerator
 {
+    /** Default minimum block size. */
+    public static final int MIN_BLOCK_SIZE_DEFAULT = 1;
+
+    /** Default maximum block size. */
+    public static final int MAX_BLOCK_SIZE_DEFAULT = 1000;
+
+    /** Default target interval between block fetches, in milliseconds. */
+    public static final long REFILL_INTERVAL_DEFAULT = 1000L;
+
     private final DataSource dataSource;
 
     private final String query;
 
+    /** Query fetching multiple values, <code>null</code> if not supported by the database. */
+    private final String blockQuery;
+
+    /** Default block sizing, <code>null</code> when block allocation is disabled. */
+    private final BlockSize defaultSize;
+
+    /** Block sizing of the tables configured explicitly. */
+    private final Map<String, BlockSize> tableSizes = new HashMap<String, BlockSize>();
+
+    /** Block allocators of the tables. */
+    private final ConcurrentMap<String, Allocator> allocators =
+        new ConcurrentHashMap<String, Allocator>();
+
     public SequenceIdGenerator(DataSource dataSource)
         throws SQLException
+    {
+        this(dataSource, (BlockSize)null);
+    }
+
+    /**
+     * Creates a new generator.
+     * 
+     * @param dataSource the data source.
+     * @param config the configuration, enabling block allocation.
+     * @throws SQLException if the database type cannot be detected.
+     * @throws ConfigurationException if the configuration is invalid.
+     */
+    public SequenceIdGenerator(DataSource dataSource, Configuration config)
+        throws SQLException, ConfigurationException
+    {
+        this(dataSource, blockSize(config.getChild("blockAllocation", false), null));
+        Configuration blocks = config.getChild("blockAllocation", false);
+        if(blocks != null)
+        {
+            for(Configuration table : blocks.getChildren("table"))
+            {
+                tableSizes.put(table.getAttribute("name"), blockSize(table, defaultSize));
+            }
+        }
+    }
+
+    /**
+     * Creates a new generator with block allocation enabled for all tables.
+     * 
+     * @param dataSource the data source.
+     * @param minBlockSize minimum block size.
+     * @param maxBlockSize maximum block size.
+     * @param refillInterval target interval between block fetches, in milliseconds.
+     * @throws SQLException if the database type cannot be detected.
+     */
+    public SequenceIdGenerator(DataSource dataSource, int minBlockSize, int maxBlockSize,
+        long refillInterval)
+        throws SQLException
+    {
+        this(dataSource, new BlockSize(minBlockSize, maxBlockSize, refillInterval));
+    }
+
+    private SequenceIdGenerator(DataSource dataSource, BlockSize defaultSize)
+        throws SQLException
     {
         this.dataSource = dataSource;
+        this.defaultSize = defaultSize;
         switch(DatabaseType.detect(dataSource))
         {
         case POSTGRES:
             query = "SELECT nextval('%s_seq')";
+            blockQuery = "SELECT nextval('%s_seq') FROM generate_series(1, ?)";
             break;
         case HSQL:
+            query = "CALL NEXT VALUE FOR %s_seq";
+            blockQuery = "SELECT NEXT VALUE FOR %s_seq FROM UNNEST(SEQUENCE_ARRAY(1, ?, 1))";
+            break;
         case H2:
             query = "CALL NEXT VALUE FOR %s_seq";
+            blockQuery = "SELECT NEXT VALUE FOR %s_seq FROM SYSTEM_RANGE(1, ?)";
             break;
         case DERBY:
             query = "VALUES NEXT VALUE FOR %s_seq";
+            blockQuery = null;
             break;
         default:
             throw new IllegalArgumentException("usupported database type");
         }
     }
 
+    private static BlockSize blockSize(Configuration config, BlockSize defaults)
+        throws ConfigurationException
+    {
+        if(config == null)
+        {
+            return null;
+        }
+        BlockSize size = new BlockSize(config.getAttributeAsInteger("min",
+            defaults != null ? defaults.min : MIN_BLOCK_SIZE_DEFAULT), config.getAttributeAsInteger(
+            "max", defaults != null ? defaults.max : MAX_BLOCK_SIZE_DEFAULT),
+            config.getAttributeAsLong("refillInterval", defaults != null ? defaults.refillInterval
+                : REFILL_INTERVAL_DEFAULT));
+        if(size.min < 1 || size.max < size.min || size.refillInterval <= 0)
+        {
+            throw new ConfigurationException("invalid block size", config.getPath(), config
+                .getLocation());
+        }
+        return size;
+    }
+
     @Override
     public long getNextId(String table)
         throws SQLException
+    {
+        if(defaultSize == null || blockQuery == null)
+        {
+            return fetchId(table);
+        }
+        Allocator allocator = allocators.get(table);
+        if(allocator == null)
+        {
+            BlockSize size = tableSizes.get(table);
+            allocator = new Allocator(table, size != null ? size : defaultSize);
+            Allocator existing = allocators.putIfAbsent(table, allocator);
+            if(existing != null)
+            {
+                allocator = existing;
+            }
+        }
+        return allocator.next();
+    }
+
+    @Override
+    public long[] getNextIds(String table, int count)
+        throws SQLException
+    {
+        if(blockQuery != null && count > 1)
+        {
+            // bulk requests fetch a dedicated block, leaving the allocators alone
+            return fetchIds(table, count);
+        }
+        long[] ids = new long[count];
+        for(int i = 0; i < count; i++)
+        {
+            ids[i] = getNextId(table);
+        }
+        return ids;
+    }
+
+    private long fetchId(String table)
+        throws SQLException
     {
         try(Connection conn = dataSource.getConnection())
         {
@@ -54,4 +206,126 @@ public class SequenceIdGenerator
             }
         }
     }
+
+    private long[] fetchIds(String table, int count)
+        throws SQLException
+    {
+        long[] ids = new long[count];
+        try(Connection conn = dataSource.getConnection())
+        {
+            try(PreparedStatement stmt = conn.prepareStatement(String.format(blockQuery, table)))
+            {
+                stmt.setInt(1, count);
+                try(ResultSet rset = stmt.executeQuery())
+                {
+                    for(int i = 0; i < count; i++)
+                    {
+                        if(!rset.next())
+                        {
+                            throw new SQLException("sequence not found");
+                        }
+                        ids[i] = rset.getLong(1);
+                    }
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Block sizing parameters.
+     */
+    private static class BlockSize
+    {
+        private final int min;
+
+        private final int max;
+
+        private final long refillInterval;
+
+        public BlockSize(int min, int max, long refillInterval)
+        {
+            this.min = min;
+            this.max = max;
+            this.refillInterval = refillInterval;
+        }
+    }
+
+    /**
+     * A block of fetched ids, handed out by incrementing the position.
+     */
+    private static class Block
+    {
+        private final long[] ids;
+
+        private final AtomicInteger position = new AtomicInteger();
+
+        public Block(long[] ids)
+        {
+            this.ids = ids;
+        }
+    }
+
+    /**
+     * Allocates the ids of a single table.
+     */
+    private class Allocator
+    {
+        private final String table;
+
+        private final BlockSize size;
+
+        private volatile Block block = new Block(new long[0]);
+
+        /** Size of the next block, guarded by this. */
+        private int nextSize;
+
+        /** Time the current block was fetched, guarded by this. */
+        private long fetchTime;
+
+        public Allocator(String table, BlockSize size)
+        {
+            this.table = table;
+            this.size = size;
+            this.nextSize = size.min;
+        }
+
+        public long next()
+            throws SQLException
+        {
+            while(true)
+            {
+                Block b = block;
+                int i = b.position.getAndIncrement();
+                if(i < b.ids.length)
+                {
+                    return b.ids[i];
+                }
+                refill(b);
+            }
+        }
+
+        /**
+         * Fetches a new block, unless another thread did it since the exhausted block was seen.
+         */
+        private synchronized void refill(Block exhausted)
+            throws SQLException
+        {
+            if(block != exhausted)
+            {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if(fetchTime > 0)
+            {
+                long elapsed = Math.max(now - fetchTime, 1L);
+                // size the block to last for the refill interval at the observed rate
+                long target = exhausted.ids.length * size.refillInterval / elapsed;
+                nextSize = (int)Math.max(size.min, Math.min(size.max, Math.min(target,
+                    2L * Math.max(exhausted.ids.length, 1))));
+            }
+            block = new Block(fetchIds(table, nextSize));
+            fetchTime = now;
+        }
+    }
 }
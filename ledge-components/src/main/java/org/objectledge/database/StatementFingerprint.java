@@ -0,0 +1,349 @@
+// 
+// Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+// All rights reserved. 
+// 
+// Redistribution and use in source and binary forms, with or without modification,  
+// are permitted provided that the following conditions are met: 
+//  
+// * Redistributions of source code must retain the above copyright notice,  
+//	 this list of conditions and the following disclaimer. 
+// * Redistributions in binary form must reproduce the above copyright notice,  
+//	 this list of conditions and the following disclaimer in the documentation  
+//	 and/or other materials provided with the distribution. 
+// * Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//	 nor the names of its contributors may be used to endorse or promote products  
+//	 derived from this software without specific prior written permission. 
+// 
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+// IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+// WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+// POSSIBILITY OF SUCH DAMAGE. 
+// 
+package org.objectledge.database;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Normalized form of an SQL statement, used for aggregating statement statistics.
+ * <p>
+ * String and numeric literals are replaced with <code>?</code> placeholders, comments are
+ * removed, whitespace is collapsed and lists of placeholders are folded into a single
+ * <code>(?+)</code> marker, so that statements differing only in parameter values share one
+ * fingerprint. Fingerprints of recently seen statement texts are cached, so that the statement
+ * text does not need to be scanned on every execution. When the cache fills up, it is cleared,
+ * so that statements with inlined literals seen once do not crowd out the frequently executed
+ * ones for good.
+ * </p>
+ */
+public class StatementFingerprint
+{
+    /** Maximum number of statement texts with cached fingerprints. */
+    public static final int MAX_CACHED = 10000;
+
+    private static final ConcurrentMap<String, StatementFingerprint> CACHE =
+        new ConcurrentHashMap<String, StatementFingerprint>();
+
+    private final String text;
+
+    private final boolean read;
+
+    private StatementFingerprint(String text)
+    {
+        this.text = text;
+        this.read = text.regionMatches(true, 0, "SELECT", 0, 6);
+    }
+
+    /**
+     * Returns the fingerprint of a statement.
+     * 
+     * @param sql the statement text.
+     * @return the statement's fingerprint.
+     */
+    public static StatementFingerprint of(String sql)
+    {
+        StatementFingerprint fingerprint = CACHE.get(sql);
+        if(fingerprint == null)
+        {
+            fingerprint = new StatementFingerprint(normalize(sql));
+            if(CACHE.size() >= MAX_CACHED)
+            {
+                CACHE.clear();
+            }
+            StatementFingerprint existing = CACHE.putIfAbsent(sql, fingerprint);
+            if(existing != null)
+            {
+                fingerprint = existing;
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Returns the normalized statement text.
+     * 
+     * @return the normalized statement text.
+     */
+    public String getText()
+    {
+        return text;
+    }
+
+    /**
+     * Checks if the statement is a query.
+     * 
+     * @return <code>true</code> for SELECT statements.
+     */
+    public boolean isRead()
+    {
+        return read;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj)
+    {
+        return obj instanceof StatementFingerprint && ((StatementFingerprint)obj).text.equals(text);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode()
+    {
+        return text.hashCode();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return text;
+    }
+
+    // implementation ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Normalizes a statement text.
+     * 
+     * @param sql the statement text.
+     * @return normalized text.
+     */
+    static String normalize(String sql)
+    {
+        StringBuilder buff = new StringBuilder(sql.length());
+        int len = sql.length();
+        int i = 0;
+        while(i < len)
+        {
+            char c = sql.charAt(i);
+            if(Character.isWhitespace(c))
+            {
+                while(i < len && Character.isWhitespace(sql.charAt(i)))
+                {
+                    i++;
+                }
+                space(buff);
+            }
+            else if(c == '-' && i + 1 < len && sql.charAt(i + 1) == '-')
+            {
+                while(i < len && sql.charAt(i) != '\n')
+                {
+                    i++;
+                }
+                space(buff);
+            }
+            else if(c == '/' && i + 1 < len && sql.charAt(i + 1) == '*')
+            {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? len : end + 2;
+                space(buff);
+            }
+            else if(c == '\'')
+            {
+                i++;
+                while(i < len)
+                {
+                    if(sql.charAt(i) == '\'')
+                    {
+                        if(i + 1 < len && sql.charAt(i + 1) == '\'')
+                        {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                i++;
+                placeholder(buff);
+            }
+            else if(c == '"')
+            {
+                int end = sql.indexOf('"', i + 1);
+                end = end < 0 ? len : end + 1;
+                buff.append(sql, i, end);
+                i = end;
+            }
+            else if(Character.isDigit(c) && !identifierEnd(buff))
+            {
+                while(i < len
+                    && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.'))
+                {
+                    i++;
+                }
+                placeholder(buff);
+            }
+            else if(c == '-' && i + 1 < len && Character.isDigit(sql.charAt(i + 1))
+                && operandExpected(buff))
+            {
+                i++;
+            }
+            else
+            {
+                if(c == ')' || c == ',')
+                {
+                    trim(buff);
+                }
+                if(c == ')' && buff.length() > 0 && buff.charAt(buff.length() - 1) == '?')
+                {
+                    foldList(buff);
+                }
+                buff.append(c);
+                if(c == '(')
+                {
+                    i++;
+                    while(i < len && Character.isWhitespace(sql.charAt(i)))
+                    {
+                        i++;
+                    }
+                    continue;
+                }
+                i++;
+            }
+        }
+        trim(buff);
+        return buff.toString();
+    }
+
+    private static void space(StringBuilder buff)
+    {
+        if(buff.length() > 0 && buff.charAt(buff.length() - 1) != ' '
+            && buff.charAt(buff.length() - 1) != '(')
+        {
+            buff.append(' ');
+        }
+    }
+
+    private static void trim(StringBuilder buff)
+    {
+        while(buff.length() > 0 && buff.charAt(buff.length() - 1) == ' ')
+        {
+            buff.setLength(buff.length() - 1);
+        }
+    }
+
+    private static void placeholder(StringBuilder buff)
+    {
+        buff.append('?');
+    }
+
+    private static boolean identifierEnd(StringBuilder buff)
+    {
+        if(buff.length() == 0)
+        {
+            return false;
+        }
+        char last = buff.charAt(buff.length() - 1);
+        return Character.isLetterOrDigit(last) || last == '_' || last == '$' || last == '"';
+    }
+
+    private static boolean operandExpected(StringBuilder buff)
+    {
+        int i = buff.length() - 1;
+        while(i >= 0 && buff.charAt(i) == ' ')
+        {
+            i--;
+        }
+        if(i < 0)
+        {
+            return true;
+        }
+        char last = buff.charAt(i);
+        if("(,=<>+-*/".indexOf(last) >= 0)
+        {
+            return true;
+        }
+        return Character.isLetter(last) && keywordEnd(buff, i);
+    }
+
+    private static boolean keywordEnd(StringBuilder buff, int end)
+    {
+        int start = end;
+        while(start > 0 && Character.isLetterOrDigit(buff.charAt(start - 1)))
+        {
+            start--;
+        }
+        String word = buff.substring(start, end + 1).toUpperCase();
+        return word.equals("AND") || word.equals("OR") || word.equals("NOT")
+            || word.equals("WHERE") || word.equals("SELECT") || word.equals("VALUES")
+            || word.equals("BETWEEN") || word.equals("THEN") || word.equals("ELSE")
+            || word.equals("WHEN") || word.equals("IN") || word.equals("LIKE")
+            || word.equals("LIMIT") || word.equals("OFFSET");
+    }
+
+    /**
+     * Folds a parenthesized, comma separated list of placeholders at the end of the buffer.
+     */
+    private static void foldList(StringBuilder buff)
+    {
+        int i = buff.length() - 1;
+        int count = 0;
+        while(i >= 0)
+        {
+            char c = buff.charAt(i);
+            if(c == '?')
+            {
+                count++;
+                i--;
+                if(i >= 0 && buff.charAt(i) == '+')
+                {
+                    i--;
+                }
+            }
+            else
+            {
+                return;
+            }
+            if(i >= 0 && buff.charAt(i) == '(')
+            {
+                break;
+            }
+            if(i >= 0 && buff.charAt(i) == ' ')
+            {
+                i--;
+            }
+            if(i < 0 || buff.charAt(i) != ',')
+            {
+                return;
+            }
+            i--;
+        }
+        if(i >= 0 && count > 1)
+        {
+            buff.setLength(i + 1);
+            buff.append("?+");
+        }
+    }
+}
@@ -0,0 +1,357 @@
+// 
+// Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+// All rights reserved. 
+// 
+// Redistribution and use in source and binary forms, with or without modification,  
+// are permitted provided that the following conditions are met: 
+//  
+// * Redistributions of source code must retain the above copyright notice,  
+//	 this list of conditions and the following disclaimer. 
+// * Redistributions in binary form must reproduce the above copyright notice,  
+//	 this list of conditions and the following disclaimer in the documentation  
+//	 and/or other materials provided with the distribution. 
+// * Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//	 nor the names of its contributors may be used to endorse or promote products  
+//	 derived from this software without specific prior written permission. 
+// 
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+// IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+// WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+// POSSIBILITY OF SUCH DAMAGE. 
+// 
+package org.objectledge.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Execution statistics of SQL statements, aggregated by {@link StatementFingerprint}.
+ * <p>
+ * All counters are updated without locking, so that recording a statement execution does not
+ * introduce contention between the threads using the database.
+ * </p>
+ */
+public class StatementStatistics
+{
+    /** Maximum number of distinct fingerprints tracked. */
+    public static final int MAX_FINGERPRINTS = 1000;
+
+    /** The fingerprint under which statements are recorded once the limit is reached. */
+    public static final String OTHER = "(other statements)";
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    private final Histogram latency = new Histogram();
+
+    /**
+     * Records a statement execution.
+     * 
+     * @param fingerprint the statement's fingerprint.
+     * @param micros execution time in microseconds.
+     * @param rows number of rows returned or affected.
+     */
+    public void record(StatementFingerprint fingerprint, long micros, long rows)
+    {
+        Entry entry = getEntry(fingerprint.getText());
+        entry.calls.incrementAndGet();
+        entry.rows.addAndGet(rows);
+        entry.time.addAndGet(micros);
+        entry.latency.record(micros);
+        latency.record(micros);
+    }
+
+    /**
+     * Records rows that were fetched from a statement's result set after it was executed.
+     * 
+     * @param fingerprint the statement's fingerprint.
+     * @param rows number of fetched rows.
+     */
+    public void recordRows(StatementFingerprint fingerprint, long rows)
+    {
+        getEntry(fingerprint.getText()).rows.addAndGet(rows);
+    }
+
+    /**
+     * Returns the statements that took the most time to execute.
+     * 
+     * @param count maximum number of entries to return.
+     * @return statistics entries, sorted by descending total execution time.
+     */
+    public List<Entry> getTop(int count)
+    {
+        List<Entry> list = new ArrayList<Entry>(entries.values());
+        Collections.sort(list, new Comparator<Entry>()
+            {
+                public int compare(Entry e1, Entry e2)
+                {
+                    long t1 = e1.getTotalTime();
+                    long t2 = e2.getTotalTime();
+                    return t1 > t2 ? -1 : (t1 < t2 ? 1 : 0);
+                }
+            });
+        return list.size() > count ? list.subList(0, count) : list;
+    }
+
+    /**
+     * Returns the latency histogram of all executed statements.
+     * 
+     * @return the latency histogram.
+     */
+    public Histogram getLatency()
+    {
+        return latency;
+    }
+
+    /**
+     * Discards the collected statistics.
+     */
+    public void reset()
+    {
+        entries.clear();
+        latency.reset();
+    }
+
+    private Entry getEntry(String text)
+    {
+        Entry entry = entries.get(text);
+        if(entry == null)
+        {
+            if(entries.size() >= MAX_FINGERPRINTS)
+            {
+                text = OTHER;
+            }
+            entry = new Entry(text);
+            Entry existing = entries.putIfAbsent(text, entry);
+            if(existing != null)
+            {
+                entry = existing;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Execution statistics of a single statement fingerprint.
+     */
+    public static class Entry
+    {
+        private final String text;
+
+        private final AtomicLong calls = new AtomicLong();
+
+        private final AtomicLong rows = new AtomicLong();
+
+        private final AtomicLong time = new AtomicLong();
+
+        private final Histogram latency = new Histogram();
+
+        private Entry(String text)
+        {
+            this.text = text;
+        }
+
+        /**
+         * Returns the normalized statement text.
+         * 
+         * @return the normalized statement text.
+         */
+        public String getText()
+        {
+            return text;
+        }
+
+        /**
+         * Returns the number of executions.
+         * 
+         * @return the number of executions.
+         */
+        public long getCalls()
+        {
+            return calls.get();
+        }
+
+        /**
+         * Returns the number of rows returned or affected.
+         * 
+         * @return the number of rows.
+         */
+        public long getRows()
+        {
+            return rows.get();
+        }
+
+        /**
+         * Returns the total execution time.
+         * 
+         * @return total execution time in microseconds.
+         */
+        public long getTotalTime()
+        {
+            return time.get();
+        }
+
+        /**
+         * Returns the mean execution time.
+         * 
+         * @return mean execution time in microseconds.
+         */
+        public long getMeanTime()
+        {
+            long c = calls.get();
+            return c > 0 ? time.get() / c : 0;
+        }
+
+        /**
+         * Returns the latency histogram of the statement.
+         * 
+         * @return the latency histogram.
+         */
+        public Histogram getLatency()
+        {
+            return latency;
+        }
+    }
+
+    /**
+     * A log-linear latency histogram.
+     * <p>
+     * Each power of two range of values is divided into {@value #SUB_BUCKETS} equal buckets,
+     * giving a relative error below 12.5% over the whole range of recorded values.
+     * </p>
+     */
+    public static class Histogram
+    {
+        private static final int SUB_BITS = 3;
+
+        /** Number of buckets per power of two. */
+        public static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        private static final int MAX_EXPONENT = 40;
+
+        private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * Records a value.
+         * 
+         * @param value the value, negative values are recorded as 0.
+         */
+        public void record(long value)
+        {
+            if(value < 0)
+            {
+                value = 0;
+            }
+            counts.incrementAndGet(index(value));
+            count.incrementAndGet();
+            long current = max.get();
+            while(value > current && !max.compareAndSet(current, value))
+            {
+                current = max.get();
+            }
+        }
+
+        /**
+         * Returns the number of recorded values.
+         * 
+         * @return the number of recorded values.
+         */
+        public long getCount()
+        {
+            return count.get();
+        }
+
+        /**
+         * Returns the maximum recorded value.
+         * 
+         * @return the maximum recorded value.
+         */
+        public long getMax()
+        {
+            return max.get();
+        }
+
+        /**
+         * Returns the approximate value at the given percentile.
+         * 
+         * @param percentile the percentile, between 0 and 100.
+         * @return the upper bound of the bucket containing the percentile, capped at the
+         *         maximum recorded value, or 0 if no values were recorded.
+         */
+        public long getPercentile(double percentile)
+        {
+            long total = count.get();
+            if(total == 0)
+            {
+                return 0;
+            }
+            long target = Math.max(1, (long)Math.ceil(total * percentile / 100.0));
+            long seen = 0;
+            for(int i = 0; i < BUCKETS; i++)
+            {
+                seen += counts.get(i);
+                if(seen >= target)
+                {
+                    return Math.min(lowest(i + 1) - 1, max.get());
+                }
+            }
+            return max.get();
+        }
+
+        /**
+         * Discards the recorded values.
+         */
+        public void reset()
+        {
+            for(int i = 0; i < BUCKETS; i++)
+            {
+                counts.set(i, 0);
+            }
+            count.set(0);
+            max.set(0);
+        }
+
+        static int index(long value)
+        {
+            if(value < SUB_BUCKETS)
+            {
+                return (int)value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            if(exponent > MAX_EXPONENT)
+            {
+                return BUCKETS - 1;
+            }
+            int sub = (int)(value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        static long lowest(int index)
+        {
+            if(index < SUB_BUCKETS)
+            {
+                return index;
+            }
+            int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+            long sub = index % SUB_BUCKETS;
+            return (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+        }
+    }
+}
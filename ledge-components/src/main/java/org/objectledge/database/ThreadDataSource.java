@@ -33,10 +33,13 @@ import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -47,6 +50,7 @@ import org.jcontainer.dna.Logger;
 import org.objectledge.context.Context;
 import org.objectledge.database.impl.DelegatingConnection;
 import org.objectledge.database.impl.DelegatingDataSource;
+import org.objectledge.database.impl.DelegatingResultSet;
 import org.objectledge.filesystem.FileSystem;
 import org.objectledge.logging.LoggingConfigurator;
 import org.objectledge.pipeline.ProcessingException;
@@ -77,6 +81,14 @@ import org.objectledge.utils.StringUtils;
  * If you are getting messages about threads owning open connectin in the log, you should set the
  * tracing parameters to non-zero value. Bigger values will put more stack frames into the trace.
  * </p>
+ * <p>
+ * When <code>statementCacheSize</code> is set, each connection keeps up to that many prepared
+ * statements, keyed by statement text and result set options. Closing a statement returns it to
+ * the cache, with it's open result set closed and max rows, fetch size, fetch direction and query
+ * timeout restored to their initial values. The least recently used statements are closed when
+ * the cache is full, and the whole cache is discarded when the physical connection is closed.
+ * Use it together with <code>cacheConnection</code> to keep the statements across requests.
+ * </p>
  * 
  * @author <a href="mailto:rafal@caltha.pl">Rafal Krzewski</a>
  * @version $Id: ThreadDataSource.java,v 1.15 2008-01-20 15:17:37 rafal Exp $
@@ -93,7 +105,8 @@ public class ThreadDataSource
     /**
      * {@link org.objectledge.context.Context}key under where open/close tracing buffer is kept.
      */
-    public static final String TRACE_BUFFER = "org.objectledge.database.ThreadDataSource.traceBuffer";
+    public static final String TRACE_BUFFER =
+        "org.objectledge.database.ThreadDataSource.traceBuffer";
 
     /** thread's processing context. */
     private final Context context;
@@ -242,9 +255,8 @@ public class ThreadDataSource
             {
                 if(!suppressNonPostgresWarning)
                 {
-                    log.warn(
-                        "introspection problem, probably not a Postgress connection, or patched driver not avaialable",
-                        e);
+                    log.warn("introspection problem, probably not a Postgress connection, "
+                        + "or patched driver not avaialable", e);
                     suppressNonPostgresWarning = true;
                 }
             }
@@ -371,7 +383,8 @@ public class ThreadDataSource
 
     private boolean validateConnection(Connection conn)
     {
-        if(config.validationQuery != null)
+        // PooledDataSource validates connections that were idle for a while by itself
+        if(config.validationQuery != null && !(getDelegate() instanceof PooledDataSource))
         {
             try(Statement stmt = conn.createStatement())
             {
@@ -634,19 +647,24 @@ public class ThreadDataSource
         }
     }
 
-    void updateStatistics(int reads, int writes, long timeMillis)
+    void updateStatistics(int reads, int writes, long timeMillis, int cacheHits, int cacheMisses)
     {
         if(reads + writes > 0)
         {
             if(statistics != null)
             {
-                statistics.update(reads, writes, timeMillis);
+                statistics.update(reads, writes, timeMillis, cacheHits, cacheMisses);
             }
-            log.info(reads + " reads, " + writes + " writes " + " spent " + timeMillis + "ms");
+            String message = reads + " reads, " + writes + " writes " + " spent " + timeMillis
+                + "ms";
+            if(cacheHits + cacheMisses > 0)
+            {
+                message += ", statement cache " + cacheHits + " hits, " + cacheMisses + " misses";
+            }
+            log.info(message);
             if(!log.equals(statementLog))
             {
-                statementLog.info(reads + " reads, " + writes + " writes " + " spent " + timeMillis
-                    + "ms");
+                statementLog.info(message);
             }
         }
     }
@@ -667,12 +685,41 @@ public class ThreadDataSource
 
         private long startTime;
 
-        private long totalTimeMillis = 0L;
+        private long totalTimeNanos = 0L;
+
+        private int cacheHits = 0;
+
+        private int cacheMisses = 0;
+
+        /** Idle prepared statements, in access order, or null when caching is disabled. */
+        private final Map<String, CachedPreparedStatement.Entry> statementCache;
 
         ThreadConnection(Connection conn, String user)
         {
             super(conn);
             this.user = user;
+            if(config.getStatementCacheSize() > 0)
+            {
+                statementCache = new LinkedHashMap<String, CachedPreparedStatement.Entry>(16,
+                    0.75f, true)
+                    {
+                        @Override
+                        protected boolean removeEldestEntry(
+                            Map.Entry<String, CachedPreparedStatement.Entry> eldest)
+                        {
+                            if(size() > config.getStatementCacheSize())
+                            {
+                                closeStatement(eldest.getValue().getStatement());
+                                return true;
+                            }
+                            return false;
+                        }
+                    };
+            }
+            else
+            {
+                statementCache = null;
+            }
             trace(true, user, refCount);
         }
 
@@ -709,13 +756,16 @@ public class ThreadDataSource
         void startStatement(String sql)
         {
             statementLog.debug(sql);
-            startTime = System.currentTimeMillis();
+            startTime = System.nanoTime();
         }
 
-        void finishStatement(String sql)
+        void finishStatement(String sql, long rows)
         {
-            totalTimeMillis += System.currentTimeMillis() - startTime;
-            if(sql.trim().toUpperCase().startsWith("SELECT"))
+            long time = System.nanoTime() - startTime;
+            totalTimeNanos += time;
+            TransactionMonitor.countStatement();
+            StatementFingerprint fingerprint = StatementFingerprint.of(sql);
+            if(fingerprint.isRead())
             {
                 reads++;
             }
@@ -723,17 +773,166 @@ public class ThreadDataSource
             {
                 writes++;
             }
+            if(statistics != null)
+            {
+                statistics.getStatementStatistics().record(fingerprint, time / 1000, rows);
+            }
+        }
+
+        void finishStatement(String sql, int[] counts)
+        {
+            long rows = 0;
+            if(counts != null)
+            {
+                for(int count : counts)
+                {
+                    if(count > 0)
+                    {
+                        rows += count;
+                    }
+                }
+            }
+            finishStatement(sql, rows);
+        }
+
+        /**
+         * Records a batch of plain statements, accounting the rows of each distinct statement
+         * text separately and splitting the batch execution time evenly among them.
+         * 
+         * @param batch the statements, in the order they were added to the batch.
+         * @param counts update counts returned by the driver, or {@code null} on failure.
+         */
+        void finishStatements(List<String> batch, int[] counts)
+        {
+            long time = System.nanoTime() - startTime;
+            totalTimeNanos += time;
+            TransactionMonitor.countStatement();
+            Map<String, Long> rows = new LinkedHashMap<String, Long>();
+            for(int i = 0; i < batch.size(); i++)
+            {
+                String sql = batch.get(i);
+                long count = counts != null && i < counts.length && counts[i] > 0 ? counts[i] : 0;
+                Long previous = rows.get(sql);
+                rows.put(sql, previous != null ? previous + count : count);
+            }
+            for(Map.Entry<String, Long> entry : rows.entrySet())
+            {
+                StatementFingerprint fingerprint = StatementFingerprint.of(entry.getKey());
+                if(fingerprint.isRead())
+                {
+                    reads++;
+                }
+                else
+                {
+                    writes++;
+                }
+                if(statistics != null)
+                {
+                    statistics.getStatementStatistics().record(fingerprint,
+                        time / 1000 / rows.size(), entry.getValue());
+                }
+            }
+        }
+
+        /**
+         * Wraps a result set to record the number of rows fetched from it when it is closed.
+         * 
+         * @param sql the statement text.
+         * @param rs the result set.
+         * @return wrapped result set.
+         */
+        ResultSet countRows(String sql, ResultSet rs)
+        {
+            if(statistics == null || rs == null)
+            {
+                return rs;
+            }
+            return new RowCounter(rs, StatementFingerprint.of(sql), statistics
+                .getStatementStatistics());
         }
 
         void closeConnection()
             throws SQLException
         {
-            updateStatistics(reads, writes, totalTimeMillis);
+            updateStatistics(reads, writes, totalTimeNanos / 1000000, cacheHits, cacheMisses);
+            if(statementCache != null)
+            {
+                for(CachedPreparedStatement.Entry entry : statementCache.values())
+                {
+                    closeStatement(entry.getStatement());
+                }
+                statementCache.clear();
+            }
             unregisterConnection(getDelegate());
             setCachedConnection(null, user);
             getDelegate().close();
         }
 
+        // statement caching ////////////////////////////////////////////////////////////////////
+
+        /**
+         * Takes an idle statement out of the cache.
+         * 
+         * @param key statement text and options.
+         * @return the statement's cache entry, or <code>null</code> if there is none.
+         */
+        private CachedPreparedStatement.Entry takeStatement(String key)
+        {
+            CachedPreparedStatement.Entry stmt = statementCache.remove(key);
+            if(stmt != null)
+            {
+                cacheHits++;
+            }
+            else
+            {
+                cacheMisses++;
+            }
+            return stmt;
+        }
+
+        /**
+         * Returns a statement closed by the application to the cache.
+         * 
+         * @param key statement text and options.
+         * @param entry the cache entry of the physical statement.
+         * @throws SQLException if the statement could not be reset.
+         */
+        void releaseStatement(String key, CachedPreparedStatement.Entry entry)
+            throws SQLException
+        {
+            if(entry.getStatement().isClosed())
+            {
+                return;
+            }
+            try
+            {
+                entry.reset();
+            }
+            catch(SQLException e)
+            {
+                closeStatement(entry.getStatement());
+                throw e;
+            }
+            CachedPreparedStatement.Entry previous = statementCache.put(key, entry);
+            // another statement with the same key was in use at the same time
+            if(previous != null && previous != entry)
+            {
+                closeStatement(previous.getStatement());
+            }
+        }
+
+        private void closeStatement(PreparedStatement stmt)
+        {
+            try
+            {
+                stmt.close();
+            }
+            catch(SQLException e)
+            {
+                log.error("failed to close cached statement", e);
+            }
+        }
+
         // dependant objects handling ///////////////////////////////////////////////////////////
 
         /**
@@ -773,6 +972,145 @@ public class ThreadDataSource
         {
             leave();
         }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public PreparedStatement prepareStatement(String sql)
+            throws SQLException
+        {
+            if(statementCache == null)
+            {
+                return super.prepareStatement(sql);
+            }
+            CachedPreparedStatement.Entry stmt = takeStatement(sql);
+            if(stmt == null)
+            {
+                stmt = new CachedPreparedStatement.Entry(getDelegate().prepareStatement(sql));
+            }
+            return new CachedPreparedStatement(stmt, sql, sql, this);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys)
+            throws SQLException
+        {
+            if(statementCache == null)
+            {
+                return super.prepareStatement(sql, autoGeneratedKeys);
+            }
+            String key = sql + "|" + autoGeneratedKeys;
+            CachedPreparedStatement.Entry stmt = takeStatement(key);
+            if(stmt == null)
+            {
+                stmt = new CachedPreparedStatement.Entry(getDelegate().prepareStatement(sql,
+                    autoGeneratedKeys));
+            }
+            return new CachedPreparedStatement(stmt, sql, key, this);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public PreparedStatement prepareStatement(String sql, int resultSetType,
+            int resultSetConcurrency)
+            throws SQLException
+        {
+            if(statementCache == null)
+            {
+                return super.prepareStatement(sql, resultSetType, resultSetConcurrency);
+            }
+            String key = sql + "|" + resultSetType + "|" + resultSetConcurrency;
+            CachedPreparedStatement.Entry stmt = takeStatement(key);
+            if(stmt == null)
+            {
+                stmt = new CachedPreparedStatement.Entry(getDelegate().prepareStatement(sql,
+                    resultSetType, resultSetConcurrency));
+            }
+            return new CachedPreparedStatement(stmt, sql, key, this);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public PreparedStatement prepareStatement(String sql, int resultSetType,
+            int resultSetConcurrency, int resultSetHoldability)
+            throws SQLException
+        {
+            if(statementCache == null)
+            {
+                return super.prepareStatement(sql, resultSetType, resultSetConcurrency,
+                    resultSetHoldability);
+            }
+            String key = sql + "|" + resultSetType + "|" + resultSetConcurrency + "|"
+                + resultSetHoldability;
+            CachedPreparedStatement.Entry stmt = takeStatement(key);
+            if(stmt == null)
+            {
+                stmt = new CachedPreparedStatement.Entry(getDelegate().prepareStatement(sql,
+                    resultSetType, resultSetConcurrency, resultSetHoldability));
+            }
+            return new CachedPreparedStatement(stmt, sql, key, this);
+        }
+    }
+
+    /**
+     * Counts the rows fetched from a result set, and records them when the result set is closed.
+     */
+    private static class RowCounter
+        extends DelegatingResultSet
+    {
+        private final StatementFingerprint fingerprint;
+
+        private final StatementStatistics statementStatistics;
+
+        private long rows = 0;
+
+        private boolean closed = false;
+
+        RowCounter(ResultSet rs, StatementFingerprint fingerprint,
+            StatementStatistics statementStatistics)
+        {
+            super(rs);
+            this.fingerprint = fingerprint;
+            this.statementStatistics = statementStatistics;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean next()
+            throws SQLException
+        {
+            boolean next = super.next();
+            if(next)
+            {
+                rows++;
+            }
+            return next;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close()
+            throws SQLException
+        {
+            super.close();
+            if(!closed)
+            {
+                closed = true;
+                statementStatistics.recordRows(fingerprint, rows);
+            }
+        }
     }
 
     /**
@@ -785,15 +1123,23 @@ public class ThreadDataSource
 
         public Statistics(FileSystem fs)
         {
-            graphs = new MuninGraph[] { new StatementCount(fs), new AccessTime(fs) };
+            graphs = new MuninGraph[] { new StatementCount(fs), new AccessTime(fs),
+                            new StatementCache(fs), new StatementLatency(fs),
+                            new TopStatements(fs) };
         }
 
+        private final StatementStatistics statementStatistics = new StatementStatistics();
+
         private int totalReads = 0;
 
         private int totalWrites = 0;
 
         private long totalAccessTime = 0;
 
+        private int totalCacheHits = 0;
+
+        private int totalCacheMisses = 0;
+
         /**
          * {@inheritDoc}
          */
@@ -868,18 +1214,190 @@ public class ThreadDataSource
             }
         }
 
+        public class StatementCache
+            extends AbstractMuninGraph
+        {
+            public StatementCache(FileSystem fs)
+            {
+                super(fs);
+            }
+
+            public String getId()
+            {
+                return "dbStatementCache";
+            }
+
+            /**
+             * Returns number of prepared statements taken from connection statement caches.
+             * 
+             * @return number of statement cache hits.
+             */
+            public int getHits()
+            {
+                return totalCacheHits;
+            }
+
+            /**
+             * Returns number of prepared statements created because they were not cached.
+             * 
+             * @return number of statement cache misses.
+             */
+            public int getMisses()
+            {
+                return totalCacheMisses;
+            }
+        }
+
+        public class StatementLatency
+            extends AbstractMuninGraph
+        {
+            public StatementLatency(FileSystem fs)
+            {
+                super(fs);
+            }
+
+            public String getId()
+            {
+                return "dbStatementLatency";
+            }
+
+            /**
+             * Returns median statement execution time in microseconds.
+             * 
+             * @return median statement execution time.
+             */
+            public long getP50()
+            {
+                return statementStatistics.getLatency().getPercentile(50);
+            }
+
+            /**
+             * Returns 95th percentile of statement execution time in microseconds.
+             * 
+             * @return 95th percentile of statement execution time.
+             */
+            public long getP95()
+            {
+                return statementStatistics.getLatency().getPercentile(95);
+            }
+
+            /**
+             * Returns 99th percentile of statement execution time in microseconds.
+             * 
+             * @return 99th percentile of statement execution time.
+             */
+            public long getP99()
+            {
+                return statementStatistics.getLatency().getPercentile(99);
+            }
+
+            /**
+             * Returns maximum statement execution time in microseconds.
+             * 
+             * @return maximum statement execution time.
+             */
+            public long getMax()
+            {
+                return statementStatistics.getLatency().getMax();
+            }
+        }
+
+        public class TopStatements
+            extends AbstractMuninGraph
+        {
+            public TopStatements(FileSystem fs)
+            {
+                super(fs);
+            }
+
+            public String getId()
+            {
+                return "dbTopStatements";
+            }
+
+            private long getMeanTime(int rank)
+            {
+                List<StatementStatistics.Entry> top = statementStatistics.getTop(rank);
+                return top.size() < rank ? 0 : top.get(rank - 1).getMeanTime();
+            }
+
+            /**
+             * Returns mean execution time of the statement with the highest total time.
+             * 
+             * @return mean execution time in microseconds.
+             */
+            public long getTop1()
+            {
+                return getMeanTime(1);
+            }
+
+            /**
+             * Returns mean execution time of the statement with the 2nd highest total time.
+             * 
+             * @return mean execution time in microseconds.
+             */
+            public long getTop2()
+            {
+                return getMeanTime(2);
+            }
+
+            /**
+             * Returns mean execution time of the statement with the 3rd highest total time.
+             * 
+             * @return mean execution time in microseconds.
+             */
+            public long getTop3()
+            {
+                return getMeanTime(3);
+            }
+
+            /**
+             * Returns mean execution time of the statement with the 4th highest total time.
+             * 
+             * @return mean execution time in microseconds.
+             */
+            public long getTop4()
+            {
+                return getMeanTime(4);
+            }
+
+            /**
+             * Returns mean execution time of the statement with the 5th highest total time.
+             * 
+             * @return mean execution time in microseconds.
+             */
+            public long getTop5()
+            {
+                return getMeanTime(5);
+            }
+        }
+
+        /**
+         * Returns per-statement execution statistics.
+         * 
+         * @return per-statement execution statistics.
+         */
+        public StatementStatistics getStatementStatistics()
+        {
+            return statementStatistics;
+        }
+
         /**
          * Update db access statistics.
          * 
          * @param reads number of performed reads.
          * @param writes number of performed writes.
          * @param accessTime combined duration of these reads and writes.
+         * @param cacheHits number of statements taken from the statement cache.
+         * @param cacheMisses number of statements missing from the statement cache.
          */
-        void update(int reads, int writes, long accessTime)
+        void update(int reads, int writes, long accessTime, int cacheHits, int cacheMisses)
         {
             totalReads += reads;
             totalWrites += writes;
             totalAccessTime += accessTime;
+            totalCacheHits += cacheHits;
+            totalCacheMisses += cacheMisses;
         }
     }
 
@@ -894,7 +1412,10 @@ public class ThreadDataSource
         /** should the thread's connection be cached while unused. */
         private boolean cacheConnection = false;
 
-        /** name of the Logger that should be used to log SQL statements, {@code null} if disabled. */
+        /**
+         * name of the Logger that should be used to log SQL statements, {@code null} if
+         * disabled.
+         */
         private String statementLogName = null;
 
         /** number of times connection acquisition should be retried on error. */
@@ -903,6 +1424,9 @@ public class ThreadDataSource
         /** query to be used for connection validation, {@code null} if disabled. */
         private String validationQuery = "SELECT 1";
 
+        /** number of prepared statements cached per connection (0 if disabled). */
+        private int statementCacheSize = 0;
+
         /**
          * Create default configuration instance.
          */
@@ -922,6 +1446,8 @@ public class ThreadDataSource
             statementLogName = config.getChild("statementLog").getValue(statementLogName);
             retryCount = config.getChild("retryCount").getValueAsInteger(retryCount);
             validationQuery = config.getChild("validationQuery").getValue(validationQuery);
+            statementCacheSize = config.getChild("statementCacheSize").getValueAsInteger(
+                statementCacheSize);
         }
 
         public int getTracing()
@@ -949,6 +1475,11 @@ public class ThreadDataSource
             return validationQuery;
         }
 
+        public int getStatementCacheSize()
+        {
+            return statementCacheSize;
+        }
+
         public Config withTracing(int tracing)
         {
             this.tracing = tracing;
@@ -978,5 +1509,11 @@ public class ThreadDataSource
             this.validationQuery = validationQuery;
             return this;
         }
+
+        public Config withStatementCacheSize(int statementCacheSize)
+        {
+            this.statementCacheSize = statementCacheSize;
+            return this;
+        }
     }
 }
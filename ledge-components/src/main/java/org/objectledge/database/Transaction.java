@@ -75,6 +75,9 @@ public abstract class Transaction
     /** The logger for SQL statements, that will also receive transaction demarcation information. */
     private final Logger statementLog;
 
+    /** The transaction monitor, or null if disabled. */
+    private volatile TransactionMonitor monitor;
+
     /**
      * Constructs a Transaction component.
      * 
@@ -186,6 +189,11 @@ public abstract class Transaction
                 log.error("failed to begin transaction", e);
                 throw (SQLException)new SQLException("failed to begin transaction").initCause(e);
             }
+            TransactionMonitor currentMonitor = monitor;
+            if(currentMonitor != null)
+            {
+                currentMonitor.begin();
+            }
         }
         return controler;
     }
@@ -206,9 +214,11 @@ public abstract class Transaction
             try
             {
                 getUserTransaction().commit();
+                endSpan(true);
             }
             catch(Exception e)
             {
+                endSpan(false);
                 log.error("commit failed", e);
                 throw (SQLException)new SQLException("commit failed").initCause(e);
             }
@@ -228,6 +238,7 @@ public abstract class Transaction
         if(controller)
         {
             timeout.remove(); // reset timeout to default value
+            endSpan(false);
             try
             {
                 getUserTransaction().rollback();
@@ -289,6 +300,26 @@ public abstract class Transaction
     }
     
     // implementation ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Sets the transaction monitor.
+     * 
+     * @param monitor the monitor, or <code>null</code> to disable monitoring.
+     */
+    void setMonitor(TransactionMonitor monitor)
+    {
+        this.monitor = monitor;
+    }
+
+    /**
+     * Records the end of the transaction controlled by the calling thread.
+     * 
+     * @param commit <code>true</code> if the transaction was committed.
+     */
+    private void endSpan(boolean commit)
+    {
+        TransactionMonitor.endCurrent(commit);
+    }
     
     void cleanupState(Context context, Logger log)
     {
@@ -302,6 +333,7 @@ public abstract class Transaction
                 log.error("Thread owns an active transaction.\n"+
                     getTrace(context)+
                     "Rolling the transaction back.");
+                endSpan(false);
                 try
                 {
                     getUserTransaction().rollback();
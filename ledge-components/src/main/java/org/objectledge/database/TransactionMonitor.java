@@ -0,0 +1,616 @@
+// 
+// Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+// All rights reserved. 
+// 
+// Redistribution and use in source and binary forms, with or without modification,  
+// are permitted provided that the following conditions are met: 
+//  
+// * Redistributions of source code must retain the above copyright notice,  
+//	 this list of conditions and the following disclaimer. 
+// * Redistributions in binary form must reproduce the above copyright notice,  
+//	 this list of conditions and the following disclaimer in the documentation  
+//	 and/or other materials provided with the distribution. 
+// * Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//	 nor the names of its contributors may be used to endorse or promote products  
+//	 derived from this software without specific prior written permission. 
+// 
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+// IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+// WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+// POSSIBILITY OF SUCH DAMAGE. 
+// 
+package org.objectledge.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jcontainer.dna.Configuration;
+import org.jcontainer.dna.Logger;
+import org.objectledge.context.Context;
+import org.objectledge.filesystem.FileSystem;
+import org.objectledge.pipeline.ProcessingException;
+import org.objectledge.statistics.AbstractMuninGraph;
+import org.objectledge.statistics.MuninGraph;
+import org.objectledge.statistics.StatisticsProvider;
+import org.objectledge.threads.Task;
+import org.objectledge.threads.ThreadPool;
+import org.picocontainer.Startable;
+
+/**
+ * Records the lifecycle of transactions demarcated using the {@link Transaction} component.
+ * <p>
+ * For every transaction, a span is recorded with the begin and end timestamps, the outcome, the
+ * number of statements executed by the owning thread and the request that started it, as
+ * described by the {@link #REQUEST} context attribute, which needs to be set only when
+ * {@link #isEnabled()} returns <code>true</code>. Durations of finished transactions feed a
+ * histogram, and the currently open transactions can be listed.
+ * </p>
+ * <p>
+ * A watchdog task, run on the ThreadPool, reports transactions open longer than the configured
+ * threshold, together with the current stack trace of the owning thread.
+ * </p>
+ */
+public class TransactionMonitor
+    implements StatisticsProvider, Startable
+{
+    /** {@link Context} key of the description of the request processed by the thread. */
+    public static final String REQUEST = "org.objectledge.database.TransactionMonitor.request";
+
+    /** The span of the transaction controlled by the current thread. */
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<Span>();
+
+    /** Number of started monitors. */
+    private static final AtomicInteger STARTED = new AtomicInteger();
+
+    private final Transaction transaction;
+
+    private final Config config;
+
+    private final Context context;
+
+    private final Logger log;
+
+    private final MuninGraph[] graphs;
+
+    private final ConcurrentHashMap<Span, Boolean> open = new ConcurrentHashMap<Span, Boolean>();
+
+    private final StatementStatistics.Histogram durations = new StatementStatistics.Histogram();
+
+    private final AtomicLong committed = new AtomicLong();
+
+    private final AtomicLong rolledBack = new AtomicLong();
+
+    private final AtomicLong longRunning = new AtomicLong();
+
+    private final ThreadPool threadPool;
+
+    private volatile boolean shutdown = false;
+
+    /**
+     * Creates a TransactionMonitor instance.
+     * 
+     * @param transaction the Transaction component.
+     * @param config component's configuration.
+     * @param context the thread processing context.
+     * @param threadPool the ThreadPool for running the watchdog task (may be null).
+     * @param fs the FileSystem, for loading Munin graph configuration.
+     * @param log the logger.
+     */
+    public TransactionMonitor(Transaction transaction, Config config, Context context,
+        ThreadPool threadPool, FileSystem fs, Logger log)
+    {
+        this.transaction = transaction;
+        this.config = config;
+        this.context = context;
+        this.threadPool = threadPool;
+        this.log = log;
+        graphs = new MuninGraph[] { new TransactionDuration(fs), new TransactionEvents(fs) };
+    }
+
+    /**
+     * Creates a TransactionMonitor instance.
+     * 
+     * @param transaction the Transaction component.
+     * @param config component's configuration.
+     * @param context the thread processing context.
+     * @param threadPool the ThreadPool for running the watchdog task.
+     * @param fs the FileSystem, for loading Munin graph configuration.
+     * @param log the logger.
+     */
+    public TransactionMonitor(Transaction transaction, Configuration config, Context context,
+        ThreadPool threadPool, FileSystem fs, Logger log)
+    {
+        this(transaction, new Config(config), context, threadPool, fs, log);
+    }
+
+    // Startable interface //////////////////////////////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public void start()
+    {
+        transaction.setMonitor(this);
+        STARTED.incrementAndGet();
+        if(threadPool != null && config.getThreshold() > 0)
+        {
+            threadPool.runDaemon(new WatchdogTask());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void stop()
+    {
+        shutdown = true;
+        transaction.setMonitor(null);
+        STARTED.decrementAndGet();
+    }
+
+    // statistics ///////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public MuninGraph[] getGraphs()
+    {
+        return graphs;
+    }
+
+    /**
+     * Returns the currently open transactions.
+     * 
+     * @return the spans of open transactions, the longest running first.
+     */
+    public List<Span> getOpenTransactions()
+    {
+        List<Span> spans = new ArrayList<Span>(open.keySet());
+        Collections.sort(spans, new Comparator<Span>()
+            {
+                public int compare(Span s1, Span s2)
+                {
+                    return s1.beginNanos < s2.beginNanos ? -1 : (s1.beginNanos > s2.beginNanos
+                        ? 1 : 0);
+                }
+            });
+        return spans;
+    }
+
+    /**
+     * Returns the histogram of finished transaction durations.
+     * 
+     * @return the duration histogram, in microseconds.
+     */
+    public StatementStatistics.Histogram getDurations()
+    {
+        return durations;
+    }
+
+    /**
+     * Returns the number of committed transactions.
+     * 
+     * @return the number of committed transactions.
+     */
+    public long getCommittedCount()
+    {
+        return committed.get();
+    }
+
+    /**
+     * Returns the number of rolled back transactions.
+     * 
+     * @return the number of rolled back transactions.
+     */
+    public long getRolledBackCount()
+    {
+        return rolledBack.get();
+    }
+
+    /**
+     * Returns the number of transactions reported by the watchdog.
+     * 
+     * @return the number of long running transactions.
+     */
+    public long getLongRunningCount()
+    {
+        return longRunning.get();
+    }
+
+    /**
+     * Checks if any transaction monitor is running.
+     * 
+     * @return <code>true</code> if transactions are being monitored.
+     */
+    public static boolean isEnabled()
+    {
+        return STARTED.get() > 0;
+    }
+
+    /**
+     * Counts a statement executed by the current thread towards the transaction it controls.
+     */
+    public static void countStatement()
+    {
+        Span span = CURRENT.get();
+        if(span != null)
+        {
+            span.statements.incrementAndGet();
+        }
+    }
+
+    // transaction lifecycle ////////////////////////////////////////////////////////////////////
+
+    /**
+     * Records the beginning of a transaction controlled by the current thread.
+     */
+    void begin()
+    {
+        Object request = context.getAttribute(REQUEST);
+        Span span = new Span(this, Thread.currentThread(), request != null ? request.toString()
+            : null);
+        open.put(span, Boolean.TRUE);
+        CURRENT.set(span);
+    }
+
+    /**
+     * Records the end of the transaction controlled by the current thread, if any.
+     * 
+     * @param commit <code>true</code> if the transaction was committed.
+     */
+    static void endCurrent(boolean commit)
+    {
+        Span span = CURRENT.get();
+        if(span != null)
+        {
+            CURRENT.remove();
+            span.getMonitor().end(span, commit);
+        }
+    }
+
+    /**
+     * Records the end of a transaction.
+     * 
+     * @param span the span of the transaction.
+     * @param commit <code>true</code> if the transaction was committed.
+     */
+    private void end(Span span, boolean commit)
+    {
+        if(open.remove(span) != null)
+        {
+            span.end = System.currentTimeMillis();
+            span.committed = commit;
+            durations.record((System.nanoTime() - span.beginNanos) / 1000);
+            (commit ? committed : rolledBack).incrementAndGet();
+        }
+    }
+
+    /**
+     * Reports transactions open longer than the threshold.
+     */
+    void watchdog()
+    {
+        long now = System.currentTimeMillis();
+        for(Span span : open.keySet())
+        {
+            if(!span.reported && now - span.begin > config.getThreshold())
+            {
+                span.reported = true;
+                longRunning.incrementAndGet();
+                Exception trace = new Exception("stack trace of thread " + span.getThreadName());
+                trace.setStackTrace(span.thread.getStackTrace());
+                log.warn("transaction open for " + (now - span.begin) + "ms, "
+                    + span.getStatementCount() + " statements executed"
+                    + (span.request != null ? ", started by " + span.request : ""), trace);
+            }
+        }
+    }
+
+    // inner classes ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * The record of a transaction's lifecycle.
+     */
+    public static class Span
+    {
+        private final TransactionMonitor monitor;
+
+        private final Thread thread;
+
+        private final String threadName;
+
+        private final String request;
+
+        private final long begin;
+
+        private final long beginNanos;
+
+        private final AtomicInteger statements = new AtomicInteger();
+
+        private volatile long end;
+
+        private volatile boolean committed;
+
+        private volatile boolean reported;
+
+        Span(TransactionMonitor monitor, Thread thread, String request)
+        {
+            this.monitor = monitor;
+            this.thread = thread;
+            this.threadName = thread.getName();
+            this.request = request;
+            this.begin = System.currentTimeMillis();
+            this.beginNanos = System.nanoTime();
+        }
+
+        TransactionMonitor getMonitor()
+        {
+            return monitor;
+        }
+
+        /**
+         * @return the name of the thread that started the transaction.
+         */
+        public String getThreadName()
+        {
+            return threadName;
+        }
+
+        /**
+         * @return the description of the request that started the transaction, or
+         *         <code>null</code> if unknown.
+         */
+        public String getRequest()
+        {
+            return request;
+        }
+
+        /**
+         * @return the begin timestamp.
+         */
+        public long getBegin()
+        {
+            return begin;
+        }
+
+        /**
+         * @return the end timestamp, or 0 if the transaction is still open.
+         */
+        public long getEnd()
+        {
+            return end;
+        }
+
+        /**
+         * @return the duration of the transaction so far, in milliseconds.
+         */
+        public long getDuration()
+        {
+            return (end > 0 ? end : System.currentTimeMillis()) - begin;
+        }
+
+        /**
+         * @return <code>true</code> if the transaction was committed.
+         */
+        public boolean isCommitted()
+        {
+            return committed;
+        }
+
+        /**
+         * @return the number of statements executed within the transaction.
+         */
+        public int getStatementCount()
+        {
+            return statements.get();
+        }
+
+        /**
+         * @return <code>true</code> if the transaction was reported by the watchdog.
+         */
+        public boolean isReported()
+        {
+            return reported;
+        }
+    }
+
+    public class TransactionDuration
+        extends AbstractMuninGraph
+    {
+        public TransactionDuration(FileSystem fs)
+        {
+            super(fs);
+        }
+
+        public String getId()
+        {
+            return "transactionDuration";
+        }
+
+        /**
+         * Returns median transaction duration in microseconds.
+         * 
+         * @return median transaction duration.
+         */
+        public long getP50()
+        {
+            return durations.getPercentile(50);
+        }
+
+        /**
+         * Returns 95th percentile of transaction duration in microseconds.
+         * 
+         * @return 95th percentile of transaction duration.
+         */
+        public long getP95()
+        {
+            return durations.getPercentile(95);
+        }
+
+        /**
+         * Returns 99th percentile of transaction duration in microseconds.
+         * 
+         * @return 99th percentile of transaction duration.
+         */
+        public long getP99()
+        {
+            return durations.getPercentile(99);
+        }
+
+        /**
+         * Returns maximum transaction duration in microseconds.
+         * 
+         * @return maximum transaction duration.
+         */
+        public long getMax()
+        {
+            return durations.getMax();
+        }
+    }
+
+    public class TransactionEvents
+        extends AbstractMuninGraph
+    {
+        public TransactionEvents(FileSystem fs)
+        {
+            super(fs);
+        }
+
+        public String getId()
+        {
+            return "transactionEvents";
+        }
+
+        /**
+         * Returns the number of committed transactions.
+         * 
+         * @return the number of committed transactions.
+         */
+        public long getCommitted()
+        {
+            return committed.get();
+        }
+
+        /**
+         * Returns the number of rolled back transactions.
+         * 
+         * @return the number of rolled back transactions.
+         */
+        public long getRolledBack()
+        {
+            return rolledBack.get();
+        }
+
+        /**
+         * Returns the number of transactions reported by the watchdog.
+         * 
+         * @return the number of long running transactions.
+         */
+        public long getLongRunning()
+        {
+            return longRunning.get();
+        }
+    }
+
+    private class WatchdogTask
+        extends Task
+    {
+        /**
+         * {@inheritDoc}
+         */
+        public String getName()
+        {
+            return "Long transaction watchdog";
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void process(Context context)
+            throws ProcessingException
+        {
+            while(!Thread.interrupted() && !shutdown)
+            {
+                try
+                {
+                    watchdog();
+                }
+                catch(RuntimeException e)
+                {
+                    log.error("transaction watchdog failed", e);
+                }
+                try
+                {
+                    Thread.sleep(config.getInterval());
+                }
+                catch(InterruptedException e)
+                {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * TransactionMonitor component configuration.
+     */
+    public static class Config
+    {
+        /** duration after which an open transaction is reported, in milliseconds (0 if disabled). */
+        private long threshold = 10000L;
+
+        /** interval between watchdog runs, in milliseconds. */
+        private long interval = 1000L;
+
+        /**
+         * Create default configuration instance.
+         */
+        public Config()
+        {
+        }
+
+        /**
+         * Create configuration instance based on DNA Configuration.
+         * 
+         * @param config
+         */
+        public Config(Configuration config)
+        {
+            threshold = config.getChild("threshold").getValueAsLong(threshold);
+            interval = config.getChild("interval").getValueAsLong(interval);
+        }
+
+        public long getThreshold()
+        {
+            return threshold;
+        }
+
+        public long getInterval()
+        {
+            return interval;
+        }
+
+        public Config withThreshold(long threshold)
+        {
+            this.threshold = threshold;
+            return this;
+        }
+
+        public Config withInterval(long interval)
+        {
+            this.interval = interval;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,1825 @@
+// 
+// Copyright (c) 2003-2005, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+// All rights reserved. 
+//   
+// Redistribution and use in source and binary forms, with or without modification,  
+// are permitted provided that the following conditions are met: 
+//   
+// * Redistributions of source code must retain the above copyright notice,  
+// this list of conditions and the following disclaimer. 
+// * Redistributions in binary form must reproduce the above copyright notice,  
+// this list of conditions and the following disclaimer in the documentation  
+// and/or other materials provided with the distribution. 
+// * Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+// nor the names of its contributors may be used to endorse or promote products  
+// derived from this software without specific prior written permission. 
+// 
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+// IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+// WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+// POSSIBILITY OF SUCH DAMAGE. 
+//
+
+package org.objectledge.database.impl;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Map;
+
+/**
+ * A delegation pattern wrapper for java.sql.ResultSet.
+ */
+public class DelegatingResultSet
+    implements ResultSet
+{
+    private final ResultSet resultSet;
+
+    /**
+     * Creates a new DelegatingResultSet instance.
+     *
+     * @param resultSet the delegate result set.
+     */
+    public DelegatingResultSet(final ResultSet resultSet)
+    {
+        this.resultSet = resultSet;
+    }
+
+    /**
+     * Returns the delegate result set.
+     * 
+     * @return the delegate result set.
+     */
+    protected ResultSet getDelegate()
+    {
+        return resultSet;
+    }
+
+    // .. ResultSet .............................................................................
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean next()
+        throws SQLException
+    {
+        return resultSet.next();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close()
+        throws SQLException
+    {
+        resultSet.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean absolute(int row)
+        throws SQLException
+    {
+        return resultSet.absolute(row);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void afterLast()
+        throws SQLException
+    {
+        resultSet.afterLast();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beforeFirst()
+        throws SQLException
+    {
+        resultSet.beforeFirst();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void cancelRowUpdates()
+        throws SQLException
+    {
+        resultSet.cancelRowUpdates();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clearWarnings()
+        throws SQLException
+    {
+        resultSet.clearWarnings();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void deleteRow()
+        throws SQLException
+    {
+        resultSet.deleteRow();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int findColumn(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.findColumn(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean first()
+        throws SQLException
+    {
+        return resultSet.first();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Array getArray(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getArray(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Array getArray(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getArray(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InputStream getAsciiStream(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getAsciiStream(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InputStream getAsciiStream(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getAsciiStream(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Deprecated
+    public BigDecimal getBigDecimal(String columnLabel, int scale)
+        throws SQLException
+    {
+        return resultSet.getBigDecimal(columnLabel, scale);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public BigDecimal getBigDecimal(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getBigDecimal(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Deprecated
+    public BigDecimal getBigDecimal(int columnIndex, int scale)
+        throws SQLException
+    {
+        return resultSet.getBigDecimal(columnIndex, scale);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public BigDecimal getBigDecimal(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getBigDecimal(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InputStream getBinaryStream(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getBinaryStream(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InputStream getBinaryStream(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getBinaryStream(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Blob getBlob(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getBlob(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Blob getBlob(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getBlob(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean getBoolean(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getBoolean(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean getBoolean(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getBoolean(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public byte getByte(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getByte(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public byte getByte(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getByte(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public byte[] getBytes(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getBytes(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public byte[] getBytes(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getBytes(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Reader getCharacterStream(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getCharacterStream(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Reader getCharacterStream(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getCharacterStream(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Clob getClob(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getClob(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Clob getClob(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getClob(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getConcurrency()
+        throws SQLException
+    {
+        return resultSet.getConcurrency();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getCursorName()
+        throws SQLException
+    {
+        return resultSet.getCursorName();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Date getDate(String columnLabel, Calendar cal)
+        throws SQLException
+    {
+        return resultSet.getDate(columnLabel, cal);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Date getDate(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getDate(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Date getDate(int columnIndex, Calendar cal)
+        throws SQLException
+    {
+        return resultSet.getDate(columnIndex, cal);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Date getDate(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getDate(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getDouble(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getDouble(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getDouble(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getDouble(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getFetchDirection()
+        throws SQLException
+    {
+        return resultSet.getFetchDirection();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getFetchSize()
+        throws SQLException
+    {
+        return resultSet.getFetchSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public float getFloat(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getFloat(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public float getFloat(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getFloat(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getHoldability()
+        throws SQLException
+    {
+        return resultSet.getHoldability();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getInt(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getInt(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getInt(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getInt(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLong(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getLong(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLong(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getLong(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResultSetMetaData getMetaData()
+        throws SQLException
+    {
+        return resultSet.getMetaData();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Reader getNCharacterStream(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getNCharacterStream(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Reader getNCharacterStream(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getNCharacterStream(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public NClob getNClob(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getNClob(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public NClob getNClob(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getNClob(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getNString(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getNString(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getNString(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getNString(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public <T> T getObject(String columnLabel, Class<T> type)
+        throws SQLException
+    {
+        return resultSet.getObject(columnLabel, type);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object getObject(String columnLabel, Map<String, Class<?>> map)
+        throws SQLException
+    {
+        return resultSet.getObject(columnLabel, map);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object getObject(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getObject(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public <T> T getObject(int columnIndex, Class<T> type)
+        throws SQLException
+    {
+        return resultSet.getObject(columnIndex, type);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object getObject(int columnIndex, Map<String, Class<?>> map)
+        throws SQLException
+    {
+        return resultSet.getObject(columnIndex, map);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object getObject(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getObject(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Ref getRef(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getRef(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Ref getRef(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getRef(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getRow()
+        throws SQLException
+    {
+        return resultSet.getRow();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public RowId getRowId(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getRowId(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public RowId getRowId(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getRowId(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public SQLXML getSQLXML(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getSQLXML(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public SQLXML getSQLXML(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getSQLXML(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public short getShort(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getShort(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public short getShort(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getShort(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Statement getStatement()
+        throws SQLException
+    {
+        return resultSet.getStatement();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getString(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getString(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getString(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getString(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Time getTime(String columnLabel, Calendar cal)
+        throws SQLException
+    {
+        return resultSet.getTime(columnLabel, cal);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Time getTime(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getTime(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Time getTime(int columnIndex, Calendar cal)
+        throws SQLException
+    {
+        return resultSet.getTime(columnIndex, cal);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Time getTime(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getTime(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Timestamp getTimestamp(String columnLabel, Calendar cal)
+        throws SQLException
+    {
+        return resultSet.getTimestamp(columnLabel, cal);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Timestamp getTimestamp(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getTimestamp(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Timestamp getTimestamp(int columnIndex, Calendar cal)
+        throws SQLException
+    {
+        return resultSet.getTimestamp(columnIndex, cal);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Timestamp getTimestamp(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getTimestamp(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getType()
+        throws SQLException
+    {
+        return resultSet.getType();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public URL getURL(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getURL(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public URL getURL(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getURL(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Deprecated
+    public InputStream getUnicodeStream(String columnLabel)
+        throws SQLException
+    {
+        return resultSet.getUnicodeStream(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Deprecated
+    public InputStream getUnicodeStream(int columnIndex)
+        throws SQLException
+    {
+        return resultSet.getUnicodeStream(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public SQLWarning getWarnings()
+        throws SQLException
+    {
+        return resultSet.getWarnings();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void insertRow()
+        throws SQLException
+    {
+        resultSet.insertRow();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isAfterLast()
+        throws SQLException
+    {
+        return resultSet.isAfterLast();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isBeforeFirst()
+        throws SQLException
+    {
+        return resultSet.isBeforeFirst();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isClosed()
+        throws SQLException
+    {
+        return resultSet.isClosed();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isFirst()
+        throws SQLException
+    {
+        return resultSet.isFirst();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isLast()
+        throws SQLException
+    {
+        return resultSet.isLast();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean last()
+        throws SQLException
+    {
+        return resultSet.last();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void moveToCurrentRow()
+        throws SQLException
+    {
+        resultSet.moveToCurrentRow();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void moveToInsertRow()
+        throws SQLException
+    {
+        resultSet.moveToInsertRow();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean previous()
+        throws SQLException
+    {
+        return resultSet.previous();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void refreshRow()
+        throws SQLException
+    {
+        resultSet.refreshRow();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean relative(int rows)
+        throws SQLException
+    {
+        return resultSet.relative(rows);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean rowDeleted()
+        throws SQLException
+    {
+        return resultSet.rowDeleted();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean rowInserted()
+        throws SQLException
+    {
+        return resultSet.rowInserted();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean rowUpdated()
+        throws SQLException
+    {
+        return resultSet.rowUpdated();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setFetchDirection(int direction)
+        throws SQLException
+    {
+        resultSet.setFetchDirection(direction);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setFetchSize(int rows)
+        throws SQLException
+    {
+        resultSet.setFetchSize(rows);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateArray(String columnLabel, Array x)
+        throws SQLException
+    {
+        resultSet.updateArray(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateArray(int columnIndex, Array x)
+        throws SQLException
+    {
+        resultSet.updateArray(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateAsciiStream(String columnLabel, InputStream x, int length)
+        throws SQLException
+    {
+        resultSet.updateAsciiStream(columnLabel, x, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateAsciiStream(String columnLabel, InputStream x, long length)
+        throws SQLException
+    {
+        resultSet.updateAsciiStream(columnLabel, x, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateAsciiStream(String columnLabel, InputStream x)
+        throws SQLException
+    {
+        resultSet.updateAsciiStream(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateAsciiStream(int columnIndex, InputStream x, int length)
+        throws SQLException
+    {
+        resultSet.updateAsciiStream(columnIndex, x, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateAsciiStream(int columnIndex, InputStream x, long length)
+        throws SQLException
+    {
+        resultSet.updateAsciiStream(columnIndex, x, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateAsciiStream(int columnIndex, InputStream x)
+        throws SQLException
+    {
+        resultSet.updateAsciiStream(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateBigDecimal(String columnLabel, BigDecimal x)
+        throws SQLException
+    {
+        resultSet.updateBigDecimal(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateBigDecimal(int columnIndex, BigDecimal x)
+        throws SQLException
+    {
+        resultSet.updateBigDecimal(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateBinaryStream(String columnLabel, InputStream x, int length)
+        throws SQLException
+    {
+        resultSet.updateBinaryStream(columnLabel, x, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateBinaryStream(String columnLabel, InputStream x, long length)
+        throws SQLException
+    {
+        resultSet.updateBinaryStream(columnLabel, x, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateBinaryStream(String columnLabel, InputStream x)
+        throws SQLException
+    {
+        resultSet.updateBinaryStream(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateBinaryStream(int columnIndex, InputStream x, int length)
+        throws SQLException
+    {
+        resultSet.updateBinaryStream(columnIndex, x, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateBinaryStream(int columnIndex, InputStream x, long length)
+        throws SQLException
+    {
+        resultSet.updateBinaryStream(columnIndex, x, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateBinaryStream(int columnIndex, InputStream x)
+        throws SQLException
+    {
+        resultSet.updateBinaryStream(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateBlob(String columnLabel, InputStream x, long length)
+        throws SQLException
+    {
+        resultSet.updateBlob(columnLabel, x, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateBlob(String columnLabel, InputStream x)
+        throws SQLException
+    {
+        resultSet.updateBlob(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateBlob(String columnLabel, Blob x)
+        throws SQLException
+    {
+        resultSet.updateBlob(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateBlob(int columnIndex, InputStream x, long length)
+        throws SQLException
+    {
+        resultSet.updateBlob(columnIndex, x, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateBlob(int columnIndex, InputStream x)
+        throws SQLException
+    {
+        resultSet.updateBlob(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateBlob(int columnIndex, Blob x)
+        throws SQLException
+    {
+        resultSet.updateBlob(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateBoolean(String columnLabel, boolean x)
+        throws SQLException
+    {
+        resultSet.updateBoolean(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateBoolean(int columnIndex, boolean x)
+        throws SQLException
+    {
+        resultSet.updateBoolean(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateByte(String columnLabel, byte x)
+        throws SQLException
+    {
+        resultSet.updateByte(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateByte(int columnIndex, byte x)
+        throws SQLException
+    {
+        resultSet.updateByte(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateBytes(String columnLabel, byte[] x)
+        throws SQLException
+    {
+        resultSet.updateBytes(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateBytes(int columnIndex, byte[] x)
+        throws SQLException
+    {
+        resultSet.updateBytes(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateCharacterStream(String columnLabel, Reader x, int length)
+        throws SQLException
+    {
+        resultSet.updateCharacterStream(columnLabel, x, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateCharacterStream(String columnLabel, Reader x, long length)
+        throws SQLException
+    {
+        resultSet.updateCharacterStream(columnLabel, x, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateCharacterStream(String columnLabel, Reader x)
+        throws SQLException
+    {
+        resultSet.updateCharacterStream(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateCharacterStream(int columnIndex, Reader x, int length)
+        throws SQLException
+    {
+        resultSet.updateCharacterStream(columnIndex, x, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateCharacterStream(int columnIndex, Reader x, long length)
+        throws SQLException
+    {
+        resultSet.updateCharacterStream(columnIndex, x, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateCharacterStream(int columnIndex, Reader x)
+        throws SQLException
+    {
+        resultSet.updateCharacterStream(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateClob(String columnLabel, Reader x, long length)
+        throws SQLException
+    {
+        resultSet.updateClob(columnLabel, x, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateClob(String columnLabel, Reader x)
+        throws SQLException
+    {
+        resultSet.updateClob(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateClob(String columnLabel, Clob x)
+        throws SQLException
+    {
+        resultSet.updateClob(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateClob(int columnIndex, Reader x, long length)
+        throws SQLException
+    {
+        resultSet.updateClob(columnIndex, x, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateClob(int columnIndex, Reader x)
+        throws SQLException
+    {
+        resultSet.updateClob(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateClob(int columnIndex, Clob x)
+        throws SQLException
+    {
+        resultSet.updateClob(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateDate(String columnLabel, Date x)
+        throws SQLException
+    {
+        resultSet.updateDate(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateDate(int columnIndex, Date x)
+        throws SQLException
+    {
+        resultSet.updateDate(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateDouble(String columnLabel, double x)
+        throws SQLException
+    {
+        resultSet.updateDouble(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateDouble(int columnIndex, double x)
+        throws SQLException
+    {
+        resultSet.updateDouble(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateFloat(String columnLabel, float x)
+        throws SQLException
+    {
+        resultSet.updateFloat(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateFloat(int columnIndex, float x)
+        throws SQLException
+    {
+        resultSet.updateFloat(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateInt(String columnLabel, int length)
+        throws SQLException
+    {
+        resultSet.updateInt(columnLabel, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateInt(int columnIndex, int length)
+        throws SQLException
+    {
+        resultSet.updateInt(columnIndex, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateLong(String columnLabel, long length)
+        throws SQLException
+    {
+        resultSet.updateLong(columnLabel, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateLong(int columnIndex, long length)
+        throws SQLException
+    {
+        resultSet.updateLong(columnIndex, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateNCharacterStream(String columnLabel, Reader x, long length)
+        throws SQLException
+    {
+        resultSet.updateNCharacterStream(columnLabel, x, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateNCharacterStream(String columnLabel, Reader x)
+        throws SQLException
+    {
+        resultSet.updateNCharacterStream(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateNCharacterStream(int columnIndex, Reader x, long length)
+        throws SQLException
+    {
+        resultSet.updateNCharacterStream(columnIndex, x, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateNCharacterStream(int columnIndex, Reader x)
+        throws SQLException
+    {
+        resultSet.updateNCharacterStream(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateNClob(String columnLabel, Reader x, long length)
+        throws SQLException
+    {
+        resultSet.updateNClob(columnLabel, x, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateNClob(String columnLabel, Reader x)
+        throws SQLException
+    {
+        resultSet.updateNClob(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateNClob(String columnLabel, NClob x)
+        throws SQLException
+    {
+        resultSet.updateNClob(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateNClob(int columnIndex, Reader x, long length)
+        throws SQLException
+    {
+        resultSet.updateNClob(columnIndex, x, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateNClob(int columnIndex, Reader x)
+        throws SQLException
+    {
+        resultSet.updateNClob(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateNClob(int columnIndex, NClob x)
+        throws SQLException
+    {
+        resultSet.updateNClob(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateNString(String columnLabel, String x)
+        throws SQLException
+    {
+        resultSet.updateNString(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateNString(int columnIndex, String x)
+        throws SQLException
+    {
+        resultSet.updateNString(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateNull(String columnLabel)
+        throws SQLException
+    {
+        resultSet.updateNull(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateNull(int columnIndex)
+        throws SQLException
+    {
+        resultSet.updateNull(columnIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateObject(String columnLabel, Object x, int scaleOrLength)
+        throws SQLException
+    {
+        resultSet.updateObject(columnLabel, x, scaleOrLength);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateObject(String columnLabel, Object x)
+        throws SQLException
+    {
+        resultSet.updateObject(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateObject(int columnIndex, Object x, int scaleOrLength)
+        throws SQLException
+    {
+        resultSet.updateObject(columnIndex, x, scaleOrLength);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateObject(int columnIndex, Object x)
+        throws SQLException
+    {
+        resultSet.updateObject(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateRef(String columnLabel, Ref x)
+        throws SQLException
+    {
+        resultSet.updateRef(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateRef(int columnIndex, Ref x)
+        throws SQLException
+    {
+        resultSet.updateRef(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateRow()
+        throws SQLException
+    {
+        resultSet.updateRow();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateRowId(String columnLabel, RowId x)
+        throws SQLException
+    {
+        resultSet.updateRowId(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateRowId(int columnIndex, RowId x)
+        throws SQLException
+    {
+        resultSet.updateRowId(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateSQLXML(String columnLabel, SQLXML x)
+        throws SQLException
+    {
+        resultSet.updateSQLXML(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateSQLXML(int columnIndex, SQLXML x)
+        throws SQLException
+    {
+        resultSet.updateSQLXML(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateShort(String columnLabel, short x)
+        throws SQLException
+    {
+        resultSet.updateShort(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateShort(int columnIndex, short x)
+        throws SQLException
+    {
+        resultSet.updateShort(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateString(String columnLabel, String x)
+        throws SQLException
+    {
+        resultSet.updateString(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateString(int columnIndex, String x)
+        throws SQLException
+    {
+        resultSet.updateString(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateTime(String columnLabel, Time x)
+        throws SQLException
+    {
+        resultSet.updateTime(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateTime(int columnIndex, Time x)
+        throws SQLException
+    {
+        resultSet.updateTime(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateTimestamp(String columnLabel, Timestamp x)
+        throws SQLException
+    {
+        resultSet.updateTimestamp(columnLabel, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateTimestamp(int columnIndex, Timestamp x)
+        throws SQLException
+    {
+        resultSet.updateTimestamp(columnIndex, x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean wasNull()
+        throws SQLException
+    {
+        return resultSet.wasNull();
+    }
+
+    // .. Wrapper ...............................................................................
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isWrapperFor(Class<?> iface)
+        throws SQLException
+    {
+        if(iface.isInstance(this))
+        {
+            return true;
+        }
+        else
+        {
+            return iface.isInstance(resultSet) || resultSet.isWrapperFor(iface);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public <T> T unwrap(Class<T> iface)
+        throws SQLException
+    {
+        if(iface.isInstance(this))
+        {
+            return iface.cast(this);
+        }
+        else if(iface.isInstance(resultSet))
+        {
+            return iface.cast(resultSet);
+        }
+        else
+        {
+            return resultSet.unwrap(iface);
+        }
+    }
+}
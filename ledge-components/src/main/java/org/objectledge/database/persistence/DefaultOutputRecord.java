@@ -38,6 +38,7 @@ import java.sql.SQLException;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -63,6 +64,21 @@ public class DefaultOutputRecord
 
     private Map<String, Integer> typeMap = null;
 
+    /** Marks the values not set yet. */
+    private static final Object UNSET = new Object();
+
+    /** The mapping plan of the object's class, if the record matches it. */
+    private MappingPlan plan;
+
+    /** The field values indexed by plan column position, used instead of fields with a plan. */
+    private Object[] values;
+
+    /** Number of plan columns that have values set. */
+    private int assigned;
+
+    /** The values of the object as last loaded or saved, indexed by plan column position. */
+    private Object[] snapshot;
+
     /**
      * Constructs an <code>OutputRecordImpl</code>.
      * 
@@ -70,7 +86,7 @@ public class DefaultOutputRecord
      */
     public DefaultOutputRecord(Persistent object)
     {
-        this(object, null);
+        this(object, (Map<String, Integer>)null);
     }
 
     /**
@@ -85,6 +101,26 @@ public class DefaultOutputRecord
     public DefaultOutputRecord(Persistent object, Map<String, Integer> typeMap)
     {
         this.object = object;
+        this.typeMap = typeMap;
+    }
+
+    /**
+     * Constructs an <code>OutputRecordImpl</code> using the mapping plan of the object's class.
+     * <p>
+     * When the object writes exactly the columns of the plan, pre-rendered statements of the plan
+     * are used. Otherwise the record reverts to building the statements from its contents.
+     * </p>
+     * 
+     * @param object a Persistent object.
+     * @param plan the mapping plan of the object's class.
+     */
+    DefaultOutputRecord(Persistent object, MappingPlan plan)
+    {
+        this.object = object;
+        this.plan = plan;
+        this.typeMap = plan.getTypeMap();
+        values = new Object[plan.size()];
+        Arrays.fill(values, UNSET);
     }
 
     /**
@@ -102,24 +138,38 @@ public class DefaultOutputRecord
     {
         if(typeMap == null)
         {
-            typeMap = new HashMap<String, Integer>();
+            typeMap = getTypeMap(table, conn);
+        }
+        return typeMap.get(DatabaseUtils.adjustIdentifierCase(column, conn));
+    }
 
-            DatabaseMetaData md = conn.getMetaData();
-            ResultSet rs = md.getColumns(null, null,
-                DatabaseUtils.adjustIdentifierCase(table, conn), "%");
-            try
-            {
-                while(rs.next())
-                {
-                    typeMap.put(rs.getString("COLUMN_NAME"), rs.getInt("DATA_TYPE"));
-                }
-            }
-            finally
+    /**
+     * Retrieves the SQL types of a table's columns from database metadata.
+     * 
+     * @param table table name.
+     * @param conn database connection.
+     * @return mapping of column names to SQL types.
+     * @throws SQLException
+     */
+    static Map<String, Integer> getTypeMap(String table, Connection conn)
+        throws SQLException
+    {
+        Map<String, Integer> typeMap = new HashMap<String, Integer>();
+        DatabaseMetaData md = conn.getMetaData();
+        ResultSet rs = md.getColumns(null, null, DatabaseUtils.adjustIdentifierCase(table, conn),
+            "%");
+        try
+        {
+            while(rs.next())
             {
-                DatabaseUtils.close(rs);
+                typeMap.put(rs.getString("COLUMN_NAME"), rs.getInt("DATA_TYPE"));
             }
         }
-        return typeMap.get(DatabaseUtils.adjustIdentifierCase(column, conn));
+        finally
+        {
+            DatabaseUtils.close(rs);
+        }
+        return typeMap;
     }
 
     /**
@@ -132,7 +182,7 @@ public class DefaultOutputRecord
     public void setBoolean(String field, boolean value)
         throws SQLException
     {
-        fields.put(field, value ? Boolean.TRUE : Boolean.FALSE);
+        put(field, value ? Boolean.TRUE : Boolean.FALSE);
     }
 
     /**
@@ -145,7 +195,7 @@ public class DefaultOutputRecord
     public void setByte(String field, byte value)
         throws SQLException
     {
-        fields.put(field, Byte.valueOf(value));
+        put(field, Byte.valueOf(value));
     }
 
     /**
@@ -158,7 +208,7 @@ public class DefaultOutputRecord
     public void setShort(String field, short value)
         throws SQLException
     {
-        fields.put(field, Short.valueOf(value));
+        put(field, Short.valueOf(value));
     }
 
     /**
@@ -171,7 +221,7 @@ public class DefaultOutputRecord
     public void setInteger(String field, int value)
         throws SQLException
     {
-        fields.put(field, Integer.valueOf(value));
+        put(field, Integer.valueOf(value));
     }
 
     /**
@@ -184,7 +234,7 @@ public class DefaultOutputRecord
     public void setLong(String field, long value)
         throws SQLException
     {
-        fields.put(field, Long.valueOf(value));
+        put(field, Long.valueOf(value));
     }
 
     /**
@@ -202,7 +252,7 @@ public class DefaultOutputRecord
             setNull(field);
             return;
         }
-        fields.put(field, value);
+        put(field, value);
     }
 
     /**
@@ -215,7 +265,7 @@ public class DefaultOutputRecord
     public void setFloat(String field, float value)
         throws SQLException
     {
-        fields.put(field, new Float(value));
+        put(field, new Float(value));
     }
 
     /**
@@ -228,7 +278,7 @@ public class DefaultOutputRecord
     public void setDouble(String field, double value)
         throws SQLException
     {
-        fields.put(field, new Double(value));
+        put(field, new Double(value));
     }
 
     /**
@@ -246,7 +296,7 @@ public class DefaultOutputRecord
             setNull(field);
             return;
         }
-        fields.put(field, value);
+        put(field, value);
     }
 
     /**
@@ -266,7 +316,7 @@ public class DefaultOutputRecord
         {
             Base64 encoder = new Base64();
             String encoded = new String(encoder.encode(value), "US-ASCII");
-            fields.put(field, encoded);
+            put(field, encoded);
         }
         catch(Exception e)
         {
@@ -289,7 +339,7 @@ public class DefaultOutputRecord
             setNull(field);
             return;
         }
-        fields.put(field, new java.sql.Date(value.getTime()));
+        put(field, new java.sql.Date(value.getTime()));
     }
 
     /**
@@ -307,7 +357,7 @@ public class DefaultOutputRecord
             setNull(field);
             return;
         }
-        fields.put(field, new Time(value.getTime()));
+        put(field, new Time(value.getTime()));
     }
 
     /**
@@ -325,7 +375,7 @@ public class DefaultOutputRecord
             setNull(field);
             return;
         }
-        fields.put(field, new Timestamp(value.getTime()));
+        put(field, new Timestamp(value.getTime()));
     }
 
     /**
@@ -338,7 +388,7 @@ public class DefaultOutputRecord
     public void setURL(String field, URL value)
         throws SQLException
     {
-        fields.put(field, value);
+        put(field, value);
     }
 
     /**
@@ -351,7 +401,7 @@ public class DefaultOutputRecord
     public void setObject(String field, Object value)
         throws SQLException
     {
-        fields.put(field, value);
+        put(field, value);
     }
 
     /**
@@ -363,7 +413,7 @@ public class DefaultOutputRecord
     public void setNull(String field)
         throws SQLException
     {
-        fields.put(field, null);
+        put(field, null);
     }
 
     // Implementation specific ///////////////////////////////////////////
@@ -372,9 +422,143 @@ public class DefaultOutputRecord
     public <T> void set(String field, T value)
         throws SQLException
     {
+        put(field, value);
+    }
+
+    /**
+     * Stores a field value.
+     * 
+     * @param field the name of the field.
+     * @param value the value of the field.
+     */
+    private void put(String field, Object value)
+    {
+        if(plan != null)
+        {
+            int i = plan.indexOf(field);
+            if(i >= 0)
+            {
+                if(values[i] == UNSET)
+                {
+                    assigned++;
+                }
+                values[i] = value;
+                return;
+            }
+            unplan();
+        }
         fields.put(field, value);
     }
 
+    /**
+     * Checks if the record matches the mapping plan, which is dropped otherwise.
+     * 
+     * @return <code>true</code> if the pre-rendered statements of the plan apply to the record.
+     */
+    private boolean planned()
+    {
+        if(plan != null && assigned < values.length)
+        {
+            unplan();
+        }
+        return plan != null;
+    }
+
+    /**
+     * Moves the values stored by plan column position to the fields.
+     */
+    private void unplan()
+    {
+        for(int i = 0; i < values.length; i++)
+        {
+            if(values[i] != UNSET)
+            {
+                fields.put(plan.getColumn(i), values[i]);
+            }
+        }
+        plan = null;
+        values = null;
+    }
+
+    /**
+     * Sets the values of the object as last loaded or saved.
+     * <p>
+     * When the snapshot is set and the record matches the mapping plan, update statements include
+     * only the columns whose values differ from the snapshot.
+     * </p>
+     * 
+     * @param snapshot the snapshot obtained from {@link #getSnapshot()}.
+     */
+    void setSnapshot(Object snapshot)
+    {
+        if(snapshot instanceof Object[])
+        {
+            this.snapshot = (Object[])snapshot;
+        }
+    }
+
+    /**
+     * Returns the values of the record to be compared with a future state of the object.
+     * 
+     * @return the snapshot, or <code>null</code> if the record does not match the mapping plan.
+     */
+    Object getSnapshot()
+    {
+        return planned() ? values.clone() : null;
+    }
+
+    /**
+     * Returns the positions of non-key columns modified since the snapshot was taken.
+     * 
+     * @return the modified column positions, or <code>null</code> if there is no applicable
+     *         snapshot and all columns should be written.
+     */
+    private BitSet getModified()
+    {
+        if(!planned() || snapshot == null || snapshot.length != values.length)
+        {
+            return null;
+        }
+        BitSet modified = new BitSet(values.length);
+        for(int i = 0; i < values.length; i++)
+        {
+            if(!plan.isKey(i) && !equal(values[i], snapshot[i]))
+            {
+                modified.set(i);
+            }
+        }
+        return modified;
+    }
+
+    private static boolean equal(Object a, Object b)
+    {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Checks if any non-key values were modified since the snapshot was taken.
+     * 
+     * @return <code>true</code> if the record has no snapshot, or any of the non-key values differ
+     *         from the snapshot.
+     */
+    public boolean hasModifiedValues()
+    {
+        BitSet modified = getModified();
+        return modified == null || !modified.isEmpty();
+    }
+
+    /**
+     * @return names of the fields in the order they were set.
+     */
+    String[] getFieldNames()
+    {
+        if(plan != null)
+        {
+            unplan();
+        }
+        return fields.keySet().toArray(new String[fields.size()]);
+    }
+
     /**
      * Builds <code>WHERE</code> clause with contained data.
      * 
@@ -408,6 +592,27 @@ public class DefaultOutputRecord
     PreparedStatement getInsertStatement(Connection conn)
         throws SQLException
     {
+        PreparedStatement stmt = conn.prepareStatement(getInsertSQL());
+        setInsertParameters(stmt);
+        return stmt;
+    }
+
+    /**
+     * Returns the text of an insert statement for the contained data.
+     * <p>
+     * Like with {@link #getUpdateSQL()}, records of the same table containing the same set of
+     * fields produce the same statement text, and can be inserted as a single JDBC batch using
+     * {@link #setInsertParameters(PreparedStatement)}.
+     * </p>
+     * 
+     * @return the statement text.
+     */
+    public String getInsertSQL()
+    {
+        if(planned())
+        {
+            return plan.getInsertSQL();
+        }
         StringBuilder buff = new StringBuilder();
         StringBuilder buff2 = new StringBuilder();
         buff.append("INSERT INTO ");
@@ -427,9 +632,19 @@ public class DefaultOutputRecord
         buff.append(") VALUES (");
         buff.append(buff2.toString());
         buff.append(")");
-        PreparedStatement stmt = conn.prepareStatement(buff.toString());
+        return buff.toString();
+    }
+
+    /**
+     * Sets the parameters of an insert statement created from {@link #getInsertSQL()}.
+     * 
+     * @param stmt the statement.
+     * @throws SQLException if the values could not be set.
+     */
+    public void setInsertParameters(PreparedStatement stmt)
+        throws SQLException
+    {
         setValues(stmt, true, true, 1);
-        return stmt;
     }
 
     /**
@@ -443,6 +658,34 @@ public class DefaultOutputRecord
     PreparedStatement getUpdateStatement(Connection conn)
         throws SQLException
     {
+        PreparedStatement stmt = conn.prepareStatement(getUpdateSQL());
+        setUpdateParameters(stmt);
+        return stmt;
+    }
+
+    /**
+     * Returns the text of an update statement for the contained data.
+     * <p>
+     * Records of the same table containing the same set of fields produce the same statement
+     * text, so their updates can be executed as a single JDBC batch, using
+     * {@link #setUpdateParameters(PreparedStatement)}.
+     * </p>
+     * 
+     * @return the statement text.
+     * @throws SQLException if the statement could not be built.
+     */
+    public String getUpdateSQL()
+        throws SQLException
+    {
+        if(planned())
+        {
+            BitSet modified = getModified();
+            if(modified != null && !modified.isEmpty())
+            {
+                return plan.getUpdateSQL(modified);
+            }
+            return plan.getUpdateSQL();
+        }
         Set<String> keyFields = getKeyFields();
         StringBuilder buff = new StringBuilder();
         buff.append("UPDATE ");
@@ -463,12 +706,29 @@ public class DefaultOutputRecord
         buff.setLength(buff.length() - 2);
         buff.append(" WHERE ");
         buff.append(getWhereClause());
-        PreparedStatement stmt = conn.prepareStatement(buff.toString());
+        return buff.toString();
+    }
+
+    /**
+     * Sets the parameters of an update statement created from {@link #getUpdateSQL()}.
+     * 
+     * @param stmt the statement.
+     * @throws SQLException if the values could not be set.
+     */
+    public void setUpdateParameters(PreparedStatement stmt)
+        throws SQLException
+    {
+        BitSet modified = getModified();
+        if(modified != null && !modified.isEmpty())
+        {
+            int wherePos = plan.setValues(stmt, values, modified, 1);
+            plan.setValues(stmt, values, true, false, wherePos);
+            return;
+        }
         // set non-key values first
         int wherePos = setValues(stmt, false, true, 1);
         // set key values
         setValues(stmt, true, false, wherePos);
-        return stmt;
     }
 
     /**
@@ -490,14 +750,75 @@ public class DefaultOutputRecord
     PreparedStatement getDeleteStatement(Connection conn)
         throws SQLException
     {
+        PreparedStatement stmt = conn.prepareStatement(getDeleteSQL());
+        setDeleteParameters(stmt);
+        return stmt;
+    }
+
+    /**
+     * Returns the text of a <code>DELETE</code> statement for the contained data.
+     * <p>
+     * The statement depends only on the table and key columns, so all records of a table can be
+     * deleted as a single JDBC batch using {@link #setDeleteParameters(PreparedStatement)}.
+     * </p>
+     * 
+     * @return the statement text.
+     * @throws SQLException if the statement could not be built.
+     */
+    public String getDeleteSQL()
+        throws SQLException
+    {
+        if(planned())
+        {
+            return plan.getDeleteSQL();
+        }
         StringBuilder buff = new StringBuilder();
         buff.append("DELETE FROM ");
         buff.append(object.getTable());
         buff.append(" WHERE ");
         buff.append(getWhereClause());
-        PreparedStatement stmt = conn.prepareStatement(buff.toString());
+        return buff.toString();
+    }
+
+    /**
+     * Sets the parameters of a delete statement created from {@link #getDeleteSQL()}.
+     * 
+     * @param stmt the statement.
+     * @throws SQLException if the values could not be set.
+     */
+    public void setDeleteParameters(PreparedStatement stmt)
+        throws SQLException
+    {
+        setKeyParameters(stmt);
+    }
+
+    /**
+     * Returns the text of a <code>SELECT</code> statement fetching the row of the contained data.
+     * 
+     * @return the statement text.
+     * @throws SQLException if the statement could not be built.
+     */
+    public String getSelectSQL()
+        throws SQLException
+    {
+        if(planned())
+        {
+            return plan.getSelectSQL();
+        }
+        return "SELECT * FROM " + object.getTable() + " WHERE " + getWhereClause();
+    }
+
+    /**
+     * Sets the key values of the contained data as the parameters of a statement created from
+     * {@link #getSelectSQL()} or {@link #getDeleteSQL()}.
+     * 
+     * @param stmt the statement.
+     * @throws SQLException if the values could not be set.
+     */
+    public void setKeyParameters(PreparedStatement stmt)
+        throws SQLException
+    {
         setValues(stmt, true, false, 1);
-        return stmt;
     }
 
     /**
@@ -512,6 +833,10 @@ public class DefaultOutputRecord
     int setValues(PreparedStatement stmt, boolean includeKeys, boolean includeNonKeys, int startPos)
         throws SQLException
     {
+        if(planned())
+        {
+            return plan.setValues(stmt, values, includeKeys, includeNonKeys, startPos);
+        }
         Set<String> keyFields = getKeyFields();
         int pos = startPos;
         for(Iterator<String> i = fields.keySet().iterator(); i.hasNext();)
@@ -607,17 +932,36 @@ public class DefaultOutputRecord
 
     boolean containsValue(String field)
     {
+        if(plan != null)
+        {
+            int i = plan.indexOf(field);
+            return i >= 0 && values[i] != UNSET;
+        }
         return fields.containsKey(field);
     }
 
     <T> T getValue(String field, Class<T> clazz)
     {
+        if(plan != null)
+        {
+            int i = plan.indexOf(field);
+            return i >= 0 && values[i] != UNSET ? (T)values[i] : null;
+        }
         T value = (T)fields.get(field);
         return value;
     }
 
-    boolean hasNonKeyValues()
+    /**
+     * Checks if the record contains any values besides the key columns.
+     * 
+     * @return <code>true</code> if there are non-key values to be updated.
+     */
+    public boolean hasNonKeyValues()
     {
+        if(planned())
+        {
+            return plan.hasNonKeyColumns();
+        }
         boolean hasNonKeyValues = false;
         Set<String> keyFields = getKeyFields();
         for(String field : fields.keySet())
@@ -633,6 +977,18 @@ public class DefaultOutputRecord
     @Override
     public String toString()
     {
+        if(plan != null)
+        {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            for(int i = 0; i < values.length; i++)
+            {
+                if(values[i] != UNSET)
+                {
+                    map.put(plan.getColumn(i), values[i]);
+                }
+            }
+            return map.toString();
+        }
         return fields.toString();
     }
 
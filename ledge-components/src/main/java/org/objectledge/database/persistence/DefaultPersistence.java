@@ -34,10 +34,28 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
 
 import org.jcontainer.dna.Logger;
 import org.objectledge.database.Database;
+import org.objectledge.database.DatabaseType;
+import org.objectledge.database.DatabaseUtils;
+import org.objectledge.database.Transaction;
 
 /**
  * Provides Object-Relational DB mapping.
@@ -48,9 +66,32 @@ import org.objectledge.database.Database;
  */
 public class DefaultPersistence implements Persistence
 {
+    /** Maximum number of statements sent to the database in a single batch. */
+    private static final int MAX_BATCH_SIZE = 500;
+
+    /** Maximum number of identifiers matched by a single query, a power of two. */
+    private static final int MAX_IN_LIST = 512;
+
     /** The Database. */
     private Database database;
-    
+
+    /** The Transaction component, or null if transactions are not tracked. */
+    private Transaction transaction;
+
+    /** The logger. */
+    private Logger logger;
+
+    /** Mapping plans of Persistent classes (class -&gt; table -&gt; plan). */
+    private final ConcurrentMap<Class<?>, ConcurrentMap<String, MappingPlan>> plans =
+        new ConcurrentHashMap<Class<?>, ConcurrentMap<String, MappingPlan>>();
+
+    /** Query result cache, or null if disabled. */
+    private volatile QueryResultCache resultCache;
+
+    /** Connections that have autocommit turned off by an open cursor. */
+    private final Set<Connection> cursorConnections =
+        Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+
     /**
      * Component constructor.
      * 
@@ -58,8 +99,26 @@ public class DefaultPersistence implements Persistence
      * @param logger the logger.
      */
     public DefaultPersistence(Database database, Logger logger)
+    {
+        this(database, null, logger);
+    }
+
+    /**
+     * Component constructor.
+     * <p>
+     * When the Transaction component is given, snapshots of {@link DirtyTracking} objects saved
+     * within a transaction are updated only after the transaction commits.
+     * </p>
+     * 
+     * @param database the database.
+     * @param transaction the Transaction component (may be null).
+     * @param logger the logger.
+     */
+    public DefaultPersistence(Database database, Transaction transaction, Logger logger)
     {
         this.database = database;
+        this.transaction = transaction;
+        this.logger = logger;
     }
 
 
@@ -76,12 +135,13 @@ public class DefaultPersistence implements Persistence
     public <V extends Persistent> V load(PersistentFactory<V> factory, long id)
         throws SQLException
     {
+        V obj = newInstance(factory);
+        MappingPlan plan = getPlan(obj);
         try(Connection conn = database.getConnection())
         {
-            V obj;
-            obj = newInstance(factory);
-            try(PreparedStatement statement = DefaultInputRecord.getSelectStatement(obj, conn, id))
+            try(PreparedStatement statement = conn.prepareStatement(plan.getSelectSQL()))
             {
+                statement.setLong(1, id);
                 try(ResultSet rs = statement.executeQuery())
                 {
                     if(!rs.next())
@@ -91,12 +151,143 @@ public class DefaultPersistence implements Persistence
                     InputRecord record = new DefaultInputRecord(rs);
                     obj.setData(record);
                     obj.setSaved(record.getLong(obj.getKeyColumns()[0]));
+                    loaded(obj);
                     return obj;
                 }
             }
         }
     }
 
+    /**
+     * Loads a number of objects from the database by their identifiers.
+     * <p>
+     * Identifiers are matched in chunks using <code>IN</code> lists, padded to a power of two
+     * length so that only a few distinct statements are prepared. On PostgreSQL, each chunk is
+     * bound as a single array parameter instead.
+     * </p>
+     * 
+     * @param factory the object instance factory.
+     * @param ids the identifiers of the objects, possibly containing duplicates.
+     * @return the objects found, in the order of identifiers, and the identifiers of the objects
+     *         that were not found.
+     * @throws SQLException if any exception occured.
+     */
+    public <V extends Persistent> LoadedObjects<V> loadAll(PersistentFactory<V> factory,
+        long[] ids)
+        throws SQLException
+    {
+        V template = newInstance(factory);
+        String[] keys = template.getKeyColumns();
+        if(keys.length != 1)
+        {
+            throw new IllegalArgumentException(template.getTable()
+                + " does not have a single key column");
+        }
+        Set<Long> distinct = new LinkedHashSet<Long>();
+        for(long id : ids)
+        {
+            distinct.add(Long.valueOf(id));
+        }
+        Long[] pending = distinct.toArray(new Long[distinct.size()]);
+        Map<Long, V> byId = new HashMap<Long, V>();
+        try(Connection conn = database.getConnection())
+        {
+            boolean array = DatabaseType.detect(conn) == DatabaseType.POSTGRES;
+            for(int start = 0; start < pending.length; start += MAX_IN_LIST)
+            {
+                int end = Math.min(start + MAX_IN_LIST, pending.length);
+                try(PreparedStatement statement = prepareLoadAll(conn, array, template,
+                    Arrays.copyOfRange(pending, start, end)))
+                {
+                    try(ResultSet rs = statement.executeQuery())
+                    {
+                        while(rs.next())
+                        {
+                            V obj = newInstance(factory);
+                            InputRecord record = new DefaultInputRecord(rs);
+                            obj.setData(record);
+                            long id = record.getLong(keys[0]);
+                            obj.setSaved(id);
+                            loaded(obj);
+                            byId.put(Long.valueOf(id), obj);
+                        }
+                    }
+                }
+            }
+        }
+        List<V> objects = new ArrayList<V>(ids.length);
+        List<Long> missing = new ArrayList<Long>();
+        for(long id : ids)
+        {
+            V obj = byId.get(Long.valueOf(id));
+            if(obj != null)
+            {
+                objects.add(obj);
+            }
+            else if(distinct.remove(Long.valueOf(id)))
+            {
+                missing.add(Long.valueOf(id));
+            }
+        }
+        long[] missingIds = new long[missing.size()];
+        for(int i = 0; i < missingIds.length; i++)
+        {
+            missingIds[i] = missing.get(i).longValue();
+        }
+        return new LoadedObjects<V>(objects, byId, missingIds);
+    }
+
+    /**
+     * Prepares a statement selecting a chunk of objects by identifiers.
+     * 
+     * @param conn the database connection.
+     * @param array <code>true</code> to bind the identifiers as an array parameter.
+     * @param template an object of the requested class.
+     * @param ids the identifiers.
+     * @return the statement.
+     * @throws SQLException if the statement could not be prepared.
+     */
+    private static PreparedStatement prepareLoadAll(Connection conn, boolean array,
+        Persistent template, Long[] ids)
+        throws SQLException
+    {
+        String key = template.getKeyColumns()[0];
+        StringBuilder buff = new StringBuilder();
+        buff.append("SELECT * FROM ").append(template.getTable()).append(" WHERE ").append(key);
+        if(array)
+        {
+            PreparedStatement statement = conn.prepareStatement(buff.append(" = ANY(?)")
+                .toString());
+            try
+            {
+                statement.setArray(1, conn.createArrayOf("bigint", ids));
+            }
+            catch(SQLException e)
+            {
+                DatabaseUtils.close(statement);
+                throw e;
+            }
+            return statement;
+        }
+        // pad the list with the last identifier to reuse statements of the same length
+        int size = Integer.highestOneBit(ids.length);
+        if(size < ids.length)
+        {
+            size <<= 1;
+        }
+        buff.append(" IN (");
+        for(int i = 0; i < size; i++)
+        {
+            buff.append(i > 0 ? ", ?" : "?");
+        }
+        PreparedStatement statement = conn.prepareStatement(buff.append(")").toString());
+        for(int i = 0; i < size; i++)
+        {
+            statement.setLong(i + 1, ids[Math.min(i, ids.length - 1)].longValue());
+        }
+        return statement;
+    }
+
     /**
      * Loads objects from the database.
      * <p>
@@ -132,6 +323,33 @@ public class DefaultPersistence implements Persistence
         Object... parameters)
         throws SQLException
     {
+        QueryResultCache cache = resultCache;
+        if(cache != null)
+        {
+            V obj = newInstance(factory);
+            QueryResultCache.Key key = cache.getKey(obj.getTable(), "SELECT * FROM "
+                + obj.getTable() + (where != null ? " WHERE " + where : ""), parameters);
+            if(key != null)
+            {
+                @SuppressWarnings("unchecked")
+                List<InputRecord> records = (List<InputRecord>)cache.get(key);
+                if(records == null)
+                {
+                    records = loadInputRecords(obj, where, parameters);
+                    cache.put(key, records);
+                }
+                List<V> list = new ArrayList<V>(records.size());
+                for(InputRecord record : records)
+                {
+                    obj.setData(record);
+                    obj.setSaved(record.getLong(obj.getKeyColumns()[0]));
+                    loaded(obj);
+                    list.add(obj);
+                    obj = newInstance(factory);
+                }
+                return list;
+            }
+        }
         try(Connection conn = database.getConnection())
         {
             V obj = newInstance(factory);
@@ -146,6 +364,7 @@ public class DefaultPersistence implements Persistence
                         InputRecord record = new DefaultInputRecord(rs);
                         obj.setData(record);
                         obj.setSaved(record.getLong(obj.getKeyColumns()[0]));
+                        loaded(obj);
                         list.add(obj);
                         obj = newInstance(factory);
                     }
@@ -155,6 +374,66 @@ public class DefaultPersistence implements Persistence
         }
     }
 
+    /**
+     * Opens a cursor loading objects from the database one by one.
+     * <p>
+     * When autocommit is turned off for the cursor, the write methods of this class refuse to
+     * use the same connection until the cursor is closed.
+     * </p>
+     * 
+     * @param factory the object instance factory.
+     * @param fetchSize the number of rows fetched from the database at once.
+     * @param where the where clause to be used in the query, or <code>null</code> to load all
+     *        objects.
+     * @param parameters positional parameters used in where clause.
+     * @return the cursor, that must be closed by the caller unless it is exhausted.
+     * @throws SQLException if any exception occured.
+     */
+    public <V extends Persistent> PersistentCursor<V> loadCursor(PersistentFactory<V> factory,
+        int fetchSize, String where, Object... parameters)
+        throws SQLException
+    {
+        V obj = newInstance(factory);
+        Connection conn = database.getConnection();
+        boolean restoreAutoCommit = false;
+        PreparedStatement statement = null;
+        try
+        {
+            // PostgreSQL driver fetches the whole result set unless in a transaction
+            if(DatabaseType.detect(conn) == DatabaseType.POSTGRES && conn.getAutoCommit())
+            {
+                conn.setAutoCommit(false);
+                restoreAutoCommit = true;
+            }
+            statement = DefaultInputRecord.getSelectStatement(obj, conn, where, parameters);
+            statement.setFetchDirection(ResultSet.FETCH_FORWARD);
+            statement.setFetchSize(fetchSize);
+            ResultSet rs = statement.executeQuery();
+            if(restoreAutoCommit)
+            {
+                cursorConnections.add(conn);
+            }
+            return new Cursor<V>(factory, conn, statement, rs, restoreAutoCommit);
+        }
+        catch(SQLException | RuntimeException e)
+        {
+            DatabaseUtils.close(statement);
+            if(restoreAutoCommit)
+            {
+                try
+                {
+                    conn.setAutoCommit(true);
+                }
+                catch(SQLException ee)
+                {
+                    e.addSuppressed(ee);
+                }
+            }
+            DatabaseUtils.close(conn);
+            throw e;
+        }
+    }
+
     /**
      * Loads data from the database.
      * 
@@ -198,13 +477,13 @@ public class DefaultPersistence implements Persistence
     {
         synchronized (object)
         {
-            DefaultOutputRecord record = new DefaultOutputRecord(object);
-            object.getData(record);
+            DefaultOutputRecord record = newRecord(object);
             try(Connection conn = database.getConnection())
             {
+                checkCursors(conn);
                 if(object.getSaved())
                 {
-                    if(record.hasNonKeyValues())
+                    if(record.hasNonKeyValues() && record.hasModifiedValues())
                     {
                         try(PreparedStatement statement = record.getUpdateStatement(conn))
                         {
@@ -213,6 +492,11 @@ public class DefaultPersistence implements Persistence
                             {
                                 insertRecord(object, record, conn);
                             }
+                            else
+                            {
+                                written(object.getTable());
+                                saved(object, record);
+                            }
                         }
                     }
                 }
@@ -248,6 +532,322 @@ public class DefaultPersistence implements Persistence
             statement.execute();
             object.setSaved(id);
         }
+        written(table);
+        saved(object, record);
+    }
+
+    /**
+     * Saves a number of objects in the database.
+     * 
+     * @param objects the objects to be saved.
+     * @throws SQLException if any exception occured.
+     */
+    public void saveAll(Collection<? extends Persistent> objects)
+        throws SQLException
+    {
+        // statement text -> records, objects in the same order
+        Map<String, List<DefaultOutputRecord>> updates =
+            new LinkedHashMap<String, List<DefaultOutputRecord>>();
+        Map<String, List<Persistent>> updated = new LinkedHashMap<String, List<Persistent>>();
+        List<DefaultOutputRecord> inserts = new ArrayList<DefaultOutputRecord>();
+        List<Persistent> inserted = new ArrayList<Persistent>();
+        for(Persistent object : objects)
+        {
+            synchronized(object)
+            {
+                DefaultOutputRecord record = newRecord(object);
+                if(object.getSaved())
+                {
+                    if(record.hasNonKeyValues() && record.hasModifiedValues())
+                    {
+                        String sql = record.getUpdateSQL();
+                        if(!updates.containsKey(sql))
+                        {
+                            updates.put(sql, new ArrayList<DefaultOutputRecord>());
+                            updated.put(sql, new ArrayList<Persistent>());
+                        }
+                        updates.get(sql).add(record);
+                        updated.get(sql).add(object);
+                    }
+                }
+                else
+                {
+                    inserts.add(record);
+                    inserted.add(object);
+                }
+            }
+        }
+        boolean controller = database.beginTransaction();
+        try
+        {
+            try(Connection conn = database.getConnection())
+            {
+                checkCursors(conn);
+                for(String sql : updates.keySet())
+                {
+                    List<Persistent> batch = updated.get(sql);
+                    int[] counts = executeBatch(conn, sql, updates.get(sql), false);
+                    for(int i = 0; i < counts.length; i++)
+                    {
+                        // rows deleted in the meantime are re-inserted, like save() does
+                        if(counts[i] == 0 || counts[i] == Statement.SUCCESS_NO_INFO
+                            && !rowExists(conn, updates.get(sql).get(i)))
+                        {
+                            inserts.add(updates.get(sql).get(i));
+                            inserted.add(batch.get(i));
+                        }
+                    }
+                }
+                long[] ids = assignIds(inserts, inserted);
+                Map<String, List<DefaultOutputRecord>> insertBatches =
+                    new LinkedHashMap<String, List<DefaultOutputRecord>>();
+                for(DefaultOutputRecord record : inserts)
+                {
+                    String sql = record.getInsertSQL();
+                    if(!insertBatches.containsKey(sql))
+                    {
+                        insertBatches.put(sql, new ArrayList<DefaultOutputRecord>());
+                    }
+                    insertBatches.get(sql).add(record);
+                }
+                for(String sql : insertBatches.keySet())
+                {
+                    executeBatch(conn, sql, insertBatches.get(sql), true);
+                }
+                for(int i = 0; i < inserted.size(); i++)
+                {
+                    inserted.get(i).setSaved(ids[i]);
+                }
+            }
+            written(objects);
+            database.commitTransaction(controller);
+        }
+        catch(SQLException e)
+        {
+            rollback(controller, e);
+            throw e;
+        }
+        for(String sql : updates.keySet())
+        {
+            for(int i = 0; i < updates.get(sql).size(); i++)
+            {
+                saved(updated.get(sql).get(i), updates.get(sql).get(i));
+            }
+        }
+        for(int i = 0; i < inserts.size(); i++)
+        {
+            saved(inserted.get(i), inserts.get(i));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int updateRows(Collection<RowUpdate> rows)
+        throws SQLException
+    {
+        Map<String, List<RowUpdate>> batches = new LinkedHashMap<String, List<RowUpdate>>();
+        for(RowUpdate row : rows)
+        {
+            if(row.hasNonKeyValues())
+            {
+                String sql = row.getUpdateSQL();
+                if(!batches.containsKey(sql))
+                {
+                    batches.put(sql, new ArrayList<RowUpdate>());
+                }
+                batches.get(sql).add(row);
+            }
+        }
+        int updated = 0;
+        boolean controller = database.beginTransaction();
+        try
+        {
+            try(Connection conn = database.getConnection())
+            {
+                checkCursors(conn);
+                Map<String, Map<String, Integer>> typeMaps =
+                    new HashMap<String, Map<String, Integer>>();
+                for(String sql : batches.keySet())
+                {
+                    List<RowUpdate> batch = batches.get(sql);
+                    String table = batch.get(0).getTable();
+                    if(!typeMaps.containsKey(table))
+                    {
+                        typeMaps.put(table, DefaultOutputRecord.getTypeMap(table, conn));
+                    }
+                    updated += executeUpdateBatch(conn, sql, batch, typeMaps.get(table));
+                    written(table);
+                }
+            }
+            database.commitTransaction(controller);
+        }
+        catch(SQLException e)
+        {
+            rollback(controller, e);
+            throw e;
+        }
+        return updated;
+    }
+
+    /**
+     * Executes an update statement for a number of rows in JDBC batches.
+     * 
+     * @param conn the database connection.
+     * @param sql the statement text.
+     * @param rows the rows.
+     * @param typeMap SQL types of the table's columns.
+     * @return the number of updated rows, counting the ones the driver reported no count for.
+     * @throws SQLException if the statements could not be executed.
+     */
+    private static int executeUpdateBatch(Connection conn, String sql, List<RowUpdate> rows,
+        Map<String, Integer> typeMap)
+        throws SQLException
+    {
+        int updated = 0;
+        try(PreparedStatement statement = conn.prepareStatement(sql))
+        {
+            for(int i = 0; i < rows.size(); i++)
+            {
+                rows.get(i).setUpdateParameters(statement, typeMap);
+                statement.addBatch();
+                if((i + 1) % MAX_BATCH_SIZE == 0 || i == rows.size() - 1)
+                {
+                    for(int count : statement.executeBatch())
+                    {
+                        if(count == Statement.EXECUTE_FAILED)
+                        {
+                            throw new SQLException("unsuccessful UPDATE statement");
+                        }
+                        if(count != 0)
+                        {
+                            updated++;
+                        }
+                    }
+                }
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Assigns identifiers to the records of new single key objects, allocating them in bulk for
+     * each table.
+     * 
+     * @param records the records to be inserted.
+     * @param objects the objects to be inserted, in the same order.
+     * @return the identifiers of the objects, -1 for objects with composite keys.
+     * @throws SQLException if the identifiers could not be allocated.
+     */
+    private long[] assignIds(List<DefaultOutputRecord> records, List<Persistent> objects)
+        throws SQLException
+    {
+        long[] ids = new long[records.size()];
+        // table -> positions of records that need a new identifier
+        Map<String, List<Integer>> missing = new LinkedHashMap<String, List<Integer>>();
+        for(int i = 0; i < ids.length; i++)
+        {
+            DefaultOutputRecord record = records.get(i);
+            String[] keys = objects.get(i).getKeyColumns();
+            ids[i] = -1l;
+            if(keys.length == 1)
+            {
+                if(record.containsValue(keys[0]))
+                {
+                    ids[i] = record.getValue(keys[0], Long.class);
+                }
+                if(ids[i] == -1l)
+                {
+                    String table = objects.get(i).getTable();
+                    if(!missing.containsKey(table))
+                    {
+                        missing.put(table, new ArrayList<Integer>());
+                    }
+                    missing.get(table).add(i);
+                }
+            }
+        }
+        for(String table : missing.keySet())
+        {
+            List<Integer> positions = missing.get(table);
+            long[] allocated = database.getNextIds(table, positions.size());
+            for(int j = 0; j < allocated.length; j++)
+            {
+                int i = positions.get(j);
+                ids[i] = allocated[j];
+                records.get(i).setLong(objects.get(i).getKeyColumns()[0], ids[i]);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Executes a statement for a number of records in JDBC batches.
+     * 
+     * @param conn the database connection.
+     * @param sql the statement text.
+     * @param records the records.
+     * @param insert <code>true</code> for insert, <code>false</code> for update statements.
+     * @return the update counts of the records, possibly {@link Statement#SUCCESS_NO_INFO}.
+     * @throws SQLException if the statements could not be executed.
+     */
+    private static int[] executeBatch(Connection conn, String sql,
+        List<DefaultOutputRecord> records, boolean insert)
+        throws SQLException
+    {
+        int[] counts = new int[records.size()];
+        try(PreparedStatement statement = conn.prepareStatement(sql))
+        {
+            int start = 0;
+            for(int i = 0; i < records.size(); i++)
+            {
+                if(insert)
+                {
+                    records.get(i).setInsertParameters(statement);
+                }
+                else
+                {
+                    records.get(i).setUpdateParameters(statement);
+                }
+                statement.addBatch();
+                if((i + 1) % MAX_BATCH_SIZE == 0 || i == records.size() - 1)
+                {
+                    int[] batchCounts = statement.executeBatch();
+                    for(int count : batchCounts)
+                    {
+                        if(count == Statement.EXECUTE_FAILED)
+                        {
+                            throw new SQLException("unsuccessful " + (insert ? "INSERT" : "UPDATE")
+                                + " statement");
+                        }
+                    }
+                    System.arraycopy(batchCounts, 0, counts, start, batchCounts.length);
+                    start = i + 1;
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Checks if the row of a record exists, when the driver did not report the update count.
+     * 
+     * @param conn the database connection.
+     * @param record the record.
+     * @return <code>true</code> if the row exists.
+     * @throws SQLException if the check could not be performed.
+     */
+    private static boolean rowExists(Connection conn, DefaultOutputRecord record)
+        throws SQLException
+    {
+        try(PreparedStatement statement = conn.prepareStatement(record.getSelectSQL()))
+        {
+            record.setKeyParameters(statement);
+            try(ResultSet rs = statement.executeQuery())
+            {
+                return rs.next();
+            }
+        }
     }
 
     /**
@@ -266,11 +866,12 @@ public class DefaultPersistence implements Persistence
             {
                 throw new IllegalStateException("no state has been saved yet");
             }
+            DefaultOutputRecord record = newRecord(object);
             try(Connection conn = database.getConnection())
             {
-                try(PreparedStatement statement = DefaultInputRecord.getSelectStatement(object,
-                    conn))
+                try(PreparedStatement statement = conn.prepareStatement(record.getSelectSQL()))
                 {
+                    record.setKeyParameters(statement);
                     try(ResultSet rs = statement.executeQuery())
                     {
                         if(!rs.next())
@@ -279,6 +880,7 @@ public class DefaultPersistence implements Persistence
                         }
                         InputRecord irecord = new DefaultInputRecord(rs);
                         object.setData(irecord);
+                        loaded(object);
                     }
                 }
             }
@@ -309,13 +911,14 @@ public class DefaultPersistence implements Persistence
     {
         synchronized (object)
         {
+            DefaultOutputRecord record = newRecord(object);
             try(Connection conn = database.getConnection())
             {
-                DefaultOutputRecord record = new DefaultOutputRecord(object);
-                object.getData(record);
+                checkCursors(conn);
                 try(PreparedStatement statement = record.getDeleteStatement(conn))
                 {
                     statement.execute();
+                    written(object.getTable());
                     if(mustExist && statement.getUpdateCount() != 1)
                     {
                         throw new SQLException("unsuccessful DELETE statement");
@@ -325,6 +928,86 @@ public class DefaultPersistence implements Persistence
         }
     }
 
+    /**
+     * Removes a number of objects from the database in a single transaction.
+     * 
+     * @param objects the objects to be removed.
+     * @throws SQLException if any of the objects was not present in the database or any exception
+     *         occurred.
+     */
+    public void deleteAll(Collection<? extends Persistent> objects)
+        throws SQLException
+    {
+        deleteAll(objects, true);
+    }
+
+    /**
+     * Removes a number of objects from the database in a single transaction.
+     * 
+     * @param objects the objects to be removed.
+     * @param mustExist should an exception be thrown if any of the objects was not present in the
+     *        database.
+     * @throws SQLException if any exception occurred.
+     */
+    public void deleteAll(Collection<? extends Persistent> objects, boolean mustExist)
+        throws SQLException
+    {
+        // statement text -> records
+        Map<String, List<DefaultOutputRecord>> deletes =
+            new LinkedHashMap<String, List<DefaultOutputRecord>>();
+        for(Persistent object : objects)
+        {
+            synchronized(object)
+            {
+                DefaultOutputRecord record = newRecord(object);
+                String sql = record.getDeleteSQL();
+                if(!deletes.containsKey(sql))
+                {
+                    deletes.put(sql, new ArrayList<DefaultOutputRecord>());
+                }
+                deletes.get(sql).add(record);
+            }
+        }
+        boolean controller = database.beginTransaction();
+        try
+        {
+            try(Connection conn = database.getConnection())
+            {
+                checkCursors(conn);
+                for(String sql : deletes.keySet())
+                {
+                    List<DefaultOutputRecord> records = deletes.get(sql);
+                    try(PreparedStatement statement = conn.prepareStatement(sql))
+                    {
+                        for(int i = 0; i < records.size(); i++)
+                        {
+                            records.get(i).setDeleteParameters(statement);
+                            statement.addBatch();
+                            if((i + 1) % MAX_BATCH_SIZE == 0 || i == records.size() - 1)
+                            {
+                                for(int count : statement.executeBatch())
+                                {
+                                    if(count == Statement.EXECUTE_FAILED || mustExist
+                                        && count != 1 && count != Statement.SUCCESS_NO_INFO)
+                                    {
+                                        throw new SQLException("unsuccessful DELETE statement");
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            written(objects);
+            database.commitTransaction(controller);
+        }
+        catch(SQLException e)
+        {
+            rollback(controller, e);
+            throw e;
+        }
+    }
+
     /**
      * Removes the objects from the database.
      * 
@@ -337,12 +1020,14 @@ public class DefaultPersistence implements Persistence
     {
         try(Connection conn = database.getConnection())
         {
+            checkCursors(conn);
             Persistent obj = newInstance(factory);
             try(PreparedStatement statement = conn.prepareStatement("DELETE FROM " + obj.getTable()
                 + " WHERE " + where))
             {
                 statement.executeUpdate();
             }
+            written(obj.getTable());
         }
     }
     
@@ -357,6 +1042,28 @@ public class DefaultPersistence implements Persistence
      */
     public boolean exists(String table, String where)
         throws SQLException
+    {
+        QueryResultCache cache = resultCache;
+        if(cache != null)
+        {
+            QueryResultCache.Key key = cache.getKey(table, "SELECT DISTINCT 1 FROM " + table
+                + (where != null ? " WHERE " + where : ""));
+            if(key != null)
+            {
+                Boolean result = (Boolean)cache.get(key);
+                if(result == null)
+                {
+                    result = Boolean.valueOf(queryExists(table, where));
+                    cache.put(key, result);
+                }
+                return result.booleanValue();
+            }
+        }
+        return queryExists(table, where);
+    }
+
+    private boolean queryExists(String table, String where)
+        throws SQLException
     {
         try(Connection conn = database.getConnection())
         {
@@ -389,6 +1096,28 @@ public class DefaultPersistence implements Persistence
      */
     public int count(String table, String where)
         throws SQLException
+    {
+        QueryResultCache cache = resultCache;
+        if(cache != null)
+        {
+            QueryResultCache.Key key = cache.getKey(table, "SELECT COUNT(*) FROM " + table
+                + (where != null ? " WHERE " + where : ""));
+            if(key != null)
+            {
+                Integer result = (Integer)cache.get(key);
+                if(result == null)
+                {
+                    result = Integer.valueOf(queryCount(table, where));
+                    cache.put(key, result);
+                }
+                return result.intValue();
+            }
+        }
+        return queryCount(table, where);
+    }
+
+    private int queryCount(String table, String where)
+        throws SQLException
     {
         try(Connection conn = database.getConnection())
         {
@@ -423,6 +1152,344 @@ public class DefaultPersistence implements Persistence
         return database;
     }
 
+    /**
+     * Sets the query result cache.
+     * 
+     * @param resultCache the query result cache, or <code>null</code> to disable caching.
+     */
+    void setResultCache(QueryResultCache resultCache)
+    {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Invalidates cached query results after a write to a table.
+     * 
+     * @param table the table.
+     */
+    private void written(String table)
+    {
+        QueryResultCache cache = resultCache;
+        if(cache != null)
+        {
+            cache.invalidate(table);
+        }
+    }
+
+    /**
+     * Invalidates cached query results after writing a number of objects.
+     * 
+     * @param objects the objects.
+     */
+    private void written(Collection<? extends Persistent> objects)
+    {
+        if(resultCache != null)
+        {
+            Set<String> tables = new HashSet<String>();
+            for(Persistent object : objects)
+            {
+                tables.add(object.getTable());
+            }
+            for(String table : tables)
+            {
+                written(table);
+            }
+        }
+    }
+
+    /**
+     * Creates an output record containing the data of an object.
+     * 
+     * @param object the object.
+     * @return the record.
+     * @throws SQLException if the object's data could not be retrieved.
+     */
+    private DefaultOutputRecord newRecord(Persistent object)
+        throws SQLException
+    {
+        DefaultOutputRecord record = new DefaultOutputRecord(object, getPlan(object));
+        object.getData(record);
+        if(object instanceof DirtyTracking)
+        {
+            record.setSnapshot(((DirtyTracking)object).getSnapshot());
+        }
+        return record;
+    }
+
+    /**
+     * Stores the snapshot of a {@link DirtyTracking} object's values after it was loaded.
+     * 
+     * @param object the object.
+     * @throws SQLException if the object's data could not be retrieved.
+     */
+    private void loaded(Persistent object)
+        throws SQLException
+    {
+        if(object instanceof DirtyTracking)
+        {
+            DefaultOutputRecord record = new DefaultOutputRecord(object, getPlan(object));
+            object.getData(record);
+            ((DirtyTracking)object).setSnapshot(record.getSnapshot());
+        }
+    }
+
+    /**
+     * Stores the snapshot of a {@link DirtyTracking} object's values after it was saved.
+     * <p>
+     * When the object was saved within a transaction, the snapshot is stored after the
+     * transaction commits, and dropped if it is rolled back, so that the next save writes the
+     * values that were lost.
+     * </p>
+     * 
+     * @param object the object.
+     * @param record the record containing the saved values.
+     */
+    private void saved(Persistent object, DefaultOutputRecord record)
+    {
+        if(object instanceof DirtyTracking)
+        {
+            final DirtyTracking tracked = (DirtyTracking)object;
+            final Object snapshot = record.getSnapshot();
+            javax.transaction.Transaction tx = getActiveTransaction();
+            if(tx != null)
+            {
+                try
+                {
+                    tx.registerSynchronization(new Synchronization()
+                        {
+                            public void beforeCompletion()
+                            {
+                            }
+
+                            public void afterCompletion(int status)
+                            {
+                                tracked.setSnapshot(status == Status.STATUS_COMMITTED ? snapshot
+                                    : null);
+                            }
+                        });
+                    return;
+                }
+                catch(Exception e)
+                {
+                    logger.error("failed to register transaction synchronization", e);
+                    tracked.setSnapshot(null);
+                    return;
+                }
+            }
+            tracked.setSnapshot(snapshot);
+        }
+    }
+
+    private javax.transaction.Transaction getActiveTransaction()
+    {
+        if(transaction == null)
+        {
+            return null;
+        }
+        try
+        {
+            javax.transaction.Transaction tx = transaction.getTransactionManager()
+                .getTransaction();
+            if(tx != null && tx.getStatus() == Status.STATUS_ACTIVE)
+            {
+                return tx;
+            }
+        }
+        catch(Exception e)
+        {
+            logger.error("failed to check transaction status", e);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the mapping plan of an object's class, computing it on first use.
+     * <p>
+     * Plans are kept by the persistence component, and thus computed once for each data source.
+     * Objects of a class mapped onto multiple tables get a separate plan for each table.
+     * </p>
+     * 
+     * @param object the object.
+     * @return the mapping plan.
+     * @throws SQLException if the plan could not be computed.
+     */
+    private MappingPlan getPlan(Persistent object)
+        throws SQLException
+    {
+        ConcurrentMap<String, MappingPlan> tablePlans = plans.get(object.getClass());
+        if(tablePlans == null)
+        {
+            tablePlans = new ConcurrentHashMap<String, MappingPlan>(4);
+            ConcurrentMap<String, MappingPlan> existing = plans.putIfAbsent(object.getClass(),
+                tablePlans);
+            if(existing != null)
+            {
+                tablePlans = existing;
+            }
+        }
+        String table = object.getTable();
+        MappingPlan plan = tablePlans.get(table);
+        if(plan == null)
+        {
+            try(Connection conn = database.getConnection())
+            {
+                plan = MappingPlan.create(object, conn);
+            }
+            MappingPlan existing = tablePlans.putIfAbsent(table, plan);
+            if(existing != null)
+            {
+                plan = existing;
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * A cursor reading objects from an open result set.
+     * 
+     * @param <V> type of the objects.
+     */
+    private class Cursor<V extends Persistent>
+        implements PersistentCursor<V>
+    {
+        private final PersistentFactory<V> factory;
+
+        private final Connection conn;
+
+        private final PreparedStatement statement;
+
+        private final ResultSet rs;
+
+        private final boolean restoreAutoCommit;
+
+        /** Has the result set been advanced to a row that was not returned yet. */
+        private boolean ahead = false;
+
+        private boolean closed = false;
+
+        public Cursor(PersistentFactory<V> factory, Connection conn,
+            PreparedStatement statement, ResultSet rs, boolean restoreAutoCommit)
+        {
+            this.factory = factory;
+            this.conn = conn;
+            this.statement = statement;
+            this.rs = rs;
+            this.restoreAutoCommit = restoreAutoCommit;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean hasNext()
+        {
+            if(closed)
+            {
+                return false;
+            }
+            if(!ahead)
+            {
+                try
+                {
+                    ahead = rs.next();
+                    if(!ahead)
+                    {
+                        close();
+                    }
+                }
+                catch(SQLException e)
+                {
+                    throw new RuntimeException("failed to read the next row", e);
+                }
+            }
+            return ahead;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public V next()
+        {
+            if(!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            ahead = false;
+            try
+            {
+                V obj = newInstance(factory);
+                InputRecord record = new DefaultInputRecord(rs);
+                obj.setData(record);
+                obj.setSaved(record.getLong(obj.getKeyColumns()[0]));
+                loaded(obj);
+                return obj;
+            }
+            catch(SQLException e)
+            {
+                throw new RuntimeException("failed to load object", e);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void close()
+            throws SQLException
+        {
+            if(closed)
+            {
+                return;
+            }
+            closed = true;
+            DatabaseUtils.close(rs);
+            DatabaseUtils.close(statement);
+            try
+            {
+                if(restoreAutoCommit)
+                {
+                    cursorConnections.remove(conn);
+                    conn.setAutoCommit(true);
+                }
+            }
+            finally
+            {
+                conn.close();
+            }
+        }
+    }
+
+    /**
+     * Refuses to write on a connection that has autocommit turned off by an open cursor. The
+     * writes would stay uncommitted until the cursor is closed, and be lost if it never is.
+     */
+    private void checkCursors(Connection conn)
+        throws SQLException
+    {
+        if(cursorConnections.contains(conn))
+        {
+            throw new SQLException("cannot write while a cursor is open on the connection");
+        }
+    }
+
+    private void rollback(boolean controller, SQLException e)
+    {
+        try
+        {
+            database.rollbackTransaction(controller);
+        }
+        catch(SQLException ee)
+        {
+            e.addSuppressed(ee);
+        }
+    }
+
     private static <V extends Persistent> V newInstance(PersistentFactory<V> factory)
         throws SQLException
     {
@@ -0,0 +1,62 @@
+// 
+// Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+// All rights reserved. 
+// 
+// Redistribution and use in source and binary forms, with or without modification,  
+// are permitted provided that the following conditions are met: 
+//  
+// * Redistributions of source code must retain the above copyright notice,  
+//   this list of conditions and the following disclaimer. 
+// * Redistributions in binary form must reproduce the above copyright notice,  
+//   this list of conditions and the following disclaimer in the documentation  
+//   and/or other materials provided with the distribution. 
+// * Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//   nor the names of its contributors may be used to endorse or promote products  
+//   derived from this software without specific prior written permission. 
+// 
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+// IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+// WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+// POSSIBILITY OF SUCH DAMAGE. 
+// 
+package org.objectledge.database.persistence;
+
+/**
+ * Implemented by Persistent objects that want their updates to write only modified columns.
+ * <p>
+ * {@link DefaultPersistence} stores a snapshot of the column values written by
+ * {@link Persistent#getData(OutputRecord)} with the object whenever it is loaded or saved. When
+ * the object is saved again, only the columns whose values differ from the snapshot are included
+ * in the <code>UPDATE</code> statement, and no statement is executed at all when nothing has
+ * changed. Consequently, saving an unmodified object does not re-insert a row that was deleted
+ * in the meantime.
+ * </p>
+ * <p>
+ * The snapshot is opaque to the object, which should only keep it. When the object is saved
+ * within a transaction, the snapshot is stored after the transaction commits. If the transaction
+ * is rolled back, the snapshot is dropped and the next save writes all columns.
+ * </p>
+ */
+public interface DirtyTracking
+    extends Persistent
+{
+    /**
+     * Returns the snapshot of the column values.
+     * 
+     * @return the snapshot, or <code>null</code> if all columns should be written.
+     */
+    public Object getSnapshot();
+
+    /**
+     * Stores the snapshot of the column values.
+     * 
+     * @param snapshot the snapshot.
+     */
+    public void setSnapshot(Object snapshot);
+}
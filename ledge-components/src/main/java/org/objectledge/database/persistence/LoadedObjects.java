@@ -0,0 +1,92 @@
+// 
+// Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+// All rights reserved. 
+// 
+// Redistribution and use in source and binary forms, with or without modification,  
+// are permitted provided that the following conditions are met: 
+//  
+// * Redistributions of source code must retain the above copyright notice,  
+//   this list of conditions and the following disclaimer. 
+// * Redistributions in binary form must reproduce the above copyright notice,  
+//   this list of conditions and the following disclaimer in the documentation  
+//   and/or other materials provided with the distribution. 
+// * Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//   nor the names of its contributors may be used to endorse or promote products  
+//   derived from this software without specific prior written permission. 
+// 
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+// IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+// WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+// POSSIBILITY OF SUCH DAMAGE. 
+// 
+package org.objectledge.database.persistence;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of loading a number of objects by their identifiers.
+ * 
+ * @param <V> type of the objects.
+ * @see Persistence#loadAll(PersistentFactory, long[])
+ */
+public class LoadedObjects<V extends Persistent>
+{
+    private final List<V> objects;
+
+    private final Map<Long, V> byId;
+
+    private final long[] missing;
+
+    /**
+     * Creates a LoadedObjects instance.
+     * 
+     * @param objects the objects found, in the order of requested identifiers.
+     * @param byId the objects found, keyed by identifier.
+     * @param missing the identifiers of objects not found, in the order they were requested.
+     */
+    LoadedObjects(List<V> objects, Map<Long, V> byId, long[] missing)
+    {
+        this.objects = Collections.unmodifiableList(objects);
+        this.byId = byId;
+        this.missing = missing;
+    }
+
+    /**
+     * Returns the objects that were found.
+     * 
+     * @return the objects, in the order of requested identifiers.
+     */
+    public List<V> getObjects()
+    {
+        return objects;
+    }
+
+    /**
+     * Returns an object by identifier.
+     * 
+     * @param id the identifier.
+     * @return the object, or <code>null</code> if it was not requested or not found.
+     */
+    public V get(long id)
+    {
+        return byId.get(Long.valueOf(id));
+    }
+
+    /**
+     * Returns the identifiers of the objects that were not found.
+     * 
+     * @return the identifiers, in the order they were requested.
+     */
+    public long[] getMissing()
+    {
+        return missing.clone();
+    }
+}
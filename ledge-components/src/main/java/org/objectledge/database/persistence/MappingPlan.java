@@ -0,0 +1,366 @@
+// 
+//Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+//All rights reserved. 
+//   
+//Redistribution and use in source and binary forms, with or without modification,  
+//are permitted provided that the following conditions are met: 
+//   
+//* Redistributions of source code must retain the above copyright notice,  
+//this list of conditions and the following disclaimer. 
+//* Redistributions in binary form must reproduce the above copyright notice,  
+//this list of conditions and the following disclaimer in the documentation  
+//and/or other materials provided with the distribution. 
+//* Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//nor the names of its contributors may be used to endorse or promote products  
+//derived from this software without specific prior written permission. 
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+//WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+//INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+//BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+//OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+//WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+//ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+//POSSIBILITY OF SUCH DAMAGE. 
+//
+
+package org.objectledge.database.persistence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.objectledge.database.DatabaseUtils;
+
+/**
+ * Mapping of a Persistent class onto its table, computed once and shared by all objects of the
+ * class.
+ * <p>
+ * The plan contains the columns written by {@link Persistent#getData(OutputRecord)}, in the order
+ * they are written, their SQL types and pre-rendered statements. {@link DefaultOutputRecord}s
+ * created with a plan keep the values in an array indexed by column position, and bind them
+ * without database metadata queries or building the statement text.
+ * </p>
+ * <p>
+ * Partial <code>UPDATE</code> statements of {@link DirtyTracking} objects are rendered on demand
+ * and cached for each distinct set of modified columns.
+ * </p>
+ */
+class MappingPlan
+{
+    /** Maximum number of cached partial update statements. */
+    private static final int MAX_UPDATE_SHAPES = 256;
+
+    /** The table. */
+    private final String table;
+
+    /** The columns, in the order of getData calls. */
+    private final String[] columns;
+
+    /** Column name to position mapping. */
+    private final Map<String, Integer> positions = new HashMap<String, Integer>();
+
+    /** SQL types of the columns. */
+    private final int[] sqlTypes;
+
+    /** Key flags of the columns. */
+    private final boolean[] key;
+
+    /** Does the table have any non-key columns. */
+    private final boolean hasNonKeyColumns;
+
+    /** Table metadata, column name to SQL type mapping. */
+    private final Map<String, Integer> typeMap;
+
+    private final String insertSQL;
+
+    private final String updateSQL;
+
+    private final String deleteSQL;
+
+    private final String selectSQL;
+
+    /** Partial update statements, keyed by modified column positions. */
+    private final ConcurrentMap<BitSet, String> updateShapes =
+        new ConcurrentHashMap<BitSet, String>();
+
+    /** The where clause matching the key columns. */
+    private final String where;
+
+    /**
+     * Creates a plan.
+     * 
+     * @param table the table.
+     * @param keyColumns the key columns.
+     * @param columns the columns.
+     * @param typeMap table metadata.
+     * @param conn the database connection.
+     * @throws SQLException if a column is missing from the table.
+     */
+    private MappingPlan(String table, String[] keyColumns, String[] columns,
+        Map<String, Integer> typeMap, Connection conn)
+        throws SQLException
+    {
+        this.table = table;
+        this.columns = columns;
+        this.typeMap = typeMap;
+        sqlTypes = new int[columns.length];
+        key = new boolean[columns.length];
+        List<String> keys = Arrays.asList(keyColumns);
+        List<String> nonKeyColumns = new ArrayList<String>();
+        for(int i = 0; i < columns.length; i++)
+        {
+            Integer type = typeMap.get(DatabaseUtils.adjustIdentifierCase(columns[i], conn));
+            if(type == null)
+            {
+                throw new SQLException("column " + columns[i] + " not found in table " + table);
+            }
+            sqlTypes[i] = type.intValue();
+            key[i] = keys.contains(columns[i]);
+            positions.put(columns[i], i);
+            if(!key[i])
+            {
+                nonKeyColumns.add(columns[i]);
+            }
+        }
+        hasNonKeyColumns = !nonKeyColumns.isEmpty();
+
+        StringBuilder where = new StringBuilder();
+        for(String column : keyColumns)
+        {
+            where.append(where.length() > 0 ? " AND " : "").append(column).append(" = ?");
+        }
+        StringBuilder buff = new StringBuilder();
+        buff.append("INSERT INTO ").append(table).append(" (");
+        for(int i = 0; i < columns.length; i++)
+        {
+            buff.append(i > 0 ? ", " : "").append(columns[i]);
+        }
+        buff.append(") VALUES (");
+        for(int i = 0; i < columns.length; i++)
+        {
+            buff.append(i > 0 ? ", ?" : "?");
+        }
+        insertSQL = buff.append(")").toString();
+        if(hasNonKeyColumns)
+        {
+            buff.setLength(0);
+            buff.append("UPDATE ").append(table).append(" SET ");
+            for(int i = 0; i < nonKeyColumns.size(); i++)
+            {
+                buff.append(i > 0 ? ", " : "").append(nonKeyColumns.get(i)).append(" = ?");
+            }
+            updateSQL = buff.append(" WHERE ").append(where).toString();
+        }
+        else
+        {
+            updateSQL = null;
+        }
+        this.where = where.toString();
+        deleteSQL = "DELETE FROM " + table + " WHERE " + where;
+        selectSQL = "SELECT * FROM " + table + " WHERE " + where;
+    }
+
+    /**
+     * Computes the plan of an object's class.
+     * 
+     * @param object an object of the class.
+     * @param conn the database connection used to retrieve table metadata.
+     * @return the plan.
+     * @throws SQLException if table metadata could not be retrieved, or the object writes columns
+     *         not present in the table.
+     */
+    public static MappingPlan create(Persistent object, Connection conn)
+        throws SQLException
+    {
+        DefaultOutputRecord record = new DefaultOutputRecord(object);
+        object.getData(record);
+        return new MappingPlan(object.getTable(), object.getKeyColumns(), record.getFieldNames(),
+            DefaultOutputRecord.getTypeMap(object.getTable(), conn), conn);
+    }
+
+    /**
+     * @return the table.
+     */
+    public String getTable()
+    {
+        return table;
+    }
+
+    /**
+     * @return the number of columns.
+     */
+    public int size()
+    {
+        return columns.length;
+    }
+
+    /**
+     * @param i column position.
+     * @return the name of the column.
+     */
+    public String getColumn(int i)
+    {
+        return columns[i];
+    }
+
+    /**
+     * @param column column name.
+     * @return the position of the column, or -1 if the column is not a part of the plan.
+     */
+    public int indexOf(String column)
+    {
+        Integer i = positions.get(column);
+        return i != null ? i.intValue() : -1;
+    }
+
+    /**
+     * @param i column position.
+     * @return <code>true</code> if the column is a part of the key.
+     */
+    public boolean isKey(int i)
+    {
+        return key[i];
+    }
+
+    /**
+     * @return <code>true</code> if the plan contains any non-key columns.
+     */
+    public boolean hasNonKeyColumns()
+    {
+        return hasNonKeyColumns;
+    }
+
+    /**
+     * @return table metadata, mapping column names to SQL types.
+     */
+    public Map<String, Integer> getTypeMap()
+    {
+        return typeMap;
+    }
+
+    /**
+     * @return INSERT statement, with values bound in column order.
+     */
+    public String getInsertSQL()
+    {
+        return insertSQL;
+    }
+
+    /**
+     * @return UPDATE statement, with non-key values bound before the key values, or
+     *         <code>null</code> if there are no non-key columns.
+     */
+    public String getUpdateSQL()
+    {
+        return updateSQL;
+    }
+
+    /**
+     * Returns an UPDATE statement writing a subset of non-key columns.
+     * 
+     * @param modified positions of the non-key columns to be written, must not be empty.
+     * @return UPDATE statement, with values of the selected columns bound in column order before
+     *         the key values.
+     */
+    public String getUpdateSQL(BitSet modified)
+    {
+        String sql = updateShapes.get(modified);
+        if(sql == null)
+        {
+            StringBuilder buff = new StringBuilder();
+            buff.append("UPDATE ").append(table).append(" SET ");
+            for(int i = modified.nextSetBit(0); i >= 0; i = modified.nextSetBit(i + 1))
+            {
+                buff.append(columns[i]).append(" = ?");
+                if(modified.nextSetBit(i + 1) >= 0)
+                {
+                    buff.append(", ");
+                }
+            }
+            sql = buff.append(" WHERE ").append(where).toString();
+            if(updateShapes.size() < MAX_UPDATE_SHAPES)
+            {
+                String existing = updateShapes.putIfAbsent((BitSet)modified.clone(), sql);
+                if(existing != null)
+                {
+                    sql = existing;
+                }
+            }
+        }
+        return sql;
+    }
+
+    /**
+     * @return DELETE statement, with key values bound.
+     */
+    public String getDeleteSQL()
+    {
+        return deleteSQL;
+    }
+
+    /**
+     * @return SELECT statement fetching all columns of a row, with key values bound.
+     */
+    public String getSelectSQL()
+    {
+        return selectSQL;
+    }
+
+    /**
+     * Binds column values to positional parameters of a statement.
+     * 
+     * @param stmt the statement.
+     * @param values the values, indexed by column position.
+     * @param includeKeys <code>true</code> to set key values.
+     * @param includeNonKeys <code>true</code> to set non-key values.
+     * @param startPos the first parameter position.
+     * @return next available parameter position.
+     * @throws SQLException if a value couldn't be set.
+     */
+    int setValues(PreparedStatement stmt, Object[] values, boolean includeKeys,
+        boolean includeNonKeys, int startPos)
+        throws SQLException
+    {
+        int pos = startPos;
+        for(int i = 0; i < columns.length; i++)
+        {
+            if(key[i] ? includeKeys : includeNonKeys)
+            {
+                DefaultOutputRecord.setValue(pos++, values[i], sqlTypes[i], stmt);
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Binds selected column values to positional parameters of a statement.
+     * 
+     * @param stmt the statement.
+     * @param values the values, indexed by column position.
+     * @param selected positions of the columns to be bound.
+     * @param startPos the first parameter position.
+     * @return next available parameter position.
+     * @throws SQLException if a value couldn't be set.
+     */
+    int setValues(PreparedStatement stmt, Object[] values, BitSet selected, int startPos)
+        throws SQLException
+    {
+        int pos = startPos;
+        for(int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1))
+        {
+            DefaultOutputRecord.setValue(pos++, values[i], sqlTypes[i], stmt);
+        }
+        return pos;
+    }
+}
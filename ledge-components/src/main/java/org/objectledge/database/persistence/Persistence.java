@@ -28,6 +28,7 @@
 package org.objectledge.database.persistence;
 
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
 
 import org.objectledge.database.Database;
@@ -54,6 +55,23 @@ public interface Persistence
     public <V extends Persistent> V load(PersistentFactory<V> factory, long id)
         throws SQLException;
 
+    /**
+     * Loads a number of objects from the database by their identifiers.
+     * <p>
+     * The objects are fetched with a few queries matching chunks of identifiers at once, rather
+     * than a query per object. Objects with composite keys are not supported.
+     * </p>
+     * 
+     * @param factory the object instance factory.
+     * @param ids the identifiers of the objects, possibly containing duplicates.
+     * @return the objects found, in the order of identifiers, and the identifiers of the objects
+     *         that were not found.
+     * @throws SQLException if any exception occured.
+     */
+    public <V extends Persistent> LoadedObjects<V> loadAll(PersistentFactory<V> factory,
+        long[] ids)
+        throws SQLException;
+
     /**
      * Loads all objects from the database.
      * <p>
@@ -86,6 +104,35 @@ public interface Persistence
         Object... parameters)
         throws SQLException;
 
+    /**
+     * Opens a cursor loading objects from the database one by one.
+     * <p>
+     * Unlike {@link #load(PersistentFactory, String, Object...)}, the objects are not loaded into
+     * memory all at once, but created while the cursor is iterated. The result set is read in
+     * chunks of <code>fetchSize</code> rows. On PostgreSQL, autocommit is turned off on the
+     * connection while the cursor is open, so that a server side cursor is used.
+     * </p>
+     * <p>
+     * The cursor uses the connection returned by the database, which is shared by the thread
+     * when a <code>ThreadDataSource</code> is in use. While a cursor that turned autocommit off
+     * is open, writing through this Persistence on that thread fails with an
+     * <code>SQLException</code>, and statements executed on the connection directly are not
+     * committed until the cursor is closed. Finish or close the cursor before writing, or run
+     * the whole iteration inside a transaction.
+     * </p>
+     * 
+     * @param factory the object instance factory.
+     * @param fetchSize the number of rows fetched from the database at once.
+     * @param where the where clause to be used in the query, or <code>null</code> to load all
+     *        objects.
+     * @param parameters positional parameters used in where clause.
+     * @return the cursor, that must be closed by the caller unless it is exhausted.
+     * @throws SQLException if any exception occured.
+     */
+    public <V extends Persistent> PersistentCursor<V> loadCursor(PersistentFactory<V> factory,
+        int fetchSize, String where, Object... parameters)
+        throws SQLException;
+
     /**
      * Loads data from the database.
      * 
@@ -109,6 +156,34 @@ public interface Persistence
     public void save(Persistent object)
         throws SQLException;
 
+    /**
+     * Saves a number of objects in the database.
+     * <p>
+     * The objects are saved in a single transaction, using JDBC batches of statements that share
+     * the same text. Identifiers of new objects are allocated in bulk.
+     * </p>
+     * 
+     * @param objects the objects to be saved.
+     * @throws SQLException if any exception occured.
+     */
+    public void saveAll(Collection<? extends Persistent> objects)
+        throws SQLException;
+
+    /**
+     * Updates existing rows in the database.
+     * <p>
+     * The rows are updated in a single transaction, using JDBC batches of statements that share
+     * the same text. Unlike {@link #saveAll(Collection)}, rows that no longer exist are skipped
+     * rather than inserted again.
+     * </p>
+     * 
+     * @param rows the rows to be updated.
+     * @return the number of rows that were updated.
+     * @throws SQLException if any exception occured.
+     */
+    public int updateRows(Collection<RowUpdate> rows)
+        throws SQLException;
+
     /**
      * Reverts the object to the saved state.
      * 
@@ -138,6 +213,27 @@ public interface Persistence
     public void delete(Persistent object, boolean mustExist)
         throws SQLException;
 
+    /**
+     * Removes a number of objects from the database in a single transaction.
+     * 
+     * @param objects the objects to be removed.
+     * @throws SQLException if any of the objects was not present in the database or any exception
+     *         occurred.
+     */
+    public void deleteAll(Collection<? extends Persistent> objects)
+        throws SQLException;
+
+    /**
+     * Removes a number of objects from the database in a single transaction.
+     * 
+     * @param objects the objects to be removed.
+     * @param mustExist should an exception be thrown if any of the objects was not present in the
+     *        database.
+     * @throws SQLException if any exception occurred.
+     */
+    public void deleteAll(Collection<? extends Persistent> objects, boolean mustExist)
+        throws SQLException;
+
     /**
      * Removes the objects from the database.
      * 
@@ -0,0 +1,423 @@
+// 
+// Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+// All rights reserved. 
+// 
+// Redistribution and use in source and binary forms, with or without modification,  
+// are permitted provided that the following conditions are met: 
+//  
+// * Redistributions of source code must retain the above copyright notice,  
+//	 this list of conditions and the following disclaimer. 
+// * Redistributions in binary form must reproduce the above copyright notice,  
+//	 this list of conditions and the following disclaimer in the documentation  
+//	 and/or other materials provided with the distribution. 
+// * Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//	 nor the names of its contributors may be used to endorse or promote products  
+//	 derived from this software without specific prior written permission. 
+// 
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+// IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+// WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+// POSSIBILITY OF SUCH DAMAGE. 
+// 
+package org.objectledge.database.persistence;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.jcontainer.dna.Configuration;
+import org.jcontainer.dna.ConfigurationException;
+import org.jcontainer.dna.Logger;
+import org.objectledge.ComponentInitializationError;
+import org.objectledge.cache.CacheFactory;
+import org.objectledge.database.Transaction;
+import org.picocontainer.Startable;
+
+/**
+ * Caches the results of {@link DefaultPersistence} queries against rarely changing tables.
+ * <p>
+ * Results are cached only for the tables listed in the configuration, keyed by the query text
+ * and parameter values. Each table has a separate cache instance, named
+ * <code>persistence.query.&lt;table&gt;</code>, created by the {@link CacheFactory} from the
+ * configured alias, so that its hit rate can be monitored alongside the other cache instances.
+ * </p>
+ * <p>
+ * Every table has a version number that is incremented whenever {@link DefaultPersistence}
+ * writes to it, and cache keys include the versions of all the tables a query depends on, so
+ * writes invalidate dependent results without scanning the caches. While a transaction that
+ * wrote to a table is in progress, queries depending on that table bypass the cache, and the
+ * version is incremented again when the transaction completes.
+ * </p>
+ */
+public class QueryResultCache
+    implements Startable
+{
+    /** Prefix of the cache instance names. */
+    public static final String INSTANCE_PREFIX = "persistence.query.";
+
+    private static final Pattern TABLE_REFERENCE = Pattern.compile(
+        "\\b(?:FROM|JOIN)\\s+([A-Za-z_][A-Za-z0-9_.]*)", Pattern.CASE_INSENSITIVE);
+
+    private final CacheFactory cacheFactory;
+
+    private final Transaction transaction;
+
+    private final Persistence persistence;
+
+    private final String alias;
+
+    private final Set<String> tables = new HashSet<String>();
+
+    private final Logger log;
+
+    private final ConcurrentMap<String, Map<Key, Object>> caches =
+        new ConcurrentHashMap<String, Map<Key, Object>>();
+
+    private final ConcurrentMap<String, AtomicLong> versions =
+        new ConcurrentHashMap<String, AtomicLong>();
+
+    private final ConcurrentMap<String, AtomicInteger> pendingWrites =
+        new ConcurrentHashMap<String, AtomicInteger>();
+
+    /**
+     * Creates a QueryResultCache instance.
+     * 
+     * @param cacheFactory the CacheFactory.
+     * @param transaction the Transaction component (may be null if transactions are not used).
+     * @param persistence the Persistence component, must be a {@link DefaultPersistence}.
+     * @param alias the CacheFactory alias used to create cache instances.
+     * @param tables the names of the tables whose query results are cached.
+     * @param log the logger.
+     */
+    public QueryResultCache(CacheFactory cacheFactory, Transaction transaction,
+        Persistence persistence, String alias, String[] tables, Logger log)
+    {
+        this.cacheFactory = cacheFactory;
+        this.transaction = transaction;
+        this.persistence = persistence;
+        this.alias = alias;
+        for(String table : tables)
+        {
+            this.tables.add(table.toLowerCase());
+        }
+        this.log = log;
+        if(!(persistence instanceof DefaultPersistence))
+        {
+            throw new ComponentInitializationError("query results can be cached only for "
+                + DefaultPersistence.class.getName());
+        }
+    }
+
+    /**
+     * Creates a QueryResultCache instance.
+     * 
+     * @param cacheFactory the CacheFactory.
+     * @param transaction the Transaction component.
+     * @param persistence the Persistence component, must be a {@link DefaultPersistence}.
+     * @param config the configuration.
+     * @param log the logger.
+     * @throws ConfigurationException if the configuration is invalid.
+     */
+    public QueryResultCache(CacheFactory cacheFactory, Transaction transaction,
+        Persistence persistence, Configuration config, Logger log)
+        throws ConfigurationException
+    {
+        this(cacheFactory, transaction, persistence, config.getChild("alias").getValue(),
+            getTables(config), log);
+    }
+
+    private static String[] getTables(Configuration config)
+        throws ConfigurationException
+    {
+        Configuration[] nodes = config.getChildren("table");
+        String[] tables = new String[nodes.length];
+        for(int i = 0; i < nodes.length; i++)
+        {
+            tables[i] = nodes[i].getValue();
+        }
+        return tables;
+    }
+
+    // Startable interface //////////////////////////////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public void start()
+    {
+        ((DefaultPersistence)persistence).setResultCache(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void stop()
+    {
+        ((DefaultPersistence)persistence).setResultCache(null);
+    }
+
+    // cache access /////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a cache key for a query.
+     * 
+     * @param table the table queried.
+     * @param query the query text, including the where clause.
+     * @param parameters the query parameters.
+     * @return the key, or <code>null</code> if the results of the query should not be cached.
+     */
+    public Key getKey(String table, String query, Object... parameters)
+    {
+        String name = table.toLowerCase();
+        if(!tables.contains(name))
+        {
+            return null;
+        }
+        Set<String> dependencies = new HashSet<String>();
+        dependencies.add(name);
+        Matcher m = TABLE_REFERENCE.matcher(query);
+        while(m.find())
+        {
+            dependencies.add(m.group(1).toLowerCase());
+        }
+        String[] names = dependencies.toArray(new String[dependencies.size()]);
+        Arrays.sort(names);
+        long[] tableVersions = new long[names.length];
+        for(int i = 0; i < names.length; i++)
+        {
+            AtomicInteger pending = pendingWrites.get(names[i]);
+            if(pending != null && pending.get() > 0)
+            {
+                return null;
+            }
+            tableVersions[i] = getVersion(names[i]).get();
+        }
+        return new Key(name, query.trim().replaceAll("\\s+", " "), parameters, names,
+            tableVersions);
+    }
+
+    /**
+     * Returns a cached query result.
+     * 
+     * @param key the query key.
+     * @return the cached result, or <code>null</code> if not available.
+     */
+    public Object get(Key key)
+    {
+        Map<Key, Object> cache = getCache(key.table);
+        synchronized(cache)
+        {
+            return cache.get(key);
+        }
+    }
+
+    /**
+     * Stores a query result.
+     * 
+     * @param key the query key.
+     * @param result the result.
+     */
+    public void put(Key key, Object result)
+    {
+        Map<Key, Object> cache = getCache(key.table);
+        synchronized(cache)
+        {
+            cache.put(key, result);
+        }
+    }
+
+    /**
+     * Invalidates cached results depending on a table, after a write was performed.
+     * 
+     * @param table the table that was written to.
+     */
+    public void invalidate(String table)
+    {
+        final String name = table.toLowerCase();
+        final AtomicLong version = getVersion(name);
+        version.incrementAndGet();
+        javax.transaction.Transaction tx = getActiveTransaction();
+        if(tx != null)
+        {
+            final AtomicInteger pending = getPendingWrites(name);
+            pending.incrementAndGet();
+            try
+            {
+                tx.registerSynchronization(new Synchronization()
+                    {
+                        public void beforeCompletion()
+                        {
+                        }
+
+                        public void afterCompletion(int status)
+                        {
+                            version.incrementAndGet();
+                            pending.decrementAndGet();
+                        }
+                    });
+            }
+            catch(Exception e)
+            {
+                pending.decrementAndGet();
+                log.error("failed to register transaction synchronization", e);
+            }
+        }
+    }
+
+    // implementation ///////////////////////////////////////////////////////////////////////////
+
+    private Map<Key, Object> getCache(String table)
+    {
+        Map<Key, Object> cache = caches.get(table);
+        if(cache == null)
+        {
+            try
+            {
+                cache = cacheFactory.getInstance(INSTANCE_PREFIX + table, alias);
+            }
+            catch(ConfigurationException e)
+            {
+                throw new IllegalStateException("failed to create query cache for " + table, e);
+            }
+            Map<Key, Object> existing = caches.putIfAbsent(table, cache);
+            if(existing != null)
+            {
+                cache = existing;
+            }
+        }
+        return cache;
+    }
+
+    private AtomicLong getVersion(String table)
+    {
+        AtomicLong version = versions.get(table);
+        if(version == null)
+        {
+            version = new AtomicLong();
+            AtomicLong existing = versions.putIfAbsent(table, version);
+            if(existing != null)
+            {
+                version = existing;
+            }
+        }
+        return version;
+    }
+
+    private AtomicInteger getPendingWrites(String table)
+    {
+        AtomicInteger pending = pendingWrites.get(table);
+        if(pending == null)
+        {
+            pending = new AtomicInteger();
+            AtomicInteger existing = pendingWrites.putIfAbsent(table, pending);
+            if(existing != null)
+            {
+                pending = existing;
+            }
+        }
+        return pending;
+    }
+
+    private javax.transaction.Transaction getActiveTransaction()
+    {
+        if(transaction == null)
+        {
+            return null;
+        }
+        try
+        {
+            javax.transaction.Transaction tx = transaction.getTransactionManager()
+                .getTransaction();
+            if(tx != null && tx.getStatus() == Status.STATUS_ACTIVE)
+            {
+                return tx;
+            }
+        }
+        catch(Exception e)
+        {
+            log.error("failed to check transaction status", e);
+        }
+        return null;
+    }
+
+    /**
+     * A cache key of a query.
+     */
+    public static class Key
+    {
+        private final String table;
+
+        private final String query;
+
+        private final Object[] parameters;
+
+        private final String[] dependencies;
+
+        private final long[] versions;
+
+        private final int hashCode;
+
+        private Key(String table, String query, Object[] parameters, String[] dependencies,
+            long[] versions)
+        {
+            this.table = table;
+            this.query = query;
+            this.parameters = parameters != null ? parameters.clone() : new Object[0];
+            this.dependencies = dependencies;
+            this.versions = versions;
+            this.hashCode = (query.hashCode() * 31 + Arrays.hashCode(this.parameters)) * 31
+                + Arrays.hashCode(versions);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object obj)
+        {
+            if(!(obj instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key)obj;
+            return hashCode == other.hashCode && query.equals(other.query)
+                && Arrays.equals(parameters, other.parameters)
+                && Arrays.equals(dependencies, other.dependencies)
+                && Arrays.equals(versions, other.versions);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString()
+        {
+            return query + " " + Arrays.toString(parameters);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+// 
+//Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+//All rights reserved. 
+//   
+//Redistribution and use in source and binary forms, with or without modification,  
+//are permitted provided that the following conditions are met: 
+//   
+//* Redistributions of source code must retain the above copyright notice,  
+//this list of conditions and the following disclaimer. 
+//* Redistributions in binary form must reproduce the above copyright notice,  
+//this list of conditions and the following disclaimer in the documentation  
+//and/or other materials provided with the distribution. 
+//* Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//nor the names of its contributors may be used to endorse or promote products  
+//derived from this software without specific prior written permission. 
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+//WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+//INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+//BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+//OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+//WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+//ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+//POSSIBILITY OF SUCH DAMAGE. 
+//
+
+package org.objectledge.database.persistence;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.objectledge.database.DatabaseUtils;
+
+/**
+ * The column values of a persistent object's row, detached from the object.
+ * <p>
+ * Row updates capture the state written by {@link Persistent#getData(OutputRecord)} at the time
+ * they are created, and can be serialized. They are written with
+ * {@link Persistence#updateRows(java.util.Collection)}, which only updates existing rows.
+ * </p>
+ */
+public class RowUpdate
+    implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final String table;
+
+    private final String[] keyColumns;
+
+    private final LinkedHashMap<String, Object> values = new LinkedHashMap<String, Object>();
+
+    /**
+     * Captures the current state of an object.
+     * 
+     * @param object the object.
+     * @throws SQLException if the object's data could not be retrieved.
+     */
+    public RowUpdate(Persistent object)
+        throws SQLException
+    {
+        table = object.getTable();
+        keyColumns = object.getKeyColumns();
+        DefaultOutputRecord record = new DefaultOutputRecord(object);
+        synchronized(object)
+        {
+            object.getData(record);
+        }
+        for(String field : record.getFieldNames())
+        {
+            values.put(field, record.getValue(field, Object.class));
+        }
+    }
+
+    /**
+     * Returns the name of the table.
+     * 
+     * @return the name of the table.
+     */
+    public String getTable()
+    {
+        return table;
+    }
+
+    /**
+     * Returns the names of the key columns.
+     * 
+     * @return the names of the key columns.
+     */
+    public String[] getKeyColumns()
+    {
+        return keyColumns.clone();
+    }
+
+    /**
+     * Returns the column values.
+     * 
+     * @return the column values, in the order they were written by the object.
+     */
+    public Map<String, Object> getValues()
+    {
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * Checks if the row contains any values besides the key columns.
+     * 
+     * @return <code>true</code> if there are non-key values to be updated.
+     */
+    boolean hasNonKeyValues()
+    {
+        List<String> keys = Arrays.asList(keyColumns);
+        for(String column : values.keySet())
+        {
+            if(!keys.contains(column))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the text of the <code>UPDATE</code> statement of the row.
+     * <p>
+     * Rows of the same table containing the same set of columns produce the same statement text,
+     * so their updates can be executed as a single JDBC batch.
+     * </p>
+     * 
+     * @return the statement text.
+     */
+    String getUpdateSQL()
+    {
+        List<String> keys = Arrays.asList(keyColumns);
+        StringBuilder buff = new StringBuilder();
+        buff.append("UPDATE ").append(table).append(" SET ");
+        boolean first = true;
+        for(String column : values.keySet())
+        {
+            if(!keys.contains(column))
+            {
+                buff.append(first ? "" : ", ").append(column).append(" = ?");
+                first = false;
+            }
+        }
+        buff.append(" WHERE ");
+        for(int i = 0; i < keyColumns.length; i++)
+        {
+            buff.append(i > 0 ? " AND " : "").append(keyColumns[i]).append(" = ?");
+        }
+        return buff.toString();
+    }
+
+    /**
+     * Sets the parameters of a statement created from {@link #getUpdateSQL()}.
+     * 
+     * @param stmt the statement.
+     * @param typeMap SQL types of the table's columns, used for <code>NULL</code> values.
+     * @throws SQLException if the values could not be set.
+     */
+    void setUpdateParameters(PreparedStatement stmt, Map<String, Integer> typeMap)
+        throws SQLException
+    {
+        List<String> keys = Arrays.asList(keyColumns);
+        Connection conn = stmt.getConnection();
+        int pos = 1;
+        for(Map.Entry<String, Object> entry : values.entrySet())
+        {
+            if(!keys.contains(entry.getKey()))
+            {
+                setValue(pos++, entry.getKey(), entry.getValue(), typeMap, stmt, conn);
+            }
+        }
+        for(String key : keyColumns)
+        {
+            setValue(pos++, key, values.get(key), typeMap, stmt, conn);
+        }
+    }
+
+    private static void setValue(int pos, String column, Object value,
+        Map<String, Integer> typeMap, PreparedStatement stmt, Connection conn)
+        throws SQLException
+    {
+        Integer type = value == null ? typeMap.get(DatabaseUtils.adjustIdentifierCase(column,
+            conn)) : null;
+        DefaultOutputRecord.setValue(pos, value, type != null ? type.intValue() : Types.NULL,
+            stmt);
+    }
+}
@@ -0,0 +1,780 @@
+// 
+//Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+//All rights reserved. 
+//   
+//Redistribution and use in source and binary forms, with or without modification,  
+//are permitted provided that the following conditions are met: 
+//   
+//* Redistributions of source code must retain the above copyright notice,  
+//this list of conditions and the following disclaimer. 
+//* Redistributions in binary form must reproduce the above copyright notice,  
+//this list of conditions and the following disclaimer in the documentation  
+//and/or other materials provided with the distribution. 
+//* Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//nor the names of its contributors may be used to endorse or promote products  
+//derived from this software without specific prior written permission. 
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+//WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+//INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+//BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+//OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+//WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+//ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+//POSSIBILITY OF SUCH DAMAGE. 
+//
+
+package org.objectledge.database.persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jcontainer.dna.Configuration;
+import org.jcontainer.dna.Logger;
+import org.objectledge.context.Context;
+import org.objectledge.filesystem.FileSystem;
+import org.objectledge.filesystem.RandomAccessFile;
+import org.objectledge.pipeline.ProcessingException;
+import org.objectledge.statistics.AbstractMuninGraph;
+import org.objectledge.statistics.MuninGraph;
+import org.objectledge.statistics.StatisticsProvider;
+import org.objectledge.threads.Task;
+import org.objectledge.threads.ThreadPool;
+import org.picocontainer.Startable;
+
+/**
+ * Defers non-critical updates of persistent objects, like hit counters or last access
+ * timestamps, and writes them to the database in the background.
+ * <p>
+ * Objects passed to {@link #enqueue(Persistent)} are kept in a bounded queue, where repeated
+ * updates of the same object instance collapse into a single entry. A task run on the ThreadPool
+ * flushes the queue at the configured interval, writing the objects with
+ * {@link Persistence#updateRows(Collection)} in batches. The state of an object is captured when
+ * it is written, not when it is enqueued, so the latest state is always saved. The writes only
+ * update existing rows: the updates of objects deleted in the meantime are dropped.
+ * </p>
+ * <p>
+ * When the queue is full, the state of further objects is captured immediately and appended to
+ * the spill file, if one is configured, or written on the calling thread otherwise. Spilled
+ * updates, including the ones left over from an earlier run of the application, are replayed on
+ * subsequent flushes before the queue is written, so that they never overwrite a later state of
+ * the same object. For the same reason, objects enqueued while a flush is writing them are kept
+ * in the queue even when it is full. A spill file that cannot be replayed is renamed with a
+ * <code>.failed</code> suffix and a timestamp, and left for manual inspection. When the
+ * component is stopped, the queue is flushed, and the updates that could not be written are
+ * spilled.
+ * </p>
+ * <p>
+ * Objects that were not saved yet are saved immediately, since their identifiers need to be
+ * assigned before they can be referenced.
+ * </p>
+ */
+public class WriteBehindPersistence
+    implements StatisticsProvider, Startable
+{
+    private final Persistence persistence;
+
+    private final Config config;
+
+    private final ThreadPool threadPool;
+
+    private final FileSystem fs;
+
+    private final Logger log;
+
+    private final MuninGraph[] graphs;
+
+    /** Pending objects in the order they were first enqueued. */
+    private final Map<Ref, Persistent> pending = new LinkedHashMap<Ref, Persistent>();
+
+    /** Objects being written by the current flush, guarded by pending. */
+    private final Set<Ref> inFlight = new HashSet<Ref>();
+
+    /** Serializes flushes. */
+    private final Object flushLock = new Object();
+
+    /** Guards the spill file. */
+    private final Object spillLock = new Object();
+
+    private final AtomicLong enqueued = new AtomicLong();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private final AtomicLong written = new AtomicLong();
+
+    private final AtomicLong spilled = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile boolean shutdown = false;
+
+    /**
+     * Creates a WriteBehindPersistence instance.
+     * 
+     * @param persistence the Persistence component.
+     * @param config component's configuration.
+     * @param threadPool the ThreadPool for running the flush task (may be null).
+     * @param fs the FileSystem, for the spill file and Munin graph configuration.
+     * @param log the logger.
+     */
+    public WriteBehindPersistence(Persistence persistence, Config config, ThreadPool threadPool,
+        FileSystem fs, Logger log)
+    {
+        this.persistence = persistence;
+        this.config = config;
+        this.threadPool = threadPool;
+        this.fs = fs;
+        this.log = log;
+        graphs = new MuninGraph[] { new WriteBehind(fs) };
+    }
+
+    /**
+     * Creates a WriteBehindPersistence instance.
+     * 
+     * @param persistence the Persistence component.
+     * @param config component's configuration.
+     * @param threadPool the ThreadPool for running the flush task.
+     * @param fs the FileSystem, for the spill file and Munin graph configuration.
+     * @param log the logger.
+     */
+    public WriteBehindPersistence(Persistence persistence, Configuration config,
+        ThreadPool threadPool, FileSystem fs, Logger log)
+    {
+        this(persistence, new Config(config), threadPool, fs, log);
+    }
+
+    // Startable interface //////////////////////////////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public void start()
+    {
+        if(threadPool != null)
+        {
+            threadPool.runDaemon(new FlushTask());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void stop()
+    {
+        shutdown = true;
+        try
+        {
+            flush();
+        }
+        catch(SQLException e)
+        {
+            log.error("failed to flush deferred updates on shutdown", e);
+            List<Persistent> objects = drain();
+            if(objects.isEmpty())
+            {
+                return;
+            }
+            if(config.getSpill() != null)
+            {
+                try
+                {
+                    spill(objects);
+                    return;
+                }
+                catch(IOException ee)
+                {
+                    log.error("failed to spill deferred updates", ee);
+                }
+            }
+            failed.addAndGet(objects.size());
+            log.error(objects.size() + " deferred updates were lost");
+        }
+    }
+
+    // statistics ///////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public MuninGraph[] getGraphs()
+    {
+        return graphs;
+    }
+
+    /**
+     * Returns the number of objects waiting in the queue.
+     * 
+     * @return the number of pending objects.
+     */
+    public int getPendingCount()
+    {
+        synchronized(pending)
+        {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Returns the number of updates collapsed into updates already in the queue.
+     * 
+     * @return the number of coalesced updates.
+     */
+    public long getCoalescedCount()
+    {
+        return coalesced.get();
+    }
+
+    /**
+     * Returns the number of updates appended to the spill file.
+     * 
+     * @return the number of spilled updates.
+     */
+    public long getSpilledCount()
+    {
+        return spilled.get();
+    }
+
+    /**
+     * Returns the number of updates that could not be written.
+     * 
+     * @return the number of failed updates.
+     */
+    public long getFailedCount()
+    {
+        return failed.get();
+    }
+
+    // updates //////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Schedules an object to be saved in the background.
+     * 
+     * @param object the object.
+     * @throws SQLException if the object had to be saved on the calling thread, and saving
+     *         failed.
+     */
+    public void enqueue(Persistent object)
+        throws SQLException
+    {
+        enqueued.incrementAndGet();
+        if(object.getSaved() && !shutdown)
+        {
+            Ref ref = new Ref(object);
+            synchronized(pending)
+            {
+                if(pending.containsKey(ref))
+                {
+                    coalesced.incrementAndGet();
+                    return;
+                }
+                if(pending.size() < config.getMaxPending() || inFlight.contains(ref))
+                {
+                    pending.put(ref, object);
+                    return;
+                }
+            }
+            if(config.getSpill() != null)
+            {
+                try
+                {
+                    spill(Collections.singletonList(object));
+                    return;
+                }
+                catch(IOException e)
+                {
+                    log.error("failed to spill deferred update, saving immediately", e);
+                }
+            }
+        }
+        if(object.getSaved())
+        {
+            written.addAndGet(persistence.updateRows(Collections.singletonList(new RowUpdate(
+                object))));
+        }
+        else
+        {
+            persistence.save(object);
+            written.incrementAndGet();
+        }
+    }
+
+    /**
+     * Replays the spilled updates and writes all pending objects.
+     * <p>
+     * Objects that could not be written are returned to the queue, to be retried by the next
+     * flush. A failure to replay the spill file does not prevent the queue from being written.
+     * </p>
+     * 
+     * @throws SQLException if the objects could not be written.
+     */
+    public void flush()
+        throws SQLException
+    {
+        synchronized(flushLock)
+        {
+            replay();
+            List<Persistent> objects = drain();
+            try
+            {
+                int batchSize = config.getBatchSize();
+                for(int i = 0; i < objects.size(); i += batchSize)
+                {
+                    List<Persistent> batch = objects.subList(i, Math.min(i + batchSize, objects
+                        .size()));
+                    try
+                    {
+                        List<RowUpdate> rows = new ArrayList<RowUpdate>(batch.size());
+                        for(Persistent object : batch)
+                        {
+                            rows.add(new RowUpdate(object));
+                        }
+                        written.addAndGet(persistence.updateRows(rows));
+                    }
+                    catch(SQLException | RuntimeException e)
+                    {
+                        requeue(objects.subList(i, objects.size()));
+                        throw e;
+                    }
+                }
+            }
+            finally
+            {
+                synchronized(pending)
+                {
+                    inFlight.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all objects from the queue, marking them as being written.
+     * 
+     * @return the removed objects.
+     */
+    private List<Persistent> drain()
+    {
+        synchronized(pending)
+        {
+            List<Persistent> objects = new ArrayList<Persistent>(pending.values());
+            inFlight.addAll(pending.keySet());
+            pending.clear();
+            return objects;
+        }
+    }
+
+    /**
+     * Returns objects that could not be saved to the queue, unless they were enqueued again in
+     * the meantime.
+     * 
+     * @param objects the objects.
+     */
+    private void requeue(List<Persistent> objects)
+    {
+        synchronized(pending)
+        {
+            // the objects are put back regardless of the size limit, not to lose their updates
+            Map<Ref, Persistent> newer = new LinkedHashMap<Ref, Persistent>(pending);
+            pending.clear();
+            for(Persistent object : objects)
+            {
+                pending.put(new Ref(object), object);
+            }
+            pending.putAll(newer);
+        }
+    }
+
+    // spill file ///////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Appends the current state of objects to the spill file.
+     * 
+     * @param objects the objects.
+     * @throws IOException if the spill file could not be written.
+     */
+    private void spill(List<Persistent> objects)
+        throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for(Persistent object : objects)
+        {
+            RowUpdate row;
+            try
+            {
+                row = new RowUpdate(object);
+            }
+            catch(SQLException e)
+            {
+                throw new IOException("failed to retrieve the state of " + object, e);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try(ObjectOutputStream out = new ObjectOutputStream(bytes))
+            {
+                out.writeObject(row);
+            }
+            int length = bytes.size();
+            buffer.write(length >>> 24);
+            buffer.write(length >>> 16);
+            buffer.write(length >>> 8);
+            buffer.write(length);
+            bytes.writeTo(buffer);
+        }
+        synchronized(spillLock)
+        {
+            // rwd mode makes the update durable before the call returns
+            try(RandomAccessFile file = fs.getRandomAccess(config.getSpill(), "rwd"))
+            {
+                if(file == null)
+                {
+                    throw new IOException("cannot write " + config.getSpill());
+                }
+                file.seek(file.length());
+                file.write(buffer.toByteArray());
+            }
+        }
+        spilled.addAndGet(objects.size());
+    }
+
+    /**
+     * Writes the updates stored in the spill file.
+     * <p>
+     * The spill file is renamed before replaying, so that concurrent spills go to a new file
+     * without waiting for the updates to be written. If the renamed file cannot be read or
+     * written, it is renamed again with a <code>.failed</code> suffix, so that it does not block
+     * the queue, and its updates are counted as failed.
+     * </p>
+     */
+    private void replay()
+    {
+        String path = config.getSpill();
+        if(path == null)
+        {
+            return;
+        }
+        String replayPath = path + ".replay";
+        List<byte[]> entries = null;
+        try
+        {
+            // replay file is accessed only by flush, which is serialized by flushLock
+            if(!fs.exists(replayPath))
+            {
+                synchronized(spillLock)
+                {
+                    if(!fs.exists(path))
+                    {
+                        return;
+                    }
+                    fs.rename(path, replayPath);
+                }
+            }
+            entries = read(replayPath);
+            List<RowUpdate> rows = deserialize(entries);
+            int batchSize = config.getBatchSize();
+            for(int i = 0; i < rows.size(); i += batchSize)
+            {
+                written.addAndGet(persistence.updateRows(rows.subList(i, Math.min(i + batchSize,
+                    rows.size()))));
+            }
+            fs.delete(replayPath);
+        }
+        catch(IOException | SQLException | RuntimeException e)
+        {
+            String failedPath = path + ".failed." + System.currentTimeMillis();
+            log.error("failed to replay " + replayPath + ", moving it to " + failedPath, e);
+            if(entries != null)
+            {
+                failed.addAndGet(entries.size());
+            }
+            try
+            {
+                if(fs.exists(replayPath))
+                {
+                    fs.rename(replayPath, failedPath);
+                }
+            }
+            catch(IOException ee)
+            {
+                log.error("failed to move " + replayPath, ee);
+            }
+        }
+    }
+
+    /**
+     * Reads the serialized entries stored in a spill file.
+     * 
+     * @param path the path of the file.
+     * @return the entries.
+     * @throws IOException if the file could not be read.
+     */
+    private List<byte[]> read(String path)
+        throws IOException
+    {
+        List<byte[]> entries = new ArrayList<byte[]>();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(fs.read(path)));
+        while(in.available() >= 4)
+        {
+            int length = in.readInt();
+            if(in.available() < length)
+            {
+                // the application was killed while writing the entry
+                log.warn("ignoring truncated entry at the end of " + path);
+                break;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            entries.add(bytes);
+        }
+        return entries;
+    }
+
+    /**
+     * Deserializes the entries of a spill file.
+     * 
+     * @param entries the entries.
+     * @return the updates.
+     * @throws IOException if any of the entries is invalid.
+     */
+    private static List<RowUpdate> deserialize(List<byte[]> entries)
+        throws IOException
+    {
+        List<RowUpdate> rows = new ArrayList<RowUpdate>(entries.size());
+        for(byte[] bytes : entries)
+        {
+            try(ObjectInputStream entry = new ObjectInputStream(new ByteArrayInputStream(bytes)))
+            {
+                rows.add((RowUpdate)entry.readObject());
+            }
+            catch(ClassNotFoundException | ClassCastException e)
+            {
+                throw new IOException("invalid spill file entry", e);
+            }
+        }
+        return rows;
+    }
+
+    // inner classes ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Identity based key of a pending object.
+     */
+    private static class Ref
+    {
+        private final Persistent object;
+
+        public Ref(Persistent object)
+        {
+            this.object = object;
+        }
+
+        public int hashCode()
+        {
+            return System.identityHashCode(object);
+        }
+
+        public boolean equals(Object other)
+        {
+            return other instanceof Ref && ((Ref)other).object == object;
+        }
+    }
+
+    public class WriteBehind
+        extends AbstractMuninGraph
+    {
+        public WriteBehind(FileSystem fs)
+        {
+            super(fs);
+        }
+
+        public String getId()
+        {
+            return "writeBehind";
+        }
+
+        /**
+         * Returns the number of enqueued updates.
+         * 
+         * @return the number of enqueued updates.
+         */
+        public long getEnqueued()
+        {
+            return enqueued.get();
+        }
+
+        /**
+         * Returns the number of coalesced updates.
+         * 
+         * @return the number of coalesced updates.
+         */
+        public long getCoalesced()
+        {
+            return coalesced.get();
+        }
+
+        /**
+         * Returns the number of objects written to the database.
+         * 
+         * @return the number of written objects.
+         */
+        public long getWritten()
+        {
+            return written.get();
+        }
+
+        /**
+         * Returns the number of spilled updates.
+         * 
+         * @return the number of spilled updates.
+         */
+        public long getSpilled()
+        {
+            return spilled.get();
+        }
+
+        /**
+         * Returns the number of lost updates.
+         * 
+         * @return the number of lost updates.
+         */
+        public long getFailed()
+        {
+            return failed.get();
+        }
+    }
+
+    private class FlushTask
+        extends Task
+    {
+        /**
+         * {@inheritDoc}
+         */
+        public String getName()
+        {
+            return "Write-behind persistence flush";
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void process(Context context)
+            throws ProcessingException
+        {
+            while(!Thread.interrupted() && !shutdown)
+            {
+                try
+                {
+                    Thread.sleep(config.getInterval());
+                }
+                catch(InterruptedException e)
+                {
+                    return;
+                }
+                try
+                {
+                    flush();
+                }
+                catch(SQLException | RuntimeException e)
+                {
+                    log.error("failed to flush deferred updates", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * WriteBehindPersistence component configuration.
+     */
+    public static class Config
+    {
+        /** interval between flushes, in milliseconds. */
+        private long interval = 1000L;
+
+        /** maximum number of objects in the queue. */
+        private int maxPending = 10000;
+
+        /** maximum number of objects saved in a single transaction. */
+        private int batchSize = 500;
+
+        /** path of the spill file, null if spilling is disabled. */
+        private String spill = null;
+
+        /**
+         * Create default configuration instance.
+         */
+        public Config()
+        {
+        }
+
+        /**
+         * Create configuration instance based on DNA Configuration.
+         * 
+         * @param config
+         */
+        public Config(Configuration config)
+        {
+            interval = config.getChild("interval").getValueAsLong(interval);
+            maxPending = config.getChild("maxPending").getValueAsInteger(maxPending);
+            batchSize = config.getChild("batchSize").getValueAsInteger(batchSize);
+            spill = config.getChild("spill").getValue(spill);
+        }
+
+        public long getInterval()
+        {
+            return interval;
+        }
+
+        public int getMaxPending()
+        {
+            return maxPending;
+        }
+
+        public int getBatchSize()
+        {
+            return batchSize;
+        }
+
+        public String getSpill()
+        {
+            return spill;
+        }
+
+        public Config withInterval(long interval)
+        {
+            this.interval = interval;
+            return this;
+        }
+
+        public Config withMaxPending(int maxPending)
+        {
+            this.maxPending = maxPending;
+            return this;
+        }
+
+        public Config withBatchSize(int batchSize)
+        {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Config withSpill(String spill)
+        {
+            this.spill = spill;
+            return this;
+        }
+    }
+}
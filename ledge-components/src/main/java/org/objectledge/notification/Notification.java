@@ -28,13 +28,194 @@
 
 package org.objectledge.notification;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.jcontainer.dna.Configuration;
+import org.jcontainer.dna.ConfigurationException;
+import org.jcontainer.dna.Logger;
+import org.objectledge.context.Context;
+import org.objectledge.threads.Task;
+import org.objectledge.threads.ThreadPool;
+import org.picocontainer.Startable;
+
 /**
  * Notification component.
+ * <p>
+ * Notifications sent to a channel are delivered to the receivers registered for that channel on
+ * all other nodes of the cluster, and optionally to the local receivers. Outgoing messages are
+ * not sent one by one: they are queued per channel, identical messages queued on the same channel
+ * are coalesced, and the queue is flushed to the {@link NotificationTransport} as a single packet
+ * at most every <code>flush-interval</code> milliseconds.
+ * </p>
+ * <p>
+ * An empty message tells the receivers that some of the earlier messages on the channel were
+ * lost, and everything derived from them should be discarded. Such a message is delivered on all
+ * channels when the transport reports lost packets, and it replaces the pending messages of a
+ * channel once more than {@link #MAX_PENDING} of them accumulate.
+ * </p>
+ * <p>
+ * When no transport is configured, the component delivers notifications to local receivers only.
+ * </p>
  * 
  * @author <a href="mailto:pablo@caltha.pl">Pawel Potempski</a>
  */
 public class Notification
+    implements Startable
 {
+    /** Default flush interval in milliseconds (2ms). */
+    public static final long FLUSH_INTERVAL_DEFAULT = 2;
+
+    /** Maximum number of messages waiting for transmission on a single channel. */
+    public static final int MAX_PENDING = 10000;
+
+    /** The message telling the receivers that earlier messages were lost. */
+    private static final Message CLEAR = new Message(new byte[0]);
+
+    /** Registered receivers (channel -&gt; receivers). */
+    private final ConcurrentMap<String, List<NotificationReceiver>> receivers =
+        new ConcurrentHashMap<String, List<NotificationReceiver>>();
+
+    /** The transport, null for local only operation. */
+    private final NotificationTransport transport;
+
+    /** Maximum time outgoing messages are held back for batching. */
+    private final long flushInterval;
+
+    /** The logger. */
+    private final Logger log;
+
+    /** Set when the component is stopped. */
+    private volatile boolean shutdown = false;
+
+    /** Messages waiting for transmission (channel -&gt; coalesced messages). */
+    private Map<String, Set<Message>> pending = new LinkedHashMap<String, Set<Message>>();
+
+    /**
+     * Creates a local only Notification instance.
+     */
+    public Notification()
+    {
+        this.transport = null;
+        this.flushInterval = 0;
+        this.log = null;
+    }
+
+    /**
+     * Creates a Notification instance using the specified transport.
+     * 
+     * @param transport the transport, or <code>null</code> for local only operation.
+     * @param flushInterval maximum time outgoing messages are held back for batching, in
+     *        milliseconds.
+     * @param threadPool the thread pool component.
+     * @param log the logger.
+     * @throws IOException if the transport could not be started.
+     */
+    public Notification(NotificationTransport transport, long flushInterval,
+        ThreadPool threadPool, Logger log)
+        throws IOException
+    {
+        this.transport = transport;
+        this.flushInterval = flushInterval;
+        this.log = log;
+        if(transport != null)
+        {
+            transport.start(new NotificationTransport.Listener()
+                {
+                    public void received(byte[] packet)
+                    {
+                        dispatch(packet);
+                    }
+
+                    public void lost()
+                    {
+                        for(String channel : receivers.keySet())
+                        {
+                            deliver(channel, CLEAR.bytes);
+                        }
+                    }
+                });
+            threadPool.runDaemon(new FlushTask());
+        }
+    }
+
+    /**
+     * Creates a Notification instance.
+     * 
+     * @param config the component configuration.
+     * @param threadPool the thread pool component.
+     * @param log the logger.
+     * @throws ConfigurationException if the configuration is invalid.
+     * @throws IOException if the transport could not be started.
+     */
+    public Notification(Configuration config, ThreadPool threadPool, Logger log)
+        throws ConfigurationException, IOException
+    {
+        this(buildTransport(config.getChild("tcp-mesh", false), threadPool, log), config
+            .getChild("flush-interval").getValueAsLong(FLUSH_INTERVAL_DEFAULT), threadPool, log);
+    }
+
+    private static NotificationTransport buildTransport(Configuration config,
+        ThreadPool threadPool, Logger log)
+        throws ConfigurationException
+    {
+        if(config == null)
+        {
+            return null;
+        }
+        Configuration listen = config.getChild("listen");
+        String host = listen.getChild("host").getValue(null);
+        int port = listen.getChild("port").getValueAsInteger();
+        InetSocketAddress listenAddress = host == null ? new InetSocketAddress(port)
+            : new InetSocketAddress(host, port);
+        List<InetSocketAddress> peers = new ArrayList<InetSocketAddress>();
+        for(Configuration peer : config.getChildren("peer"))
+        {
+            peers.add(new InetSocketAddress(peer.getAttribute("host"), peer
+                .getAttributeAsInteger("port")));
+        }
+        return new TcpMeshTransport(listenAddress, peers, threadPool, log);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void start()
+    {
+        // transport is started in the constructor
+    }
+
+    /**
+     * Sends out pending messages and shuts down the transport.
+     */
+    public void stop()
+    {
+        if(transport != null)
+        {
+            synchronized(this)
+            {
+                shutdown = true;
+                notifyAll();
+            }
+            flush();
+            transport.stop();
+        }
+    }
+
     /**
      * Registers a notification receiver for a specified channel.
      *
@@ -43,7 +224,17 @@ public class Notification
      */
     public void addReceiver(String channel, NotificationReceiver receiver)
     {
-        throw new UnsupportedOperationException("not implemented yet");
+        List<NotificationReceiver> list = receivers.get(channel);
+        if(list == null)
+        {
+            list = new CopyOnWriteArrayList<NotificationReceiver>();
+            List<NotificationReceiver> existing = receivers.putIfAbsent(channel, list);
+            if(existing != null)
+            {
+                list = existing;
+            }
+        }
+        list.add(receiver);
     }
     
     /**
@@ -54,7 +245,11 @@ public class Notification
      */
     public void removeReceiver(String channel, NotificationReceiver receiver)
     {
-        throw new UnsupportedOperationException("not implemented yet");
+        List<NotificationReceiver> list = receivers.get(channel);
+        if(list != null)
+        {
+            list.remove(receiver);
+        }
     }
     
     /**
@@ -67,7 +262,215 @@ public class Notification
      */
     public void sendNotification(String channel, byte[] message, boolean localEcho)
     {
-        throw new UnsupportedOperationException("not implemented yet");
+        if(localEcho)
+        {
+            deliver(channel, message);
+        }
+        if(transport != null)
+        {
+            synchronized(this)
+            {
+                Set<Message> messages = pending.get(channel);
+                if(messages == null)
+                {
+                    messages = new LinkedHashSet<Message>();
+                    pending.put(channel, messages);
+                }
+                if(messages.size() >= MAX_PENDING)
+                {
+                    log.warn("too many pending notifications on " + channel
+                        + ", sending a clear message instead");
+                    messages.clear();
+                    messages.add(CLEAR);
+                }
+                messages.add(new Message(message));
+                notifyAll();
+            }
+        }
+    }
+
+    // implementation ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Sends all pending messages through the transport.
+     */
+    private void flush()
+    {
+        Map<String, Set<Message>> batch;
+        synchronized(this)
+        {
+            if(pending.isEmpty())
+            {
+                return;
+            }
+            batch = pending;
+            pending = new LinkedHashMap<String, Set<Message>>();
+        }
+        transport.send(encode(batch));
+    }
+
+    private void deliver(String channel, byte[] message)
+    {
+        List<NotificationReceiver> list = receivers.get(channel);
+        if(list != null)
+        {
+            for(NotificationReceiver receiver : list)
+            {
+                try
+                {
+                    receiver.receive(channel, message);
+                }
+                catch(RuntimeException e)
+                {
+                    if(log != null)
+                    {
+                        log.error("receiver failed to process notification on " + channel, e);
+                    }
+                    else
+                    {
+                        throw e;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes a batch of messages.
+     * <p>
+     * Packet format: channel count, followed by channel name, message count and length prefixed
+     * messages for each channel.
+     * </p>
+     */
+    static byte[] encode(Map<String, Set<Message>> batch)
+    {
+        try
+        {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream os = new DataOutputStream(baos);
+            os.writeInt(batch.size());
+            for(Map.Entry<String, Set<Message>> entry : batch.entrySet())
+            {
+                os.writeUTF(entry.getKey());
+                os.writeInt(entry.getValue().size());
+                for(Message message : entry.getValue())
+                {
+                    os.writeInt(message.bytes.length);
+                    os.write(message.bytes);
+                }
+            }
+            os.flush();
+            return baos.toByteArray();
+        }
+        catch(IOException e)
+        {
+            throw new RuntimeException("failed to encode notification packet", e);
+        }
+    }
+
+    /**
+     * Decodes a packet and delivers the messages to local receivers.
+     * 
+     * @param packet the packet.
+     */
+    void dispatch(byte[] packet)
+    {
+        try
+        {
+            DataInputStream is = new DataInputStream(new ByteArrayInputStream(packet));
+            int channels = is.readInt();
+            for(int i = 0; i < channels; i++)
+            {
+                String channel = is.readUTF();
+                int count = is.readInt();
+                for(int j = 0; j < count; j++)
+                {
+                    byte[] message = new byte[is.readInt()];
+                    is.readFully(message);
+                    deliver(channel, message);
+                }
+            }
+        }
+        catch(IOException e)
+        {
+            throw new RuntimeException("failed to decode notification packet", e);
+        }
+    }
+
+    /**
+     * A message wrapper that compares messages by content, used for coalescing.
+     */
+    static final class Message
+    {
+        private final byte[] bytes;
+
+        private final int hash;
+
+        Message(byte[] bytes)
+        {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public boolean equals(Object obj)
+        {
+            return obj instanceof Message && Arrays.equals(bytes, ((Message)obj).bytes);
+        }
+    }
+
+    /**
+     * The task that sends out batches of pending messages.
+     */
+    private class FlushTask
+        extends Task
+    {
+        public String getName()
+        {
+            return "notification sender";
+        }
+
+        public void process(Context context)
+        {
+            try
+            {
+                while(!Thread.interrupted())
+                {
+                    synchronized(Notification.this)
+                    {
+                        while(pending.isEmpty() && !shutdown)
+                        {
+                            Notification.this.wait();
+                        }
+                    }
+                    if(shutdown)
+                    {
+                        // remaining messages are flushed by stop()
+                        return;
+                    }
+                    if(flushInterval > 0)
+                    {
+                        // let more messages accumulate in the batch
+                        Thread.sleep(flushInterval);
+                    }
+                    try
+                    {
+                        flush();
+                    }
+                    catch(RuntimeException e)
+                    {
+                        log.error("failed to send notifications", e);
+                    }
+                }
+            }
+            catch(InterruptedException e)
+            {
+                // shutting down
+            }
+        }
     }
-    
 }
@@ -37,6 +37,9 @@ public interface NotificationReceiver
 {
     /**
      * Called when a notification is received.
+     * <p>
+     * An empty message means that some earlier notifications on the channel were lost.
+     * </p>
      *
      * @param channel the name of the channel.
      * @param message the notification.
@@ -0,0 +1,83 @@
+// 
+//Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+//All rights reserved. 
+//   
+//Redistribution and use in source and binary forms, with or without modification,  
+//are permitted provided that the following conditions are met: 
+//   
+//* Redistributions of source code must retain the above copyright notice,  
+//this list of conditions and the following disclaimer. 
+//* Redistributions in binary form must reproduce the above copyright notice,  
+//this list of conditions and the following disclaimer in the documentation  
+//and/or other materials provided with the distribution. 
+//* Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//nor the names of its contributors may be used to endorse or promote products  
+//derived from this software without specific prior written permission. 
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+//WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+//INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+//BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+//OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+//WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+//ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+//POSSIBILITY OF SUCH DAMAGE. 
+//
+
+package org.objectledge.notification;
+
+import java.io.IOException;
+
+/**
+ * Carries notification packets between the nodes of a clustered installation.
+ * <p>
+ * The transport is not concerned with the packet contents - {@link Notification} component takes
+ * care of batching the messages on the sending side and dispatching them to the receivers on
+ * the receiving side. Delivery is best effort: packets addressed to a node that is currently
+ * unreachable may be lost. The transport should report such losses to the receiving node with
+ * {@link Listener#lost()} once it is reachable again.
+ * </p>
+ */
+public interface NotificationTransport
+{
+    /**
+     * Starts the transport.
+     * 
+     * @param listener the listener that will be passed the packets received from remote nodes.
+     * @throws IOException if the transport could not be started.
+     */
+    public void start(Listener listener)
+        throws IOException;
+
+    /**
+     * Sends a packet to all remote nodes.
+     * 
+     * @param packet the packet.
+     */
+    public void send(byte[] packet);
+
+    /**
+     * Stops the transport, releasing all network resources.
+     */
+    public void stop();
+
+    /**
+     * Receives packets delivered by a transport.
+     */
+    public interface Listener
+    {
+        /**
+         * Called when a packet is received from a remote node.
+         * 
+         * @param packet the packet.
+         */
+        public void received(byte[] packet);
+
+        /**
+         * Called when some packets sent by a remote node might have been lost.
+         */
+        public void lost();
+    }
+}
@@ -0,0 +1,631 @@
+// 
+//Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+//All rights reserved. 
+//   
+//Redistribution and use in source and binary forms, with or without modification,  
+//are permitted provided that the following conditions are met: 
+//   
+//* Redistributions of source code must retain the above copyright notice,  
+//this list of conditions and the following disclaimer. 
+//* Redistributions in binary form must reproduce the above copyright notice,  
+//this list of conditions and the following disclaimer in the documentation  
+//and/or other materials provided with the distribution. 
+//* Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//nor the names of its contributors may be used to endorse or promote products  
+//derived from this software without specific prior written permission. 
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+//WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+//INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+//BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+//OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+//WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+//ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+//POSSIBILITY OF SUCH DAMAGE. 
+//
+
+package org.objectledge.notification;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jcontainer.dna.Logger;
+import org.objectledge.context.Context;
+import org.objectledge.threads.Task;
+import org.objectledge.threads.ThreadPool;
+
+/**
+ * A notification transport that keeps a TCP connection open to every other node in the cluster.
+ * <p>
+ * Each node listens on a configured address and connects to all configured peers. Packets are
+ * written to the peer connections prefixed with their length. Connections are established
+ * lazily and re-established after failures, but no more often than once in
+ * {@link #RECONNECT_DELAY} milliseconds per peer - packets addressed to a peer that is down are
+ * dropped.
+ * </p>
+ * <p>
+ * A peer that missed some packets, because it was down, because it's queue overflowed or
+ * because a write failed, is sent a resync marker before the first packet after it becomes
+ * reachable again. The receiving side reports it with {@link Listener#lost()}. The number of
+ * dropped packets is available through {@link #getDroppedCount()}.
+ * </p>
+ * <p>
+ * Every peer has a separate outgoing queue and sender thread, and writes are abandoned after
+ * {@link #WRITE_TIMEOUT} milliseconds, so that an unresponsive peer does not delay delivery to
+ * the others.
+ * </p>
+ */
+public class TcpMeshTransport
+    implements NotificationTransport
+{
+    /** Peer connection timeout in milliseconds (1s). */
+    public static final int CONNECT_TIMEOUT = 1000;
+
+    /** Peer write timeout in milliseconds (1s). */
+    public static final int WRITE_TIMEOUT = 1000;
+
+    /** Minimum delay between connection attempts to an unreachable peer (5s). */
+    public static final long RECONNECT_DELAY = 5000;
+
+    /** Maximum number of packets waiting for transmission to a single peer. */
+    private static final int QUEUE_SIZE = 1024;
+
+    /** Marks the end of a peer's outgoing queue. */
+    private static final byte[] END = new byte[0];
+
+    /** Maximum accepted packet size (16MB). */
+    private static final int MAX_PACKET_SIZE = 16 * 1024 * 1024;
+
+    /** Length field value that marks a resync marker instead of a packet. */
+    private static final int RESYNC = -1;
+
+    private final InetSocketAddress listenAddress;
+
+    private final Peer[] peers;
+
+    private final ThreadPool threadPool;
+
+    private final Logger log;
+
+    private final Set<SocketChannel> inbound = Collections
+        .synchronizedSet(new HashSet<SocketChannel>());
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private ServerSocketChannel serverChannel;
+
+    /**
+     * Creates a new TcpMeshTransport instance.
+     * 
+     * @param listenAddress the address to accept connections from peer nodes on.
+     * @param peerAddresses the addresses of the peer nodes.
+     * @param threadPool the thread pool component.
+     * @param log the logger.
+     */
+    public TcpMeshTransport(InetSocketAddress listenAddress,
+        List<InetSocketAddress> peerAddresses, ThreadPool threadPool, Logger log)
+    {
+        this.listenAddress = listenAddress;
+        this.threadPool = threadPool;
+        this.log = log;
+        peers = new Peer[peerAddresses.size()];
+        for(int i = 0; i < peers.length; i++)
+        {
+            peers[i] = new Peer(peerAddresses.get(i));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void start(Listener listener)
+        throws IOException
+    {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(true);
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(listenAddress);
+        threadPool.runDaemon(new AcceptTask(listener));
+        for(Peer peer : peers)
+        {
+            threadPool.runDaemon(new SendTask(peer));
+        }
+    }
+
+    /**
+     * Returns the port the transport is listening on.
+     * 
+     * @return the local port, or -1 if the transport was not started.
+     */
+    public int getLocalPort()
+    {
+        return serverChannel != null ? serverChannel.socket().getLocalPort() : -1;
+    }
+
+    /**
+     * Returns the number of packets that were not delivered to some peer.
+     * 
+     * @return the number of dropped packets, counted once for every peer that missed them.
+     */
+    public long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void send(byte[] packet)
+    {
+        for(Peer peer : peers)
+        {
+            peer.enqueue(packet);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void stop()
+    {
+        if(serverChannel != null)
+        {
+            close(serverChannel);
+        }
+        // let the senders transmit the packets already queued, within the timeouts
+        for(Peer peer : peers)
+        {
+            peer.finish();
+        }
+        for(Peer peer : peers)
+        {
+            peer.awaitFinished();
+            peer.close();
+        }
+        synchronized(inbound)
+        {
+            for(SocketChannel channel : inbound)
+            {
+                close(channel);
+            }
+            inbound.clear();
+        }
+    }
+
+    // implementation ///////////////////////////////////////////////////////////////////////////
+
+    private void close(Channel channel)
+    {
+        try
+        {
+            channel.close();
+        }
+        catch(IOException e)
+        {
+            log.error("failed to close channel", e);
+        }
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer)
+        throws IOException
+    {
+        while(buffer.hasRemaining())
+        {
+            if(channel.read(buffer) < 0)
+            {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Outbound connection to a peer node.
+     */
+    private class Peer
+    {
+        private final InetSocketAddress address;
+
+        private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<byte[]>(QUEUE_SIZE);
+
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        private SocketChannel channel;
+
+        private Selector selector;
+
+        private volatile long retryAfter;
+
+        /** Set when packets were dropped since the last resync marker was sent. */
+        private volatile boolean lost;
+
+        public Peer(InetSocketAddress address)
+        {
+            this.address = address;
+        }
+
+        /**
+         * Queues a packet for transmission, unless the peer is known to be down.
+         * 
+         * @param packet the packet.
+         */
+        public void enqueue(byte[] packet)
+        {
+            if(System.currentTimeMillis() < retryAfter)
+            {
+                drop(1);
+                return;
+            }
+            if(!queue.offer(packet))
+            {
+                log.warn("outgoing queue of peer " + address + " is full, dropping packet");
+                drop(1);
+            }
+        }
+
+        /**
+         * Asks the sender to stop after transmitting the packets already queued.
+         */
+        public void finish()
+        {
+            if(!queue.offer(END))
+            {
+                queue.clear();
+                queue.offer(END);
+            }
+        }
+
+        public void awaitFinished()
+        {
+            try
+            {
+                finished.await(CONNECT_TIMEOUT + WRITE_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public synchronized void send(byte[] packet)
+        {
+            long now = System.currentTimeMillis();
+            if(channel == null)
+            {
+                if(now < retryAfter)
+                {
+                    drop(1);
+                    return;
+                }
+                try
+                {
+                    channel = SocketChannel.open();
+                    channel.socket().setTcpNoDelay(true);
+                    channel.socket().connect(address, CONNECT_TIMEOUT);
+                    channel.configureBlocking(false);
+                    selector = Selector.open();
+                    channel.register(selector, SelectionKey.OP_WRITE);
+                }
+                catch(IOException e)
+                {
+                    log.warn("failed to connect to peer " + address + ": " + e.getMessage());
+                    close();
+                    drop(1);
+                    down(now);
+                    return;
+                }
+            }
+            try
+            {
+                if(lost)
+                {
+                    lost = false;
+                    ByteBuffer marker = ByteBuffer.allocate(4);
+                    marker.putInt(RESYNC);
+                    marker.flip();
+                    write(marker, now + WRITE_TIMEOUT);
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(4 + packet.length);
+                buffer.putInt(packet.length);
+                buffer.put(packet);
+                buffer.flip();
+                write(buffer, now + WRITE_TIMEOUT);
+            }
+            catch(IOException e)
+            {
+                log.warn("failed to send notification to peer " + address + ": "
+                    + e.getMessage());
+                close();
+                drop(1);
+                down(now);
+            }
+        }
+
+        private void write(ByteBuffer buffer, long deadline)
+            throws IOException
+        {
+            while(buffer.hasRemaining())
+            {
+                if(channel.write(buffer) == 0)
+                {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if(remaining <= 0)
+                    {
+                        throw new IOException("write timed out");
+                    }
+                    selector.select(remaining);
+                    selector.selectedKeys().clear();
+                }
+            }
+        }
+
+        /**
+         * Marks the peer down, discarding the packets waiting for it.
+         * 
+         * @param now the current time.
+         */
+        private void down(long now)
+        {
+            retryAfter = now + RECONNECT_DELAY;
+            boolean finishing = queue.contains(END);
+            int discarded = queue.size() - (finishing ? 1 : 0);
+            queue.clear();
+            if(finishing)
+            {
+                queue.offer(END);
+            }
+            drop(discarded);
+        }
+
+        /**
+         * Records packets that will not reach the peer, and requests a resync marker.
+         * 
+         * @param count the number of dropped packets.
+         */
+        private void drop(int count)
+        {
+            lost = true;
+            dropped.addAndGet(count);
+        }
+
+        public synchronized void close()
+        {
+            if(channel != null)
+            {
+                TcpMeshTransport.this.close(channel);
+                channel = null;
+            }
+            if(selector != null)
+            {
+                try
+                {
+                    selector.close();
+                }
+                catch(IOException e)
+                {
+                    log.error("failed to close selector", e);
+                }
+                selector = null;
+            }
+        }
+    }
+
+    /**
+     * A daemon task that transmits the packets queued for a single peer.
+     */
+    private class SendTask
+        extends Task
+    {
+        private final Peer peer;
+
+        public SendTask(Peer peer)
+        {
+            this.peer = peer;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public String getName()
+        {
+            return "notification sender for " + peer.address;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void process(Context context)
+        {
+            try
+            {
+                while(!Thread.interrupted())
+                {
+                    byte[] packet = peer.queue.take();
+                    if(packet == END)
+                    {
+                        return;
+                    }
+                    peer.send(packet);
+                }
+            }
+            catch(InterruptedException e)
+            {
+                // shutting down
+            }
+            finally
+            {
+                peer.finished.countDown();
+            }
+        }
+    }
+
+    /**
+     * A daemon task that accepts incoming peer connections.
+     */
+    private class AcceptTask
+        extends Task
+    {
+        private final Listener listener;
+
+        public AcceptTask(Listener listener)
+        {
+            this.listener = listener;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public String getName()
+        {
+            return "notification accept thread";
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void process(Context context)
+        {
+            while(!Thread.interrupted() && serverChannel.isOpen())
+            {
+                try
+                {
+                    SocketChannel channel = serverChannel.accept();
+                    channel.socket().setTcpNoDelay(true);
+                    inbound.add(channel);
+                    threadPool.runDaemon(new ReceiveTask(channel, listener));
+                }
+                catch(ClosedChannelException e)
+                {
+                    log.info("notification transport shutting down");
+                    return;
+                }
+                catch(IOException e)
+                {
+                    log.error("problem accepting peer connection", e);
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void terminate(Thread thread)
+        {
+            thread.interrupt();
+            close(serverChannel);
+        }
+    }
+
+    /**
+     * A daemon task that reads packets from a single peer connection.
+     */
+    private class ReceiveTask
+        extends Task
+    {
+        private final SocketChannel channel;
+
+        private final Listener listener;
+
+        public ReceiveTask(SocketChannel channel, Listener listener)
+        {
+            this.channel = channel;
+            this.listener = listener;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public String getName()
+        {
+            return "notification receiver for " + channel.socket().getRemoteSocketAddress();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void process(Context context)
+        {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            try
+            {
+                while(!Thread.interrupted())
+                {
+                    header.clear();
+                    readFully(channel, header);
+                    int length = header.getInt();
+                    if(length == RESYNC)
+                    {
+                        try
+                        {
+                            listener.lost();
+                        }
+                        catch(RuntimeException e)
+                        {
+                            log.error("failed to process resync marker", e);
+                        }
+                        continue;
+                    }
+                    if(length < 0 || length > MAX_PACKET_SIZE)
+                    {
+                        throw new IOException("invalid packet length " + length);
+                    }
+                    ByteBuffer body = ByteBuffer.allocate(length);
+                    readFully(channel, body);
+                    try
+                    {
+                        listener.received(body.array());
+                    }
+                    catch(RuntimeException e)
+                    {
+                        log.error("failed to process notification packet", e);
+                    }
+                }
+            }
+            catch(EOFException e)
+            {
+                // peer disconnected
+            }
+            catch(ClosedChannelException e)
+            {
+                // transport stopped
+            }
+            catch(IOException e)
+            {
+                log.warn("peer connection failed: " + e.getMessage());
+            }
+            finally
+            {
+                inbound.remove(channel);
+                close(channel);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void terminate(Thread thread)
+        {
+            thread.interrupt();
+            close(channel);
+        }
+    }
+}
@@ -28,11 +28,22 @@
 
 package org.objectledge.cache;
 
+import java.io.File;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.sql.DataSource;
 
@@ -43,18 +54,31 @@ import org.jcontainer.dna.impl.Log4JLogger;
 import org.objectledge.btm.BitronixDataSource;
 import org.objectledge.btm.BitronixTransaction;
 import org.objectledge.btm.BitronixTransactionManager;
+import org.objectledge.cache.impl.AccessTrackingMap;
 import org.objectledge.cache.impl.DelegateMap;
+import org.objectledge.cache.impl.LongKeyConcurrentHashMapImpl;
+import org.objectledge.cache.impl.NegativeMapImpl;
+import org.objectledge.cache.impl.ObjectSizeWeigher;
 import org.objectledge.cache.spi.CacheFactorySPI;
+import org.objectledge.cache.spi.FactoryMap;
 import org.objectledge.cache.spi.LRUMap;
+import org.objectledge.cache.spi.NegativeMap;
+import org.objectledge.cache.spi.OffHeapMap;
 import org.objectledge.cache.spi.StatisticsMap;
+import org.objectledge.cache.spi.TimeoutMap;
+import org.objectledge.cache.spi.TinyLFUMap;
 import org.objectledge.context.Context;
 import org.objectledge.database.Database;
+import org.objectledge.database.DatabaseUtils;
 import org.objectledge.database.DefaultDatabase;
 import org.objectledge.database.IdGenerator;
 import org.objectledge.database.SequenceIdGenerator;
 import org.objectledge.database.Transaction;
 import org.objectledge.database.persistence.DefaultPersistence;
 import org.objectledge.database.persistence.Persistence;
+import org.objectledge.database.persistence.Persistent;
+import org.objectledge.database.persistence.PersistentFactory;
+import org.objectledge.database.persistence.TestObject;
 import org.objectledge.filesystem.ClasspathFileSystemProvider;
 import org.objectledge.filesystem.FileSystem;
 import org.objectledge.filesystem.FileSystemProvider;
@@ -78,21 +102,29 @@ public class CachingTest extends LedgeTestCase
 
     private DefaultThreadPool pool;
 
+    private DataSource dataSource;
+
+    private Persistence persistence;
+
+    private Configuration config;
+
+    private Logger logger;
+
     public void setUp()
     throws Exception
     {
         Context context = new Context();
         Valve cleanup = null;
-        Configuration config = new DefaultConfiguration("config", "", "/config");
-        Logger logger = new Log4JLogger(org.apache.log4j.Logger.getLogger(getClass()));
+        config = new DefaultConfiguration("config", "", "/config");
+        logger = new Log4JLogger(org.apache.log4j.Logger.getLogger(getClass()));
         pool = new DefaultThreadPool(cleanup, context, config, logger);
         btm = new BitronixTransactionManager("hsql", "org.hsqldb.jdbc.pool.JDBCXADataSource",
             getDsProperties(), getFileSystem(), logger);
-        DataSource dataSource = new BitronixDataSource("hsql", btm);
+        dataSource = new BitronixDataSource("hsql", btm);
         Transaction transaction = new BitronixTransaction(btm, context, logger, null);
         IdGenerator idGenerator = new SequenceIdGenerator(dataSource);
         Database database = new DefaultDatabase(dataSource, idGenerator, transaction);
-        Persistence persistence = new DefaultPersistence(database, logger);
+        persistence = new DefaultPersistence(database, logger);
         notification = new Notification();
 
         FileSystemProvider lfs = new LocalFileSystemProvider("local", "src/test/resources");
@@ -222,6 +254,36 @@ public class CachingTest extends LedgeTestCase
         }
     }
 
+    public void testTimeoutTouch()
+        throws Exception
+    {
+        TimeoutMap<Integer, String> map = (TimeoutMap<Integer, String>)caching
+            .<Integer, String> getTimeoutMap(400);
+        for(int i = 0; i < 1000; i++)
+        {
+            map.put(i, "v");
+        }
+        for(int n = 0; n < 6; n++)
+        {
+            Thread.sleep(100);
+            assertNotNull("touched entry", map.get(0));
+        }
+        assertNull("expired entry", map.get(1));
+        assertTrue(map.containsKey(0));
+        assertFalse(map.containsKey(2));
+        // expired entries are removed by subsequent operations
+        for(int n = 0; n < 40 && map.size() > 1; n++)
+        {
+            Thread.sleep(20);
+            map.get(0);
+        }
+        assertEquals(1, map.size());
+        map.setTimeout(50);
+        Thread.sleep(100);
+        assertNull(map.get(0));
+        assertNull(map.remove(0));
+    }
+
     public void testLRU()
     {
         Map<String, String> map = caching.getInstance("LRU");
@@ -244,6 +306,507 @@ public class CachingTest extends LedgeTestCase
         assertNotNull("k6 in",map.get("k6"));
     }
 
+    public void testTinyLFU()
+    {
+        Map<String, String> map = caching.getInstance("tinyLFU");
+        assertTrue(map instanceof StatisticsMap<?, ?>);
+        for(int i = 1; i <= 5; i++)
+        {
+            map.put("k" + i, "v");
+        }
+        for(int n = 0; n < 3; n++)
+        {
+            for(int i = 1; i <= 5; i++)
+            {
+                assertNotNull("k" + i + " in", map.get("k" + i));
+            }
+        }
+        // a scan of one-off keys must not flush frequently used entries
+        for(int i = 0; i < 100; i++)
+        {
+            map.put("scan" + i, "v");
+        }
+        assertEquals(5, map.size());
+        int retained = 0;
+        for(int i = 1; i <= 5; i++)
+        {
+            if(((StatisticsMap<String, String>)map).getDelegate().containsKey("k" + i))
+            {
+                retained++;
+            }
+        }
+        assertTrue("frequent entries retained: " + retained, retained >= 3);
+        map.remove("k1");
+        assertNull(map.get("k1"));
+        map.clear();
+        assertEquals(0, map.size());
+    }
+
+    public void testTinyLFUConcurrent()
+        throws Exception
+    {
+        final TinyLFUMap<Integer, Integer> map = (TinyLFUMap<Integer, Integer>)caching
+            .<Integer, Integer> getMap("TinyLFUMap");
+        map.setCapacity(100);
+        Thread[] threads = new Thread[8];
+        for(int t = 0; t < threads.length; t++)
+        {
+            final int seed = t;
+            threads[t] = new Thread()
+                {
+                    public void run()
+                    {
+                        for(int i = 0; i < 10000; i++)
+                        {
+                            Integer key = Integer.valueOf((i * 31 + seed) % 500);
+                            if(map.get(key) == null)
+                            {
+                                map.put(key, key);
+                            }
+                        }
+                    }
+                };
+            threads[t].start();
+        }
+        for(Thread thread : threads)
+        {
+            thread.join();
+        }
+        assertTrue(map.size() <= 100);
+        for(Map.Entry<Integer, Integer> entry : map.entrySet())
+        {
+            assertEquals(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public void testLongKeyConcurrent()
+    {
+        Map<Long, String> map = caching.getInstance("longKeyConcurrent");
+        assertTrue(map instanceof StatisticsMap<?, ?>);
+        for(long i = -500; i < 500; i++)
+        {
+            map.put(Long.valueOf(i), "v" + i);
+        }
+        assertEquals(1000, map.size());
+        for(long i = -500; i < 500; i++)
+        {
+            assertEquals("v" + i, map.get(Long.valueOf(i)));
+        }
+        for(long i = -500; i < 500; i += 2)
+        {
+            assertEquals("v" + i, map.remove(Long.valueOf(i)));
+        }
+        assertEquals(500, map.size());
+        assertNull(map.get(Long.valueOf(-500)));
+        assertEquals("v-499", map.get(Long.valueOf(-499)));
+        map.put(Long.valueOf(-500), null);
+        assertTrue(map.containsKey(Long.valueOf(-500)));
+        assertNull(map.get(Long.valueOf(-500)));
+        assertNull(map.get("-499"));
+        int entries = 0;
+        for(Map.Entry<Long, String> entry : map.entrySet())
+        {
+            if(entry.getValue() != null)
+            {
+                assertEquals("v" + entry.getKey(), entry.getValue());
+            }
+            entries++;
+        }
+        assertEquals(501, entries);
+        map.clear();
+        assertTrue(map.isEmpty());
+    }
+
+    public void testLongKeyConcurrentThreads()
+        throws Exception
+    {
+        final LongKeyConcurrentHashMapImpl<Long> map = (LongKeyConcurrentHashMapImpl<Long>)caching
+            .<Long, Long> getMap(DefaultCacheFactory.LONG_KEY_CONCURRENT_HASH_MAP_TYPE);
+        final AtomicInteger errors = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for(int t = 0; t < threads.length; t++)
+        {
+            final long seed = t;
+            threads[t] = new Thread()
+                {
+                    public void run()
+                    {
+                        for(long i = 0; i < 20000; i++)
+                        {
+                            long key = (i * 31 + seed) % 5000;
+                            Long value = map.get(key);
+                            if(value != null && value.longValue() != key)
+                            {
+                                errors.incrementAndGet();
+                            }
+                            if(i % 3 == 0)
+                            {
+                                map.remove(key);
+                            }
+                            else
+                            {
+                                map.put(key, Long.valueOf(key));
+                            }
+                        }
+                    }
+                };
+            threads[t].start();
+        }
+        for(Thread thread : threads)
+        {
+            thread.join();
+        }
+        assertEquals(0, errors.get());
+        int entries = 0;
+        for(Map.Entry<Long, Long> entry : map.entrySet())
+        {
+            assertEquals(entry.getKey(), entry.getValue());
+            entries++;
+        }
+        assertEquals(map.size(), entries);
+    }
+
+    public void testOffHeap()
+    {
+        Map<Integer, String> map = caching.getInstance("offHeap");
+        assertTrue(map instanceof OffHeapMap<?, ?>);
+        assertEquals(4096, ((OffHeapMap<?, ?>)map).getMaxBytes());
+        map.put(1, "one");
+        assertEquals("one", map.get(1));
+        assertNull(map.put(2, "two"));
+        assertEquals("two", map.put(2, "deux"));
+        assertEquals("deux", map.get(2));
+        assertEquals(2, map.size());
+        assertEquals("one", map.remove(1));
+        assertNull(map.get(1));
+        // values larger than a segment are not stored
+        map.put(3, new String(new char[2048]));
+        assertNull(map.get(3));
+        // filling the budget evicts the oldest segments
+        for(int i = 0; i < 1000; i++)
+        {
+            map.put(i, "value " + i);
+        }
+        assertTrue(((OffHeapMap<?, ?>)map).getUsedBytes() <= 4096);
+        assertTrue(map.size() < 1000);
+        assertEquals("value 999", map.get(999));
+        assertNull(map.get(0));
+        for(Map.Entry<Integer, String> entry : map.entrySet())
+        {
+            assertEquals("value " + entry.getKey(), entry.getValue());
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(0, ((OffHeapMap<?, ?>)map).getUsedBytes());
+    }
+
+    public void testOffHeapFront()
+    {
+        Map<Integer, String> map = caching.getInstance("offHeapFront");
+        for(int i = 0; i < 10; i++)
+        {
+            map.put(i, "v" + i);
+        }
+        assertEquals(10, map.size());
+        Map<Integer, String> front = ((DelegateMap<Integer, String>)map).getDelegate();
+        assertEquals(2, front.size());
+        assertFalse(front.containsKey(0));
+        assertEquals("v0", map.get(0));
+        assertTrue(front.containsKey(0));
+        map.remove(0);
+        assertFalse(front.containsKey(0));
+        assertNull(map.get(0));
+    }
+
+    public void testFactorySingleFlight()
+        throws Exception
+    {
+        final AtomicInteger calls = new AtomicInteger();
+        ValueFactory<String, String> slowFactory = new ValueFactory<String, String>()
+            {
+                public String getValue(String key)
+                {
+                    calls.incrementAndGet();
+                    try
+                    {
+                        Thread.sleep(200);
+                    }
+                    catch(InterruptedException e)
+                    {
+                        throw new RuntimeException(e);
+                    }
+                    return key + calls.get();
+                }
+            };
+        final Map<String, String> map = caching.getStatisticsMap("singleFlight",
+            caching.getFactoryMap(slowFactory, new ConcurrentHashMap<String, String>()));
+        final String[] results = new String[8];
+        Thread[] threads = new Thread[results.length];
+        for(int t = 0; t < threads.length; t++)
+        {
+            final int index = t;
+            threads[t] = new Thread()
+                {
+                    public void run()
+                    {
+                        results[index] = map.get("k");
+                    }
+                };
+            threads[t].start();
+        }
+        for(Thread thread : threads)
+        {
+            thread.join();
+        }
+        assertEquals(1, calls.get());
+        for(String result : results)
+        {
+            assertEquals("k1", result);
+        }
+        StatisticsMap<String, String> stats = (StatisticsMap<String, String>)map;
+        assertEquals(1, stats.getLoadCount());
+        assertEquals(results.length - 1, stats.getCoalescedCount());
+        assertTrue(stats.getLoadWaitTime() >= 200);
+        assertTrue(stats.getStatistics().contains("coalesced misses"));
+    }
+
+    public void testFactoryStaleWhileRevalidate()
+        throws Exception
+    {
+        final AtomicInteger calls = new AtomicInteger();
+        ValueFactory<String, String> factory = new ValueFactory<String, String>()
+            {
+                public String getValue(String key)
+                {
+                    return key + calls.incrementAndGet();
+                }
+            };
+        FactoryMap<String, String> map = (FactoryMap<String, String>)caching.getFactoryMap(
+            factory, new ConcurrentHashMap<String, String>());
+        map.setRefreshInterval(100);
+        assertEquals("k1", map.get("k"));
+        assertEquals("k1", map.get("k"));
+        Thread.sleep(150);
+        assertEquals("k2", map.get("k"));
+        assertEquals("k2", map.get("k"));
+        assertEquals(2, map.getLoadCount());
+        map.remove("k");
+        assertEquals("k3", map.get("k"));
+    }
+
+    public void testWeighted()
+    {
+        Map<String, byte[]> map = caching.getInstance("weighted");
+        StatisticsMap<String, byte[]> stats = (StatisticsMap<String, byte[]>)map;
+        assertEquals(1024L, stats.getMaxWeight());
+        assertEquals(0L, stats.getWeight());
+        map.put("a", new byte[250]);
+        map.put("b", new byte[250]);
+        map.put("c", new byte[250]);
+        assertEquals(3, map.size());
+        long weight = stats.getWeight();
+        assertTrue("weight " + weight, weight >= 750 && weight <= 1024);
+        assertNotNull(map.get("a"));
+        // b is least recently used now
+        map.put("d", new byte[250]);
+        assertNull(map.get("b"));
+        assertNotNull(map.get("a"));
+        assertNotNull(map.get("c"));
+        assertNotNull(map.get("d"));
+        assertTrue(stats.getWeight() <= 1024);
+        // heavier than the budget, not retained
+        map.put("e", new byte[2000]);
+        assertNull(map.get("e"));
+        Iterator<String> keys = map.keySet().iterator();
+        keys.next();
+        keys.remove();
+        assertEquals(2, map.size());
+        assertTrue(stats.getWeight() < weight);
+        map.clear();
+        assertEquals(0L, stats.getWeight());
+        assertEquals(-1L, ((StatisticsMap<?, ?>)caching.getInstance("statistics")).getWeight());
+    }
+
+    public void testObjectSizeWeigher()
+    {
+        assertEquals(0L, ObjectSizeWeigher.estimate((Object)null));
+        long empty = ObjectSizeWeigher.estimate(new ArrayList<String>());
+        List<String> list = new ArrayList<String>();
+        for(int i = 0; i < 100; i++)
+        {
+            list.add("element " + i);
+        }
+        long full = ObjectSizeWeigher.estimate(list);
+        assertTrue(full - empty > 100 * 2 * "element 00".length());
+        long[] array = new long[128];
+        assertTrue(ObjectSizeWeigher.estimate(array) >= 1024);
+        // shared objects are counted once
+        assertEquals(ObjectSizeWeigher.estimate(array), ObjectSizeWeigher.estimate(array, array));
+        TestValue value = new TestValue("a rather long name of the test value", 1);
+        assertTrue(ObjectSizeWeigher.estimate(value) > 2 * value.getName().length());
+    }
+
+    public void testNegative()
+    {
+        Map<String, String> map = caching.getInstance("negative");
+        assertTrue(map instanceof NegativeMap<?, ?>);
+        CountingValueFactory.LOADS.set(0);
+        assertNull(map.get("missing1"));
+        assertNull(map.get("missing1"));
+        assertEquals(1, CountingValueFactory.LOADS.get());
+        assertEquals(1L, ((NegativeMap<?, ?>)map).getNegativeHitCount());
+        map.put("missing1", "created");
+        assertEquals("created", map.get("missing1"));
+        assertNull(map.get("missing2"));
+        ((NegativeMap<String, String>)map).updated("missing2");
+        assertNull(map.get("missing2"));
+        assertEquals(3, CountingValueFactory.LOADS.get());
+    }
+
+    public void testNegativeFilter()
+    {
+        Map<String, String> factoryMap = caching.getFactoryMap(new CountingValueFactory(),
+            new HashMap<String, String>());
+        NegativeMapImpl<String, String> map = new NegativeMapImpl<String, String>();
+        map.setDelegate(factoryMap);
+        map.setTimeout(0);
+        map.setFilterCapacity(100);
+        map.rebuild();
+        CountingValueFactory.LOADS.set(0);
+        assertNull(map.get("missing1"));
+        assertNull(map.get("missing2"));
+        assertEquals("value of present", map.get("present"));
+        assertEquals(1, CountingValueFactory.LOADS.get());
+        map.put("added", "value");
+        factoryMap.clear();
+        assertEquals("value of added", map.get("added"));
+        assertEquals(2, CountingValueFactory.LOADS.get());
+        map.remove("missing3");
+        assertNull(map.get("missing3"));
+        assertEquals(3, CountingValueFactory.LOADS.get());
+        assertEquals(2L, map.getNegativeHitCount());
+    }
+
+    public void testNegativeRace()
+        throws Exception
+    {
+        final AtomicBoolean block = new AtomicBoolean(true);
+        final CountDownLatch missed = new CountDownLatch(1);
+        final CountDownLatch stored = new CountDownLatch(1);
+        final NegativeMapImpl<String, String> map = new NegativeMapImpl<String, String>();
+        map.setDelegate(new ConcurrentHashMap<String, String>()
+            {
+                @Override
+                public String get(Object key)
+                {
+                    String value = super.get(key);
+                    if(block.compareAndSet(true, false))
+                    {
+                        // the value is put by another thread after the lookup missed it
+                        missed.countDown();
+                        try
+                        {
+                            stored.await();
+                        }
+                        catch(InterruptedException e)
+                        {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return value;
+                }
+            });
+        map.setTimeout(60000);
+        Thread reader = new Thread()
+            {
+                public void run()
+                {
+                    map.get("key");
+                }
+            };
+        reader.start();
+        missed.await();
+        map.put("key", "value");
+        stored.countDown();
+        reader.join();
+        assertEquals("value", map.get("key"));
+    }
+
+    public void testWarmup()
+        throws Exception
+    {
+        File dir = new File("target/cache-warmup");
+        dir.mkdirs();
+        FileSystem fs = new FileSystem(new FileSystemProvider[] { new LocalFileSystemProvider(
+            "local", dir.getAbsolutePath()) }, 4096, 4096);
+        String path = DefaultCacheFactory.WARMUP_DIRECTORY_DEFAULT + "/warmup.keys";
+        if(fs.exists(path))
+        {
+            fs.delete(path);
+        }
+
+        DefaultCacheFactory first = new DefaultCacheFactory(config, logger, pool, notification,
+            persistence, fs);
+        first.start();
+        Map<String, String> map = first.getInstance("warmup");
+        for(int i = 0; i < 5; i++)
+        {
+            map.get("hot");
+        }
+        for(int i = 0; i < 3; i++)
+        {
+            map.get("warm");
+        }
+        map.get("cold");
+        first.stop();
+
+        CountingValueFactory.LOADS.set(0);
+        DefaultCacheFactory second = new DefaultCacheFactory(config, logger, pool, notification,
+            persistence, fs);
+        second.start();
+        for(int i = 0; i < 100 && CountingValueFactory.LOADS.get() < 2; i++)
+        {
+            Thread.sleep(50);
+        }
+        assertEquals(2, CountingValueFactory.LOADS.get());
+        map = second.getInstance("warmup");
+        assertEquals("value of hot", map.get("hot"));
+        assertEquals("value of warm", map.get("warm"));
+        assertEquals(2, CountingValueFactory.LOADS.get());
+        assertEquals("value of cold", map.get("cold"));
+        assertEquals(3, CountingValueFactory.LOADS.get());
+        second.stop();
+    }
+
+    public void testAccessTracking()
+    {
+        Map<String, String> delegate = new HashMap<String, String>()
+            {
+                public Set<String> keySet()
+                {
+                    throw new UnsupportedOperationException("not thread safe");
+                }
+            };
+        AccessTrackingMap<String, String> map = new AccessTrackingMap<String, String>(delegate,
+            4);
+        for(int i = 0; i < 20; i++)
+        {
+            map.get("hot");
+            map.get("warm" + (i % 2));
+        }
+        for(int i = 0; i < 100; i++)
+        {
+            map.get("cold" + i);
+        }
+        List<String> hottest = map.getHottestKeys(10);
+        assertTrue(hottest.size() <= 4);
+        assertEquals("hot", hottest.get(0));
+        assertTrue(hottest.contains("warm0"));
+        assertTrue(hottest.contains("warm1"));
+        map.remove("hot");
+        assertFalse(map.getHottestKeys(10).contains("hot"));
+    }
+
     public void testSoft()
     {
         Map<Integer, Object> map = caching.getInstance("soft");
@@ -375,6 +938,132 @@ public class CachingTest extends LedgeTestCase
         }
     }
 
+    public void testDelayedUpdateRegistration()
+        throws Exception
+    {
+        DefaultCacheFactory.DelayedUpdateQueueGraph queue = ((DefaultCacheFactory)caching).new
+            DelayedUpdateQueueGraph(getFileSystem());
+        int depth = queue.getDepth();
+        Delayed d = new Delayed();
+        for(int i = 0; i < 1000; i++)
+        {
+            caching.register(d);
+        }
+        // re-registration postpones the existing entry instead of adding another
+        assertTrue(queue.getDepth() <= depth + 1);
+        Thread.sleep(300);
+        assertEquals(1, updateCounter);
+    }
+
+    private class PersistentDelayed
+        implements PersistentDelayedUpdate
+    {
+        private final TestObject object;
+
+        private int updates;
+
+        public PersistentDelayed(TestObject object)
+        {
+            this.object = object;
+        }
+
+        public long getUpdateLatency()
+        {
+            return 100;
+        }
+
+        public void update()
+        {
+            updates++;
+        }
+
+        public Persistent getPersistent()
+        {
+            return object;
+        }
+    }
+
+    public void testPersistentDelayedUpdate()
+        throws Exception
+    {
+        FileSystem fs = FileSystem.getStandardFileSystem("src/test/resources");
+        String script = DatabaseUtils.hasTable(dataSource, "test_object") ?
+            "sql/database/persistence/TruncateTestObject.sql" : "sql/database/persistence/TestObject.sql";
+        try(Reader reader = fs.getReader(script, "UTF-8"))
+        {
+            DatabaseUtils.runScript(dataSource, reader);
+        }
+        TestObject saved1 = new TestObject("a", new Date());
+        TestObject saved2 = new TestObject("b", new Date());
+        persistence.save(saved1);
+        persistence.save(saved2);
+        TestObject fresh = new TestObject("c", new Date());
+        PersistentDelayed[] updates = new PersistentDelayed[] { new PersistentDelayed(saved1),
+                        new PersistentDelayed(saved2), new PersistentDelayed(fresh) };
+        saved1.setValue("a1");
+        saved2.setValue("b1");
+        for(PersistentDelayed update : updates)
+        {
+            caching.register(update);
+        }
+        Thread.sleep(400);
+        for(PersistentDelayed update : updates)
+        {
+            assertEquals(1, update.updates);
+        }
+        PersistentFactory<TestObject> factory = new PersistentFactory<TestObject>()
+            {
+                public TestObject newInstance()
+                {
+                    return new TestObject();
+                }
+            };
+        assertEquals("a1", persistence.load(factory, saved1.getId()).getValue());
+        assertEquals("b1", persistence.load(factory, saved2.getId()).getValue());
+        assertTrue(fresh.getSaved());
+        assertEquals("c", persistence.load(factory, fresh.getId()).getValue());
+    }
+
+    public void testFactoryGetAll()
+        throws Exception
+    {
+        FileSystem fs = FileSystem.getStandardFileSystem("src/test/resources");
+        String script = DatabaseUtils.hasTable(dataSource, "test_object") ?
+            "sql/database/persistence/TruncateTestObject.sql" : "sql/database/persistence/TestObject.sql";
+        try(Reader reader = fs.getReader(script, "UTF-8"))
+        {
+            DatabaseUtils.runScript(dataSource, reader);
+        }
+        TestObject a = new TestObject("a", new Date());
+        TestObject b = new TestObject("b", new Date());
+        persistence.save(a);
+        persistence.save(b);
+        PersistenceValueFactory<Long, TestObject> valueFactory =
+            new PersistenceValueFactory<Long, TestObject>();
+        valueFactory.init(TestObject.class, persistence);
+        FactoryMap<Long, TestObject> map = (FactoryMap<Long, TestObject>)caching.getFactoryMap(
+            valueFactory, new HashMap<Long, TestObject>());
+        TestObject cached = map.get(b.getId());
+        assertEquals(1, map.getLoadCount());
+
+        List<Long> keys = new ArrayList<Long>();
+        keys.add(b.getId());
+        keys.add(-1L);
+        keys.add(a.getId());
+        Map<Long, TestObject> values = map.getAll(keys);
+        assertEquals(2, map.getLoadCount());
+        assertEquals(2, values.size());
+        Iterator<Long> i = values.keySet().iterator();
+        assertEquals(Long.valueOf(b.getId()), i.next());
+        assertEquals(Long.valueOf(a.getId()), i.next());
+        assertSame(cached, values.get(b.getId()));
+        assertEquals("a", values.get(a.getId()).getValue());
+
+        // all values present now
+        assertSame(values.get(a.getId()), map.getAll(keys).get(a.getId()));
+        assertEquals(3, map.getLoadCount());
+    }
+
     public void testGetNotification()
     {
         assertNotNull(caching.getNotification());
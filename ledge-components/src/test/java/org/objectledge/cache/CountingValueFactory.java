@@ -0,0 +1,69 @@
+// 
+//Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+//All rights reserved. 
+//   
+//Redistribution and use in source and binary forms, with or without modification,  
+//are permitted provided that the following conditions are met: 
+//   
+//* Redistributions of source code must retain the above copyright notice,  
+//this list of conditions and the following disclaimer. 
+//* Redistributions in binary form must reproduce the above copyright notice,  
+//this list of conditions and the following disclaimer in the documentation  
+//and/or other materials provided with the distribution. 
+//* Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//nor the names of its contributors may be used to endorse or promote products  
+//derived from this software without specific prior written permission. 
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+//WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+//INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+//BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+//OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+//WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+//ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+//POSSIBILITY OF SUCH DAMAGE. 
+//
+package org.objectledge.cache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jcontainer.dna.Configuration;
+import org.objectledge.cache.spi.CacheFactorySPI;
+import org.objectledge.cache.spi.ConfigurableValueFactory;
+
+/**
+ * A value factory that counts the values it creates.
+ * <p>
+ * Values for keys starting with <code>missing</code> do not exist.
+ * </p>
+ */
+public class CountingValueFactory
+    implements ConfigurableValueFactory<String, String>, EnumerableValueFactory<String, String>
+{
+    /** Keys enumerated by the factory. */
+    public static final String[] KEYS = { "hot", "warm", "cold", "present" };
+
+    /** Number of values created by all instances. */
+    public static final AtomicInteger LOADS = new AtomicInteger();
+
+    public void configure(CacheFactorySPI caching, String name, Configuration config)
+    {
+        // no options
+    }
+
+    public String getValue(String key)
+    {
+        LOADS.incrementAndGet();
+        return key.startsWith("missing") ? null : "value of " + key;
+    }
+
+    public void visitKeys(KeyVisitor<? super String> visitor)
+    {
+        for(String key : KEYS)
+        {
+            visitor.visit(key);
+        }
+    }
+}
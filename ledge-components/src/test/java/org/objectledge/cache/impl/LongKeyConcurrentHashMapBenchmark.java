@@ -0,0 +1,244 @@
+//
+//Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.
+//All rights reserved.
+//
+//Redistribution and use in source and binary forms, with or without modification, 
+//are permitted provided that the following conditions are met:
+//
+//* Redistributions of source code must retain the above copyright notice, 
+//this list of conditions and the following disclaimer.
+//* Redistributions in binary form must reproduce the above copyright notice, 
+//this list of conditions and the following disclaimer in the documentation 
+//and/or other materials provided with the distribution.
+//* Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+//nor the names of its contributors may be used to endorse or promote products 
+//derived from this software without specific prior written permission.
+//
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+//WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+//INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, 
+//BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+//OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+//WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+//ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+//POSSIBILITY OF SUCH DAMAGE.
+//
+
+package org.objectledge.cache.impl;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares {@link LongKeyConcurrentHashMapImpl} with <code>ConcurrentHashMap&lt;Long, V&gt;</code>.
+ * <p>
+ * Reports the heap retained per entry, and the throughput of a get-mostly and a put-mostly mix
+ * of operations over a fixed key range. It is not run as a part of the test suite, run it with
+ * <code>java -cp target/classes:target/test-classes
+ * org.objectledge.cache.impl.LongKeyConcurrentHashMapBenchmark [threads [entries [seconds]]]</code>,
+ * preferably with a fixed heap size.
+ * </p>
+ */
+public class LongKeyConcurrentHashMapBenchmark
+{
+    private final int threads;
+
+    private final int entries;
+
+    private final long millis;
+
+    private final Object value = new Object();
+
+    public LongKeyConcurrentHashMapBenchmark(int threads, int entries, long millis)
+    {
+        this.threads = threads;
+        this.entries = entries;
+        this.millis = millis;
+    }
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int entries = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 5;
+        LongKeyConcurrentHashMapBenchmark benchmark = new LongKeyConcurrentHashMapBenchmark(
+            threads, entries, seconds * 1000);
+        benchmark.run();
+    }
+
+    public void run()
+        throws Exception
+    {
+        System.out.println(threads + " threads, " + entries + " entries");
+        System.out.println("bytes per entry: ConcurrentHashMap " + memory(new Chm())
+            + ", LongKeyConcurrentHashMap " + memory(new Primitive()));
+        for(int getPercent : new int[] { 90, 10 })
+        {
+            // first round warms up the JIT
+            throughput(new Chm(), getPercent);
+            throughput(new Primitive(), getPercent);
+            System.out.println(getPercent + "% get, ops/s: ConcurrentHashMap "
+                + throughput(new Chm(), getPercent) + ", LongKeyConcurrentHashMap "
+                + throughput(new Primitive(), getPercent));
+        }
+    }
+
+    private long memory(Subject subject)
+    {
+        long before = usedMemory();
+        subject.create(entries);
+        for(long i = 0; i < entries; i++)
+        {
+            subject.put(i * 7, value);
+        }
+        long after = usedMemory();
+        if(subject.size() != entries)
+        {
+            throw new IllegalStateException();
+        }
+        return (after - before) / entries;
+    }
+
+    private static long usedMemory()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 4; i++)
+        {
+            System.gc();
+            try
+            {
+                Thread.sleep(100);
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private long throughput(final Subject subject, final int getPercent)
+        throws InterruptedException
+    {
+        subject.create(entries);
+        for(long i = 0; i < entries; i += 2)
+        {
+            subject.put(i, value);
+        }
+        final AtomicLong operations = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] deadline = new long[1];
+        Thread[] workers = new Thread[threads];
+        for(int t = 0; t < threads; t++)
+        {
+            final long seed = t;
+            workers[t] = new Thread()
+                {
+                    public void run()
+                    {
+                        Random random = new Random(seed);
+                        long count = 0;
+                        try
+                        {
+                            start.await();
+                        }
+                        catch(InterruptedException e)
+                        {
+                            return;
+                        }
+                        while((count & 1023) != 0 || System.currentTimeMillis() < deadline[0])
+                        {
+                            long key = random.nextInt(entries);
+                            if(random.nextInt(100) < getPercent)
+                            {
+                                subject.get(key);
+                            }
+                            else
+                            {
+                                subject.put(key, value);
+                            }
+                            count++;
+                        }
+                        operations.addAndGet(count);
+                    }
+                };
+            workers[t].start();
+        }
+        deadline[0] = System.currentTimeMillis() + millis;
+        start.countDown();
+        for(Thread worker : workers)
+        {
+            worker.join();
+        }
+        return operations.get() * 1000 / millis;
+    }
+
+    private interface Subject
+    {
+        void create(int capacity);
+
+        Object get(long key);
+
+        void put(long key, Object value);
+
+        int size();
+    }
+
+    private static class Chm
+        implements Subject
+    {
+        private Map<Long, Object> map;
+
+        public void create(int capacity)
+        {
+            map = new ConcurrentHashMap<Long, Object>();
+        }
+
+        public Object get(long key)
+        {
+            return map.get(Long.valueOf(key));
+        }
+
+        public void put(long key, Object value)
+        {
+            map.put(Long.valueOf(key), value);
+        }
+
+        public int size()
+        {
+            return map.size();
+        }
+    }
+
+    private static class Primitive
+        implements Subject
+    {
+        private LongKeyConcurrentHashMapImpl<Object> map;
+
+        public void create(int capacity)
+        {
+            map = new LongKeyConcurrentHashMapImpl<Object>();
+        }
+
+        public Object get(long key)
+        {
+            return map.get(key);
+        }
+
+        public void put(long key, Object value)
+        {
+            map.put(key, value);
+        }
+
+        public int size()
+        {
+            return map.size();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+// 
+// Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+// All rights reserved. 
+// 
+// Redistribution and use in source and binary forms, with or without modification,  
+// are permitted provided that the following conditions are met: 
+//  
+// * Redistributions of source code must retain the above copyright notice,  
+//	 this list of conditions and the following disclaimer. 
+// * Redistributions in binary form must reproduce the above copyright notice,  
+//	 this list of conditions and the following disclaimer in the documentation  
+//	 and/or other materials provided with the distribution. 
+// * Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//	 nor the names of its contributors may be used to endorse or promote products  
+//	 derived from this software without specific prior written permission. 
+// 
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+// IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+// WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+// POSSIBILITY OF SUCH DAMAGE. 
+// 
+package org.objectledge.database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.jcontainer.dna.Logger;
+import org.jcontainer.dna.impl.Log4JLogger;
+import org.objectledge.context.Context;
+import org.objectledge.test.LedgeTestCase;
+
+public class AsyncQueryExecutorTest
+    extends LedgeTestCase
+{
+    /** Time each query of the latency test blocks for, in milliseconds. */
+    private static final int PAUSE = 500;
+
+    private DataSource dataSource;
+
+    private Context context;
+
+    private Logger log;
+
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        Properties properties = new Properties();
+        properties.setProperty("url", "jdbc:hsqldb:mem:async");
+        properties.setProperty("user", "sa");
+        dataSource = new JDBCDataSource("", "org.hsqldb.jdbc.JDBCDataSource", properties);
+        context = new Context();
+        log = new Log4JLogger(org.apache.log4j.Logger.getLogger(AsyncQueryExecutor.class));
+    }
+
+    public void tearDown()
+        throws Exception
+    {
+        DatabaseUtils.shutdown(dataSource);
+        context.clearAttributes();
+    }
+
+    public void testFanOut()
+        throws Exception
+    {
+        AsyncQueryExecutor executor = new AsyncQueryExecutor(dataSource,
+            new AsyncQueryExecutor.Config().withThreads(8).withMaxPerRequest(4), context, log);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(4);
+        final CountDownLatch release = new CountDownLatch(1);
+        AsyncQueryExecutor.Query<Integer> query = new AsyncQueryExecutor.Query<Integer>()
+            {
+                public Integer execute(Connection conn)
+                    throws SQLException
+                {
+                    int current = running.incrementAndGet();
+                    synchronized(maxRunning)
+                    {
+                        maxRunning.set(Math.max(maxRunning.get(), current));
+                    }
+                    started.countDown();
+                    try(Statement stmt = conn.createStatement();
+                        ResultSet rs = stmt.executeQuery("VALUES(1)"))
+                    {
+                        release.await();
+                        rs.next();
+                        return rs.getInt(1);
+                    }
+                    catch(InterruptedException e)
+                    {
+                        throw new SQLException("interrupted", e);
+                    }
+                    finally
+                    {
+                        running.decrementAndGet();
+                    }
+                }
+            };
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for(int i = 0; i < 8; i++)
+        {
+            results.add(executor.submit(query));
+        }
+        // four queries run at the same time, the rest wait for their turn
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertEquals(4, running.get());
+        release.countDown();
+        for(Future<Integer> result : results)
+        {
+            assertEquals(1, result.get().intValue());
+        }
+        // at most 4 queries of the request at a time
+        assertEquals(4, maxRunning.get());
+        assertEquals(0, running.get());
+        executor.stop();
+    }
+
+    public void testFanOutLatency()
+        throws Exception
+    {
+        AsyncQueryExecutor executor = new AsyncQueryExecutor(dataSource,
+            new AsyncQueryExecutor.Config().withThreads(8).withMaxPerRequest(4), context, log);
+        try(Connection conn = dataSource.getConnection();
+            Statement stmt = conn.createStatement())
+        {
+            stmt.execute("CREATE FUNCTION pause(ms INT) RETURNS INT LANGUAGE JAVA "
+                + "DETERMINISTIC NO SQL EXTERNAL NAME 'CLASSPATH:" + getClass().getName()
+                + ".pause'");
+        }
+        AsyncQueryExecutor.Query<Integer> query = new AsyncQueryExecutor.Query<Integer>()
+            {
+                public Integer execute(Connection conn)
+                    throws SQLException
+                {
+                    try(Statement stmt = conn.createStatement();
+                        ResultSet rs = stmt.executeQuery("VALUES(pause(" + PAUSE + "))"))
+                    {
+                        rs.next();
+                        return rs.getInt(1);
+                    }
+                }
+            };
+        long start = System.nanoTime();
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for(int i = 0; i < 8; i++)
+        {
+            results.add(executor.submit(query));
+        }
+        for(Future<Integer> result : results)
+        {
+            assertEquals(1, result.get().intValue());
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        executor.stop();
+        // two rounds of four queries, well under the serial sum of eight
+        assertTrue("elapsed " + elapsed, elapsed >= 2 * PAUSE);
+        assertTrue("elapsed " + elapsed, elapsed < 8 * PAUSE / 2);
+    }
+
+    /**
+     * Blocks the calling query, exposed to the database as the <code>pause</code> function.
+     * 
+     * @param ms the time to block for, in milliseconds.
+     * @return 1.
+     * @throws InterruptedException if the query is interrupted.
+     */
+    public static int pause(int ms)
+        throws InterruptedException
+    {
+        Thread.sleep(ms);
+        return 1;
+    }
+
+    public void testContextAndErrors()
+        throws Exception
+    {
+        AsyncQueryExecutor executor = new AsyncQueryExecutor(dataSource,
+            new AsyncQueryExecutor.Config().withPropagated("request"), context, log);
+        context.setAttribute("request", "view=Dashboard");
+        context.setAttribute("private", "value");
+        Future<String> result = executor.submit(new AsyncQueryExecutor.Query<String>()
+            {
+                public String execute(Connection conn)
+                {
+                    return context.getAttribute("request") + ","
+                        + context.getAttribute("private");
+                }
+            });
+        assertEquals("view=Dashboard,null", result.get());
+
+        Future<Object> failed = executor.submit(new AsyncQueryExecutor.Query<Object>()
+            {
+                public Object execute(Connection conn)
+                    throws SQLException
+                {
+                    try(Statement stmt = conn.createStatement())
+                    {
+                        stmt.executeQuery("SELECT * FROM missing_table");
+                    }
+                    return null;
+                }
+            });
+        try
+        {
+            failed.get();
+            fail("should throw the exception");
+        }
+        catch(ExecutionException e)
+        {
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+        executor.stop();
+        try
+        {
+            executor.submit(new AsyncQueryExecutor.Query<Object>()
+                {
+                    public Object execute(Connection conn)
+                    {
+                        return null;
+                    }
+                });
+            fail("should throw the exception");
+        }
+        catch(SQLException e)
+        {
+            // ok!
+        }
+    }
+}
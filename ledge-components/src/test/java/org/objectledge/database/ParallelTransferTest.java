@@ -0,0 +1,197 @@
+// 
+// Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+// All rights reserved. 
+// 
+// Redistribution and use in source and binary forms, with or without modification,  
+// are permitted provided that the following conditions are met: 
+//  
+// * Redistributions of source code must retain the above copyright notice,  
+//	 this list of conditions and the following disclaimer. 
+// * Redistributions in binary form must reproduce the above copyright notice,  
+//	 this list of conditions and the following disclaimer in the documentation  
+//	 and/or other materials provided with the distribution. 
+// * Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//	 nor the names of its contributors may be used to endorse or promote products  
+//	 derived from this software without specific prior written permission. 
+// 
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+// IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+// WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+// POSSIBILITY OF SUCH DAMAGE. 
+// 
+package org.objectledge.database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.objectledge.longops.LongRunningOperationEvent;
+import org.objectledge.longops.LongRunningOperationListener;
+import org.objectledge.longops.LongRunningOperationRegistry;
+import org.objectledge.longops.impl.LongRunningOperationRegistryImpl;
+import org.objectledge.test.LedgeTestCase;
+
+public class ParallelTransferTest
+    extends LedgeTestCase
+{
+    private DataSource input;
+
+    private DataSource output;
+
+    private LongRunningOperationRegistry registry;
+
+    private final AtomicInteger updates = new AtomicInteger();
+
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        input = getDataSource("transferInput");
+        output = getDataSource("transferOutput");
+        for(DataSource ds : new DataSource[] { input, output })
+        {
+            execute(ds, "CREATE TABLE keyed (id BIGINT PRIMARY KEY, name VARCHAR(50))");
+            execute(ds, "CREATE TABLE plain (name VARCHAR(50))");
+        }
+        try(Connection conn = input.getConnection();
+                        Statement stmt = conn.createStatement())
+        {
+            for(int i = 0; i < 1000; i++)
+            {
+                stmt.addBatch("INSERT INTO keyed VALUES (" + i + ", 'row" + i + "')");
+            }
+            for(int i = 0; i < 50; i++)
+            {
+                stmt.addBatch("INSERT INTO plain VALUES ('row" + i + "')");
+            }
+            stmt.executeBatch();
+        }
+        registry = new LongRunningOperationRegistryImpl();
+        registry.addListener(new LongRunningOperationListener()
+            {
+                public void receive(LongRunningOperationEvent event)
+                {
+                    if(event.getType() == LongRunningOperationEvent.Type.UPDATED)
+                    {
+                        updates.incrementAndGet();
+                    }
+                }
+            }, EnumSet.allOf(LongRunningOperationEvent.Type.class), ParallelTransfer.OPERATION_CODE);
+    }
+
+    public void tearDown()
+        throws Exception
+    {
+        DatabaseUtils.shutdown(input);
+        DatabaseUtils.shutdown(output);
+    }
+
+    public void testTransfer()
+        throws Exception
+    {
+        // stale data is replaced
+        execute(output, "INSERT INTO plain VALUES ('stale')");
+        Map<String, Long> rows = new ParallelTransfer(input, output, new ParallelTransfer.Config()
+            .withWorkers(4).withBatchSize(30).withPartitionSize(100), registry).transfer(Arrays
+            .asList("keyed", "plain"));
+        assertEquals(Long.valueOf(1000), rows.get("keyed"));
+        assertEquals(Long.valueOf(50), rows.get("plain"));
+        assertEquals(1000, count(output, "SELECT COUNT(*) FROM keyed"));
+        assertEquals(50, count(output, "SELECT COUNT(*) FROM plain"));
+        assertEquals(1, count(output,
+            "SELECT COUNT(*) FROM keyed WHERE id = 999 AND name = 'row999'"));
+        assertEquals(0, count(output, "SELECT COUNT(*) FROM " + ParallelTransfer.CHECKPOINT_TABLE));
+        // 10 ranges of keyed table, 1 of plain table
+        assertEquals(11, updates.get());
+        assertTrue(registry.getActiveOperations(null).isEmpty());
+    }
+
+    public void testSparseKeys()
+        throws Exception
+    {
+        for(DataSource ds : new DataSource[] { input, output })
+        {
+            execute(ds, "CREATE TABLE sparse (id BIGINT PRIMARY KEY, name VARCHAR(50))");
+        }
+        execute(input, "INSERT INTO sparse VALUES (-1000000000000, 'first')");
+        execute(input, "INSERT INTO sparse VALUES (5, 'second')");
+        execute(input, "INSERT INTO sparse VALUES (50, 'third')");
+        execute(input, "INSERT INTO sparse VALUES (1000000000000, 'fourth')");
+        Map<String, Long> rows = new ParallelTransfer(input, output, new ParallelTransfer.Config()
+            .withPartitionSize(100), registry).transfer(Arrays.asList("sparse"));
+        assertEquals(Long.valueOf(4), rows.get("sparse"));
+        assertEquals(4, count(output, "SELECT COUNT(*) FROM sparse"));
+        // only the ranges that hold rows
+        assertEquals(3, updates.get());
+    }
+
+    public void testResume()
+        throws Exception
+    {
+        execute(output, "CREATE TABLE " + ParallelTransfer.CHECKPOINT_TABLE
+            + " (table_name VARCHAR(255) NOT NULL, range_start BIGINT NOT NULL,"
+            + " range_end BIGINT NOT NULL)");
+        // first range was completed, second was interrupted
+        execute(output, "INSERT INTO " + ParallelTransfer.CHECKPOINT_TABLE
+            + " VALUES ('keyed', 0, 100)");
+        execute(output, "INSERT INTO keyed VALUES (1, 'done')");
+        execute(output, "INSERT INTO keyed VALUES (150, 'partial')");
+        Map<String, Long> rows = new ParallelTransfer(input, output, new ParallelTransfer.Config()
+            .withWorkers(2).withPartitionSize(100), null).transfer(Arrays.asList("keyed"));
+        assertEquals(Long.valueOf(900), rows.get("keyed"));
+        assertEquals(901, count(output, "SELECT COUNT(*) FROM keyed"));
+        assertEquals(1, count(output, "SELECT COUNT(*) FROM keyed WHERE id < 100"));
+        assertEquals(1, count(output,
+            "SELECT COUNT(*) FROM keyed WHERE id = 150 AND name = 'row150'"));
+        assertEquals(0, count(output, "SELECT COUNT(*) FROM " + ParallelTransfer.CHECKPOINT_TABLE));
+
+        rows = DatabaseUtils.transferTables(input, output, Arrays.asList("plain"), 2, 100, null);
+        assertEquals(Long.valueOf(50), rows.get("plain"));
+    }
+
+    // ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void execute(DataSource ds, String sql)
+        throws Exception
+    {
+        try(Connection conn = ds.getConnection();
+                        Statement stmt = conn.createStatement())
+        {
+            stmt.execute(sql);
+        }
+    }
+
+    private int count(DataSource ds, String query)
+        throws Exception
+    {
+        try(Connection conn = ds.getConnection();
+                        Statement stmt = conn.createStatement();
+                        ResultSet rs = stmt.executeQuery(query))
+        {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private DataSource getDataSource(String name)
+        throws Exception
+    {
+        Properties properties = new Properties();
+        properties.setProperty("url", "jdbc:hsqldb:mem:" + name);
+        properties.setProperty("user", "sa");
+        return new JDBCDataSource("", "org.hsqldb.jdbc.JDBCDataSource", properties);
+    }
+}
@@ -0,0 +1,233 @@
+// 
+// Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+// All rights reserved. 
+// 
+// Redistribution and use in source and binary forms, with or without modification,  
+// are permitted provided that the following conditions are met: 
+//  
+// * Redistributions of source code must retain the above copyright notice,  
+//	 this list of conditions and the following disclaimer. 
+// * Redistributions in binary form must reproduce the above copyright notice,  
+//	 this list of conditions and the following disclaimer in the documentation  
+//	 and/or other materials provided with the distribution. 
+// * Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//	 nor the names of its contributors may be used to endorse or promote products  
+//	 derived from this software without specific prior written permission. 
+// 
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+// IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+// WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+// POSSIBILITY OF SUCH DAMAGE. 
+// 
+package org.objectledge.database;
+
+import java.sql.Connection;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.sql.DataSource;
+
+import org.hsqldb.jdbc.JDBCConnection;
+import org.jcontainer.dna.Logger;
+import org.jcontainer.dna.impl.Log4JLogger;
+import org.objectledge.test.LedgeTestCase;
+
+public class PooledDataSourceTest
+    extends LedgeTestCase
+{
+    private DataSource dataSource;
+
+    private Logger log;
+
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        Properties properties = new Properties();
+        properties.setProperty("url", "jdbc:hsqldb:mem:pool");
+        properties.setProperty("user", "sa");
+        dataSource = new JDBCDataSource("", "org.hsqldb.jdbc.JDBCDataSource", properties);
+        log = new Log4JLogger(org.apache.log4j.Logger.getLogger(PooledDataSource.class));
+    }
+
+    public void tearDown()
+        throws Exception
+    {
+        DatabaseUtils.shutdown(dataSource);
+    }
+
+    public void testReuse()
+        throws Exception
+    {
+        PooledDataSource pool = newPool(new PooledDataSource.Config());
+        PooledDataSource.ConnectionEvents events = pool.new ConnectionEvents(getFileSystem());
+        Connection conn = pool.getConnection();
+        JDBCConnection physical = conn.unwrap(JDBCConnection.class);
+        assertEquals(1, pool.getActiveCount());
+        assertEquals(0, pool.getIdleCount());
+        conn.close();
+        assertTrue(conn.isClosed());
+        conn.close();
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, pool.getIdleCount());
+        conn = pool.getConnection();
+        assertSame(physical, conn.unwrap(JDBCConnection.class));
+        conn.close();
+        assertEquals(1, events.getCreated());
+        assertEquals(2, pool.getBorrowWait().getCount());
+        pool.stop();
+        assertEquals(1, events.getClosed());
+        assertTrue(physical.isClosed());
+    }
+
+    public void testSettingsReset()
+        throws Exception
+    {
+        PooledDataSource pool = newPool(new PooledDataSource.Config());
+        Connection conn = pool.getConnection();
+        boolean readOnly = conn.isReadOnly();
+        int isolation = conn.getTransactionIsolation();
+        conn.setReadOnly(!readOnly);
+        conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        conn.close();
+        conn = pool.getConnection();
+        assertEquals(readOnly, conn.isReadOnly());
+        assertEquals(isolation, conn.getTransactionIsolation());
+        conn.close();
+        pool.stop();
+    }
+
+    public void testWaitAndTimeout()
+        throws Exception
+    {
+        final PooledDataSource pool = newPool(new PooledDataSource.Config().withMaxSize(1)
+            .withBorrowTimeout(200));
+        final Connection conn = pool.getConnection();
+        try
+        {
+            pool.getConnection();
+            fail("exception expected");
+        }
+        catch(SQLTimeoutException e)
+        {
+            // expected
+        }
+        assertEquals(1, pool.new ConnectionEvents(getFileSystem()).getTimeouts());
+        Thread releaser = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        Thread.sleep(50);
+                        conn.close();
+                    }
+                    catch(Exception e)
+                    {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+        releaser.start();
+        Connection conn2 = pool.getConnection();
+        releaser.join();
+        assertSame(conn.unwrap(JDBCConnection.class), conn2.unwrap(JDBCConnection.class));
+        conn2.close();
+        pool.stop();
+    }
+
+    public void testConcurrentBorrow()
+        throws Exception
+    {
+        final PooledDataSource pool = newPool(new PooledDataSource.Config().withMaxSize(3));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for(int t = 0; t < 8; t++)
+        {
+            results.add(executor.submit(new Callable<Integer>()
+                {
+                    public Integer call()
+                        throws Exception
+                    {
+                        int count = 0;
+                        for(int i = 0; i < 100; i++)
+                        {
+                            try(Connection conn = pool.getConnection();
+                                            Statement stmt = conn.createStatement())
+                            {
+                                stmt.executeQuery("SELECT 1 FROM (VALUES(1))").close();
+                                count++;
+                            }
+                        }
+                        return count;
+                    }
+                }));
+        }
+        for(Future<Integer> result : results)
+        {
+            assertEquals(Integer.valueOf(100), result.get());
+        }
+        executor.shutdown();
+        assertEquals(0, pool.getActiveCount());
+        assertTrue(pool.new ConnectionEvents(getFileSystem()).getCreated() <= 3);
+        assertEquals(800, pool.getBorrowWait().getCount());
+        pool.stop();
+    }
+
+    public void testValidation()
+        throws Exception
+    {
+        PooledDataSource pool = newPool(new PooledDataSource.Config().withValidationIdleTime(0)
+            .withValidationQuery("SELECT 1 FROM (VALUES(1))"));
+        Connection conn = pool.getConnection();
+        JDBCConnection physical = conn.unwrap(JDBCConnection.class);
+        conn.close();
+        physical.close();
+        conn = pool.getConnection();
+        assertNotSame(physical, conn.unwrap(JDBCConnection.class));
+        conn.close();
+        assertEquals(2, pool.new ConnectionEvents(getFileSystem()).getCreated());
+        pool.stop();
+    }
+
+    public void testLifetimeAndLeaks()
+        throws Exception
+    {
+        PooledDataSource pool = newPool(new PooledDataSource.Config().withMaxLifetime(50)
+            .withLeakDetectionThreshold(20).withMinIdle(1));
+        PooledDataSource.ConnectionEvents events = pool.new ConnectionEvents(getFileSystem());
+        Connection conn = pool.getConnection();
+        Thread.sleep(60);
+        pool.housekeeping();
+        assertEquals(1, events.getLeaks());
+        // minimum idle connections are opened
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(2, events.getCreated());
+        // reported only once
+        pool.housekeeping();
+        assertEquals(1, events.getLeaks());
+        // expired connection is closed when returned
+        conn.close();
+        assertEquals(1, events.getClosed());
+        assertEquals(1, pool.getIdleCount());
+        pool.stop();
+    }
+
+    private PooledDataSource newPool(PooledDataSource.Config config)
+    {
+        return new PooledDataSource(dataSource, config, null, getFileSystem(), log);
+    }
+}
@@ -0,0 +1,245 @@
+// 
+// Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+// All rights reserved. 
+// 
+// Redistribution and use in source and binary forms, with or without modification,  
+// are permitted provided that the following conditions are met: 
+//  
+// * Redistributions of source code must retain the above copyright notice,  
+//	 this list of conditions and the following disclaimer. 
+// * Redistributions in binary form must reproduce the above copyright notice,  
+//	 this list of conditions and the following disclaimer in the documentation  
+//	 and/or other materials provided with the distribution. 
+// * Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//	 nor the names of its contributors may be used to endorse or promote products  
+//	 derived from this software without specific prior written permission. 
+// 
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+// IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+// WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+// POSSIBILITY OF SUCH DAMAGE. 
+// 
+package org.objectledge.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.jcontainer.dna.Logger;
+import org.jcontainer.dna.impl.DefaultConfiguration;
+import org.jcontainer.dna.impl.Log4JLogger;
+import org.objectledge.context.Context;
+import org.objectledge.test.LedgeTestCase;
+import org.objectledge.threads.DefaultThreadPool;
+
+public class RoutingDataSourceTest
+    extends LedgeTestCase
+{
+    private DataSource primary;
+
+    private DataSource replica;
+
+    private Context context;
+
+    private Logger log;
+
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        primary = getDataSource("routingPrimary");
+        replica = getDataSource("routingReplica");
+        execute(primary, "CREATE TABLE origin (name VARCHAR(20))");
+        execute(primary, "INSERT INTO origin VALUES ('primary')");
+        execute(replica, "CREATE TABLE origin (name VARCHAR(20))");
+        execute(replica, "INSERT INTO origin VALUES ('replica')");
+        context = new Context();
+        context.clearAttributes();
+        log = new Log4JLogger(org.apache.log4j.Logger.getLogger(RoutingDataSource.class));
+    }
+
+    public void tearDown()
+        throws Exception
+    {
+        DatabaseUtils.shutdown(primary);
+        DatabaseUtils.shutdown(replica);
+    }
+
+    public void testRouting()
+        throws Exception
+    {
+        RoutingDataSource routing = newRoutingDataSource(new RoutingDataSource.Config(), null);
+        assertEquals("primary", origin(routing));
+        assertEquals(-1, routing.getCurrentReplica());
+        new RoutingDataSource.ReadOnlyValve().process(context);
+        assertTrue(RoutingDataSource.isReadOnly(context));
+        assertEquals("replica", origin(routing));
+        assertEquals(0, routing.getCurrentReplica());
+    }
+
+    public void testReadYourWrites()
+        throws Exception
+    {
+        RoutingDataSource routing = newRoutingDataSource(new RoutingDataSource.Config()
+            .withStickiness(200), null);
+        RoutingDataSource.setSession(context, "s1");
+        try(Connection conn = routing.getConnection();
+                        PreparedStatement stmt = conn
+                            .prepareStatement("UPDATE origin SET name = 'written'"))
+        {
+            stmt.executeUpdate();
+        }
+        // the request that performed the write stays on the primary
+        RoutingDataSource.setReadOnly(context, true);
+        assertEquals("written", origin(routing));
+        // as does the following request in the same session
+        context.clearAttributes();
+        RoutingDataSource.setReadOnly(context, true);
+        RoutingDataSource.setSession(context, "s1");
+        assertEquals("written", origin(routing));
+        // other sessions are not affected
+        context.clearAttributes();
+        RoutingDataSource.setReadOnly(context, true);
+        RoutingDataSource.setSession(context, "s2");
+        assertEquals("replica", origin(routing));
+        // stickiness expires
+        Thread.sleep(250);
+        context.clearAttributes();
+        RoutingDataSource.setReadOnly(context, true);
+        RoutingDataSource.setSession(context, "s1");
+        assertEquals("replica", origin(routing));
+    }
+
+    public void testLaggingReplica()
+        throws Exception
+    {
+        final long[] lag = { 10000L };
+        RoutingDataSource routing = newRoutingDataSource(new RoutingDataSource.Config()
+            .withMaxLag(1000).withProbeInterval(0), new ReplicaLagProbe()
+            {
+                public long getLag(DataSource ds)
+                    throws SQLException
+                {
+                    if(lag[0] < 0)
+                    {
+                        throw new SQLException("replica down");
+                    }
+                    return lag[0];
+                }
+            });
+        RoutingDataSource.setReadOnly(context, true);
+        assertEquals("primary", origin(routing));
+        lag[0] = 0L;
+        assertEquals("replica", origin(routing));
+        lag[0] = -1L;
+        assertEquals("primary", origin(routing));
+        // failed replica is skipped until the backoff period passes
+        lag[0] = 0L;
+        assertEquals("primary", origin(routing));
+    }
+
+    public void testBackgroundProbe()
+        throws Exception
+    {
+        final Thread requestThread = Thread.currentThread();
+        final Thread[] probeThread = new Thread[1];
+        final long[] lag = { 10000L };
+        DefaultThreadPool pool = new DefaultThreadPool(null, new Context(),
+            new DefaultConfiguration("config", "", "/config"), log);
+        try
+        {
+            RoutingDataSource routing = new RoutingDataSource(primary, new DataSource[] { replica },
+                new RoutingDataSource.Config().withMaxLag(1000).withProbeInterval(20), context,
+                new ReplicaLagProbe()
+                    {
+                        public long getLag(DataSource ds)
+                            throws SQLException
+                        {
+                            probeThread[0] = Thread.currentThread();
+                            return lag[0];
+                        }
+                    }, pool, log);
+            RoutingDataSource.setReadOnly(context, true);
+            assertEquals("primary", awaitOrigin(routing, "primary"));
+            assertNotSame(requestThread, probeThread[0]);
+            lag[0] = 0L;
+            assertEquals("replica", awaitOrigin(routing, "replica"));
+        }
+        finally
+        {
+            pool.stop();
+        }
+    }
+
+    public void testLagQuery()
+        throws Exception
+    {
+        RoutingDataSource routing = newRoutingDataSource(new RoutingDataSource.Config()
+            .withMaxLag(1000).withLagQuery("SELECT 5000 FROM (VALUES(1))"), null);
+        RoutingDataSource.setReadOnly(context, true);
+        assertEquals("primary", origin(routing));
+    }
+
+    // implementation ///////////////////////////////////////////////////////////////////////////
+
+    private RoutingDataSource newRoutingDataSource(RoutingDataSource.Config config,
+        ReplicaLagProbe probe)
+    {
+        return new RoutingDataSource(primary, new DataSource[] { replica }, config, context,
+            probe, null, log);
+    }
+
+    private String awaitOrigin(DataSource ds, String expected)
+        throws Exception
+    {
+        String origin = origin(ds);
+        for(int i = 0; i < 100 && !origin.equals(expected); i++)
+        {
+            Thread.sleep(20);
+            origin = origin(ds);
+        }
+        return origin;
+    }
+
+    private String origin(DataSource ds)
+        throws Exception
+    {
+        try(Connection conn = ds.getConnection();
+                        Statement stmt = conn.createStatement();
+                        ResultSet rs = stmt.executeQuery("SELECT name FROM origin"))
+        {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+
+    private void execute(DataSource ds, String sql)
+        throws Exception
+    {
+        try(Connection conn = ds.getConnection();
+                        Statement stmt = conn.createStatement())
+        {
+            stmt.execute(sql);
+        }
+    }
+
+    private DataSource getDataSource(String name)
+        throws Exception
+    {
+        Properties properties = new Properties();
+        properties.setProperty("url", "jdbc:hsqldb:mem:" + name);
+        properties.setProperty("user", "sa");
+        return new JDBCDataSource("", "org.hsqldb.jdbc.JDBCDataSource", properties);
+    }
+}
@@ -0,0 +1,171 @@
+// 
+// Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+// All rights reserved. 
+// 
+// Redistribution and use in source and binary forms, with or without modification,  
+// are permitted provided that the following conditions are met: 
+//  
+// * Redistributions of source code must retain the above copyright notice,  
+//	 this list of conditions and the following disclaimer. 
+// * Redistributions in binary form must reproduce the above copyright notice,  
+//	 this list of conditions and the following disclaimer in the documentation  
+//	 and/or other materials provided with the distribution. 
+// * Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//	 nor the names of its contributors may be used to endorse or promote products  
+//	 derived from this software without specific prior written permission. 
+// 
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+// IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+// WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+// POSSIBILITY OF SUCH DAMAGE. 
+// 
+package org.objectledge.database;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.jcontainer.dna.impl.DefaultConfiguration;
+import org.objectledge.test.LedgeTestCase;
+
+public class SequenceIdGeneratorTest
+    extends LedgeTestCase
+{
+    private DataSource dataSource;
+
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        Properties properties = new Properties();
+        properties.setProperty("url", "jdbc:hsqldb:.");
+        properties.setProperty("user", "sa");
+        dataSource = new JDBCDataSource("", "org.hsqldb.jdbc.JDBCDataSource", properties);
+        try(Connection conn = dataSource.getConnection(); Statement stmt = conn.createStatement())
+        {
+            stmt.execute("CREATE SEQUENCE foo_seq");
+            stmt.execute("CREATE SEQUENCE bar_seq");
+        }
+    }
+
+    public void tearDown()
+        throws Exception
+    {
+        DatabaseUtils.shutdown(dataSource);
+    }
+
+    public void testSingle()
+        throws Exception
+    {
+        IdGenerator generator = new SequenceIdGenerator(dataSource);
+        assertEquals(0L, generator.getNextId("foo"));
+        assertEquals(1L, generator.getNextId("foo"));
+        assertEquals(0L, generator.getNextId("bar"));
+    }
+
+    public void testBlock()
+        throws Exception
+    {
+        IdGenerator generator = new SequenceIdGenerator(dataSource, 10, 10, 1000L);
+        IdGenerator plain = new SequenceIdGenerator(dataSource);
+        for(long i = 0; i < 5; i++)
+        {
+            assertEquals(i, generator.getNextId("foo"));
+        }
+        // the rest of the block is reserved
+        assertEquals(10L, plain.getNextId("foo"));
+        for(long i = 5; i < 10; i++)
+        {
+            assertEquals(i, generator.getNextId("foo"));
+        }
+        assertEquals(11L, generator.getNextId("foo"));
+    }
+
+    public void testAdaptiveBlock()
+        throws Exception
+    {
+        IdGenerator generator = new SequenceIdGenerator(dataSource, 1, 64, 60000L);
+        IdGenerator plain = new SequenceIdGenerator(dataSource);
+        for(int i = 0; i < 100; i++)
+        {
+            generator.getNextId("foo");
+        }
+        // blocks double while allocated faster than the refill interval
+        long reserved = plain.getNextId("foo");
+        assertTrue("reserved " + reserved, reserved > 100 && reserved <= 164);
+    }
+
+    public void testConfiguration()
+        throws Exception
+    {
+        DefaultConfiguration config = new DefaultConfiguration("config", "", "");
+        DefaultConfiguration blocks = new DefaultConfiguration("blockAllocation", "", "");
+        blocks.setAttribute("min", "5");
+        blocks.setAttribute("max", "5");
+        DefaultConfiguration table = new DefaultConfiguration("table", "", "");
+        table.setAttribute("name", "bar");
+        table.setAttribute("max", "1");
+        table.setAttribute("min", "1");
+        blocks.addChild(table);
+        config.addChild(blocks);
+        config.makeReadOnly();
+        IdGenerator generator = new SequenceIdGenerator(dataSource, config);
+        IdGenerator plain = new SequenceIdGenerator(dataSource);
+        assertEquals(0L, generator.getNextId("foo"));
+        assertEquals(5L, plain.getNextId("foo"));
+        assertEquals(0L, generator.getNextId("bar"));
+        assertEquals(1L, plain.getNextId("bar"));
+    }
+
+    public void testConcurrent()
+        throws Exception
+    {
+        final IdGenerator generator = new SequenceIdGenerator(dataSource, 1, 100, 1000L);
+        final Set<Long> ids = Collections
+            .newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final AtomicInteger errors = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for(int t = 0; t < threads.length; t++)
+        {
+            threads[t] = new Thread()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            for(int i = 0; i < 500; i++)
+                            {
+                                if(!ids.add(Long.valueOf(generator.getNextId("foo"))))
+                                {
+                                    errors.incrementAndGet();
+                                }
+                            }
+                        }
+                        catch(Exception e)
+                        {
+                            errors.incrementAndGet();
+                        }
+                    }
+                };
+            threads[t].start();
+        }
+        for(Thread thread : threads)
+        {
+            thread.join();
+        }
+        assertEquals(0, errors.get());
+        assertEquals(4000, ids.size());
+    }
+}
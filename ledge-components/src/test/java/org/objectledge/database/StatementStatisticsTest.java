@@ -0,0 +1,95 @@
+// 
+// Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+// All rights reserved. 
+// 
+// Redistribution and use in source and binary forms, with or without modification,  
+// are permitted provided that the following conditions are met: 
+//  
+// * Redistributions of source code must retain the above copyright notice,  
+//	 this list of conditions and the following disclaimer. 
+// * Redistributions in binary form must reproduce the above copyright notice,  
+//	 this list of conditions and the following disclaimer in the documentation  
+//	 and/or other materials provided with the distribution. 
+// * Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//	 nor the names of its contributors may be used to endorse or promote products  
+//	 derived from this software without specific prior written permission. 
+// 
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+// IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+// WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+// POSSIBILITY OF SUCH DAMAGE. 
+// 
+package org.objectledge.database;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class StatementStatisticsTest
+    extends TestCase
+{
+    public void testFingerprint()
+    {
+        assertEquals("SELECT * FROM t WHERE a = ? AND b = ?",
+            StatementFingerprint.normalize("SELECT *  FROM t\n WHERE a = 'x''y' AND b = -12.5"));
+        assertEquals("SELECT * FROM t1 WHERE id IN (?+)",
+            StatementFingerprint.normalize("SELECT * FROM t1 WHERE id IN ( 1, 2,3 ) -- comment"));
+        assertEquals("SELECT * FROM t1 WHERE id IN (?+)",
+            StatementFingerprint.normalize("SELECT * FROM t1 WHERE id IN (?, ?)"));
+        assertEquals("UPDATE t SET a = a -? WHERE b = ?",
+            StatementFingerprint.normalize("UPDATE t /* c */ SET a = a -1 WHERE b = 7"));
+        assertEquals("SELECT \"a 1\" FROM t", StatementFingerprint.normalize("SELECT \"a 1\" FROM t"));
+        assertSame(StatementFingerprint.of("SELECT 1"), StatementFingerprint.of("SELECT 1"));
+        assertEquals(StatementFingerprint.of("SELECT 1"), StatementFingerprint.of("SELECT 2"));
+        assertTrue(StatementFingerprint.of(" select 1").isRead());
+        assertFalse(StatementFingerprint.of("DELETE FROM t").isRead());
+    }
+
+    public void testHistogram()
+    {
+        for(long v = 0; v < 1L << 20; v += 7)
+        {
+            int index = StatementStatistics.Histogram.index(v);
+            assertTrue(StatementStatistics.Histogram.lowest(index) <= v);
+            assertTrue(StatementStatistics.Histogram.lowest(index + 1) > v);
+        }
+        StatementStatistics.Histogram histogram = new StatementStatistics.Histogram();
+        assertEquals(0, histogram.getPercentile(50));
+        for(int i = 1; i <= 1000; i++)
+        {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        long p50 = histogram.getPercentile(50);
+        assertTrue(p50 >= 500 && p50 < 500 * 9 / 8);
+        long p99 = histogram.getPercentile(99);
+        assertTrue(p99 >= 990 && p99 <= 1000);
+    }
+
+    public void testTop()
+    {
+        StatementStatistics statistics = new StatementStatistics();
+        statistics.record(StatementFingerprint.of("SELECT * FROM a WHERE id = 1"), 100, 1);
+        statistics.record(StatementFingerprint.of("SELECT * FROM a WHERE id = 2"), 300, 0);
+        statistics.record(StatementFingerprint.of("DELETE FROM b"), 250, 10);
+        statistics.recordRows(StatementFingerprint.of("DELETE FROM b"), 5);
+        List<StatementStatistics.Entry> top = statistics.getTop(5);
+        assertEquals(2, top.size());
+        assertEquals("SELECT * FROM a WHERE id = ?", top.get(0).getText());
+        assertEquals(2, top.get(0).getCalls());
+        assertEquals(400, top.get(0).getTotalTime());
+        assertEquals(200, top.get(0).getMeanTime());
+        assertEquals(15, top.get(1).getRows());
+        assertEquals(1, statistics.getTop(1).size());
+        assertEquals(3, statistics.getLatency().getCount());
+        statistics.reset();
+        assertEquals(0, statistics.getTop(5).size());
+    }
+}
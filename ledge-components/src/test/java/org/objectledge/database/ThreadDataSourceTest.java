@@ -28,6 +28,9 @@
 package org.objectledge.database;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
 import java.util.Properties;
 
 import javax.sql.DataSource;
@@ -177,6 +180,100 @@ public class ThreadDataSourceTest
         guardValve.process(context);
     }
     
+    public void testStatementCache()
+        throws Exception
+    {
+        context = new Context();
+        context.clearAttributes();
+        log = new Log4JLogger(org.apache.log4j.Logger.getLogger(ThreadDataSource.class));
+        ThreadDataSource.Statistics statistics = new ThreadDataSource.Statistics(getFileSystem());
+        threadDataSource = new ThreadDataSource(dataSource, new ThreadDataSource.Config()
+            .withValidationQuery("SELECT * FROM (VALUES(1))").withStatementCacheSize(2), context,
+            null, statistics, log);
+        ThreadDataSource.Statistics.StatementCache graph = statistics.new StatementCache(
+            getFileSystem());
+        Connection conn = threadDataSource.getConnection();
+        String[] queries = { "SELECT * FROM (VALUES(1))", "SELECT * FROM (VALUES(2))",
+                        "SELECT * FROM (VALUES(3))" };
+        // miss, hit, miss, miss (evicts the first query), miss
+        int[] sequence = { 0, 0, 1, 2, 0 };
+        for(int i : sequence)
+        {
+            PreparedStatement stmt = conn.prepareStatement(queries[i]);
+            stmt.executeQuery().close();
+            stmt.close();
+            assertTrue(stmt.isClosed());
+            stmt.close();
+        }
+        // settings changed by one caller don't leak into the next
+        PreparedStatement stmt = conn.prepareStatement(queries[1]);
+        int fetchSize = stmt.getFetchSize();
+        int maxRows = stmt.getMaxRows();
+        stmt.setFetchSize(fetchSize + 100);
+        stmt.setMaxRows(maxRows + 10);
+        ResultSet rs = stmt.executeQuery();
+        stmt.close();
+        assertTrue(rs.isClosed());
+        stmt = conn.prepareStatement(queries[1]);
+        assertEquals(fetchSize, stmt.getFetchSize());
+        assertEquals(maxRows, stmt.getMaxRows());
+        stmt.close();
+        // the same statement used twice at the same time
+        PreparedStatement s1 = conn.prepareStatement(queries[0]);
+        PreparedStatement s2 = conn.prepareStatement(queries[0]);
+        assertNotSame(s1, s2);
+        s1.close();
+        s2.close();
+        conn.close();
+        assertEquals(3, graph.getHits());
+        assertEquals(6, graph.getMisses());
+        guardValve = new ThreadDataSource.GuardValve(log);
+        guardValve.process(context);
+    }
+
+    public void testStatementStatistics()
+        throws Exception
+    {
+        context = new Context();
+        context.clearAttributes();
+        log = new Log4JLogger(org.apache.log4j.Logger.getLogger(ThreadDataSource.class));
+        ThreadDataSource.Statistics statistics = new ThreadDataSource.Statistics(getFileSystem());
+        threadDataSource = new ThreadDataSource(dataSource, new ThreadDataSource.Config()
+            .withValidationQuery("SELECT * FROM (VALUES(1))"), context, null, statistics, log);
+        Connection conn = threadDataSource.getConnection();
+        for(int i = 0; i < 3; i++)
+        {
+            PreparedStatement stmt = conn
+                .prepareStatement("SELECT * FROM (VALUES(1), (2), (3)) WHERE 1 <= ?");
+            stmt.setInt(1, i);
+            ResultSet rs = stmt.executeQuery();
+            while(rs.next())
+            {
+                // fetch all rows
+            }
+            rs.close();
+            stmt.close();
+        }
+        conn.close();
+        List<StatementStatistics.Entry> top = statistics.getStatementStatistics().getTop(10);
+        StatementStatistics.Entry entry = null;
+        for(StatementStatistics.Entry e : top)
+        {
+            if(e.getText().startsWith("SELECT * FROM (VALUES(?)"))
+            {
+                entry = e;
+            }
+        }
+        assertNotNull(entry);
+        assertEquals(3, entry.getCalls());
+        assertEquals(6, entry.getRows());
+        ThreadDataSource.Statistics.StatementLatency graph = statistics.new StatementLatency(
+            getFileSystem());
+        assertTrue(graph.getP99() <= graph.getMax());
+        guardValve = new ThreadDataSource.GuardValve(log);
+        guardValve.process(context);
+    }
+
     public void testOutOfOrderTransaction()
         throws Exception
     {
@@ -0,0 +1,173 @@
+// 
+// Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+// All rights reserved. 
+// 
+// Redistribution and use in source and binary forms, with or without modification,  
+// are permitted provided that the following conditions are met: 
+//  
+// * Redistributions of source code must retain the above copyright notice,  
+//	 this list of conditions and the following disclaimer. 
+// * Redistributions in binary form must reproduce the above copyright notice,  
+//	 this list of conditions and the following disclaimer in the documentation  
+//	 and/or other materials provided with the distribution. 
+// * Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//	 nor the names of its contributors may be used to endorse or promote products  
+//	 derived from this software without specific prior written permission. 
+// 
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+// IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+// WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+// POSSIBILITY OF SUCH DAMAGE. 
+// 
+package org.objectledge.database;
+
+import java.util.List;
+
+import javax.transaction.Status;
+import javax.transaction.TransactionManager;
+import javax.transaction.UserTransaction;
+
+import org.jcontainer.dna.Logger;
+import org.jcontainer.dna.impl.Log4JLogger;
+import org.objectledge.context.Context;
+import org.objectledge.test.LedgeTestCase;
+
+public class TransactionMonitorTest
+    extends LedgeTestCase
+{
+    private Context context;
+
+    private Transaction transaction;
+
+    private Logger log;
+
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        context = new Context();
+        log = new Log4JLogger(org.apache.log4j.Logger.getLogger(TransactionMonitor.class));
+        final UserTransaction userTransaction = new TestUserTransaction();
+        transaction = new Transaction(0, 0, null, context, log, null)
+            {
+                @Override
+                public UserTransaction getUserTransaction()
+                {
+                    return userTransaction;
+                }
+
+                @Override
+                public TransactionManager getTransactionManager()
+                {
+                    return null;
+                }
+            };
+    }
+
+    public void testSpans()
+        throws Exception
+    {
+        TransactionMonitor monitor = new TransactionMonitor(transaction,
+            new TransactionMonitor.Config(), context, null, getFileSystem(), log);
+        monitor.start();
+        context.setAttribute(TransactionMonitor.REQUEST, "view=Index");
+        boolean controller = transaction.begin();
+        assertTrue(controller);
+        assertFalse(transaction.begin());
+        TransactionMonitor.countStatement();
+        TransactionMonitor.countStatement();
+        List<TransactionMonitor.Span> open = monitor.getOpenTransactions();
+        assertEquals(1, open.size());
+        TransactionMonitor.Span span = open.get(0);
+        assertEquals("view=Index", span.getRequest());
+        assertEquals(Thread.currentThread().getName(), span.getThreadName());
+        assertEquals(2, span.getStatementCount());
+        assertEquals(0, span.getEnd());
+        transaction.commit(false);
+        assertEquals(1, monitor.getOpenTransactions().size());
+        transaction.commit(controller);
+        assertEquals(0, monitor.getOpenTransactions().size());
+        assertTrue(span.isCommitted());
+        assertTrue(span.getEnd() >= span.getBegin());
+        assertEquals(1, monitor.getCommittedCount());
+        assertEquals(1, monitor.getDurations().getCount());
+
+        // statements outside of transactions are not counted
+        TransactionMonitor.countStatement();
+        assertEquals(2, span.getStatementCount());
+
+        controller = transaction.begin();
+        transaction.rollback(controller);
+        assertEquals(1, monitor.getRolledBackCount());
+        assertEquals(2, monitor.getDurations().getCount());
+
+        monitor.stop();
+        controller = transaction.begin();
+        assertEquals(0, monitor.getOpenTransactions().size());
+        transaction.commit(controller);
+        assertEquals(1, monitor.getCommittedCount());
+    }
+
+    public void testWatchdog()
+        throws Exception
+    {
+        TransactionMonitor monitor = new TransactionMonitor(transaction,
+            new TransactionMonitor.Config().withThreshold(50), context, null, getFileSystem(),
+            log);
+        monitor.start();
+        boolean controller = transaction.begin();
+        monitor.watchdog();
+        assertEquals(0, monitor.getLongRunningCount());
+        Thread.sleep(100);
+        monitor.watchdog();
+        assertEquals(1, monitor.getLongRunningCount());
+        assertTrue(monitor.getOpenTransactions().get(0).isReported());
+        // each transaction is reported once
+        monitor.watchdog();
+        assertEquals(1, monitor.getLongRunningCount());
+        transaction.rollback(controller);
+        assertEquals(0, monitor.getOpenTransactions().size());
+        monitor.stop();
+    }
+
+    private static class TestUserTransaction
+        implements UserTransaction
+    {
+        private int status = Status.STATUS_NO_TRANSACTION;
+
+        public void begin()
+        {
+            status = Status.STATUS_ACTIVE;
+        }
+
+        public void commit()
+        {
+            status = Status.STATUS_COMMITTED;
+        }
+
+        public void rollback()
+        {
+            status = Status.STATUS_ROLLEDBACK;
+        }
+
+        public void setRollbackOnly()
+        {
+            status = Status.STATUS_MARKED_ROLLBACK;
+        }
+
+        public int getStatus()
+        {
+            return status;
+        }
+
+        public void setTransactionTimeout(int seconds)
+        {
+        }
+    }
+}
@@ -29,18 +29,24 @@
 package org.objectledge.database.persistence;
 
 import java.io.Reader;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.NoSuchElementException;
 import java.util.List;
 import java.util.Properties;
 
 import javax.sql.DataSource;
 
 import org.jcontainer.dna.Logger;
+import org.jcontainer.dna.impl.DefaultConfiguration;
 import org.jcontainer.dna.impl.Log4JLogger;
 import org.objectledge.btm.BitronixDataSource;
 import org.objectledge.btm.BitronixTransaction;
 import org.objectledge.btm.BitronixTransactionManager;
+import org.objectledge.cache.DefaultCacheFactory;
 import org.objectledge.context.Context;
 import org.objectledge.database.Database;
 import org.objectledge.database.DatabaseUtils;
@@ -48,8 +54,13 @@ import org.objectledge.database.DefaultDatabase;
 import org.objectledge.database.IdGenerator;
 import org.objectledge.database.SequenceIdGenerator;
 import org.objectledge.database.Transaction;
+import org.objectledge.filesystem.ClasspathFileSystemProvider;
 import org.objectledge.filesystem.FileSystem;
+import org.objectledge.filesystem.FileSystemProvider;
+import org.objectledge.filesystem.LocalFileSystemProvider;
+import org.objectledge.notification.Notification;
 import org.objectledge.test.LedgeTestCase;
+import org.objectledge.threads.DefaultThreadPool;
 
 /**
  * @author <a href="mailto:pablo@caltha.pl">Pawel Potempski</a>
@@ -62,19 +73,23 @@ public class PersistenceTest
 
     private BitronixTransactionManager btm;
 
+    private Transaction transaction;
+
+    private Logger logger;
+
     @Override
     public void setUp()
         throws Exception
     {
-        Logger logger = new Log4JLogger(org.apache.log4j.Logger.getLogger(getClass()));
+        logger = new Log4JLogger(org.apache.log4j.Logger.getLogger(getClass()));
         btm = new BitronixTransactionManager("hsql", "org.hsqldb.jdbc.pool.JDBCXADataSource",
             getDsProperties(), getFileSystem(), logger);
         DataSource dataSource = new BitronixDataSource("hsql", btm);
         prepareDataSource(dataSource);
-        Transaction transaction = new BitronixTransaction(btm, new Context(), logger, null);
+        transaction = new BitronixTransaction(btm, new Context(), logger, null);
         IdGenerator idGenerator = new SequenceIdGenerator(dataSource);
         Database database = new DefaultDatabase(dataSource, idGenerator, transaction);
-        persistence = new DefaultPersistence(database, logger);
+        persistence = new DefaultPersistence(database, transaction, logger);
     }
 
     public void tearDown()
@@ -183,6 +198,424 @@ public class PersistenceTest
         
     }
 
+    public void testSaveAll()
+        throws Exception
+    {
+        List<TestObject> objects = new ArrayList<TestObject>();
+        for(int i = 0; i < 10; i++)
+        {
+            objects.add(new TestObject("foo" + i, new Date()));
+        }
+        persistence.saveAll(objects);
+        assertEquals(10, persistence.count("test_object", null));
+        for(TestObject object : objects)
+        {
+            assertTrue(object.getSaved());
+            assertEquals(object.getValue(), persistence.load(testFactory, object.getId())
+                .getValue());
+        }
+
+        // mixed updates and inserts, including a row deleted behind the object's back
+        persistence.delete(objects.get(0));
+        for(TestObject object : objects)
+        {
+            object.setValue("bar");
+        }
+        objects.add(new TestObject("bar", new Date()));
+        persistence.saveAll(objects);
+        assertEquals(11, persistence.count("test_object", null));
+        assertEquals(11, persistence.load(testFactory, "value = ?", "bar").size());
+    }
+
+    public void testDeleteAll()
+        throws Exception
+    {
+        List<TestObject> objects = new ArrayList<TestObject>();
+        for(int i = 0; i < 5; i++)
+        {
+            objects.add(new TestObject("foo" + i, null));
+        }
+        persistence.saveAll(objects);
+        persistence.deleteAll(objects.subList(0, 3));
+        assertEquals(2, persistence.count("test_object", null));
+        persistence.deleteAll(objects, false);
+        assertEquals(0, persistence.count("test_object", null));
+        try
+        {
+            persistence.deleteAll(objects);
+            fail("should throw the exception");
+        }
+        catch(SQLException e)
+        {
+            // ok!
+        }
+    }
+
+    public void testMappingPlan()
+        throws Exception
+    {
+        MappingPlan plan;
+        try(Connection conn = persistence.getDatabase().getConnection())
+        {
+            plan = MappingPlan.create(new TestObject(), conn);
+        }
+        assertEquals("test_object", plan.getTable());
+        assertEquals(10, plan.size());
+        assertEquals(0, plan.indexOf("id"));
+        assertTrue(plan.isKey(0));
+        assertEquals(-1, plan.indexOf("missing"));
+        assertEquals("DELETE FROM test_object WHERE id = ?", plan.getDeleteSQL());
+        assertEquals("SELECT * FROM test_object WHERE id = ?", plan.getSelectSQL());
+        assertTrue(plan.getUpdateSQL().startsWith("UPDATE test_object SET value = ?, date = ?"));
+
+        TestObject object = new TestObject("foo", new Date());
+        DefaultOutputRecord record = new DefaultOutputRecord(object, plan);
+        object.getData(record);
+        assertSame(plan.getInsertSQL(), record.getInsertSQL());
+        assertTrue(record.hasNonKeyValues());
+
+        // objects writing a different set of columns don't use the plan
+        TestObject partial = new TestObject("foo", null)
+        {
+            @Override
+            public void getData(OutputRecord record)
+                throws SQLException
+            {
+                record.setLong("id", getId());
+                record.setString("value", getValue());
+            }
+        };
+        record = new DefaultOutputRecord(partial, plan);
+        partial.getData(record);
+        assertEquals("INSERT INTO test_object (id, value) VALUES (?, ?)", record.getInsertSQL());
+        assertEquals(Long.valueOf(-1l), record.getValue("id", Long.class));
+    }
+
+    public void testLoadCursor()
+        throws Exception
+    {
+        List<TestObject> objects = new ArrayList<TestObject>();
+        for(int i = 0; i < 25; i++)
+        {
+            objects.add(new TestObject(i % 2 == 0 ? "even" : "odd", new Date()));
+        }
+        persistence.saveAll(objects);
+        int count = 0;
+        try(PersistentCursor<TestObject> cursor = persistence.loadCursor(testFactory, 10, null))
+        {
+            while(cursor.hasNext())
+            {
+                TestObject object = cursor.next();
+                assertTrue(object.getSaved());
+                count++;
+            }
+            assertFalse(cursor.hasNext());
+            try
+            {
+                cursor.next();
+                fail("should throw the exception");
+            }
+            catch(NoSuchElementException e)
+            {
+                // ok!
+            }
+        }
+        assertEquals(25, count);
+        try(PersistentCursor<TestObject> cursor = persistence.loadCursor(testFactory, 5,
+            "value = ?", "even"))
+        {
+            assertEquals("even", cursor.next().getValue());
+        }
+        count = 0;
+        try(PersistentCursor<TestObject> cursor = persistence.loadCursor(testFactory, 5,
+            "value = ?", "odd"))
+        {
+            while(cursor.hasNext())
+            {
+                assertEquals("odd", cursor.next().getValue());
+                count++;
+            }
+        }
+        assertEquals(12, count);
+    }
+
+    public void testResultCache()
+        throws Exception
+    {
+        FileSystemProvider lfs = new LocalFileSystemProvider("local", "src/test/resources");
+        FileSystemProvider cfs = new ClasspathFileSystemProvider("classpath", getClass()
+            .getClassLoader());
+        FileSystem fs = new FileSystem(new FileSystemProvider[] { lfs, cfs }, 4096, 4096);
+        DefaultThreadPool pool = new DefaultThreadPool(null, new Context(),
+            new DefaultConfiguration("config", "", "/config"), logger);
+        DefaultCacheFactory cacheFactory = new DefaultCacheFactory(getConfig(fs,
+            "config/org.objectledge.cache.CacheFactory.xml"), logger, pool, new Notification(),
+            persistence, null);
+        QueryResultCache cache = new QueryResultCache(cacheFactory, transaction, persistence,
+            "persistence.query", new String[] { "test_object" }, logger);
+        cache.start();
+        try
+        {
+            assertEquals(0, persistence.count("test_object", null));
+            TestObject object = new TestObject("foo", new Date());
+            persistence.save(object);
+            // save invalidates cached results
+            assertEquals(1, persistence.count("test_object", null));
+            assertEquals(1, persistence.load(testFactory, "value = ?", "foo").size());
+            assertEquals(0, persistence.load(testFactory, "value = ?", "bar").size());
+
+            // writes bypassing persistence are not visible
+            try(Connection conn = persistence.getDatabase().getConnection();
+                            Statement statement = conn.createStatement())
+            {
+                statement.executeUpdate("UPDATE test_object SET value = 'bar'");
+            }
+            assertEquals(1, persistence.load(testFactory, "value = ?", "foo").size());
+            assertEquals(0, persistence.load(testFactory, "value = ?", "bar").size());
+
+            List<TestObject> list = persistence.load(testFactory, "value = ?", "foo");
+            assertEquals(object.getId(), list.get(0).getId());
+            assertTrue(list.get(0).getSaved());
+            assertNotSame(list.get(0), persistence.load(testFactory, "value = ?", "foo").get(0));
+
+            persistence.delete(object);
+            assertEquals(0, persistence.count("test_object", null));
+            assertEquals(0, persistence.load(testFactory, "value = ?", "foo").size());
+            assertTrue(cacheFactory.getInstanceNames().contains(
+                QueryResultCache.INSTANCE_PREFIX + "test_object"));
+        }
+        finally
+        {
+            cache.stop();
+        }
+    }
+
+    public void testDirtyTracking()
+        throws Exception
+    {
+        TrackedTestObject object = new TrackedTestObject("foo", new Date());
+        persistence.save(object);
+        assertNotNull(object.getSnapshot());
+        object = persistence.load(trackedFactory, object.getId());
+        assertNotNull(object.getSnapshot());
+
+        // change the value behind persistence's back
+        try(Connection conn = persistence.getDatabase().getConnection();
+                        Statement statement = conn.createStatement())
+        {
+            statement.executeUpdate("UPDATE test_object SET value = 'bar'");
+        }
+        // nothing was modified, no UPDATE is executed
+        persistence.save(object);
+        assertEquals("bar", persistence.load(testFactory, object.getId()).getValue());
+
+        // only the date column is written
+        object.setDate(new Date(0));
+        persistence.save(object);
+        TestObject loaded = persistence.load(testFactory, object.getId());
+        assertEquals("bar", loaded.getValue());
+        assertEquals(new java.sql.Date(0).toString(), new java.sql.Date(loaded.getDate()
+            .getTime()).toString());
+
+        // saving the value again writes it, as it was modified with respect to the snapshot
+        object.setValue("baz");
+        List<TrackedTestObject> objects = new ArrayList<TrackedTestObject>();
+        objects.add(object);
+        persistence.saveAll(objects);
+        assertEquals("baz", persistence.load(testFactory, object.getId()).getValue());
+
+        // partial update statements are cached per set of modified columns
+        MappingPlan plan;
+        try(Connection conn = persistence.getDatabase().getConnection())
+        {
+            plan = MappingPlan.create(object, conn);
+        }
+        java.util.BitSet modified = new java.util.BitSet();
+        modified.set(plan.indexOf("value"));
+        modified.set(plan.indexOf("date"));
+        assertEquals("UPDATE test_object SET value = ?, date = ? WHERE id = ?",
+            plan.getUpdateSQL(modified));
+        assertSame(plan.getUpdateSQL(modified), plan.getUpdateSQL((java.util.BitSet)modified
+            .clone()));
+    }
+
+    public void testDirtyTrackingRollback()
+        throws Exception
+    {
+        TrackedTestObject object = new TrackedTestObject("foo", new Date());
+        persistence.save(object);
+        Object snapshot = object.getSnapshot();
+        boolean controller = transaction.begin();
+        object.setValue("bar");
+        persistence.save(object);
+        // snapshot is not updated before the transaction completes
+        assertSame(snapshot, object.getSnapshot());
+        transaction.rollback(controller);
+        assertNull(object.getSnapshot());
+        // make sure the row holds the original value, regardless of the XA driver's rollback
+        try(Connection conn = persistence.getDatabase().getConnection();
+                        Statement statement = conn.createStatement())
+        {
+            statement.executeUpdate("UPDATE test_object SET value = 'foo'");
+        }
+        // the rolled back value is written again
+        persistence.save(object);
+        assertEquals("bar", persistence.load(testFactory, object.getId()).getValue());
+        assertNotNull(object.getSnapshot());
+    }
+
+    public void testLoadAll()
+        throws Exception
+    {
+        List<TestObject> objects = new ArrayList<TestObject>();
+        for(int i = 0; i < 600; i++)
+        {
+            objects.add(new TestObject("v" + i, new Date()));
+        }
+        persistence.saveAll(objects);
+        long[] ids = new long[objects.size() + 3];
+        for(int i = 0; i < objects.size(); i++)
+        {
+            ids[i] = objects.get(objects.size() - 1 - i).getId();
+        }
+        ids[objects.size()] = -5;
+        ids[objects.size() + 1] = objects.get(0).getId();
+        ids[objects.size() + 2] = -5;
+        LoadedObjects<TestObject> loaded = persistence.loadAll(testFactory, ids);
+        assertEquals(objects.size() + 1, loaded.getObjects().size());
+        for(int i = 0; i < objects.size(); i++)
+        {
+            assertEquals(ids[i], loaded.getObjects().get(i).getId());
+            assertTrue(loaded.getObjects().get(i).getSaved());
+        }
+        assertSame(loaded.getObjects().get(objects.size() - 1), loaded.getObjects().get(
+            objects.size()));
+        assertEquals("v7", loaded.get(objects.get(7).getId()).getValue());
+        assertNull(loaded.get(-5));
+        assertEquals(1, loaded.getMissing().length);
+        assertEquals(-5, loaded.getMissing()[0]);
+
+        loaded = persistence.loadAll(testFactory, new long[0]);
+        assertEquals(0, loaded.getObjects().size());
+        assertEquals(0, loaded.getMissing().length);
+    }
+
+    public void testWriteBehind()
+        throws Exception
+    {
+        FileSystem fs = getFileSystem("target");
+        fs.mkdirs("writebehind");
+        if(fs.exists("writebehind/spill"))
+        {
+            fs.delete("writebehind/spill");
+        }
+        WriteBehindPersistence writeBehind = new WriteBehindPersistence(persistence,
+            new WriteBehindPersistence.Config().withMaxPending(1).withSpill("writebehind/spill"),
+            null, fs, logger);
+        writeBehind.start();
+
+        TestObject object = new TestObject("foo", new Date());
+        writeBehind.enqueue(object);
+        assertTrue(object.getSaved());
+        assertEquals(0, writeBehind.getPendingCount());
+        object.setValue("bar");
+        writeBehind.enqueue(object);
+        object.setValue("baz");
+        writeBehind.enqueue(object);
+        assertEquals(1, writeBehind.getPendingCount());
+        assertEquals(1, writeBehind.getCoalescedCount());
+        assertEquals(1, persistence.load(testFactory, "value = ?", "foo").size());
+
+        TestObject object2 = new TestObject("quux", new Date());
+        persistence.save(object2);
+        object2.setValue("spilled");
+        writeBehind.enqueue(object2);
+        object2.setValue("changed");
+        assertEquals(1, writeBehind.getPendingCount());
+        assertEquals(1, writeBehind.getSpilledCount());
+        assertTrue(fs.exists("writebehind/spill"));
+
+        writeBehind.flush();
+        assertEquals(0, writeBehind.getPendingCount());
+        assertFalse(fs.exists("writebehind/spill"));
+        assertFalse(fs.exists("writebehind/spill.replay"));
+        assertEquals(1, persistence.load(testFactory, "value = ?", "baz").size());
+        assertEquals(1, persistence.load(testFactory, "value = ?", "spilled").size());
+
+        object.setValue("last");
+        writeBehind.enqueue(object);
+        writeBehind.stop();
+        assertEquals(1, persistence.load(testFactory, "value = ?", "last").size());
+    }
+
+    public void testWriteBehindReplayOrder()
+        throws Exception
+    {
+        FileSystem fs = getFileSystem("target");
+        fs.mkdirs("writebehind");
+        if(fs.exists("writebehind/spill"))
+        {
+            fs.delete("writebehind/spill");
+        }
+        TestObject object = new TestObject("foo", new Date());
+        persistence.save(object);
+
+        // an update spilled by an earlier run of the application
+        WriteBehindPersistence earlier = new WriteBehindPersistence(persistence,
+            new WriteBehindPersistence.Config().withMaxPending(0).withSpill("writebehind/spill"),
+            null, fs, logger);
+        object.setValue("spilled");
+        earlier.enqueue(object);
+        assertEquals(1, earlier.getSpilledCount());
+
+        WriteBehindPersistence writeBehind = new WriteBehindPersistence(persistence,
+            new WriteBehindPersistence.Config().withSpill("writebehind/spill"), null, fs, logger);
+        object.setValue("queued");
+        writeBehind.enqueue(object);
+        assertEquals(1, writeBehind.getPendingCount());
+        writeBehind.flush();
+        // the spilled state must not overwrite the later one
+        assertEquals("queued", persistence.load(testFactory, object.getId()).getValue());
+        assertFalse(fs.exists("writebehind/spill"));
+        writeBehind.stop();
+    }
+
+    public void testWriteBehindUpdateOnly()
+        throws Exception
+    {
+        FileSystem fs = getFileSystem("target");
+        fs.mkdirs("writebehind");
+        for(String file : fs.list("writebehind"))
+        {
+            fs.delete("writebehind/" + file);
+        }
+        // a spill file entry that cannot be read, left over from an earlier version
+        fs.write("writebehind/spill", new byte[] { 0, 0, 0, 4, 1, 2, 3, 4 });
+
+        WriteBehindPersistence writeBehind = new WriteBehindPersistence(persistence,
+            new WriteBehindPersistence.Config().withSpill("writebehind/spill"), null, fs, logger);
+        TestObject kept = new TestObject("kept", new Date());
+        persistence.save(kept);
+        TestObject deleted = new TestObject("deleted", new Date());
+        persistence.save(deleted);
+        kept.setValue("updated");
+        writeBehind.enqueue(kept);
+        deleted.setValue("resurrected");
+        writeBehind.enqueue(deleted);
+        persistence.delete(deleted);
+        writeBehind.flush();
+
+        // the queue is written despite the broken spill file, which is moved aside
+        assertEquals("updated", persistence.load(testFactory, kept.getId()).getValue());
+        assertEquals(1, writeBehind.getFailedCount());
+        assertFalse(fs.exists("writebehind/spill.replay"));
+        assertEquals(1, fs.list("writebehind").length);
+        assertTrue(fs.list("writebehind")[0].startsWith("spill.failed."));
+        // deleted rows are not inserted again
+        assertEquals(0, persistence.load(testFactory, "value = ?", "resurrected").size());
+        writeBehind.stop();
+    }
+
     /////////////////////////////////////////////////////////////////////////////////////////////
 
     private PersistentFactory<TestObject> testFactory = new PersistentFactory<TestObject>()
@@ -193,4 +626,35 @@ public class PersistenceTest
         }
     };
 
+    private PersistentFactory<TrackedTestObject> trackedFactory =
+        new PersistentFactory<TrackedTestObject>()
+        {
+            public TrackedTestObject newInstance()
+            {
+                return new TrackedTestObject("", null);
+            }
+        };
+
+    private static class TrackedTestObject
+        extends TestObject
+        implements DirtyTracking
+    {
+        private Object snapshot;
+
+        public TrackedTestObject(String value, Date date)
+        {
+            super(value, date);
+        }
+
+        public Object getSnapshot()
+        {
+            return snapshot;
+        }
+
+        public void setSnapshot(Object snapshot)
+        {
+            this.snapshot = snapshot;
+        }
+    }
+
 }
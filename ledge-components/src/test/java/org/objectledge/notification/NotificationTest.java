@@ -0,0 +1,259 @@
+// 
+//Copyright (c) 2003, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+//All rights reserved. 
+//   
+//Redistribution and use in source and binary forms, with or without modification,  
+//are permitted provided that the following conditions are met: 
+//   
+//* Redistributions of source code must retain the above copyright notice,  
+//this list of conditions and the following disclaimer. 
+//* Redistributions in binary form must reproduce the above copyright notice,  
+//this list of conditions and the following disclaimer in the documentation  
+//and/or other materials provided with the distribution. 
+//* Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+//nor the names of its contributors may be used to endorse or promote products  
+//derived from this software without specific prior written permission. 
+// 
+//THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+//AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+//WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+//INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+//BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+//OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+//WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+//ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+//POSSIBILITY OF SUCH DAMAGE. 
+//
+
+package org.objectledge.notification;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jcontainer.dna.Logger;
+import org.jcontainer.dna.impl.DefaultConfiguration;
+import org.jcontainer.dna.impl.Log4JLogger;
+import org.objectledge.cache.impl.DistributedMapImpl;
+import org.objectledge.context.Context;
+import org.objectledge.test.LedgeTestCase;
+import org.objectledge.threads.DefaultThreadPool;
+
+public class NotificationTest
+    extends LedgeTestCase
+{
+    private static final String CHANNEL = "test";
+
+    private DefaultThreadPool pool;
+
+    private Notification node1;
+
+    private Notification node2;
+
+    private int node2Port;
+
+    public void setUp()
+        throws Exception
+    {
+        Logger logger = new Log4JLogger(org.apache.log4j.Logger.getLogger(getClass()));
+        pool = new DefaultThreadPool(null, new Context(), new DefaultConfiguration("config", "",
+            "/config"), logger);
+        int port1 = freePort();
+        int port2 = freePort();
+        node1 = new Notification(transport(port1, port2, logger), 1, pool, logger);
+        node2 = new Notification(transport(port2, port1, logger), 1, pool, logger);
+        node2Port = port2;
+    }
+
+    public void tearDown()
+        throws Exception
+    {
+        node1.stop();
+        node2.stop();
+        pool.stop();
+    }
+
+    public void testLocalOnly()
+    {
+        Notification notification = new Notification();
+        Collector collector = new Collector();
+        notification.addReceiver(CHANNEL, collector);
+        notification.sendNotification(CHANNEL, new byte[] { 1 }, false);
+        assertEquals(0, collector.received.size());
+        notification.sendNotification(CHANNEL, new byte[] { 2 }, true);
+        assertEquals(1, collector.received.size());
+        notification.removeReceiver(CHANNEL, collector);
+        notification.sendNotification(CHANNEL, new byte[] { 3 }, true);
+        assertEquals(1, collector.received.size());
+    }
+
+    public void testRemoteDelivery()
+        throws Exception
+    {
+        Collector local = new Collector();
+        Collector remote = new Collector();
+        node1.addReceiver(CHANNEL, local);
+        node2.addReceiver(CHANNEL, remote);
+        node1.sendNotification(CHANNEL, new byte[] { 1 }, false);
+        node1.sendNotification(CHANNEL, new byte[] { 2 }, false);
+        node1.sendNotification(CHANNEL, new byte[] { 1 }, false);
+        remote.await(2);
+        assertEquals(2, remote.received.size());
+        assertEquals(1, remote.received.get(0)[0]);
+        assertEquals(2, remote.received.get(1)[0]);
+        assertEquals(0, local.received.size());
+    }
+
+    public void testDeadPeer()
+        throws Exception
+    {
+        Logger logger = new Log4JLogger(org.apache.log4j.Logger.getLogger(getClass()));
+        List<InetSocketAddress> peers = new ArrayList<InetSocketAddress>();
+        peers.add(new InetSocketAddress("127.0.0.1", freePort()));
+        peers.add(new InetSocketAddress("127.0.0.1", node2Port));
+        Notification node3 = new Notification(new TcpMeshTransport(new InetSocketAddress(
+            "127.0.0.1", freePort()), peers, pool, logger), 1, pool, logger);
+        try
+        {
+            Collector remote = new Collector();
+            node2.addReceiver(CHANNEL, remote);
+            node3.sendNotification(CHANNEL, new byte[] { 1 }, false);
+            remote.await(1);
+            node3.sendNotification(CHANNEL, new byte[] { 2 }, false);
+            remote.await(2);
+            assertEquals(2, remote.received.size());
+        }
+        finally
+        {
+            node3.stop();
+        }
+    }
+
+    public void testLostPackets()
+        throws Exception
+    {
+        Logger logger = new Log4JLogger(org.apache.log4j.Logger.getLogger(getClass()));
+        int port = freePort();
+        List<InetSocketAddress> peers = new ArrayList<InetSocketAddress>();
+        peers.add(new InetSocketAddress("127.0.0.1", port));
+        TcpMeshTransport transport = new TcpMeshTransport(new InetSocketAddress("127.0.0.1",
+            freePort()), peers, pool, logger);
+        Notification node3 = new Notification(transport, 1, pool, logger);
+        Notification node4 = null;
+        try
+        {
+            // peer is not listening yet
+            node3.sendNotification(CHANNEL, new byte[] { 1 }, false);
+            long deadline = System.currentTimeMillis() + 5000;
+            while(transport.getDroppedCount() == 0 && System.currentTimeMillis() < deadline)
+            {
+                Thread.sleep(10);
+            }
+            assertEquals(1L, transport.getDroppedCount());
+            node4 = new Notification(new TcpMeshTransport(new InetSocketAddress("127.0.0.1",
+                port), new ArrayList<InetSocketAddress>(), pool, logger), 1, pool, logger);
+            Collector remote = new Collector();
+            node4.addReceiver(CHANNEL, remote);
+            // dropped until the reconnect delay passes
+            for(int i = 0; i < 3 && remote.received.size() < 2; i++)
+            {
+                node3.sendNotification(CHANNEL, new byte[] { 2 }, false);
+                remote.await(2);
+            }
+            assertEquals(2, remote.received.size());
+            assertEquals(0, remote.received.get(0).length);
+            assertEquals(2, remote.received.get(1)[0]);
+            assertTrue(transport.getDroppedCount() >= 2L);
+        }
+        finally
+        {
+            node3.stop();
+            if(node4 != null)
+            {
+                node4.stop();
+            }
+        }
+    }
+
+    public void testDistributedMap()
+        throws Exception
+    {
+        DistributedMapImpl<Long, String> map1 = new DistributedMapImpl<Long, String>();
+        map1.setDelegate(new HashMap<Long, String>());
+        map1.attach(node1, "test");
+        DistributedMapImpl<Long, String> map2 = new DistributedMapImpl<Long, String>();
+        map2.setDelegate(Collections.synchronizedMap(new HashMap<Long, String>()));
+        map2.attach(node2, "test");
+        Collector received1 = new Collector();
+        node1.addReceiver(DistributedMapImpl.CHANNEL_NAME + "/test", received1);
+        Collector received2 = new Collector();
+        node2.addReceiver(DistributedMapImpl.CHANNEL_NAME + "/test", received2);
+
+        map2.put(1L, "v");
+        map2.put(2L, "v");
+        received1.await(2);
+        map1.put(1L, "v'");
+        Map<Long, String> m = map1;
+        m.remove(2L);
+        received2.await(2);
+        assertNull(map2.get(1L));
+        assertNull(map2.get(2L));
+        assertEquals("v'", map1.get(1L));
+
+        map2.put(3L, "v");
+        map2.receive(DistributedMapImpl.CHANNEL_NAME + "/test", new byte[0]);
+        assertTrue(map2.isEmpty());
+    }
+
+    // implementation ///////////////////////////////////////////////////////////////////////////
+
+    private NotificationTransport transport(int port, int peerPort, Logger logger)
+    {
+        List<InetSocketAddress> peers = new ArrayList<InetSocketAddress>();
+        peers.add(new InetSocketAddress("127.0.0.1", peerPort));
+        return new TcpMeshTransport(new InetSocketAddress("127.0.0.1", port), peers, pool,
+            logger);
+    }
+
+    private static int freePort()
+        throws IOException
+    {
+        ServerSocket socket = new ServerSocket(0);
+        try
+        {
+            return socket.getLocalPort();
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+    private static class Collector
+        implements NotificationReceiver
+    {
+        private final List<byte[]> received = new ArrayList<byte[]>();
+
+        public synchronized void receive(String channel, byte[] message)
+        {
+            received.add(message);
+            notifyAll();
+        }
+
+        public synchronized void await(int count)
+            throws InterruptedException
+        {
+            long deadline = System.currentTimeMillis() + 5000;
+            while(received.size() < count && System.currentTimeMillis() < deadline)
+            {
+                wait(100);
+            }
+        }
+    }
+}
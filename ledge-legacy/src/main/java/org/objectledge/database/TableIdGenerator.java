@@ -93,6 +93,20 @@ public class TableIdGenerator
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long[] getNextIds(String table, int count)
+        throws SQLException
+    {
+        long[] ids = new long[count];
+        for(int i = 0; i < count; i++)
+        {
+            ids[i] = getNextId(table);
+        }
+        return ids;
+    }
+
     /**
      * Initializes the generator.
      * 
@@ -100,6 +100,10 @@ public class Cache
         private final int misses;
 
         private final String hitRatio;
+
+        private final long weight;
+
+        private final long maxWeight;
         
         private boolean composite;
 
@@ -123,6 +127,8 @@ public class Cache
                 {
                     hitRatio = "";                    
                 }
+                weight = sMap.getWeight();
+                maxWeight = sMap.getMaxWeight();
             }
             else
             {
@@ -131,6 +137,8 @@ public class Cache
                 hits = 0;
                 misses = 0;
                 hitRatio = "";
+                weight = -1L;
+                maxWeight = -1L;
             }
             composite = CompositeCache.isCompositeCache(map);
         }
@@ -195,6 +203,36 @@ public class Cache
             return size;
         }
 
+        /**
+         * Returns the total weight of the entries.
+         *
+         * @return the weight, or -1 if the cache is not weighted.
+         */
+        public long getWeight()
+        {
+            return weight;
+        }
+
+        /**
+         * Returns the maximum total weight of the entries.
+         *
+         * @return the maximum weight, or -1 if the cache is not weighted.
+         */
+        public long getMaxWeight()
+        {
+            return maxWeight;
+        }
+
+        /**
+         * Returns true if the cache is bounded by the weight of the entries.
+         *
+         * @return true if the cache is weighted.
+         */
+        public boolean isWeighted()
+        {
+            return weight >= 0;
+        }
+
         /**
          * Returns the statistics value.
          *
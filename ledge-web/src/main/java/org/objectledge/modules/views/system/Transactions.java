@@ -0,0 +1,73 @@
+// 
+// Copyright (c) 2003-2005, Caltha - Gajda, Krzewski, Mach, Potempski Sp.J. 
+// All rights reserved. 
+//   
+// Redistribution and use in source and binary forms, with or without modification,  
+// are permitted provided that the following conditions are met: 
+//   
+// * Redistributions of source code must retain the above copyright notice,  
+// this list of conditions and the following disclaimer. 
+// * Redistributions in binary form must reproduce the above copyright notice,  
+// this list of conditions and the following disclaimer in the documentation  
+// and/or other materials provided with the distribution. 
+// * Neither the name of the Caltha - Gajda, Krzewski, Mach, Potempski Sp.J.  
+// nor the names of its contributors may be used to endorse or promote products  
+// derived from this software without specific prior written permission. 
+// 
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"  
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED  
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+// IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,  
+// INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,  
+// BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, 
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,  
+// WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)  
+// ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE  
+// POSSIBILITY OF SUCH DAMAGE. 
+//
+
+package org.objectledge.modules.views.system;
+
+import org.objectledge.context.Context;
+import org.objectledge.database.TransactionMonitor;
+import org.objectledge.pipeline.ProcessingException;
+import org.objectledge.templating.TemplatingContext;
+import org.objectledge.web.mvc.builders.PolicyProtectedBuilder;
+import org.objectledge.web.mvc.security.PolicySystem;
+
+/**
+ * Displays the currently open database transactions.
+ */
+public class Transactions
+    extends PolicyProtectedBuilder
+{
+    private final TransactionMonitor monitor;
+
+    /**
+     * Creates a new Transactions instance.
+     * 
+     * @param context request context.
+     * @param policySystemArg PolicySystem component.
+     * @param monitorArg TransactionMonitor component.
+     */
+    public Transactions(Context context, PolicySystem policySystemArg,
+        TransactionMonitor monitorArg)
+    {
+        super(context, policySystemArg);
+        this.monitor = monitorArg;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void process(TemplatingContext templatingContext)
+        throws ProcessingException
+    {
+        templatingContext.put("transactions", monitor.getOpenTransactions());
+        templatingContext.put("durations", monitor.getDurations());
+        templatingContext.put("committed", monitor.getCommittedCount());
+        templatingContext.put("rolledBack", monitor.getRolledBackCount());
+        templatingContext.put("longRunning", monitor.getLongRunningCount());
+    }
+}
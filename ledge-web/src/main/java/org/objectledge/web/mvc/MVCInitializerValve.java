@@ -29,6 +29,7 @@
 package org.objectledge.web.mvc;
 
 import org.objectledge.context.Context;
+import org.objectledge.database.TransactionMonitor;
 import org.objectledge.parameters.Parameters;
 import org.objectledge.parameters.RequestParameters;
 import org.objectledge.pipeline.Valve;
@@ -69,5 +70,10 @@ public class MVCInitializerValve
         mvcContext.setAction(requestParamters.get(webConfigurator.getActionToken(), null));
         mvcContext.setView(requestParamters.get(webConfigurator.getViewToken(), null));
     	context.setAttribute(MVCContext.class, mvcContext);
+        if(TransactionMonitor.isEnabled())
+        {
+            context.setAttribute(TransactionMonitor.REQUEST, "view=" + mvcContext.getView()
+                + " action=" + mvcContext.getAction());
+        }
     }
 }